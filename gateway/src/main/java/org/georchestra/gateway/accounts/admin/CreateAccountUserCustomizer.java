@@ -60,6 +60,15 @@ public class CreateAccountUserCustomizer implements GeorchestraUserCustomizerExt
         return Ordered.LOWEST_PRECEDENCE;
     }
 
+    /**
+     * @return whether the token is an {@link OAuth2AuthenticationToken} or
+     *         {@link PreAuthenticatedAuthenticationToken}, whose accounts are
+     *         looked up and created in the LDAP directory
+     */
+    public @Override boolean isBlocking(Authentication auth) {
+        return auth instanceof OAuth2AuthenticationToken || auth instanceof PreAuthenticatedAuthenticationToken;
+    }
+
     /**
      * @return the stored version (either existing or created as result of calling
      *         this method) of the user account, if the {@code Authentication}
@@ -104,6 +104,10 @@ public class GeorchestraLdapAccountManagementConfiguration {
 
     /**
      * Creates an LDAP context source for connecting to a single LDAP directory.
+     * <p>
+     * Accounts are created and updated here, so it always connects to the primary
+     * server ({@link ExtendedLdapConfig#getUrl() url}), never to its read replicas.
+     * </p>
      *
      * @param config the LDAP configuration properties
      * @return a configured {@link LdapContextSource} instance
@@ -357,6 +357,7 @@ class LdapAccountsManager extends AbstractAccountsManager {
         if (user.getOrganization() != null) {
             Account newAccount = mapToAccountBrief(user);
             orgsDao.unlinkUser(newAccount);
+            demultiplexingUsersApi.evictOrganization(user.getOrganization());
             verifySingleOrgMembership(newAccount, null);
         }
     }
@@ -407,6 +408,7 @@ class LdapAccountsManager extends AbstractAccountsManager {
             Org org = newOrg(orgId, orgUniqueId, oAuth2Provider);
             org.getMembers().add(newAccount.getUid());
             orgsDao.insert(org);
+            demultiplexingUsersApi.evictOrganization(org.getId());
             verifySingleOrgMembership(newAccount, org);
         } catch (Exception orgError) {
             throw new IllegalStateException(orgError);
@@ -435,6 +437,7 @@ class LdapAccountsManager extends AbstractAccountsManager {
         }
 
         orgsDao.update(org);
+        demultiplexingUsersApi.evictOrganization(org.getId());
         verifySingleOrgMembership(newAccount, org);
     }
 
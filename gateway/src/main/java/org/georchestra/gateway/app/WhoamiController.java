@@ -96,25 +96,22 @@ public class WhoamiController {
     @GetMapping(path = "/whoami", produces = MediaType.APPLICATION_JSON_VALUE)
     @ResponseBody
     public Mono<Map<String, Object>> whoami(Authentication principal, ServerWebExchange exchange) {
-        GeorchestraUser user;
-        try {
-            user = Optional.ofNullable(principal).flatMap(userMapper::resolve).orElse(null);
-        } catch (DuplicatedEmailFoundException e) {
-            user = null;
-        }
+        Mono<Optional<GeorchestraUser>> user = principal == null ? Mono.just(Optional.empty())
+                : userMapper.resolveAsync(principal, exchange)
+                        .onErrorReturn(DuplicatedEmailFoundException.class, Optional.empty());
 
-        Map<String, Object> ret = new LinkedHashMap<>();
-        if (user != null) {
+        return user.map(resolved -> {
+            Map<String, Object> ret = new LinkedHashMap<>();
             // notes is an internal field and should not be provided by the /whoami endpoint
             // (see #170)
-            user.setNotes(null);
-        }
-        ret.put("GeorchestraUser", user);
-        if (principal == null) {
-            ret.put("Authentication", null);
-        } else {
-            ret.put(principal.getClass().getCanonicalName(), principal);
-        }
-        return Mono.just(ret);
+            resolved.ifPresent(u -> u.setNotes(null));
+            ret.put("GeorchestraUser", resolved.orElse(null));
+            if (principal == null) {
+                ret.put("Authentication", null);
+            } else {
+                ret.put(principal.getClass().getCanonicalName(), principal);
+            }
+            return ret;
+        });
     }
 }
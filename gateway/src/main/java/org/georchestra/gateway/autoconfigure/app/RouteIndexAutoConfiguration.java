@@ -0,0 +1,62 @@
+/*
+ * Copyright (C) 2021 by the geOrchestra PSC
+ *
+ * This file is part of geOrchestra.
+ *
+ * geOrchestra is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free
+ * Software Foundation, either version 3 of the License, or (at your option)
+ * any later version.
+ *
+ * geOrchestra is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * geOrchestra. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.georchestra.gateway.autoconfigure.app;
+
+import org.georchestra.gateway.handler.IndexedRoutePredicateHandlerMapping;
+import org.springframework.boot.autoconfigure.AutoConfiguration;
+import org.springframework.boot.autoconfigure.AutoConfigureBefore;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.cloud.gateway.config.GatewayAutoConfiguration;
+import org.springframework.cloud.gateway.config.GlobalCorsProperties;
+import org.springframework.cloud.gateway.handler.FilteringWebHandler;
+import org.springframework.cloud.gateway.handler.RoutePredicateHandlerMapping;
+import org.springframework.cloud.gateway.route.RouteDefinitionLocator;
+import org.springframework.cloud.gateway.route.RouteLocator;
+import org.springframework.context.annotation.Bean;
+import org.springframework.core.env.Environment;
+
+/**
+ * Auto-configuration replacing Spring Cloud Gateway's
+ * {@link RoutePredicateHandlerMapping} by an
+ * {@link IndexedRoutePredicateHandlerMapping} when
+ * {@code georchestra.gateway.index-path-routes=true}.
+ * <p>
+ * Loaded before {@link GatewayAutoConfiguration}, which then backs off from
+ * defining its own {@link RoutePredicateHandlerMapping}.
+ * </p>
+ */
+@AutoConfiguration
+@AutoConfigureBefore(GatewayAutoConfiguration.class)
+@ConditionalOnProperty(name = "georchestra.gateway.index-path-routes", havingValue = "true", matchIfMissing = false)
+public class RouteIndexAutoConfiguration {
+
+    /**
+     * Registers the {@link RoutePredicateHandlerMapping} that only evaluates the
+     * predicates of the routes that may match the request path.
+     *
+     * @return an instance of {@link IndexedRoutePredicateHandlerMapping}
+     */
+    @Bean
+    IndexedRoutePredicateHandlerMapping indexedRoutePredicateHandlerMapping(FilteringWebHandler webHandler,
+            RouteLocator routeLocator, RouteDefinitionLocator routeDefinitionLocator,
+            GlobalCorsProperties globalCorsProperties, Environment environment) {
+        return new IndexedRoutePredicateHandlerMapping(webHandler, routeLocator, routeDefinitionLocator,
+                globalCorsProperties, environment);
+    }
+}
@@ -22,6 +22,7 @@ import static org.springframework.cloud.gateway.support.ServerWebExchangeUtils.G
 
 import java.net.URI;
 import java.util.List;
+import java.util.Map;
 import java.util.Objects;
 import java.util.Optional;
 
@@ -31,10 +32,14 @@ import org.georchestra.gateway.model.HeaderMappings;
 import org.georchestra.gateway.model.RoleBasedAccessRule;
 import org.georchestra.gateway.model.Service;
 import org.georchestra.gateway.security.ResolveGeorchestraUserGlobalFilter;
+import org.springframework.cloud.gateway.event.RefreshRoutesEvent;
+import org.springframework.cloud.gateway.event.RefreshRoutesResultEvent;
 import org.springframework.cloud.gateway.filter.GatewayFilterChain;
 import org.springframework.cloud.gateway.filter.GlobalFilter;
 import org.springframework.cloud.gateway.filter.RouteToRequestUrlFilter;
 import org.springframework.cloud.gateway.route.Route;
+import org.springframework.cloud.gateway.route.RouteLocator;
+import org.springframework.context.ApplicationListener;
 import org.springframework.core.Ordered;
 import org.springframework.web.server.ServerWebExchange;
 
@@ -55,10 +60,18 @@ import reactor.core.publisher.Mono;
  * {@link ResolveGeorchestraUserGlobalFilter} and before request routing in
  * {@link RouteToRequestUrlFilter}.
  * </p>
+ * <p>
+ * The target configurations of all the routes are resolved once routes are
+ * loaded, and again every time they're refreshed (see
+ * {@link RefreshRoutesEvent}), so that filtering a request is a single lookup
+ * by route id. Routes missing from the precomputed targets (e.g. while they're
+ * being refreshed) get their target configuration resolved on each request.
+ * </p>
  */
 @RequiredArgsConstructor
 @Slf4j
-public class ResolveTargetGlobalFilter implements GlobalFilter, Ordered {
+public class ResolveTargetGlobalFilter
+        implements GlobalFilter, Ordered, ApplicationListener<RefreshRoutesResultEvent> {
 
     /**
      * The execution order of this filter, ensuring it runs after user resolution
@@ -68,6 +81,12 @@ public class ResolveTargetGlobalFilter implements GlobalFilter, Ordered {
 
     private final @NonNull GatewayConfigProperties config;
 
+    /**
+     * Target configurations by route id, replaced as a whole when routes are
+     * refreshed
+     */
+    private volatile Map<String, GeorchestraTargetConfig> targets = Map.of();
+
     /**
      * Ensures that this filter runs after the matched {@link Route} has been set as
      * an attribute in the {@link ServerWebExchange}.
@@ -92,12 +111,40 @@ public class ResolveTargetGlobalFilter implements GlobalFilter, Ordered {
         Route route = (Route) exchange.getAttributes().get(GATEWAY_ROUTE_ATTR);
         Objects.requireNonNull(route, "No route matched, filter should not be executed");
 
-        GeorchestraTargetConfig targetConfig = resolveTarget(route);
+        GeorchestraTargetConfig targetConfig = route.getId() == null ? null : targets.get(route.getId());
+        if (targetConfig == null) {
+            targetConfig = resolveTarget(route);
+        }
         log.debug("Storing geOrchestra target config for Route {} request context", route.getId());
         GeorchestraTargetConfig.setTarget(exchange, targetConfig);
         return chain.filter(exchange);
     }
 
+    /**
+     * Resolves the target configurations of the routes once they've been
+     * successfully (re)loaded by the {@link RouteLocator} publishing the event.
+     *
+     * @param event the routes refresh outcome
+     */
+    @Override
+    public void onApplicationEvent(RefreshRoutesResultEvent event) {
+        if (event.isSuccess() && event.getSource() instanceof RouteLocator routeLocator) {
+            routeLocator.getRoutes().collectMap(Route::getId, this::resolveTarget).subscribe(this::setTargets,
+                    error -> log.warn("Error resolving the routes target configs, resolving them per request", error));
+        }
+    }
+
+    /**
+     * Replaces the precomputed target configurations.
+     *
+     * @param targets the target configurations by route id
+     */
+    @VisibleForTesting
+    void setTargets(Map<String, GeorchestraTargetConfig> targets) {
+        this.targets = Map.copyOf(targets);
+        log.debug("Resolved the geOrchestra target config of {} routes", targets.size());
+    }
+
     /**
      * Resolves the {@link GeorchestraTargetConfig} for the given route by applying
      * the service-specific or global access rules and header mappings.
@@ -30,7 +30,6 @@ import org.springframework.http.server.reactive.ServerHttpRequest;
 import org.springframework.web.server.ServerWebExchange;
 
 import lombok.NonNull;
-import lombok.RequiredArgsConstructor;
 import reactor.core.publisher.Mono;
 
 /**
@@ -105,10 +104,13 @@ public class AddSecHeadersGatewayFilterFactory
      * {@link GatewayFilter} implementation that applies the configured security
      * headers to proxied requests.
      */
-    @RequiredArgsConstructor
     private static class AddSecHeadersGatewayFilter implements GatewayFilter, Ordered {
 
-        private final @NonNull List<HeaderContributor> providers;
+        private final HeaderContributor[] providers;
+
+        AddSecHeadersGatewayFilter(@NonNull List<HeaderContributor> providers) {
+            this.providers = providers.toArray(HeaderContributor[]::new);
+        }
 
         /**
          * Applies the configured security headers to the request unless the
@@ -121,11 +123,11 @@ public class AddSecHeadersGatewayFilterFactory
         @Override
         public Mono<Void> filter(ServerWebExchange exchange, GatewayFilterChain chain) {
             if (exchange.getAttribute(DISABLE_SECURITY_HEADERS) == null) {
-                ServerHttpRequest.Builder requestBuilder = exchange.getRequest().mutate();
-
-                providers.stream().map(provider -> provider.prepare(exchange)).forEach(requestBuilder::headers);
-
-                ServerHttpRequest request = requestBuilder.build();
+                ServerHttpRequest request = exchange.getRequest().mutate().headers(headers -> {
+                    for (HeaderContributor provider : providers) {
+                        provider.prepare(exchange).accept(headers);
+                    }
+                }).build();
                 ServerWebExchange updatedExchange = exchange.mutate().request(request).build();
                 return chain.filter(updatedExchange);
             }
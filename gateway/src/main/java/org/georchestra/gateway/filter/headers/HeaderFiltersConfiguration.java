@@ -42,6 +42,7 @@ import org.springframework.context.annotation.Configuration;
  * @see AddSecHeadersGatewayFilterFactory
  * @see RemoveHeadersGatewayFilterFactory
  * @see RemoveSecurityHeadersGatewayFilterFactory
+ * @see RewriteSecHeadersGatewayFilterFactory
  */
 @Configuration(proxyBeanMethods = false)
 @EnableConfigurationProperties(GatewayConfigProperties.class)
@@ -143,4 +144,19 @@ public class HeaderFiltersConfiguration {
         return new RemoveSecurityHeadersGatewayFilterFactory();
     }
 
+    /**
+     * {@link GatewayFilterFactory} removing incoming {@code sec-*} HTTP request
+     * headers and appending the resolved ones in a single pass, combining
+     * {@link #removeSecurityHeadersGatewayFilterFactory()} and
+     * {@link #addSecHeadersGatewayFilterFactory(List)}.
+     *
+     * @param providers the list of configured {@link HeaderContributor}s in the
+     *                  {@link ApplicationContext}
+     * @return the configured {@link RewriteSecHeadersGatewayFilterFactory}
+     */
+    @Bean
+    RewriteSecHeadersGatewayFilterFactory rewriteSecHeadersGatewayFilterFactory(List<HeaderContributor> providers) {
+        return new RewriteSecHeadersGatewayFilterFactory(providers);
+    }
+
 }
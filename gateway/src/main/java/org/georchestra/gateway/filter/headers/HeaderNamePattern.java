@@ -0,0 +1,111 @@
+/*
+ * Copyright (C) 2021 by the geOrchestra PSC
+ *
+ * This file is part of geOrchestra.
+ *
+ * geOrchestra is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free
+ * Software Foundation, either version 3 of the License, or (at your option)
+ * any later version.
+ *
+ * geOrchestra is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * geOrchestra. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.georchestra.gateway.filter.headers;
+
+import java.util.Arrays;
+import java.util.Optional;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.georchestra.gateway.filter.headers.RemoveHeadersGatewayFilterFactory.RegExConfig;
+
+import lombok.NonNull;
+
+/**
+ * Header names matcher equivalent to a {@link RegExConfig} regular expression
+ * that only depends on the header names, avoiding to build and match a
+ * {@code name: value} string for each header value.
+ * <p>
+ * Supports the regular expressions made of an optional {@code (?i)} flag,
+ * optional {@code ^} and {@code $} anchors, and alternatives of header name
+ * prefixes (e.g. {@code sec-.*}) and literals (e.g. {@code Authorization}),
+ * optionally in a group, like the default
+ * {@code (?i)(sec-.*|Authorization)}. Other regular expressions may depend on
+ * the header values, and are matched as is.
+ * </p>
+ * <p>
+ * As {@link RegExConfig} matches the regular expression against
+ * {@code name: value} strings, a prefix alternative matches the headers whose
+ * name starts with it, whatever their values, and a literal alternative
+ * matches no header. Case insensitive matching only folds US-ASCII letters, as
+ * the {@code (?i)} flag does.
+ * </p>
+ */
+final class HeaderNamePattern {
+
+    private static final String ALTERNATIVES = "[\\w-]+(?:\\.\\*)?(?:\\|[\\w-]+(?:\\.\\*)?)*";
+
+    private static final Pattern SUPPORTED = Pattern
+            .compile("(\\(\\?i\\))?\\^?(?:\\((?:\\?:)?(" + ALTERNATIVES + ")\\)|(" + ALTERNATIVES + "))\\$?");
+
+    private final String[] prefixes;
+    private final boolean ignoreCase;
+
+    private HeaderNamePattern(String[] prefixes, boolean ignoreCase) {
+        this.prefixes = prefixes;
+        this.ignoreCase = ignoreCase;
+    }
+
+    /**
+     * @param regEx the {@link RegExConfig} regular expression
+     * @return the equivalent header names matcher, or empty if the regular
+     *         expression is not supported
+     */
+    static Optional<HeaderNamePattern> of(@NonNull String regEx) {
+        Matcher matcher = SUPPORTED.matcher(regEx);
+        if (!matcher.matches()) {
+            return Optional.empty();
+        }
+        String alternatives = matcher.group(2) == null ? matcher.group(3) : matcher.group(2);
+        String[] prefixes = Arrays.stream(alternatives.split("\\|")).filter(alternative -> alternative.endsWith(".*"))
+                .map(alternative -> alternative.substring(0, alternative.length() - 2)).toArray(String[]::new);
+        return Optional.of(new HeaderNamePattern(prefixes, matcher.group(1) != null));
+    }
+
+    /**
+     * @param headerName the name of a header with at least one value
+     * @return whether the regular expression matches the header
+     */
+    boolean matches(@NonNull String headerName) {
+        for (String prefix : prefixes) {
+            if (startsWith(headerName, prefix)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private boolean startsWith(String headerName, String prefix) {
+        if (headerName.length() < prefix.length()) {
+            return false;
+        }
+        for (int i = 0; i < prefix.length(); i++) {
+            char c = headerName.charAt(i);
+            char p = prefix.charAt(i);
+            if (c != p && !(ignoreCase && isAsciiLetter(p) && (c | 0x20) == (p | 0x20))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static boolean isAsciiLetter(char c) {
+        return (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z');
+    }
+}
@@ -0,0 +1,139 @@
+/*
+ * Copyright (C) 2021 by the geOrchestra PSC
+ *
+ * This file is part of geOrchestra.
+ *
+ * geOrchestra is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free
+ * Software Foundation, either version 3 of the License, or (at your option)
+ * any later version.
+ *
+ * geOrchestra is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * geOrchestra. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.georchestra.gateway.filter.headers;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.function.Function;
+
+import org.georchestra.gateway.model.HeaderMappings;
+import org.springframework.http.HttpHeaders;
+
+import lombok.NonNull;
+
+/**
+ * Precompiled list of the headers a {@link HeaderContributor} appends for a
+ * given {@link HeaderMappings}, each one paired with the function computing its
+ * value from a source object (e.g. the authenticated user).
+ * <p>
+ * Contributors compile a plan once per {@link HeaderMappings}, leaving out the
+ * disabled headers, and {@link #apply(Object, HttpHeaders) apply} it on each
+ * request, instead of checking every header mapping and wrapping every value
+ * in an {@link Optional}.
+ * </p>
+ *
+ * @param <T> the type of object the header values are computed from
+ */
+public final class HeaderPlan<T> {
+
+    private final String[] names;
+    private final Function<T, String>[] values;
+
+    @SuppressWarnings("unchecked")
+    private HeaderPlan(List<String> names, List<Function<T, String>> values) {
+        this.names = names.toArray(String[]::new);
+        this.values = values.toArray(Function[]::new);
+    }
+
+    /**
+     * @return whether the plan appends no header
+     */
+    public boolean isEmpty() {
+        return names.length == 0;
+    }
+
+    /**
+     * @return the names of the headers the plan appends, in order
+     */
+    public List<String> names() {
+        return List.of(names);
+    }
+
+    /**
+     * Appends the planned headers whose values are not {@code null}.
+     *
+     * @param source the object to compute the header values from
+     * @param target the headers to append to
+     */
+    public void apply(@NonNull T source, @NonNull HttpHeaders target) {
+        for (int i = 0; i < names.length; i++) {
+            String value = values[i].apply(source);
+            if (value != null) {
+                target.add(names[i], value);
+            }
+        }
+    }
+
+    /**
+     * @param <T> the type of object the header values are computed from
+     * @return a builder for a new plan
+     */
+    public static <T> Builder<T> builder() {
+        return new Builder<>();
+    }
+
+    /**
+     * Builder for {@link HeaderPlan}, adding headers in the order they're to be
+     * appended.
+     *
+     * @param <T> the type of object the header values are computed from
+     */
+    public static final class Builder<T> {
+
+        private final List<String> names = new ArrayList<>();
+        private final List<Function<T, String>> values = new ArrayList<>();
+
+        private Builder() {
+        }
+
+        /**
+         * Adds a header if it is enabled.
+         *
+         * @param name    the header name
+         * @param enabled whether the header is enabled, disabled if empty
+         * @param value   computes the header value, skipped if {@code null}
+         * @return this
+         */
+        public Builder<T> add(@NonNull String name, @NonNull Optional<Boolean> enabled,
+                @NonNull Function<T, String> value) {
+            return enabled.orElse(Boolean.FALSE) ? add(name, value) : this;
+        }
+
+        /**
+         * Adds a header.
+         *
+         * @param name  the header name
+         * @param value computes the header value, skipped if {@code null}
+         * @return this
+         */
+        public Builder<T> add(@NonNull String name, @NonNull Function<T, String> value) {
+            names.add(name);
+            values.add(value);
+            return this;
+        }
+
+        /**
+         * @return the plan
+         */
+        public HeaderPlan<T> build() {
+            return new HeaderPlan<>(names, values);
+        }
+    }
+}
@@ -113,12 +113,19 @@ public class RemoveHeadersGatewayFilterFactory extends AbstractGatewayFilterFact
      * names and values. Headers that match the pattern are removed from incoming
      * requests before they are forwarded.
      * </p>
+     * <p>
+     * Regular expressions that only depend on the header names, like the default
+     * {@code (?i)(sec-.*|Authorization)}, are matched against the header names by
+     * an equivalent {@link HeaderNamePattern}, instead of against a
+     * {@code name: value} string for each header value.
+     * </p>
      */
     @NoArgsConstructor
     public static class RegExConfig {
 
         private @Getter String regEx;
         private Pattern compiled;
+        private HeaderNamePattern namePattern;
 
         /**
          * Constructs a {@link RegExConfig} with the given regular expression.
@@ -138,6 +145,9 @@ public class RemoveHeadersGatewayFilterFactory extends AbstractGatewayFilterFact
             Objects.requireNonNull(regEx, "Regular expression can't be null");
             this.regEx = regEx;
             this.compiled = Pattern.compile(regEx);
+            this.namePattern = HeaderNamePattern.of(regEx).orElse(null);
+            log.debug("Header removal regular expression {} depends on {}", regEx,
+                    namePattern == null ? "header names and values" : "header names only");
         }
 
         private Pattern pattern() {
@@ -176,7 +186,15 @@ public class RemoveHeadersGatewayFilterFactory extends AbstractGatewayFilterFact
          * @return {@code true} if any value matches, otherwise {@code false}
          */
         boolean matches(@NonNull String headerName, List<String> values) {
-            return values.stream().map(value -> "%s: %s".formatted(headerName, value)).anyMatch(this::matches);
+            if (namePattern != null) {
+                return !values.isEmpty() && namePattern.matches(headerName);
+            }
+            for (String value : values) {
+                if (matches(headerName + ": " + value)) {
+                    return true;
+                }
+            }
+            return false;
         }
 
         /**
@@ -61,7 +61,7 @@ import org.springframework.cloud.gateway.filter.factory.GatewayFilterFactory;
  */
 public class RemoveSecurityHeadersGatewayFilterFactory extends AbstractGatewayFilterFactory<Object> {
 
-    private static final String DEFAULT_SEC_HEADERS_PATTERN = "(?i)(sec-.*|Authorization)";
+    static final String DEFAULT_SEC_HEADERS_PATTERN = "(?i)(sec-.*|Authorization)";
 
     private final RemoveHeadersGatewayFilterFactory delegate;
     private final RemoveHeadersGatewayFilterFactory.RegExConfig config = new RemoveHeadersGatewayFilterFactory.RegExConfig(
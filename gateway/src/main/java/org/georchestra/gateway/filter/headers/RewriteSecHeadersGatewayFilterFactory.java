@@ -0,0 +1,176 @@
+/*
+ * Copyright (C) 2021 by the geOrchestra PSC
+ *
+ * This file is part of geOrchestra.
+ *
+ * geOrchestra is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free
+ * Software Foundation, either version 3 of the License, or (at your option)
+ * any later version.
+ *
+ * geOrchestra is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * geOrchestra. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.georchestra.gateway.filter.headers;
+
+import static org.georchestra.gateway.filter.headers.AddSecHeadersGatewayFilterFactory.DISABLE_SECURITY_HEADERS;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+import org.georchestra.gateway.filter.global.ResolveTargetGlobalFilter;
+import org.georchestra.gateway.filter.headers.RemoveHeadersGatewayFilterFactory.RegExConfig;
+import org.springframework.cloud.gateway.filter.GatewayFilter;
+import org.springframework.cloud.gateway.filter.GatewayFilterChain;
+import org.springframework.cloud.gateway.filter.factory.AbstractGatewayFilterFactory;
+import org.springframework.core.Ordered;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.server.reactive.ServerHttpRequest;
+import org.springframework.http.server.reactive.ServerHttpRequestDecorator;
+import org.springframework.util.LinkedCaseInsensitiveMap;
+import org.springframework.web.server.ServerWebExchange;
+
+import lombok.NonNull;
+import reactor.core.publisher.Mono;
+
+/**
+ * {@link AbstractGatewayFilterFactory} combining
+ * {@link RemoveSecurityHeadersGatewayFilterFactory RemoveSecurityHeaders} and
+ * {@link AddSecHeadersGatewayFilterFactory AddSecHeaders} in a single filter,
+ * that rewrites the request headers in one pass.
+ * <p>
+ * The outgoing request headers are built once, in a container sized for the
+ * incoming headers plus the appended ones: the incoming headers are copied
+ * except for those matched by
+ * {@link RemoveSecurityHeadersGatewayFilterFactory}'s pattern, and then the
+ * {@link HeaderContributor}s append the resolved ones. The request is then
+ * wrapped in a single decorator exposing them, instead of rebuilding it once to
+ * remove headers and again to add them.
+ * </p>
+ * <p>
+ * As {@code AddSecHeaders}, the filter runs right after
+ * {@link ResolveTargetGlobalFilter}, and the contributed headers are skipped if
+ * the request exchange contains the
+ * {@link AddSecHeadersGatewayFilterFactory#DISABLE_SECURITY_HEADERS}
+ * attribute. Incoming security headers are removed either way.
+ * </p>
+ * <p>
+ * The pattern is matched against {@code name: value} strings, so incoming
+ * {@code sec-*} headers are removed, but its {@code Authorization} alternative
+ * matches no header and {@code Authorization} headers are kept, as with
+ * {@code RemoveSecurityHeaders}.
+ * </p>
+ * <p>
+ * Unlike {@code RemoveSecurityHeaders}, which runs at the start of the filter
+ * chain, the incoming {@code sec-*} headers are only removed right after
+ * {@link ResolveTargetGlobalFilter}: filters running before it still see them,
+ * and {@code sec-*} headers added on purpose by route filters running before it
+ * are removed. The filter is hence not enabled by default.
+ * </p>
+ * <p>
+ * Sample usage in {@code application.yaml}, replacing both filters:
+ * </p>
+ *
+ * <pre>
+ * <code>
+ * spring:
+ *   cloud:
+ *     gateway:
+ *       default-filters:
+ *         - RewriteSecHeaders
+ * </code>
+ * </pre>
+ */
+public class RewriteSecHeadersGatewayFilterFactory
+        extends AbstractGatewayFilterFactory<AbstractGatewayFilterFactory.NameConfig> {
+
+    /**
+     * Room for the contributed headers when sizing the outgoing headers container
+     */
+    private static final int CONTRIBUTED_HEADERS_CAPACITY = 16;
+
+    private final List<HeaderContributor> providers;
+
+    private final RegExConfig securityHeaders = new RegExConfig(
+            RemoveSecurityHeadersGatewayFilterFactory.DEFAULT_SEC_HEADERS_PATTERN);
+
+    /**
+     * @param providers the list of {@link HeaderContributor} providers that
+     *                  generate the security headers
+     */
+    public RewriteSecHeadersGatewayFilterFactory(List<HeaderContributor> providers) {
+        super(NameConfig.class);
+        this.providers = providers;
+    }
+
+    @Override
+    public List<String> shortcutFieldOrder() {
+        return Arrays.asList(NAME_KEY);
+    }
+
+    @Override
+    public GatewayFilter apply(NameConfig config) {
+        return new RewriteSecHeadersGatewayFilter(securityHeaders, providers);
+    }
+
+    /**
+     * {@link GatewayFilter} rewriting the request security headers in one pass.
+     */
+    private static class RewriteSecHeadersGatewayFilter implements GatewayFilter, Ordered {
+
+        private final @NonNull RegExConfig securityHeaders;
+        private final HeaderContributor[] providers;
+
+        RewriteSecHeadersGatewayFilter(@NonNull RegExConfig securityHeaders,
+                @NonNull List<HeaderContributor> providers) {
+            this.securityHeaders = securityHeaders;
+            this.providers = providers.toArray(HeaderContributor[]::new);
+        }
+
+        @Override
+        public Mono<Void> filter(ServerWebExchange exchange, GatewayFilterChain chain) {
+            ServerHttpRequest request = exchange.getRequest();
+            HttpHeaders headers = rewrite(exchange, request.getHeaders());
+            ServerHttpRequest rewritten = new ServerHttpRequestDecorator(request) {
+                @Override
+                public HttpHeaders getHeaders() {
+                    return headers;
+                }
+            };
+            return chain.filter(exchange.mutate().request(rewritten).build());
+        }
+
+        private HttpHeaders rewrite(ServerWebExchange exchange, HttpHeaders incoming) {
+            HttpHeaders headers = new HttpHeaders(
+                    new LinkedCaseInsensitiveMap<>(incoming.size() + CONTRIBUTED_HEADERS_CAPACITY, Locale.ENGLISH));
+            for (Map.Entry<String, List<String>> header : incoming.entrySet()) {
+                if (!securityHeaders.matches(header.getKey(), header.getValue())) {
+                    headers.put(header.getKey(), new ArrayList<>(header.getValue()));
+                }
+            }
+            if (exchange.getAttribute(DISABLE_SECURITY_HEADERS) == null) {
+                for (HeaderContributor provider : providers) {
+                    provider.prepare(exchange).accept(headers);
+                }
+            }
+            return HttpHeaders.readOnlyHttpHeaders(headers);
+        }
+
+        /**
+         * Runs right after {@link ResolveTargetGlobalFilter}, as
+         * {@link AddSecHeadersGatewayFilterFactory}'s filter.
+         */
+        @Override
+        public int getOrder() {
+            return ResolveTargetGlobalFilter.ORDER + 1;
+        }
+    }
+}
@@ -18,16 +18,22 @@
  */
 package org.georchestra.gateway.filter.headers.providers;
 
-import java.util.Optional;
 import java.util.function.Consumer;
 
 import org.georchestra.gateway.filter.headers.HeaderContributor;
+import org.georchestra.gateway.filter.headers.HeaderPlan;
 import org.georchestra.gateway.model.GeorchestraOrganizations;
 import org.georchestra.gateway.model.GeorchestraTargetConfig;
+import org.georchestra.gateway.model.HeaderMappings;
 import org.georchestra.security.model.Organization;
 import org.springframework.http.HttpHeaders;
 import org.springframework.web.server.ServerWebExchange;
 
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheLoader;
+import com.google.common.cache.LoadingCache;
+
 /**
  * {@link HeaderContributor} that appends organization-related security headers
  * to proxied requests.
@@ -44,9 +50,20 @@ import org.springframework.web.server.ServerWebExchange;
  * <li>{@code sec-org-lastupdated} - Last updated timestamp of the
  * organization</li>
  * </ul>
+ * <p>
+ * The enabled headers of each route's {@link HeaderMappings} are compiled once
+ * into a {@link HeaderPlan}, applied to the organization of each request.
+ * </p>
  */
 public class GeorchestraOrganizationHeadersContributor extends HeaderContributor {
 
+    /**
+     * The compiled plans, by header mappings instance, released along with the
+     * route target configurations holding them
+     */
+    private final LoadingCache<HeaderMappings, HeaderPlan<Organization>> plans = CacheBuilder.newBuilder()
+            .weakKeys().build(CacheLoader.from(GeorchestraOrganizationHeadersContributor::compile));
+
     /**
      * Prepares a header contributor that appends organization-related security
      * headers to the request.
@@ -59,13 +76,24 @@ public class GeorchestraOrganizationHeadersContributor extends HeaderContributor
      * @return a {@link Consumer} that modifies the request headers
      */
     public @Override Consumer<HttpHeaders> prepare(ServerWebExchange exchange) {
-        return headers -> {
-            GeorchestraTargetConfig.getTarget(exchange).map(GeorchestraTargetConfig::headers).ifPresent(mappings -> {
-                Optional<Organization> org = GeorchestraOrganizations.resolve(exchange);
-                add(headers, "sec-orgname", mappings.getOrgname(), org.map(Organization::getName));
-                add(headers, "sec-orgid", mappings.getOrgid(), org.map(Organization::getId));
-                add(headers, "sec-org-lastupdated", mappings.getOrgid(), org.map(Organization::getLastUpdated));
-            });
-        };
+        return headers -> GeorchestraTargetConfig.getTarget(exchange).map(GeorchestraTargetConfig::headers)
+                .ifPresent(mappings -> GeorchestraOrganizations.resolve(exchange)
+                        .ifPresent(org -> plans.getUnchecked(mappings).apply(org, headers)));
+    }
+
+    /**
+     * Compiles the plan appending the organization headers enabled by the header
+     * mappings.
+     *
+     * @param mappings the matched route header mappings
+     * @return the plan of the headers to append
+     */
+    @VisibleForTesting
+    static HeaderPlan<Organization> compile(HeaderMappings mappings) {
+        return HeaderPlan.<Organization>builder() //
+                .add("sec-orgname", mappings.getOrgname(), Organization::getName) //
+                .add("sec-orgid", mappings.getOrgid(), Organization::getId) //
+                .add("sec-org-lastupdated", mappings.getOrgid(), Organization::getLastUpdated) //
+                .build();
     }
 }
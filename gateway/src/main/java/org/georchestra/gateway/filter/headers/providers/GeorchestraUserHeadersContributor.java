@@ -34,16 +34,22 @@ import static org.georchestra.commons.security.SecurityHeaders.SEC_USERID;
 import static org.georchestra.commons.security.SecurityHeaders.SEC_USERNAME;
 
 import java.util.List;
-import java.util.Optional;
 import java.util.function.Consumer;
 
 import org.georchestra.gateway.filter.headers.HeaderContributor;
+import org.georchestra.gateway.filter.headers.HeaderPlan;
 import org.georchestra.gateway.model.GeorchestraTargetConfig;
 import org.georchestra.gateway.model.GeorchestraUsers;
+import org.georchestra.gateway.model.HeaderMappings;
 import org.georchestra.security.model.GeorchestraUser;
 import org.springframework.http.HttpHeaders;
 import org.springframework.web.server.ServerWebExchange;
 
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheLoader;
+import com.google.common.cache.LoadingCache;
+
 /**
  * {@link HeaderContributor} that appends user-related {@literal sec-*} security
  * headers to proxied requests.
@@ -71,9 +77,20 @@ import org.springframework.web.server.ServerWebExchange;
  * <li>{@code sec-external-authentication} - Whether the user is authenticated
  * externally</li>
  * </ul>
+ * <p>
+ * The enabled headers of each route's {@link HeaderMappings} are compiled once
+ * into a {@link HeaderPlan}, applied to the user of each request.
+ * </p>
  */
 public class GeorchestraUserHeadersContributor extends HeaderContributor {
 
+    /**
+     * The compiled plans, by header mappings instance, released along with the
+     * route target configurations holding them
+     */
+    private final LoadingCache<HeaderMappings, HeaderPlan<GeorchestraUser>> plans = CacheBuilder.newBuilder()
+            .weakKeys().build(CacheLoader.from(GeorchestraUserHeadersContributor::compile));
+
     /**
      * Prepares a header contributor that appends user-related security headers to
      * the request.
@@ -87,30 +104,46 @@ public class GeorchestraUserHeadersContributor extends HeaderContributor {
      */
     public @Override Consumer<HttpHeaders> prepare(ServerWebExchange exchange) {
         return headers -> GeorchestraTargetConfig.getTarget(exchange).map(GeorchestraTargetConfig::headers)
-                .ifPresent(mappings -> {
-                    Optional<GeorchestraUser> user = GeorchestraUsers.resolve(exchange);
-                    add(headers, SEC_USERID, mappings.getUserid(), user.map(GeorchestraUser::getId));
-                    add(headers, SEC_USERNAME, mappings.getUsername(), user.map(GeorchestraUser::getUsername));
-                    add(headers, SEC_ORG, mappings.getOrg(), user.map(GeorchestraUser::getOrganization));
-                    add(headers, SEC_EMAIL, mappings.getEmail(), user.map(GeorchestraUser::getEmail));
-                    add(headers, SEC_FIRSTNAME, mappings.getFirstname(), user.map(GeorchestraUser::getFirstName));
-                    add(headers, SEC_LASTNAME, mappings.getLastname(), user.map(GeorchestraUser::getLastName));
-                    add(headers, SEC_TEL, mappings.getTel(), user.map(GeorchestraUser::getTelephoneNumber));
+                .ifPresent(mappings -> GeorchestraUsers.resolve(exchange)
+                        .ifPresent(user -> plans.getUnchecked(mappings).apply(user, headers)));
+    }
 
-                    List<String> roles = user.map(GeorchestraUser::getRoles).orElse(List.of());
-                    add(headers, SEC_ROLES, mappings.getRoles(), roles);
+    /**
+     * Compiles the plan appending the user headers enabled by the header mappings.
+     *
+     * @param mappings the matched route header mappings
+     * @return the plan of the headers to append
+     */
+    @VisibleForTesting
+    static HeaderPlan<GeorchestraUser> compile(HeaderMappings mappings) {
+        return HeaderPlan.<GeorchestraUser>builder() //
+                .add(SEC_USERID, mappings.getUserid(), GeorchestraUser::getId) //
+                .add(SEC_USERNAME, mappings.getUsername(), GeorchestraUser::getUsername) //
+                .add(SEC_ORG, mappings.getOrg(), GeorchestraUser::getOrganization) //
+                .add(SEC_EMAIL, mappings.getEmail(), GeorchestraUser::getEmail) //
+                .add(SEC_FIRSTNAME, mappings.getFirstname(), GeorchestraUser::getFirstName) //
+                .add(SEC_LASTNAME, mappings.getLastname(), GeorchestraUser::getLastName) //
+                .add(SEC_TEL, mappings.getTel(), GeorchestraUser::getTelephoneNumber) //
+                .add(SEC_ROLES, mappings.getRoles(), GeorchestraUserHeadersContributor::roles) //
+                .add(SEC_LASTUPDATED, mappings.getLastUpdated(), GeorchestraUser::getLastUpdated) //
+                .add(SEC_ADDRESS, mappings.getAddress(), GeorchestraUser::getPostalAddress) //
+                .add(SEC_TITLE, mappings.getTitle(), GeorchestraUser::getTitle) //
+                .add(SEC_NOTES, mappings.getNotes(), GeorchestraUser::getNotes) //
+                .add(SEC_LDAP_REMAINING_DAYS, GeorchestraUserHeadersContributor::ldapRemainingDays) //
+                .add(SEC_EXTERNAL_AUTHENTICATION, GeorchestraUserHeadersContributor::externalAuthentication) //
+                .build();
+    }
 
-                    add(headers, SEC_LASTUPDATED, mappings.getLastUpdated(), user.map(GeorchestraUser::getLastUpdated));
-                    add(headers, SEC_ADDRESS, mappings.getAddress(), user.map(GeorchestraUser::getPostalAddress));
-                    add(headers, SEC_TITLE, mappings.getTitle(), user.map(GeorchestraUser::getTitle));
-                    add(headers, SEC_NOTES, mappings.getNotes(), user.map(GeorchestraUser::getNotes));
+    private static String roles(GeorchestraUser user) {
+        List<String> roles = user.getRoles();
+        return roles == null || roles.isEmpty() ? null : String.join(";", roles);
+    }
 
-                    add(headers, SEC_LDAP_REMAINING_DAYS,
-                            Optional.of(user.isPresent() && Boolean.TRUE.equals(user.get().getLdapWarn())),
-                            user.map(GeorchestraUser::getLdapRemainingDays));
+    private static String ldapRemainingDays(GeorchestraUser user) {
+        return Boolean.TRUE.equals(user.getLdapWarn()) ? user.getLdapRemainingDays() : null;
+    }
 
-                    add(headers, SEC_EXTERNAL_AUTHENTICATION, Optional.of(user.isPresent()),
-                            String.valueOf(user.isPresent() && Boolean.TRUE.equals(user.get().getIsExternalAuth())));
-                });
+    private static String externalAuthentication(GeorchestraUser user) {
+        return String.valueOf(Boolean.TRUE.equals(user.getIsExternalAuth()));
     }
 }
@@ -19,11 +19,14 @@
 package org.georchestra.gateway.filter.headers.providers;
 
 import java.io.UncheckedIOException;
-import java.util.Optional;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.function.Consumer;
 
 import org.georchestra.commons.security.SecurityHeaders;
 import org.georchestra.gateway.filter.headers.HeaderContributor;
+import org.georchestra.gateway.filter.headers.HeaderPlan;
 import org.georchestra.gateway.model.GeorchestraOrganizations;
 import org.georchestra.gateway.model.GeorchestraTargetConfig;
 import org.georchestra.gateway.model.GeorchestraUsers;
@@ -37,6 +40,16 @@ import com.fasterxml.jackson.annotation.JsonInclude.Include;
 import com.fasterxml.jackson.core.JsonProcessingException;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.fasterxml.jackson.databind.SerializationFeature;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheLoader;
+import com.google.common.cache.LoadingCache;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Tags;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import io.micrometer.core.instrument.binder.cache.GuavaCacheMetrics;
+import lombok.NonNull;
 
 /**
  * {@link HeaderContributor} that appends user and organization information as
@@ -56,12 +69,31 @@ import com.fasterxml.jackson.databind.SerializationFeature;
  * enabled via {@link HeaderMappings#getJsonUser()} and
  * {@link HeaderMappings#getJsonOrganization()}.
  * </p>
+ * <p>
+ * Encoded payloads are cached by user (respectively organization) id and
+ * {@code lastUpdated} version, along with the properties that can change
+ * without the version changing (e.g. the user roles, held by the role entries,
+ * or the organization members), so that repeated requests of the same user
+ * reuse the same header value instead of serializing it again. Users and
+ * organizations without an id or version are encoded on each request. Cache
+ * statistics are exported as {@code cache.*} metrics tagged with
+ * {@code cache=georchestra.gateway.headers.json.users} and
+ * {@code cache=georchestra.gateway.headers.json.orgs}.
+ * </p>
  *
  * @see GeorchestraUsers#resolve
  * @see GeorchestraOrganizations#resolve
  * @see GeorchestraTargetConfig
  */
-public class JsonPayloadHeadersContributor extends HeaderContributor {
+public class JsonPayloadHeadersContributor extends HeaderContributor implements MeterBinder {
+
+    static final String USERS_CACHE_NAME = "georchestra.gateway.headers.json.users";
+
+    static final String ORGS_CACHE_NAME = "georchestra.gateway.headers.json.orgs";
+
+    private static final int CACHE_MAXIMUM_SIZE = 10_000;
+
+    private static final Duration CACHE_TIME_TO_LIVE = Duration.ofHours(1);
 
     /**
      * JSON encoder for serializing {@link GeorchestraUser} and {@link Organization}
@@ -69,6 +101,78 @@ public class JsonPayloadHeadersContributor extends HeaderContributor {
      */
     private final ObjectMapper encoder;
 
+    /**
+     * The compiled plans, by header mappings instance, released along with the
+     * route target configurations holding them
+     */
+    private final LoadingCache<HeaderMappings, Plans> plans = CacheBuilder.newBuilder().weakKeys()
+            .build(CacheLoader.from(this::compile));
+
+    /**
+     * The plans appending the user and organization payloads, if enabled
+     */
+    private record Plans(HeaderPlan<GeorchestraUser> user, HeaderPlan<Organization> org) {
+    }
+
+    /**
+     * Encoded {@code sec-user} payloads by user version
+     */
+    private final Cache<UserVersion, String> encodedUsers = CacheBuilder.newBuilder()
+            .maximumSize(CACHE_MAXIMUM_SIZE).expireAfterWrite(CACHE_TIME_TO_LIVE).recordStats().build();
+
+    /**
+     * Encoded {@code sec-organization} payloads by organization version
+     */
+    private final Cache<OrgVersion, String> encodedOrgs = CacheBuilder.newBuilder().maximumSize(CACHE_MAXIMUM_SIZE)
+            .expireAfterWrite(CACHE_TIME_TO_LIVE).recordStats().build();
+
+    /**
+     * The properties identifying the version of a user's payload
+     */
+    private record UserVersion(String id, String lastUpdated, List<String> roles, String organization,
+            Boolean ldapWarn, String ldapRemainingDays, Boolean externalAuth) {
+
+        static UserVersion of(GeorchestraUser user) {
+            return new UserVersion(user.getId(), user.getLastUpdated(), user.getRoles(), user.getOrganization(),
+                    user.getLdapWarn(), user.getLdapRemainingDays(), user.getIsExternalAuth());
+        }
+
+        boolean isVersioned() {
+            return id != null && lastUpdated != null;
+        }
+
+        /**
+         * @return a copy not sharing the user's mutable roles list, to be used as
+         *         cache key
+         */
+        UserVersion copy() {
+            return new UserVersion(id, lastUpdated, roles == null ? null : new ArrayList<>(roles), organization,
+                    ldapWarn, ldapRemainingDays, externalAuth);
+        }
+    }
+
+    /**
+     * The properties identifying the version of an organization's payload
+     */
+    private record OrgVersion(String id, String lastUpdated, List<String> members) {
+
+        static OrgVersion of(Organization org) {
+            return new OrgVersion(org.getId(), org.getLastUpdated(), org.getMembers());
+        }
+
+        boolean isVersioned() {
+            return id != null && lastUpdated != null;
+        }
+
+        /**
+         * @return a copy not sharing the organization's mutable members list, to be
+         *         used as cache key
+         */
+        OrgVersion copy() {
+            return new OrgVersion(id, lastUpdated, members == null ? null : new ArrayList<>(members));
+        }
+    }
+
     /**
      * Initializes a new {@link JsonPayloadHeadersContributor} with a configured
      * JSON encoder.
@@ -93,18 +197,58 @@ public class JsonPayloadHeadersContributor extends HeaderContributor {
     }
 
     private void addJsonPayloads(final ServerWebExchange exchange, final HeaderMappings mappings, HttpHeaders headers) {
-        Optional<GeorchestraUser> user = GeorchestraUsers.resolve(exchange);
-        Optional<Organization> org = GeorchestraOrganizations.resolve(exchange);
+        Plans plan = plans.getUnchecked(mappings);
+        if (!plan.user().isEmpty()) {
+            GeorchestraUsers.resolve(exchange).ifPresent(user -> plan.user().apply(user, headers));
+        }
+        if (!plan.org().isEmpty()) {
+            GeorchestraOrganizations.resolve(exchange).ifPresent(org -> plan.org().apply(org, headers));
+        }
+    }
 
-        addJson(headers, "sec-user", mappings.getJsonUser().orElse(false), user);
-        addJson(headers, "sec-organization", mappings.getJsonOrganization().orElse(false), org);
+    /**
+     * Compiles the plans appending the JSON payloads enabled by the header
+     * mappings.
+     *
+     * @param mappings the matched route header mappings
+     * @return the plans of the headers to append
+     */
+    private Plans compile(HeaderMappings mappings) {
+        HeaderPlan<GeorchestraUser> user = HeaderPlan.<GeorchestraUser>builder()
+                .add("sec-user", mappings.getJsonUser(), this::encodeUser).build();
+        HeaderPlan<Organization> org = HeaderPlan.<Organization>builder()
+                .add("sec-organization", mappings.getJsonOrganization(), this::encodeOrg).build();
+        return new Plans(user, org);
+    }
+
+    private String encodeUser(GeorchestraUser user) {
+        UserVersion version = UserVersion.of(user);
+        if (!version.isVersioned()) {
+            return encode(user);
+        }
+        String encoded = encodedUsers.getIfPresent(version);
+        if (encoded == null) {
+            encoded = encode(user);
+            encodedUsers.put(version.copy(), encoded);
+        }
+        return encoded;
     }
 
-    private void addJson(HttpHeaders target, String headerName, boolean enabled, Optional<?> toEncode) {
-        if (enabled) {
-            toEncode.map(this::encodeJson).map(this::encodeBase64)
-                    .ifPresent(encoded -> target.add(headerName, encoded));
+    private String encodeOrg(Organization org) {
+        OrgVersion version = OrgVersion.of(org);
+        if (!version.isVersioned()) {
+            return encode(org);
         }
+        String encoded = encodedOrgs.getIfPresent(version);
+        if (encoded == null) {
+            encoded = encode(org);
+            encodedOrgs.put(version.copy(), encoded);
+        }
+        return encoded;
+    }
+
+    private String encode(Object payloadObject) {
+        return encodeBase64(encodeJson(payloadObject));
     }
 
     private String encodeJson(Object payloadObject) {
@@ -118,4 +262,13 @@ public class JsonPayloadHeadersContributor extends HeaderContributor {
     private String encodeBase64(String json) {
         return SecurityHeaders.encodeBase64(json);
     }
+
+    /**
+     * Registers the {@code cache.*} metrics of the encoded payload caches.
+     */
+    @Override
+    public void bindTo(@NonNull MeterRegistry registry) {
+        new GuavaCacheMetrics<>(encodedUsers, USERS_CACHE_NAME, Tags.empty()).bindTo(registry);
+        new GuavaCacheMetrics<>(encodedOrgs, ORGS_CACHE_NAME, Tags.empty()).bindTo(registry);
+    }
 }
@@ -0,0 +1,117 @@
+/*
+ * Copyright (C) 2022 by the geOrchestra PSC
+ *
+ * This file is part of geOrchestra.
+ *
+ * geOrchestra is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free
+ * Software Foundation, either version 3 of the License, or (at your option)
+ * any later version.
+ *
+ * geOrchestra is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * geOrchestra. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.georchestra.gateway.handler;
+
+import static org.springframework.cloud.gateway.support.ServerWebExchangeUtils.GATEWAY_PREDICATE_ROUTE_ATTR;
+
+import java.util.List;
+import java.util.Optional;
+
+import org.springframework.cloud.gateway.config.GlobalCorsProperties;
+import org.springframework.cloud.gateway.event.RefreshRoutesResultEvent;
+import org.springframework.cloud.gateway.handler.FilteringWebHandler;
+import org.springframework.cloud.gateway.handler.RoutePredicateHandlerMapping;
+import org.springframework.cloud.gateway.route.Route;
+import org.springframework.cloud.gateway.route.RouteDefinition;
+import org.springframework.cloud.gateway.route.RouteDefinitionLocator;
+import org.springframework.cloud.gateway.route.RouteLocator;
+import org.springframework.context.ApplicationListener;
+import org.springframework.core.env.Environment;
+import org.springframework.web.server.ServerWebExchange;
+
+import lombok.NonNull;
+import lombok.extern.slf4j.Slf4j;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+/**
+ * {@link RoutePredicateHandlerMapping} only evaluating the predicates of the
+ * routes that may match the request path, as told by a {@link PathRouteIndex}
+ * of the routes.
+ * <p>
+ * The index is rebuilt each time the routes are refreshed. The candidate routes
+ * are evaluated in order, as {@link RoutePredicateHandlerMapping} does for all
+ * the routes, so the selected route is the same. Until the index is built, or
+ * for request paths the index can't look up, all the routes are evaluated.
+ * </p>
+ */
+@Slf4j(topic = "org.georchestra.gateway.handler")
+public class IndexedRoutePredicateHandlerMapping extends RoutePredicateHandlerMapping
+        implements ApplicationListener<RefreshRoutesResultEvent> {
+
+    private final @NonNull RouteDefinitionLocator routeDefinitionLocator;
+
+    private volatile PathRouteIndex index;
+
+    /**
+     * @param webHandler             the gateway web handler
+     * @param routeLocator           the routes locator
+     * @param routeDefinitionLocator the route definitions locator, telling which
+     *                               routes only have a {@code Path} predicate
+     * @param globalCorsProperties   the global CORS configuration
+     * @param environment            the application environment
+     */
+    public IndexedRoutePredicateHandlerMapping(FilteringWebHandler webHandler, RouteLocator routeLocator,
+            @NonNull RouteDefinitionLocator routeDefinitionLocator, GlobalCorsProperties globalCorsProperties,
+            Environment environment) {
+        super(webHandler, routeLocator, globalCorsProperties, environment);
+        this.routeDefinitionLocator = routeDefinitionLocator;
+    }
+
+    /**
+     * Rebuilds the routes index once the routes are refreshed.
+     */
+    @Override
+    public void onApplicationEvent(RefreshRoutesResultEvent event) {
+        if (event.isSuccess() && event.getSource() instanceof RouteLocator routeLocator) {
+            Mono.zip(routeLocator.getRoutes().collectList(),
+                    routeDefinitionLocator.getRouteDefinitions().collectMap(RouteDefinition::getId))
+                    .map(routes -> PathRouteIndex.of(routes.getT1(), routes.getT2())).subscribe(this::setIndex,
+                            error -> log.warn("Error indexing the routes, evaluating all of them per request", error));
+        }
+    }
+
+    private void setIndex(PathRouteIndex index) {
+        this.index = index;
+        log.debug("Indexed the routes by {} first path segments", index.size());
+    }
+
+    @Override
+    protected Mono<Route> lookupRoute(ServerWebExchange exchange) {
+        final PathRouteIndex routes = this.index;
+        Optional<List<Route>> candidates = routes == null ? Optional.empty()
+                : routes.candidates(exchange.getRequest().getPath());
+        if (candidates.isEmpty()) {
+            return super.lookupRoute(exchange);
+        }
+        return Flux.fromIterable(candidates.get())
+                .concatMap(route -> Mono.just(route).filterWhen(r -> {
+                    exchange.getAttributes().put(GATEWAY_PREDICATE_ROUTE_ATTR, r.getId());
+                    return r.getPredicate().apply(exchange);
+                })//
+                        .doOnError(e -> log.error("Error applying predicate for route: {}", route.getId(), e))
+                        .onErrorResume(e -> Mono.empty()))
+                .next()//
+                .map(route -> {
+                    log.debug("Route matched: {}", route.getId());
+                    validateRoute(route, exchange);
+                    return route;
+                });
+    }
+}
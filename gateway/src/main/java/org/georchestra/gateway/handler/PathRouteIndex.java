@@ -0,0 +1,217 @@
+/*
+ * Copyright (C) 2022 by the geOrchestra PSC
+ *
+ * This file is part of geOrchestra.
+ *
+ * geOrchestra is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free
+ * Software Foundation, either version 3 of the License, or (at your option)
+ * any later version.
+ *
+ * geOrchestra is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * geOrchestra. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.georchestra.gateway.handler;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+
+import org.springframework.cloud.gateway.handler.predicate.PredicateDefinition;
+import org.springframework.cloud.gateway.route.Route;
+import org.springframework.cloud.gateway.route.RouteDefinition;
+import org.springframework.cloud.gateway.support.NameUtils;
+import org.springframework.http.server.PathContainer;
+import org.springframework.http.server.PathContainer.Element;
+import org.springframework.http.server.PathContainer.PathSegment;
+import org.springframework.http.server.PathContainer.Separator;
+import org.springframework.http.server.RequestPath;
+
+import lombok.NonNull;
+
+/**
+ * Index of the gateway {@link Route routes} by the first segment of the request
+ * paths they can match, narrowing down the routes whose predicates need to be
+ * evaluated for a request.
+ * <p>
+ * Routes whose only predicate is a {@code Path} predicate, like the
+ * {@code Path=/geoserver/**} ones of {@code routes.yaml}, are indexed by the
+ * literal first segment of their path patterns. The other routes, including
+ * those with path patterns starting with a variable or wildcard (e.g.
+ * {@code /{app}/**}), may match any request and are candidates for all of them.
+ * </p>
+ * <p>
+ * The {@link #candidates(RequestPath) candidate routes} for a request keep the
+ * routes order, so that evaluating their predicates in order selects the same
+ * route than evaluating the predicates of all the routes.
+ * </p>
+ */
+class PathRouteIndex {
+
+    /**
+     * Key of the routes matching the root path, as {@code Path=/}
+     */
+    private static final String ROOT = "";
+
+    private static final String PATH_PREDICATE = "Path";
+
+    private static final String MATCH_TRAILING_SLASH_ARG = "matchTrailingSlash";
+
+    private final Map<String, List<Route>> byFirstSegment;
+
+    /**
+     * The routes that are candidates for any request
+     */
+    private final List<Route> others;
+
+    private PathRouteIndex(Map<String, List<Route>> byFirstSegment, List<Route> others) {
+        this.byFirstSegment = byFirstSegment;
+        this.others = others;
+    }
+
+    /**
+     * @param routes      the routes, in order
+     * @param definitions the definitions of the routes by route id, routes without
+     *                    definition are candidates for all requests
+     * @return the index of the routes
+     */
+    static PathRouteIndex of(@NonNull List<Route> routes, @NonNull Map<String, RouteDefinition> definitions) {
+        List<Set<String>> routesFirstSegments = new ArrayList<>(routes.size());
+        Set<String> firstSegments = new LinkedHashSet<>();
+        for (Route route : routes) {
+            Set<String> routeFirstSegments = pathPatterns(definitions.get(route.getId()))
+                    .flatMap(PathRouteIndex::firstSegments).orElse(null);
+            routesFirstSegments.add(routeFirstSegments);
+            if (routeFirstSegments != null) {
+                firstSegments.addAll(routeFirstSegments);
+            }
+        }
+        Map<String, List<Route>> byFirstSegment = new HashMap<>();
+        for (String firstSegment : firstSegments) {
+            byFirstSegment.put(firstSegment, candidates(routes, routesFirstSegments, firstSegment));
+        }
+        return new PathRouteIndex(byFirstSegment, candidates(routes, routesFirstSegments, null));
+    }
+
+    private static List<Route> candidates(List<Route> routes, List<Set<String>> routesFirstSegments,
+            String firstSegment) {
+        List<Route> candidates = new ArrayList<>();
+        for (int i = 0; i < routes.size(); i++) {
+            Set<String> routeFirstSegments = routesFirstSegments.get(i);
+            if (routeFirstSegments == null || routeFirstSegments.contains(firstSegment)) {
+                candidates.add(routes.get(i));
+            }
+        }
+        return List.copyOf(candidates);
+    }
+
+    /**
+     * @param path the request path
+     * @return the routes whose predicates may match a request with the given path,
+     *         in order, or empty if the path can't be looked up in the index and
+     *         all the routes are candidates
+     */
+    Optional<List<Route>> candidates(@NonNull RequestPath path) {
+        if (!path.contextPath().value().isEmpty()) {
+            return Optional.empty();
+        }
+        return firstSegment(path.elements()).map(segment -> byFirstSegment.getOrDefault(segment, others));
+    }
+
+    /**
+     * @return the number of first path segments in the index
+     */
+    int size() {
+        return byFirstSegment.size();
+    }
+
+    private static Optional<String> firstSegment(List<Element> elements) {
+        if (elements.isEmpty() || !(elements.get(0) instanceof Separator)) {
+            return Optional.empty();
+        }
+        if (elements.size() == 1) {
+            return Optional.of(ROOT);
+        }
+        if (elements.get(1) instanceof PathSegment segment && !segment.valueToMatch().isEmpty()) {
+            return Optional.of(segment.valueToMatch());
+        }
+        return Optional.empty();
+    }
+
+    /**
+     * @return the path patterns of the route definition, if its only predicate is
+     *         a {@code Path} predicate with plain values
+     */
+    static Optional<List<String>> pathPatterns(RouteDefinition definition) {
+        if (definition == null || definition.getPredicates().size() != 1) {
+            return Optional.empty();
+        }
+        PredicateDefinition predicate = definition.getPredicates().get(0);
+        if (!PATH_PREDICATE.equals(predicate.getName())) {
+            return Optional.empty();
+        }
+        List<String> patterns = new ArrayList<>();
+        for (Map.Entry<String, String> arg : predicate.getArgs().entrySet()) {
+            String name = arg.getKey();
+            String value = arg.getValue();
+            if (MATCH_TRAILING_SLASH_ARG.equals(name)) {
+                continue;
+            }
+            boolean patternsArg = name.startsWith(NameUtils.GENERATED_NAME_PREFIX) || name.startsWith("patterns");
+            if (!patternsArg || value == null || value.contains("#{")) {
+                return Optional.empty();
+            }
+            // the trailing shortcut argument may be the matchTrailingSlash flag
+            if (!"true".equalsIgnoreCase(value) && !"false".equalsIgnoreCase(value)) {
+                patterns.addAll(List.of(value.split(",")));
+            }
+        }
+        return patterns.isEmpty() ? Optional.empty() : Optional.of(patterns);
+    }
+
+    /**
+     * @return the literal first segments of the path patterns, or empty if any
+     *         pattern may match requests with any first segment
+     */
+    private static Optional<Set<String>> firstSegments(List<String> patterns) {
+        Set<String> firstSegments = new LinkedHashSet<>();
+        for (String pattern : patterns) {
+            Optional<String> firstSegment = firstSegment(pattern.trim());
+            if (firstSegment.isEmpty()) {
+                return Optional.empty();
+            }
+            firstSegments.add(firstSegment.get());
+        }
+        return Optional.of(firstSegments);
+    }
+
+    /**
+     * @return the literal first segment of the path pattern, or empty if it starts
+     *         with a variable or wildcard
+     */
+    static Optional<String> firstSegment(String pattern) {
+        if (!pattern.startsWith("/")) {
+            return Optional.empty();
+        }
+        int end = pattern.indexOf('/', 1);
+        String segment = end < 0 ? pattern.substring(1) : pattern.substring(1, end);
+        if (segment.isEmpty()) {
+            return end < 0 ? Optional.of(ROOT) : Optional.empty();
+        }
+        for (int i = 0; i < segment.length(); i++) {
+            if ("{}*?%;\\".indexOf(segment.charAt(i)) >= 0) {
+                return Optional.empty();
+            }
+        }
+        return Optional.of(segment);
+    }
+}
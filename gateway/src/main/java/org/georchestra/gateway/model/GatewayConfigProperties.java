@@ -58,6 +58,22 @@ public class GatewayConfigProperties {
      */
     private List<RoleBasedAccessRule> globalAccessRules = List.of();
 
+    /**
+     * Whether to evaluate all the access rules with a single matcher compiled at
+     * startup, instead of trying each rule's patterns one by one on each request.
+     * Rules keep the same precedence: service rules first, then global rules, in
+     * declaration order.
+     */
+    private boolean compileAccessRules = false;
+
+    /**
+     * Whether to index the routes whose only predicate is a {@code Path}
+     * predicate by the first segment of their path patterns, to only evaluate the
+     * predicates of the routes that may match each request. Routes are still
+     * selected in order.
+     */
+    private boolean indexPathRoutes = false;
+
     /**
      * Maps logical service names to their corresponding back-end service URLs and
      * security settings.
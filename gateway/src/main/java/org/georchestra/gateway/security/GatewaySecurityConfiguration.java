@@ -69,7 +69,7 @@ import reactor.core.publisher.Mono;
  */
 @Configuration(proxyBeanMethods = false)
 @EnableWebFluxSecurity
-@EnableConfigurationProperties({ GatewayConfigProperties.class })
+@EnableConfigurationProperties({ GatewayConfigProperties.class, GeorchestraGatewaySecurityConfigProperties.class })
 @Slf4j(topic = "org.georchestra.gateway.security")
 public class GatewaySecurityConfiguration {
 
@@ -205,14 +205,28 @@ public class GatewaySecurityConfiguration {
      * Creates a {@link GeorchestraUserMapper} to resolve user identities using the
      * configured resolvers and customizers.
      *
-     * @param resolvers   the list of user resolvers
-     * @param customizers the list of user customizers
+     * @param resolvers         the list of user resolvers
+     * @param customizers       the list of user customizers
+     * @param blockingScheduler the scheduler where blocking resolvers and
+     *                          customizers run
      * @return an instance of {@link GeorchestraUserMapper}
      */
     @Bean
     GeorchestraUserMapper georchestraUserResolver(List<GeorchestraUserMapperExtension> resolvers,
-            List<GeorchestraUserCustomizerExtension> customizers) {
-        return new GeorchestraUserMapper(resolvers, customizers);
+            List<GeorchestraUserCustomizerExtension> customizers, UserResolutionScheduler blockingScheduler) {
+        return new GeorchestraUserMapper(resolvers, customizers, blockingScheduler);
+    }
+
+    /**
+     * Creates the bounded scheduler where blocking user resolution tasks (e.g.
+     * LDAP lookups) run, off the request processing threads.
+     *
+     * @param config the security configuration properties
+     * @return an instance of {@link UserResolutionScheduler}
+     */
+    @Bean
+    UserResolutionScheduler userResolutionScheduler(GeorchestraGatewaySecurityConfigProperties config) {
+        return new UserResolutionScheduler(config.getUserResolution());
     }
 
     /**
@@ -18,6 +18,8 @@
  */
 package org.georchestra.gateway.security;
 
+import java.time.Duration;
+import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
@@ -95,12 +97,82 @@ public class GeorchestraGatewaySecurityConfigProperties implements Validator {
         return delayAfterLoginSeconds > 0;
     }
 
+    /**
+     * Execution of blocking user resolution tasks, such as LDAP lookups, outside
+     * of the request processing threads.
+     */
+    private UserResolution userResolution = new UserResolution();
+
+    /**
+     * Dispatching of username/password authentications among the enabled LDAP
+     * configurations.
+     */
+    private LdapAuthentication ldapAuthentication = new LdapAuthentication();
+
     /**
      * LDAP server configurations mapped by their respective names.
      */
     @Valid
     private Map<String, Server> ldap = Map.of();
 
+    /**
+     * Configuration of the bounded thread pool where blocking
+     * {@link GeorchestraUserMapperExtension user mappers} and
+     * {@link GeorchestraUserCustomizerExtension user customizers} run.
+     */
+    @Generated
+    public static @Data @Accessors(chain = true) class UserResolution {
+
+        /**
+         * Maximum number of threads running blocking user resolution tasks
+         * concurrently.
+         */
+        private int maxThreads = 50;
+
+        /**
+         * Maximum number of blocking user resolution tasks waiting for a thread. Tasks
+         * submitted beyond this limit fail immediately.
+         */
+        private int maxQueuedTasks = 1_000;
+
+        /**
+         * Maximum time to wait for a blocking user resolution task to complete.
+         */
+        private Duration timeout = Duration.ofSeconds(30);
+    }
+
+    /**
+     * Configuration of how username/password authentications are dispatched among
+     * the enabled LDAP configurations.
+     */
+    @Generated
+    public static @Data @Accessors(chain = true) class LdapAuthentication {
+
+        /**
+         * Whether to check the credentials against all the enabled LDAP configurations
+         * concurrently, instead of one after the other. The first successful
+         * authentication, in the order the LDAP configurations are defined, is used.
+         */
+        private boolean parallel = false;
+
+        /**
+         * Maximum time to wait for a parallel authentication to complete. Pending
+         * credential checks are cancelled when it expires.
+         */
+        private Duration timeout = Duration.ofSeconds(10);
+
+        /**
+         * Maximum number of threads running parallel credential checks concurrently.
+         */
+        private int maxThreads = 50;
+
+        /**
+         * Maximum number of parallel credential checks waiting for a thread. Checks
+         * submitted beyond this limit fail immediately.
+         */
+        private int maxQueuedTasks = 1_000;
+    }
+
     /**
      * Represents a configured LDAP server.
      */
@@ -120,10 +192,25 @@ public class GeorchestraGatewaySecurityConfigProperties implements Validator {
         boolean extended;
 
         /**
-         * URL of the LDAP server.
+         * URL of the LDAP server. When {@code replicas} are configured, this is the
+         * primary server, the only one receiving write operations.
          */
         private String url;
 
+        /**
+         * Ordered list of URLs of read-only replicas of the LDAP server. Read
+         * operations and authentications fail over to them when the primary server is
+         * down, and extended configurations route their lookups to the fastest healthy
+         * server.
+         */
+        private List<String> replicas = new ArrayList<>();
+
+        /**
+         * Health checking of the LDAP servers, used when {@code replicas} are
+         * configured.
+         */
+        private HealthCheck healthCheck = new HealthCheck();
+
         /**
          * Flag indicating if the LDAP authentication endpoint is an Active Directory
          * service.
@@ -164,6 +251,306 @@ public class GeorchestraGatewaySecurityConfigProperties implements Validator {
          * Password for the administrator user used for LDAP authentication operations.
          */
         private String adminPassword;
+
+        /**
+         * Caching of directory lookups performed for this LDAP configuration. Used only
+         * when {@code extended} is {@code true}.
+         */
+        private Caching cache = new Caching();
+
+        /**
+         * In-memory snapshot of the directory, serving user lookups without network
+         * round trips. Used only when {@code extended} is {@code true}.
+         */
+        private DirectorySnapshot snapshot = new DirectorySnapshot();
+
+        /**
+         * In-memory index of the users' emails, resolving logins by email without
+         * searching the directory. Used only when {@code extended} is {@code true}.
+         */
+        private EmailIndex emailIndex = new EmailIndex();
+
+        /**
+         * In-memory index of the roles' members, resolving the roles of authenticated
+         * users without searching the directory. Used only when {@code extended} is
+         * {@code true}.
+         */
+        private RoleMembershipIndex roleIndex = new RoleMembershipIndex();
+
+        /**
+         * Pool of connections used to look up users, organizations, and roles. Used
+         * only when {@code extended} is {@code true}.
+         */
+        private ConnectionPool pool = new ConnectionPool();
+
+        /**
+         * Circuit breaking of the directory lookups and authentications. Used only
+         * when {@code extended} is {@code true}.
+         */
+        private CircuitBreaker circuitBreaker = new CircuitBreaker();
+    }
+
+    /**
+     * Circuit breaker settings of an extended LDAP directory, failing fast instead
+     * of piling up calls while the directory is unavailable.
+     */
+    @Generated
+    public static @Data @Accessors(chain = true) class CircuitBreaker {
+
+        /**
+         * Whether to enable circuit breaking.
+         */
+        private boolean enabled = false;
+
+        /**
+         * Percentage of failed calls, among the last {@code sliding-window-size} ones,
+         * at or above which the circuit opens.
+         */
+        private int failureRateThreshold = 50;
+
+        /**
+         * Number of most recent calls the failure rate is computed over.
+         */
+        private int slidingWindowSize = 20;
+
+        /**
+         * Minimum number of calls in the sliding window before the failure rate is
+         * evaluated.
+         */
+        private int minimumNumberOfCalls = 10;
+
+        /**
+         * Maximum time to wait for the directory to answer a lookup. Calls taking
+         * longer count as failures.
+         */
+        private Duration callTimeout = Duration.ofSeconds(5);
+
+        /**
+         * Time the circuit stays open, failing calls right away, before letting a
+         * trial call through.
+         */
+        private Duration waitDurationInOpenState = Duration.ofSeconds(30);
+
+        /**
+         * How long the last known details of each user are kept, to resolve the users
+         * of already authenticated sessions while the directory is unavailable. Zero
+         * disables serving stale users.
+         */
+        private Duration staleUserTimeToLive = Duration.ofHours(1);
+    }
+
+    /**
+     * Health checking settings of the servers of a replicated LDAP directory.
+     */
+    @Generated
+    public static @Data @Accessors(chain = true) class HealthCheck {
+
+        /**
+         * Delay between probes of each server. Used only when {@code extended} is
+         * {@code true}.
+         */
+        private Duration interval = Duration.ofSeconds(10);
+
+        /**
+         * Maximum time to wait for a server to accept a connection, or to answer a
+         * probe, before considering it down.
+         */
+        private Duration timeout = Duration.ofSeconds(2);
+    }
+
+    /**
+     * Settings of the pool of connections to an extended LDAP directory.
+     */
+    @Generated
+    public static @Data @Accessors(chain = true) class ConnectionPool {
+
+        /**
+         * Whether to pool connections. Disabled by default, each directory operation
+         * opening and binding a new connection.
+         */
+        private boolean enabled = false;
+
+        /**
+         * Minimum number of idle connections to keep in the pool.
+         */
+        private int minIdle = 1;
+
+        /**
+         * Maximum number of idle connections to keep in the pool.
+         */
+        private int maxIdle = 8;
+
+        /**
+         * Maximum number of connections in use at the same time. Negative for no
+         * limit.
+         */
+        private int maxActive = 8;
+
+        /**
+         * Maximum number of connections, in use or idle. Negative for no limit.
+         */
+        private int maxTotal = -1;
+
+        /**
+         * Maximum time to wait for a connection when the pool is exhausted, failing
+         * afterwards. Zero or negative to wait indefinitely.
+         */
+        private Duration maxWait = Duration.ofSeconds(10);
+
+        /**
+         * Whether to validate connections before handing them out, replacing the ones
+         * that are no longer usable (e.g. closed by the server).
+         */
+        private boolean testOnBorrow = true;
+
+        /**
+         * Whether to validate idle connections on each eviction run.
+         */
+        private boolean testWhileIdle = true;
+
+        /**
+         * Delay between runs of the idle connections evictor. Zero or negative
+         * disables eviction.
+         */
+        private Duration timeBetweenEvictionRuns = Duration.ofMinutes(1);
+
+        /**
+         * Minimum time a connection may sit idle before being evicted.
+         */
+        private Duration minEvictableIdleTime = Duration.ofMinutes(5);
+    }
+
+    /**
+     * Settings of the in-memory index of an extended LDAP directory's user emails.
+     */
+    @Generated
+    public static @Data @Accessors(chain = true) class EmailIndex {
+
+        /**
+         * Whether to keep an in-memory index of the users' emails, used to resolve the
+         * user name of those logging in with their email. Emails not found in the
+         * index are still searched in the directory.
+         */
+        private boolean enabled = false;
+
+        /**
+         * Delay between reloads of the index.
+         */
+        private Duration refreshInterval = Duration.ofMinutes(5);
+    }
+
+    /**
+     * Settings of the in-memory index of an extended LDAP directory's role
+     * memberships.
+     */
+    @Generated
+    public static @Data @Accessors(chain = true) class RoleMembershipIndex {
+
+        /**
+         * Whether to keep an in-memory index of the roles' members, used to resolve
+         * the roles of authenticated users. Only applies if the roles search filter
+         * matches a single membership attribute, such as {@code (member={0})}.
+         */
+        private boolean enabled = false;
+
+        /**
+         * Delay between incremental synchronizations, which only fetch the roles whose
+         * {@code modifyTimestamp} changed since the previous one. Bounds how long a
+         * role membership change takes to apply.
+         */
+        private Duration syncInterval = Duration.ofMinutes(1);
+
+        /**
+         * Delay between full reloads of the index, which also drop the roles deleted
+         * from the directory.
+         */
+        private Duration fullSyncInterval = Duration.ofHours(1);
+    }
+
+    /**
+     * Settings of the in-memory snapshot of an extended LDAP directory's users and
+     * organizations.
+     */
+    @Generated
+    public static @Data @Accessors(chain = true) class DirectorySnapshot {
+
+        /**
+         * Whether to keep an in-memory snapshot of the directory. Meant for large
+         * deployments, where most lookups would otherwise hit the directory. Users not
+         * found in the snapshot are still looked up in the directory.
+         */
+        private boolean enabled = false;
+
+        /**
+         * Delay between incremental synchronizations, which only fetch the entries
+         * whose {@code modifyTimestamp} changed since the previous one.
+         */
+        private Duration syncInterval = Duration.ofMinutes(1);
+
+        /**
+         * Delay between full reloads of the snapshot, which also drop the users
+         * deleted from the directory.
+         */
+        private Duration fullSyncInterval = Duration.ofHours(1);
+    }
+
+    /**
+     * Caches of LDAP directory lookups for an extended LDAP configuration.
+     */
+    @Generated
+    public static @Data @Accessors(chain = true) class Caching {
+
+        /**
+         * Cache of authenticated users, keyed by username, avoiding a directory round
+         * trip each time a user is resolved from an existing session.
+         */
+        private CacheConfig users = new CacheConfig();
+
+        /**
+         * Cache of organizations, keyed by short name, avoiding a directory round trip
+         * each time a user is extended with its organization. Missing organizations are
+         * cached too.
+         */
+        private CacheConfig orgs = new CacheConfig();
+
+        /**
+         * Cache of successful HTTP Basic authentications, keyed by a salted hash of
+         * the username and password, avoiding an LDAP bind on each request of
+         * scripted clients. Disabled by default, since a changed password keeps
+         * working until the entry expires. {@code refresh-after-write} does not apply.
+         */
+        private CacheConfig credentials = new CacheConfig().setEnabled(false).setTimeToLive(Duration.ofMinutes(5))
+                .setRefreshAfterWrite(Duration.ZERO).setMaximumSize(1_000);
+    }
+
+    /**
+     * Size and expiration settings of an LDAP lookups cache.
+     */
+    @Generated
+    public static @Data @Accessors(chain = true) class CacheConfig {
+
+        /**
+         * Whether the cache is enabled. Disabled by default, every lookup hits the
+         * LDAP directory.
+         */
+        private boolean enabled = false;
+
+        /**
+         * Maximum time an entry is kept since it was last loaded from the directory.
+         */
+        private Duration timeToLive = Duration.ofMinutes(10);
+
+        /**
+         * Time after which an entry is reloaded from the directory upon its next
+         * access. Bounds how long a change in the directory (e.g. a role granted to a
+         * user) takes to become visible for active users. Zero disables refreshing.
+         */
+        private Duration refreshAfterWrite = Duration.ofMinutes(1);
+
+        /**
+         * Maximum number of entries the cache may hold.
+         */
+        private long maximumSize = 10_000;
     }
 
     /**
@@ -191,6 +578,15 @@ public class GeorchestraGatewaySecurityConfigProperties implements Validator {
          * will be returned.
          */
         private @Setter String[] returningAttributes;
+
+        /**
+         * Whether to only retrieve, from the user entries of an extended LDAP
+         * directory, the attributes needed to build the geOrchestra headers enabled in
+         * {@code georchestra.gateway.default-headers} and
+         * {@code georchestra.gateway.services.*.headers}, instead of all of them.
+         * Applies to {@code returning-attributes} too, if not set.
+         */
+        private boolean projectAttributes = false;
     }
 
     /**
@@ -52,4 +52,18 @@ public interface GeorchestraUserCustomizerExtension
     default int getOrder() {
         return 0;
     }
+
+    /**
+     * Whether {@link #apply} performs blocking calls (e.g. LDAP queries or account
+     * creation) for the given token. {@link GeorchestraUserMapper} runs blocking
+     * customizers on the bounded {@link UserResolutionScheduler} instead of the
+     * calling (possibly event loop) thread, so this shall only be {@code true} for
+     * the tokens this customizer acts upon.
+     *
+     * @param authToken the authentication token the user was resolved from
+     * @return {@code false} by default
+     */
+    default boolean isBlocking(Authentication authToken) {
+        return false;
+    }
 }
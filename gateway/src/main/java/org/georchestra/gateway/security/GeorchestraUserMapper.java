@@ -20,13 +20,20 @@ package org.georchestra.gateway.security;
 
 import java.util.List;
 import java.util.Optional;
+import java.util.concurrent.atomic.AtomicLong;
 
 import org.georchestra.gateway.security.exceptions.DuplicatedEmailFoundException;
 import org.georchestra.security.model.GeorchestraUser;
 import org.springframework.security.core.Authentication;
+import org.springframework.web.server.ServerWebExchange;
 
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
 import lombok.NonNull;
 import lombok.RequiredArgsConstructor;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
 
 /**
  * Resolves a {@link GeorchestraUser} from an {@link Authentication} token by
@@ -47,13 +54,37 @@ import lombok.RequiredArgsConstructor;
  * {@link ResolveGeorchestraUserGlobalFilter} to extract user details from
  * authentication tokens in the request lifecycle.
  * </p>
+ * <p>
+ * Resolving a user may be expensive (e.g. an LDAP user lookup plus an
+ * organization lookup), and several components need the resolved user while
+ * processing a single request (access rules authorization, the resolved user
+ * global filter, the {@literal /whoami} endpoint). Use
+ * {@link #resolve(Authentication, ServerWebExchange)} to memoize the resolution
+ * in the exchange attributes so that it's performed only once per request. The
+ * {@code georchestra.gateway.users.resolve} counter, tagged by {@code source},
+ * reports how many resolutions were delegated to the extensions
+ * ({@code source=mapper}) versus served from the exchange
+ * ({@code source=exchange}).
+ * </p>
+ * <p>
+ * Reactive callers should use {@link #resolveAsync(Authentication)} or
+ * {@link #resolveAsync(Authentication, ServerWebExchange)}, which run the
+ * {@link GeorchestraUserMapperExtension#isBlocking(Authentication) blocking}
+ * extensions on a {@link UserResolutionScheduler}.
+ * </p>
  * 
  * @see GeorchestraUserMapperExtension
  * @see GeorchestraUserCustomizerExtension
  * @see ResolveGeorchestraUserGlobalFilter
  */
 @RequiredArgsConstructor
-public class GeorchestraUserMapper {
+public class GeorchestraUserMapper implements MeterBinder {
+
+    /**
+     * Exchange attribute holding the {@link Resolution} memoized by
+     * {@link #resolve(Authentication, ServerWebExchange)}
+     */
+    static final String RESOLVED_USER_KEY = GeorchestraUserMapper.class.getCanonicalName() + ".resolved";
 
     /**
      * Ordered list of user mapper extensions responsible for resolving a
@@ -67,6 +98,28 @@ public class GeorchestraUserMapper {
      */
     private final @NonNull List<GeorchestraUserCustomizerExtension> customizers;
 
+    /**
+     * Scheduler where
+     * {@link GeorchestraUserMapperExtension#isBlocking(Authentication) blocking}
+     * extensions run when resolving users {@link #resolveAsync(Authentication)
+     * asynchronously}
+     */
+    private final @NonNull UserResolutionScheduler blockingScheduler;
+
+    private final AtomicLong resolved = new AtomicLong();
+    private final AtomicLong memoized = new AtomicLong();
+
+    /**
+     * The result of resolving the user for a given authentication token, as stored
+     * in the exchange attributes.
+     */
+    private record Resolution(Authentication authentication, Optional<GeorchestraUser> user) {
+
+        boolean appliesTo(Authentication authToken) {
+            return authentication == authToken || authentication.equals(authToken);
+        }
+    }
+
     /**
      * Default constructor for use when no resolvers or customizers are provided.
      */
@@ -83,6 +136,21 @@ public class GeorchestraUserMapper {
         this(resolvers, List.of());
     }
 
+    /**
+     * Constructor for initializing with user resolvers and customizers, running
+     * {@link GeorchestraUserMapperExtension#isBlocking(Authentication) blocking}
+     * extensions on the calling thread.
+     *
+     * @param resolvers   the list of {@link GeorchestraUserMapperExtension}
+     *                    instances
+     * @param customizers the list of {@link GeorchestraUserCustomizerExtension}
+     *                    instances
+     */
+    public GeorchestraUserMapper(List<GeorchestraUserMapperExtension> resolvers,
+            List<GeorchestraUserCustomizerExtension> customizers) {
+        this(resolvers, customizers, UserResolutionScheduler.immediate());
+    }
+
     /**
      * Attempts to resolve a {@link GeorchestraUser} from the provided
      * authentication token.
@@ -102,10 +170,121 @@ public class GeorchestraUserMapper {
      *                                       are found
      */
     public Optional<GeorchestraUser> resolve(@NonNull Authentication authToken) throws DuplicatedEmailFoundException {
+        resolved.incrementAndGet();
         return resolvers.stream().map(resolver -> resolver.resolve(authToken)).filter(Optional::isPresent)
                 .map(Optional::orElseThrow).map(mapped -> customize(authToken, mapped)).findFirst();
     }
 
+    /**
+     * Request-scoped variant of {@link #resolve(Authentication)}.
+     * <p>
+     * The first call for a given exchange and authentication token resolves the
+     * user and stores the result in the exchange attributes. Subsequent calls
+     * during the same request, for the same authentication, return the memoized
+     * result without querying the {@link GeorchestraUserMapperExtension
+     * extensions} again.
+     * </p>
+     * <p>
+     * Failed resolutions (e.g. a {@link DuplicatedEmailFoundException}) are not
+     * memoized.
+     * </p>
+     *
+     * @param authToken the authentication token to resolve
+     * @param exchange  the current request exchange, where to memoize the result
+     * @return an optional {@link GeorchestraUser} if resolution is successful
+     * @throws DuplicatedEmailFoundException if multiple users with the same email
+     *                                       are found
+     */
+    public Optional<GeorchestraUser> resolve(@NonNull Authentication authToken, @NonNull ServerWebExchange exchange)
+            throws DuplicatedEmailFoundException {
+        Resolution resolution = exchange.getAttribute(RESOLVED_USER_KEY);
+        if (resolution != null && resolution.appliesTo(authToken)) {
+            memoized.incrementAndGet();
+            return resolution.user();
+        }
+        Optional<GeorchestraUser> user = resolve(authToken);
+        exchange.getAttributes().put(RESOLVED_USER_KEY, new Resolution(authToken, user));
+        return user;
+    }
+
+    /**
+     * Reactive variant of {@link #resolve(Authentication)}.
+     * <p>
+     * Each {@link GeorchestraUserMapperExtension} is subscribed to in order until
+     * one successfully resolves a user, and then the
+     * {@link GeorchestraUserCustomizerExtension customizers} are applied in order.
+     * Extensions declaring themselves as
+     * {@link GeorchestraUserMapperExtension#isBlocking(Authentication) blocking}
+     * for the given token run on the bounded {@link UserResolutionScheduler}, so
+     * that the calling thread (usually a Netty event loop thread) is not blocked
+     * by, for example, LDAP lookups. The returned {@link Mono} may then emit on
+     * that scheduler's threads.
+     * </p>
+     *
+     * @param authToken the authentication token to resolve
+     * @return a {@link Mono} emitting the optional {@link GeorchestraUser}, or
+     *         failing with {@link DuplicatedEmailFoundException} if multiple users
+     *         with the same email are found
+     */
+    public Mono<Optional<GeorchestraUser>> resolveAsync(@NonNull Authentication authToken) {
+        return Flux.fromIterable(resolvers).concatMap(resolver -> resolveAsync(resolver, authToken))
+                .filter(Optional::isPresent).map(Optional::orElseThrow).next()
+                .flatMap(mapped -> customizeAsync(authToken, mapped)).map(Optional::of)
+                .defaultIfEmpty(Optional.empty()).doOnSubscribe(subscription -> resolved.incrementAndGet());
+    }
+
+    /**
+     * Request-scoped variant of {@link #resolveAsync(Authentication)}, memoizing
+     * the result in the exchange attributes like
+     * {@link #resolve(Authentication, ServerWebExchange)} does.
+     *
+     * @param authToken the authentication token to resolve
+     * @param exchange  the current request exchange, where to memoize the result
+     * @return a {@link Mono} emitting the optional {@link GeorchestraUser}
+     */
+    public Mono<Optional<GeorchestraUser>> resolveAsync(@NonNull Authentication authToken,
+            @NonNull ServerWebExchange exchange) {
+        return Mono.defer(() -> {
+            Resolution resolution = exchange.getAttribute(RESOLVED_USER_KEY);
+            if (resolution != null && resolution.appliesTo(authToken)) {
+                memoized.incrementAndGet();
+                return Mono.just(resolution.user());
+            }
+            return resolveAsync(authToken).doOnNext(
+                    user -> exchange.getAttributes().put(RESOLVED_USER_KEY, new Resolution(authToken, user)));
+        });
+    }
+
+    private Mono<Optional<GeorchestraUser>> resolveAsync(GeorchestraUserMapperExtension resolver,
+            Authentication authToken) {
+        Mono<Optional<GeorchestraUser>> resolution = resolver.resolveAsync(authToken);
+        return resolver.isBlocking(authToken) ? blockingScheduler.schedule(resolution) : resolution;
+    }
+
+    private Mono<GeorchestraUser> customizeAsync(Authentication authToken, GeorchestraUser mapped) {
+        Mono<GeorchestraUser> customized = Mono.just(mapped);
+        for (GeorchestraUserCustomizerExtension customizer : customizers) {
+            customized = customized.flatMap(user -> {
+                Mono<GeorchestraUser> customization = Mono.fromSupplier(() -> customizer.apply(authToken, user));
+                return customizer.isBlocking(authToken) ? blockingScheduler.schedule(customization) : customization;
+            });
+        }
+        return customized;
+    }
+
+    /**
+     * Registers the {@code georchestra.gateway.users.resolve} counters.
+     */
+    @Override
+    public void bindTo(@NonNull MeterRegistry registry) {
+        FunctionCounter.builder("georchestra.gateway.users.resolve", resolved, AtomicLong::get)
+                .description("Number of users resolved from an Authentication").tag("source", "mapper")
+                .register(registry);
+        FunctionCounter.builder("georchestra.gateway.users.resolve", memoized, AtomicLong::get)
+                .description("Number of users resolved from an Authentication").tag("source", "exchange")
+                .register(registry);
+    }
+
     /**
      * Applies registered {@link GeorchestraUserCustomizerExtension} instances to
      * the resolved user.
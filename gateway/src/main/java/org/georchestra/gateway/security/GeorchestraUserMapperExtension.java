@@ -24,6 +24,8 @@ import org.georchestra.security.model.GeorchestraUser;
 import org.springframework.core.Ordered;
 import org.springframework.security.core.Authentication;
 
+import reactor.core.publisher.Mono;
+
 /**
  * Defines an extension point for mapping authentication tokens to
  * {@link GeorchestraUser} instances.
@@ -64,6 +66,38 @@ public interface GeorchestraUserMapperExtension extends Ordered {
      */
     Optional<GeorchestraUser> resolve(Authentication authToken);
 
+    /**
+     * Reactive variant of {@link #resolve(Authentication)}.
+     * <p>
+     * The default implementation calls {@link #resolve(Authentication)} upon
+     * subscription. Implementations able to resolve the user without blocking
+     * (e.g. using a reactive client) may override it.
+     * </p>
+     *
+     * @param authToken the authentication token representing the user's credentials
+     * @return a {@link Mono} emitting the optional {@link GeorchestraUser}
+     *         resolved by this extension
+     * @see #isBlocking(Authentication)
+     */
+    default Mono<Optional<GeorchestraUser>> resolveAsync(Authentication authToken) {
+        return Mono.fromSupplier(() -> resolve(authToken));
+    }
+
+    /**
+     * Whether {@link #resolveAsync(Authentication)} performs blocking calls (e.g.
+     * LDAP queries) to resolve the given token. {@link GeorchestraUserMapper}
+     * subscribes to blocking extensions on the bounded
+     * {@link UserResolutionScheduler} instead of the calling (possibly event loop)
+     * thread, so this shall only be {@code true} for the tokens this extension
+     * handles.
+     *
+     * @param authToken the authentication token to resolve
+     * @return {@code false} by default
+     */
+    default boolean isBlocking(Authentication authToken) {
+        return false;
+    }
+
     /**
      * Defines the order in which this resolver should be executed relative to other
      * {@link GeorchestraUserMapperExtension} implementations.
@@ -19,6 +19,7 @@
 package org.georchestra.gateway.security;
 
 import java.net.URI;
+import java.util.Optional;
 
 import org.georchestra.gateway.model.GeorchestraOrganizations;
 import org.georchestra.gateway.model.GeorchestraUsers;
@@ -33,6 +34,7 @@ import org.springframework.cloud.gateway.filter.GlobalFilter;
 import org.springframework.cloud.gateway.filter.RouteToRequestUrlFilter;
 import org.springframework.cloud.gateway.route.Route;
 import org.springframework.core.Ordered;
+import org.springframework.http.server.reactive.ServerHttpRequestDecorator;
 import org.springframework.security.core.Authentication;
 import org.springframework.security.web.server.DefaultServerRedirectStrategy;
 import org.springframework.security.web.server.ServerRedirectStrategy;
@@ -44,8 +46,11 @@ import org.springframework.web.server.WebSession;
 
 import lombok.NonNull;
 import lombok.RequiredArgsConstructor;
+import io.netty.channel.EventLoop;
 import lombok.extern.slf4j.Slf4j;
 import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Schedulers;
+import reactor.netty.Connection;
 
 /**
  * A {@link GlobalFilter} that resolves the {@link GeorchestraUser} from the
@@ -105,6 +110,15 @@ public class ResolveGeorchestraUserGlobalFilter implements GlobalFilter, Ordered
      * Resolves the authenticated {@link GeorchestraUser} from the request context
      * and stores it for downstream processing.
      * <p>
+     * The user may have already been resolved for this exchange (e.g. by the
+     * access rules authorization), in which case
+     * {@link GeorchestraUserMapper#resolveAsync(Authentication, ServerWebExchange)}
+     * returns the memoized result. Otherwise, blocking lookups are performed off
+     * the event loop thread, on the {@link UserResolutionScheduler}. Either way,
+     * the rest of the filter chain, proxying the request, runs back on the
+     * request's event loop rather than on that bounded scheduler.
+     * </p>
+     * <p>
      * If an {@link ExtendedGeorchestraUser} is found, the associated
      * {@link Organization} is also extracted and stored.
      * </p>
@@ -122,7 +136,8 @@ public class ResolveGeorchestraUserGlobalFilter implements GlobalFilter, Ordered
     public Mono<Void> filter(ServerWebExchange exchange, GatewayFilterChain chain) {
         return exchange.getPrincipal()
                 .doOnNext(principal -> log.debug("Resolving user from {}", principal.getClass().getName()))
-                .filter(Authentication.class::isInstance).map(Authentication.class::cast).map(resolver::resolve)
+                .filter(Authentication.class::isInstance).map(Authentication.class::cast)
+                .flatMap(authentication -> resolve(authentication, exchange))
                 .map(user -> storeUserAndOrganization(exchange, user.orElse(null))).defaultIfEmpty(exchange)
                 .flatMap(chain::filter)
                 .onErrorResume(DuplicatedEmailFoundException.class, error -> handleDuplicateEmailError(exchange))
@@ -131,6 +146,34 @@ public class ResolveGeorchestraUserGlobalFilter implements GlobalFilter, Ordered
                         error -> handleDuplicateUsernameError(exchange, error));
     }
 
+    /**
+     * Resolves the user, emitting it on the request's Netty event loop if resolved
+     * on another thread (e.g. the {@link UserResolutionScheduler}, here or by the
+     * access rules authorization).
+     */
+    private Mono<Optional<GeorchestraUser>> resolve(Authentication authentication, ServerWebExchange exchange) {
+        Mono<Optional<GeorchestraUser>> user = resolver.resolveAsync(authentication, exchange);
+        EventLoop eventLoop = eventLoop(exchange);
+        if (eventLoop == null) {
+            return user;
+        }
+        return user.flatMap(resolved -> eventLoop.inEventLoop() ? Mono.just(resolved)
+                : Mono.just(resolved).publishOn(Schedulers.fromExecutor(eventLoop)));
+    }
+
+    /**
+     * @return the event loop of the request's connection, or {@code null} if not
+     *         served by Reactor Netty
+     */
+    private static EventLoop eventLoop(ServerWebExchange exchange) {
+        try {
+            Object nativeRequest = ServerHttpRequestDecorator.getNativeRequest(exchange.getRequest());
+            return nativeRequest instanceof Connection connection ? connection.channel().eventLoop() : null;
+        } catch (IllegalArgumentException | IllegalStateException e) {
+            return null;
+        }
+    }
+
     /**
      * Stores the resolved {@link GeorchestraUser} and its associated
      * {@link Organization} (if applicable) in the exchange attributes.
@@ -0,0 +1,188 @@
+/*
+ * Copyright (C) 2022 by the geOrchestra PSC
+ *
+ * This file is part of geOrchestra.
+ *
+ * geOrchestra is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free
+ * Software Foundation, either version 3 of the License, or (at your option)
+ * any later version.
+ *
+ * geOrchestra is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * geOrchestra. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.georchestra.gateway.security;
+
+import java.time.Duration;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.georchestra.gateway.security.GeorchestraGatewaySecurityConfigProperties.UserResolution;
+import org.springframework.beans.factory.DisposableBean;
+
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import lombok.NonNull;
+import lombok.extern.slf4j.Slf4j;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Scheduler;
+import reactor.core.scheduler.Schedulers;
+
+/**
+ * Runs blocking user resolution tasks (e.g. LDAP lookups performed by
+ * {@link GeorchestraUserMapperExtension#isBlocking(org.springframework.security.core.Authentication)
+ * blocking user mappers})
+ * on a dedicated, bounded {@link Scheduler}, so that a slow directory does not
+ * stall the request processing (event loop) threads.
+ * <p>
+ * The scheduler runs at most {@link UserResolution#getMaxThreads()
+ * maxThreads} tasks concurrently, and keeps at most
+ * {@link UserResolution#getMaxQueuedTasks() maxQueuedTasks} waiting for a
+ * thread, failing with a {@link RejectedExecutionException} beyond that limit.
+ * Tasks not completed within {@link UserResolution#getTimeout() timeout} fail
+ * with a {@link TimeoutException}.
+ * </p>
+ * <p>
+ * Exports the following metrics:
+ * <ul>
+ * <li>{@code georchestra.gateway.users.blocking.tasks}: number of completed
+ * tasks, tagged by {@code outcome} ({@code success}, {@code error},
+ * {@code timeout}, or {@code rejected})
+ * <li>{@code georchestra.gateway.users.blocking.active}: number of tasks
+ * currently running
+ * <li>{@code georchestra.gateway.users.blocking.queued}: number of tasks
+ * waiting for a thread
+ * </ul>
+ * </p>
+ *
+ * @see GeorchestraUserMapper#resolveAsync(org.springframework.security.core.Authentication)
+ */
+@Slf4j(topic = "org.georchestra.gateway.security")
+public class UserResolutionScheduler implements MeterBinder, DisposableBean {
+
+    private static final String METRIC_PREFIX = "georchestra.gateway.users.blocking";
+
+    private final @NonNull Scheduler scheduler;
+
+    /**
+     * Maximum time to wait for a task to complete, {@code null} meaning no limit
+     */
+    private final Duration timeout;
+
+    private final AtomicLong active = new AtomicLong();
+    private final AtomicLong queued = new AtomicLong();
+    private final AtomicLong succeeded = new AtomicLong();
+    private final AtomicLong failed = new AtomicLong();
+    private final AtomicLong timedOut = new AtomicLong();
+    private final AtomicLong rejected = new AtomicLong();
+
+    /**
+     * Creates a scheduler with its own bounded pool of threads, according to the
+     * given configuration.
+     *
+     * @param config the thread pool and timeout configuration
+     */
+    public UserResolutionScheduler(@NonNull UserResolution config) {
+        this(Schedulers.newBoundedElastic(config.getMaxThreads(), config.getMaxQueuedTasks(), "georchestra-users"),
+                config.getTimeout());
+        log.info("Blocking user resolution tasks limited to {} threads, {} queued tasks, {} timeout",
+                config.getMaxThreads(), config.getMaxQueuedTasks(), config.getTimeout());
+    }
+
+    UserResolutionScheduler(@NonNull Scheduler scheduler, Duration timeout) {
+        this.scheduler = scheduler;
+        this.timeout = timeout == null || timeout.isZero() || timeout.isNegative() ? null : timeout;
+    }
+
+    /**
+     * @return a scheduler that runs the tasks on the subscribing thread, with no
+     *         timeout, for when there are no blocking user resolution tasks to
+     *         isolate
+     */
+    public static UserResolutionScheduler immediate() {
+        return new UserResolutionScheduler(Schedulers.immediate(), null);
+    }
+
+    /**
+     * Subscribes to the given blocking task on this scheduler's threads.
+     *
+     * @param <T>          the task's result type
+     * @param blockingTask the {@link Mono} performing blocking calls upon
+     *                     subscription
+     * @return a {@link Mono} emitting the task's result, or failing with
+     *         {@link TimeoutException} or {@link RejectedExecutionException} if it
+     *         did not complete in time or could not be queued
+     */
+    public <T> Mono<T> schedule(@NonNull Mono<T> blockingTask) {
+        return Mono.defer(() -> {
+            queued.incrementAndGet();
+            final AtomicBoolean dequeued = new AtomicBoolean();
+            final Runnable dequeue = () -> {
+                if (dequeued.compareAndSet(false, true)) {
+                    queued.decrementAndGet();
+                }
+            };
+            Mono<T> running = Mono.defer(() -> {
+                dequeue.run();
+                active.incrementAndGet();
+                return blockingTask;
+            }).doFinally(signal -> active.decrementAndGet()).subscribeOn(scheduler);
+
+            if (timeout != null) {
+                running = running.timeout(timeout);
+            }
+            return running.doOnSuccess(result -> succeeded.incrementAndGet()).doOnError(this::countError)
+                    .doFinally(signal -> dequeue.run());
+        });
+    }
+
+    private void countError(Throwable error) {
+        if (error instanceof TimeoutException) {
+            log.warn("Blocking user resolution task timed out after {}", timeout);
+            timedOut.incrementAndGet();
+        } else if (error instanceof RejectedExecutionException) {
+            log.warn("Blocking user resolution task rejected, too many queued tasks");
+            rejected.incrementAndGet();
+        } else {
+            failed.incrementAndGet();
+        }
+    }
+
+    /**
+     * Registers the {@code georchestra.gateway.users.blocking.*} metrics.
+     */
+    @Override
+    public void bindTo(@NonNull MeterRegistry registry) {
+        outcomeCounter(registry, "success", succeeded);
+        outcomeCounter(registry, "error", failed);
+        outcomeCounter(registry, "timeout", timedOut);
+        outcomeCounter(registry, "rejected", rejected);
+        Gauge.builder(METRIC_PREFIX + ".active", active, AtomicLong::get)
+                .description("Number of blocking user resolution tasks running").register(registry);
+        Gauge.builder(METRIC_PREFIX + ".queued", queued, AtomicLong::get)
+                .description("Number of blocking user resolution tasks waiting for a thread").register(registry);
+    }
+
+    private void outcomeCounter(MeterRegistry registry, String outcome, AtomicLong count) {
+        FunctionCounter.builder(METRIC_PREFIX + ".tasks", count, AtomicLong::get)
+                .description("Number of blocking user resolution tasks completed").tag("outcome", outcome)
+                .register(registry);
+    }
+
+    /**
+     * Releases the scheduler's threads.
+     */
+    @Override
+    public void destroy() {
+        scheduler.dispose();
+    }
+}
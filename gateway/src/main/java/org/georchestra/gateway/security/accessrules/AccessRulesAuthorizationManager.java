@@ -0,0 +1,192 @@
+/*
+ * Copyright (C) 2022 by the geOrchestra PSC
+ *
+ * This file is part of geOrchestra.
+ *
+ * geOrchestra is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free
+ * Software Foundation, either version 3 of the License, or (at your option)
+ * any later version.
+ *
+ * geOrchestra is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * geOrchestra. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.georchestra.gateway.security.accessrules;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.springframework.http.server.PathContainer;
+import org.springframework.http.server.PathContainer.Element;
+import org.springframework.http.server.PathContainer.PathSegment;
+import org.springframework.security.authorization.AuthorizationDecision;
+import org.springframework.security.authorization.ReactiveAuthorizationManager;
+import org.springframework.security.core.Authentication;
+import org.springframework.security.web.server.authorization.AuthorizationContext;
+import org.springframework.security.web.server.util.matcher.ServerWebExchangeMatchers;
+import org.springframework.web.util.pattern.PathPattern;
+import org.springframework.web.util.pattern.PathPatternParser;
+
+import com.google.common.annotations.VisibleForTesting;
+
+import lombok.NonNull;
+import reactor.core.publisher.Mono;
+
+/**
+ * {@link ReactiveAuthorizationManager} evaluating all the access rules at once,
+ * as an alternative to registering each rule as a separate
+ * {@link ServerWebExchangeMatchers#pathMatchers(String...) pathMatchers} entry,
+ * which Spring Security tries one by one on each request.
+ * <p>
+ * Rules are {@link #add(List, ReactiveAuthorizationManager) added} in
+ * precedence order, and the first one with a pattern matching the request path
+ * decides, as with the {@code pathMatchers} chain. To find it, the patterns are
+ * indexed at startup in a trie keyed by their leading literal path segments
+ * (e.g. {@code geoserver} and {@code ows} for {@code /geoserver/ows/**}). A
+ * single walk of the request path segments down the trie collects the only
+ * patterns that can match, which are then matched in precedence order, skipping
+ * those with a lower precedence than the best match found so far.
+ * </p>
+ * <p>
+ * Patterns are parsed and matched the same way {@code pathMatchers} does,
+ * against the request path within the application, so both evaluate the rules
+ * the same. Requests not matching any rule are denied.
+ * </p>
+ */
+class AccessRulesAuthorizationManager implements ReactiveAuthorizationManager<AuthorizationContext> {
+
+    private static final Mono<AuthorizationDecision> DENIED = Mono.just(new AuthorizationDecision(false));
+
+    private final Node root = new Node();
+
+    /**
+     * The patterns, in precedence order, each one's position being its id
+     */
+    private final List<PathPattern> patterns = new ArrayList<>();
+
+    /**
+     * The authorization manager of the rule each pattern belongs to, by pattern id
+     */
+    private final List<ReactiveAuthorizationManager<AuthorizationContext>> managers = new ArrayList<>();
+
+    /**
+     * Adds a rule, with a lower precedence than the ones already added.
+     *
+     * @param antPatterns the path patterns the rule applies to
+     * @param manager     the authorization manager deciding on the requests
+     *                    matching the rule
+     */
+    void add(@NonNull List<String> antPatterns, @NonNull ReactiveAuthorizationManager<AuthorizationContext> manager) {
+        PathPatternParser parser = PathPatternParser.defaultInstance;
+        for (String antPattern : antPatterns) {
+            PathPattern pattern = parser.parse(parser.initFullPathPattern(antPattern));
+            int id = patterns.size();
+            patterns.add(pattern);
+            managers.add(manager);
+            Node node = root;
+            for (String segment : literalPrefix(pattern.getPatternString())) {
+                node = node.children.computeIfAbsent(segment, s -> new Node());
+            }
+            node.add(id);
+        }
+    }
+
+    /**
+     * @return the number of patterns added
+     */
+    int size() {
+        return patterns.size();
+    }
+
+    @Override
+    public Mono<AuthorizationDecision> check(Mono<Authentication> authentication, AuthorizationContext context) {
+        PathContainer path = context.getExchange().getRequest().getPath().pathWithinApplication();
+        int match = match(path);
+        return match < 0 ? DENIED : managers.get(match).check(authentication, context);
+    }
+
+    /**
+     * Finds the pattern with the highest precedence matching the path.
+     *
+     * @param path the request path within the application
+     * @return the id of the matching pattern, or {@code -1} if none matches
+     */
+    @VisibleForTesting
+    int match(PathContainer path) {
+        int best = firstMatch(root.ids, path, Integer.MAX_VALUE);
+        Node node = root;
+        for (Element element : path.elements()) {
+            if (element instanceof PathSegment segment) {
+                node = node.children.get(segment.valueToMatch());
+                if (node == null) {
+                    break;
+                }
+                best = firstMatch(node.ids, path, best);
+            }
+        }
+        return best == Integer.MAX_VALUE ? -1 : best;
+    }
+
+    /**
+     * @param ids  candidate pattern ids, in ascending order
+     * @param path the request path
+     * @param best the id of the best match found so far
+     * @return the lowest id among {@code best} and the candidates matching the path
+     */
+    private int firstMatch(int[] ids, PathContainer path, int best) {
+        for (int id : ids) {
+            if (id >= best) {
+                break;
+            }
+            if (patterns.get(id).matches(path)) {
+                return id;
+            }
+        }
+        return best;
+    }
+
+    /**
+     * Returns the leading path segments of a pattern that can only match
+     * themselves, stopping at the first one holding a wildcard, a capture
+     * variable, or a matrix variable, or that is empty.
+     */
+    @VisibleForTesting
+    static List<String> literalPrefix(String pattern) {
+        List<String> segments = new ArrayList<>();
+        if (!pattern.startsWith("/")) {
+            return segments;
+        }
+        for (String part : pattern.substring(1).split("/", -1)) {
+            if (!isLiteral(part)) {
+                break;
+            }
+            segments.add(part);
+        }
+        return segments;
+    }
+
+    private static boolean isLiteral(String segment) {
+        return !segment.isEmpty() && segment.chars().noneMatch(c -> c == '*' || c == '?' || c == '{' || c == ';');
+    }
+
+    /**
+     * Trie node, holding the ids of the patterns whose literal prefix ends here
+     */
+    private static class Node {
+        final Map<String, Node> children = new HashMap<>();
+        int[] ids = new int[0];
+
+        void add(int id) {
+            ids = Arrays.copyOf(ids, ids.length + 1);
+            ids[ids.length - 1] = id;
+        }
+    }
+}
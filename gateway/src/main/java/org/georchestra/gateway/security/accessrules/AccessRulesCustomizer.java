@@ -20,21 +20,27 @@ package org.georchestra.gateway.security.accessrules;
 
 import java.util.List;
 import java.util.Objects;
+import java.util.stream.Stream;
 
 import org.georchestra.gateway.model.GatewayConfigProperties;
 import org.georchestra.gateway.model.RoleBasedAccessRule;
 import org.georchestra.gateway.model.Service;
 import org.georchestra.gateway.security.GeorchestraUserMapper;
 import org.georchestra.gateway.security.ServerHttpSecurityCustomizer;
+import org.springframework.security.authorization.AuthenticatedReactiveAuthorizationManager;
+import org.springframework.security.authorization.AuthorizationDecision;
+import org.springframework.security.authorization.ReactiveAuthorizationManager;
 import org.springframework.security.config.web.server.ServerHttpSecurity;
 import org.springframework.security.config.web.server.ServerHttpSecurity.AuthorizeExchangeSpec;
 import org.springframework.security.config.web.server.ServerHttpSecurity.AuthorizeExchangeSpec.Access;
+import org.springframework.security.web.server.authorization.AuthorizationContext;
 
 import com.google.common.annotations.VisibleForTesting;
 
 import lombok.NonNull;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
+import reactor.core.publisher.Mono;
 
 /**
  * {@link ServerHttpSecurityCustomizer} responsible for applying
@@ -48,6 +54,11 @@ import lombok.extern.slf4j.Slf4j;
  * {@link GatewayConfigProperties#getServices()}, which override the global
  * rules for particular services.</li>
  * </ul>
+ * <p>
+ * If {@link GatewayConfigProperties#isCompileAccessRules()} is enabled, the
+ * rules are compiled into a single {@link AccessRulesAuthorizationManager}
+ * instead of being registered one by one.
+ * </p>
  *
  * @see RoleBasedAccessRule
  * @see GatewayConfigProperties#getGlobalAccessRules()
@@ -60,10 +71,23 @@ public class AccessRulesCustomizer implements ServerHttpSecurityCustomizer {
     private final @NonNull GatewayConfigProperties config;
     private final @NonNull GeorchestraUserMapper userMapper;
 
+    /**
+     * Ids of the role names granted access by the configured rules, shared by
+     * their {@link GeorchestraUserRolesAuthorizationManager}s, lazily built
+     */
+    private RoleIds roleIds;
+
     @Override
     public void customize(ServerHttpSecurity http) {
         log.info("Configuring proxied applications access rules...");
 
+        if (config.isCompileAccessRules()) {
+            AccessRulesAuthorizationManager compiled = compile();
+            log.info("Compiled {} access rule patterns into a single matcher", compiled.size());
+            http.authorizeExchange().anyExchange().access(compiled);
+            return;
+        }
+
         AuthorizeExchangeSpec authorizeExchange = http.authorizeExchange();
 
         // Apply service-specific rules before global rules.
@@ -77,6 +101,66 @@ public class AccessRulesCustomizer implements ServerHttpSecurityCustomizer {
         apply("global", authorizeExchange, config.getGlobalAccessRules());
     }
 
+    /**
+     * Compiles the service-specific rules, followed by the global rules, into a
+     * single {@link AccessRulesAuthorizationManager}, preserving the precedence
+     * they'd have if {@link #apply(AuthorizeExchangeSpec, RoleBasedAccessRule)
+     * applied} one by one.
+     *
+     * @return the compiled access rules
+     */
+    @VisibleForTesting
+    AccessRulesAuthorizationManager compile() {
+        AccessRulesAuthorizationManager compiled = new AccessRulesAuthorizationManager();
+        Stream<List<RoleBasedAccessRule>> serviceRules = config.getServices().values().stream()
+                .map(Service::getAccessRules);
+        Stream.concat(serviceRules, Stream.of(config.getGlobalAccessRules())).filter(Objects::nonNull)
+                .flatMap(List::stream).forEach(rule -> compiled.add(resolveAntPatterns(rule), authorization(rule)));
+        return compiled;
+    }
+
+    /**
+     * Resolves the authorization manager enforcing an access rule, following the
+     * same precedence as {@link #apply(AuthorizeExchangeSpec, RoleBasedAccessRule)}.
+     *
+     * @param rule the access rule
+     * @return the authorization manager granting or denying access
+     */
+    private ReactiveAuthorizationManager<AuthorizationContext> authorization(RoleBasedAccessRule rule) {
+        final List<String> allowedRoles = rule.getAllowedRoles() == null ? List.of() : rule.getAllowedRoles();
+        if (rule.isForbidden()) {
+            return (authentication, context) -> Mono.just(new AuthorizationDecision(false));
+        }
+        if (rule.isAnonymous()) {
+            return (authentication, context) -> Mono.just(new AuthorizationDecision(true));
+        }
+        if (allowedRoles.isEmpty()) {
+            return AuthenticatedReactiveAuthorizationManager.authenticated();
+        }
+        String[] roles = allowedRoles.stream().map(this::ensureRolePrefix).toArray(String[]::new);
+        return GeorchestraUserRolesAuthorizationManager.hasAnyAuthority(userMapper, roleIds(), roles);
+    }
+
+    /**
+     * Assigns ids to the role names granted access by the service-specific and
+     * global rules, so that each rule's authorization check tests the user's roles
+     * against a bitset instead of a set of names.
+     *
+     * @return the role name ids
+     */
+    @VisibleForTesting
+    RoleIds roleIds() {
+        if (roleIds == null) {
+            Stream<List<RoleBasedAccessRule>> serviceRules = config.getServices().values().stream()
+                    .map(Service::getAccessRules);
+            List<String> roleNames = Stream.concat(serviceRules, Stream.of(config.getGlobalAccessRules()))
+                    .filter(Objects::nonNull).flatMap(List::stream).map(RoleBasedAccessRule::getAllowedRoles)
+                    .filter(Objects::nonNull).flatMap(List::stream).map(this::ensureRolePrefix).toList();
+            roleIds = RoleIds.of(roleNames);
+        }
+        return roleIds;
+    }
+
     /**
      * Applies a set of access rules to the provided {@link AuthorizeExchangeSpec}.
      *
@@ -206,8 +290,8 @@ public class AccessRulesCustomizer implements ServerHttpSecurityCustomizer {
      */
     @VisibleForTesting
     void hasAnyAuthority(Access access, List<String> roles) {
-        access.access(
-                GeorchestraUserRolesAuthorizationManager.hasAnyAuthority(userMapper, roles.toArray(String[]::new)));
+        access.access(GeorchestraUserRolesAuthorizationManager.hasAnyAuthority(userMapper, roleIds(),
+                roles.toArray(String[]::new)));
     }
 
     /**
@@ -20,8 +20,6 @@ package org.georchestra.gateway.security.accessrules;
 
 import java.util.List;
 import java.util.Optional;
-import java.util.Set;
-import java.util.stream.Stream;
 
 import org.georchestra.gateway.security.GeorchestraUserMapper;
 import org.georchestra.security.model.GeorchestraUser;
@@ -32,7 +30,9 @@ import org.springframework.security.authorization.ReactiveAuthorizationManager;
 import org.springframework.security.core.Authentication;
 import org.springframework.security.core.GrantedAuthority;
 import org.springframework.security.core.authority.AuthorityUtils;
+import org.springframework.security.web.server.authorization.AuthorizationContext;
 import org.springframework.util.Assert;
+import org.springframework.web.server.ServerWebExchange;
 
 import com.google.common.annotations.VisibleForTesting;
 
@@ -50,40 +50,73 @@ import reactor.core.publisher.Mono;
  * {@code sec-roles} header, and we need to also account for those derived role
  * names when granting access to an URI (see {@link AccessRulesCustomizer#apply}
  * and {@link AccessRulesCustomizer#hasAnyAuthority}).
+ * <p>
+ * When the authorized object is an {@link AuthorizationContext}, the resolved
+ * user is memoized in its {@link ServerWebExchange} so that it's not resolved
+ * again later on the filter chain (see
+ * {@link GeorchestraUserMapper#resolveAsync(Authentication, ServerWebExchange)}).
  */
 class GeorchestraUserRolesAuthorizationManager<T> implements ReactiveAuthorizationManager<T> {
 
     private final GeorchestraUserMapper userMapper;
     private final List<GrantedAuthority> authorities;
-    private final Set<String> authorityFilter;
+    private final RoleIds roleIds;
+    private final long[] authorityFilter;
+    private final AuthorityAuthorizationDecision granted;
     private final AuthorityAuthorizationDecision unauthorized;
 
     GeorchestraUserRolesAuthorizationManager(GeorchestraUserMapper userMapper, String... authorities) {
+        this(userMapper, null, authorities);
+    }
+
+    /**
+     * @param userMapper  resolves the effective roles of authenticated users
+     * @param roleIds     the role name ids shared by all the access rules, or
+     *                    {@code null} to use ids local to this instance
+     * @param authorities the authorities granting access
+     */
+    GeorchestraUserRolesAuthorizationManager(GeorchestraUserMapper userMapper, RoleIds roleIds,
+            String... authorities) {
+        List<String> authorityNames = List.of(authorities);
         this.userMapper = userMapper;
         this.authorities = AuthorityUtils.createAuthorityList(authorities);
-        this.authorityFilter = Set.of(authorities);
+        this.roleIds = roleIds != null && roleIds.containsAll(authorityNames) ? roleIds : RoleIds.of(authorityNames);
+        this.authorityFilter = this.roleIds.bitset(authorityNames);
+        this.granted = new AuthorityAuthorizationDecision(true, this.authorities);
         this.unauthorized = new AuthorityAuthorizationDecision(false, this.authorities);
     }
 
     @Override
     public Mono<AuthorizationDecision> check(Mono<Authentication> authentication, T object) {
-        return authentication.map(this::authorize).map(
-                (granted) -> ((AuthorizationDecision) new AuthorityAuthorizationDecision(granted, this.authorities)))
+        final ServerWebExchange exchange = object instanceof AuthorizationContext context ? context.getExchange()
+                : null;
+        return authentication.flatMap(auth -> authorize(auth, exchange))
+                .map(isGranted -> (AuthorizationDecision) (isGranted ? granted : unauthorized))
                 .defaultIfEmpty(unauthorized);
     }
 
     @VisibleForTesting
-    boolean authorize(Authentication authentication) {
+    Mono<Boolean> authorize(Authentication authentication) {
+        return authorize(authentication, null);
+    }
+
+    private Mono<Boolean> authorize(Authentication authentication, ServerWebExchange exchange) {
         if (!authentication.isAuthenticated()) {
-            return false;
+            return Mono.just(false);
         }
-        Optional<GeorchestraUser> user = userMapper.resolve(authentication);
-        Stream<String> effectiveRoles = user.map(GeorchestraUser::getRoles).map(List::stream).orElse(Stream.empty());
-        Stream<String> grandtedAuthorities = authentication.getAuthorities().stream()
-                .map(GrantedAuthority::getAuthority);
+        Mono<Optional<GeorchestraUser>> user = exchange == null ? userMapper.resolveAsync(authentication)
+                : userMapper.resolveAsync(authentication, exchange);
+        return user.map(resolved -> isGranted(authentication, resolved));
+    }
 
-        return Stream.concat(effectiveRoles, grandtedAuthorities).sorted().distinct()
-                .anyMatch(authorityFilter::contains);
+    /**
+     * Tests the user's effective roles and granted authorities against the
+     * authorities bitset, one hash lookup and bit test per role name, without
+     * allocating.
+     */
+    private boolean isGranted(Authentication authentication, Optional<GeorchestraUser> user) {
+        List<String> effectiveRoles = user.isPresent() ? user.get().getRoles() : null;
+        return roleIds.containsAny(authorityFilter, effectiveRoles, authentication.getAuthorities());
     }
 
     /**
@@ -117,6 +150,25 @@ class GeorchestraUserRolesAuthorizationManager<T> implements ReactiveAuthorizati
         return new GeorchestraUserRolesAuthorizationManager<>(userMapper, authorities);
     }
 
+    /**
+     * Creates an instance of {@link GeorchestraUserRolesAuthorizationManager} with
+     * the provided authorities, identified by the ids of a registry shared with
+     * other instances.
+     *
+     * @param roleIds     the registry of role name ids
+     * @param authorities the authorities to check for
+     * @param <T>         the type of object being authorized
+     * @return the new instance
+     */
+    static <T> GeorchestraUserRolesAuthorizationManager<T> hasAnyAuthority(GeorchestraUserMapper userMapper,
+            RoleIds roleIds, String... authorities) {
+        Assert.notNull(authorities, "authorities cannot be null");
+        for (String authority : authorities) {
+            Assert.notNull(authority, "authority cannot be null");
+        }
+        return new GeorchestraUserRolesAuthorizationManager<>(userMapper, roleIds, authorities);
+    }
+
     /**
      * Creates an instance of {@link GeorchestraUserRolesAuthorizationManager} with
      * the provided authority.
@@ -0,0 +1,125 @@
+/*
+ * Copyright (C) 2022 by the geOrchestra PSC
+ *
+ * This file is part of geOrchestra.
+ *
+ * geOrchestra is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free
+ * Software Foundation, either version 3 of the License, or (at your option)
+ * any later version.
+ *
+ * geOrchestra is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * geOrchestra. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.georchestra.gateway.security.accessrules;
+
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.springframework.security.core.GrantedAuthority;
+
+import lombok.NonNull;
+
+/**
+ * Immutable registry assigning small integer ids to the role names access
+ * rules grant access to, so that sets of them can be represented as bitsets.
+ * <p>
+ * Role names not in the registry are ignored when testing a user's roles
+ * against a bitset, since they can't grant access to any rule.
+ * </p>
+ */
+final class RoleIds {
+
+    private final Map<String, Integer> ids;
+
+    private RoleIds(Map<String, Integer> ids) {
+        this.ids = ids;
+    }
+
+    /**
+     * @param roleNames the role names to assign ids to, duplicates ignored
+     * @return the registry
+     */
+    static RoleIds of(@NonNull Collection<String> roleNames) {
+        Map<String, Integer> ids = new HashMap<>();
+        roleNames.forEach(role -> ids.putIfAbsent(role, ids.size()));
+        return new RoleIds(Map.copyOf(ids));
+    }
+
+    /**
+     * @return the number of role names in the registry
+     */
+    int size() {
+        return ids.size();
+    }
+
+    /**
+     * @param roleNames the role names to look for
+     * @return whether all the role names are in the registry
+     */
+    boolean containsAll(@NonNull Collection<String> roleNames) {
+        return ids.keySet().containsAll(roleNames);
+    }
+
+    /**
+     * Computes the bitset of a set of role names.
+     *
+     * @param roleNames the role names, all of which must be in the registry
+     * @return the bitset, with one bit set per role name id
+     * @throws IllegalArgumentException if a role name is not in the registry
+     */
+    long[] bitset(@NonNull Collection<String> roleNames) {
+        long[] bitset = new long[(ids.size() + 63) >>> 6];
+        for (String role : roleNames) {
+            Integer id = ids.get(role);
+            if (id == null) {
+                throw new IllegalArgumentException("Unknown role name " + role);
+            }
+            bitset[id >>> 6] |= 1L << id;
+        }
+        return bitset;
+    }
+
+    /**
+     * Tests whether a role name belongs to a bitset.
+     *
+     * @param bitset a bitset computed by {@link #bitset(Collection)}
+     * @param role   the role name, may be {@code null}
+     * @return whether the role name is in the registry and its bit is set
+     */
+    boolean contains(long[] bitset, String role) {
+        Integer id = role == null ? null : ids.get(role);
+        return id != null && (bitset[id >>> 6] & (1L << id)) != 0;
+    }
+
+    /**
+     * Tests whether any of a user's role names or authorities belongs to a bitset,
+     * without allocating.
+     *
+     * @param bitset      a bitset computed by {@link #bitset(Collection)}
+     * @param roles       the user's role names, may be {@code null}
+     * @param authorities the user's granted authorities
+     * @return whether any of them is in the bitset
+     */
+    boolean containsAny(long[] bitset, Collection<String> roles, Collection<? extends GrantedAuthority> authorities) {
+        if (roles != null) {
+            for (String role : roles) {
+                if (contains(bitset, role)) {
+                    return true;
+                }
+            }
+        }
+        for (GrantedAuthority authority : authorities) {
+            if (contains(bitset, authority.getAuthority())) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
@@ -20,15 +20,19 @@ package org.georchestra.gateway.security.ldap;
 
 import static org.springframework.security.config.Customizer.withDefaults;
 
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.stream.Stream;
 
 import org.georchestra.gateway.security.GeorchestraGatewaySecurityConfigProperties;
+import org.georchestra.gateway.security.GeorchestraGatewaySecurityConfigProperties.LdapAuthentication;
 import org.georchestra.gateway.security.ServerHttpSecurityCustomizer;
 import org.georchestra.gateway.security.ldap.basic.BasicLdapAuthenticationConfiguration;
 import org.georchestra.gateway.security.ldap.basic.BasicLdapAuthenticationProvider;
 import org.georchestra.gateway.security.ldap.extended.ExtendedLdapAuthenticationConfiguration;
 import org.georchestra.gateway.security.ldap.extended.GeorchestraLdapAuthenticationProvider;
+import org.springframework.beans.factory.ObjectProvider;
 import org.springframework.boot.context.properties.EnableConfigurationProperties;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
@@ -42,6 +46,7 @@ import org.springframework.security.core.Authentication;
 import org.springframework.security.web.server.authentication.AuthenticationWebFilter;
 import org.springframework.security.web.server.util.matcher.ServerWebExchangeMatchers;
 
+import io.micrometer.core.instrument.MeterRegistry;
 import lombok.extern.slf4j.Slf4j;
 
 /**
@@ -137,16 +142,28 @@ public class LdapAuthenticationConfiguration {
      * This manager supports both basic and extended LDAP authentication providers.
      * If no providers are available, {@code null} is returned.
      * </p>
+     * <p>
+     * By default, the providers are tried one after the other. If
+     * {@link GeorchestraGatewaySecurityConfigProperties#getLdapAuthentication()
+     * ldap-authentication.parallel} is enabled, they're all tried concurrently by
+     * a {@link ParallelLdapAuthenticationManager}, keeping the sequential order:
+     * basic providers first, then extended ones.
+     * </p>
      *
-     * @param basic    a list of {@link BasicLdapAuthenticationProvider} instances
-     * @param extended a list of {@link GeorchestraLdapAuthenticationProvider}
-     *                 instances
+     * @param basic         a list of {@link BasicLdapAuthenticationProvider}
+     *                      instances
+     * @param extended      a list of {@link GeorchestraLdapAuthenticationProvider}
+     *                      instances
+     * @param config        the security configuration properties
+     * @param meterRegistry the registry of the parallel authentication metrics,
+     *                      if available
      * @return a {@link ReactiveAuthenticationManager} if providers are available,
      *         otherwise {@code null}
      */
     @Bean
     ReactiveAuthenticationManager ldapAuthenticationManager(List<BasicLdapAuthenticationProvider> basic,
-            List<GeorchestraLdapAuthenticationProvider> extended) {
+            List<GeorchestraLdapAuthenticationProvider> extended, GeorchestraGatewaySecurityConfigProperties config,
+            ObjectProvider<MeterRegistry> meterRegistry) {
 
         List<AuthenticationProvider> flattened = Stream.concat(basic.stream(), extended.stream())
                 .map(AuthenticationProvider.class::cast).toList();
@@ -156,7 +173,27 @@ public class LdapAuthenticationConfiguration {
             return null;
         }
 
+        LdapAuthentication ldapAuthentication = config.getLdapAuthentication();
+        if (ldapAuthentication != null && ldapAuthentication.isParallel()) {
+            ParallelLdapAuthenticationManager parallel = new ParallelLdapAuthenticationManager(
+                    byPriority(basic, extended), ldapAuthentication);
+            meterRegistry.ifAvailable(parallel::bindTo);
+            return parallel;
+        }
+
         ProviderManager providerManager = new ProviderManager(flattened);
         return new ReactiveAuthenticationManagerAdapter(providerManager);
     }
+
+    /**
+     * @return the providers by LDAP configuration name, basic ones first, in the
+     *         same order they're tried by the sequential {@link ProviderManager}
+     */
+    static Map<String, AuthenticationProvider> byPriority(List<BasicLdapAuthenticationProvider> basic,
+            List<GeorchestraLdapAuthenticationProvider> extended) {
+        Map<String, AuthenticationProvider> byPriority = new LinkedHashMap<>();
+        basic.forEach(provider -> byPriority.putIfAbsent(provider.getConfigName(), provider));
+        extended.forEach(provider -> byPriority.putIfAbsent(provider.getConfigName(), provider));
+        return byPriority;
+    }
 }
@@ -20,8 +20,17 @@ package org.georchestra.gateway.security.ldap;
 
 import static java.util.Optional.ofNullable;
 
+import java.util.List;
 import java.util.Optional;
 
+import org.georchestra.gateway.security.GeorchestraGatewaySecurityConfigProperties.CacheConfig;
+import org.georchestra.gateway.security.GeorchestraGatewaySecurityConfigProperties.Caching;
+import org.georchestra.gateway.security.GeorchestraGatewaySecurityConfigProperties.CircuitBreaker;
+import org.georchestra.gateway.security.GeorchestraGatewaySecurityConfigProperties.ConnectionPool;
+import org.georchestra.gateway.security.GeorchestraGatewaySecurityConfigProperties.DirectorySnapshot;
+import org.georchestra.gateway.security.GeorchestraGatewaySecurityConfigProperties.EmailIndex;
+import org.georchestra.gateway.security.GeorchestraGatewaySecurityConfigProperties.HealthCheck;
+import org.georchestra.gateway.security.GeorchestraGatewaySecurityConfigProperties.RoleMembershipIndex;
 import org.georchestra.gateway.security.GeorchestraGatewaySecurityConfigProperties.Server;
 import org.georchestra.gateway.security.ldap.basic.LdapServerConfig;
 import org.georchestra.gateway.security.ldap.extended.ExtendedLdapConfig;
@@ -51,7 +60,8 @@ public class LdapConfigBuilder {
     public LdapServerConfig asBasicLdapConfig(String name, Server config) {
         String searchFilter = usersSearchFilter(name, config);
         return LdapServerConfig.builder().name(name).enabled(config.isEnabled())
-                .activeDirectory(config.isActiveDirectory()).url(config.getUrl()).baseDn(config.getBaseDn())
+                .activeDirectory(config.isActiveDirectory()).url(config.getUrl()).replicas(replicas(config))
+                .healthCheck(ofNullable(config.getHealthCheck()).orElseGet(HealthCheck::new)).baseDn(config.getBaseDn())
                 .usersRdn(config.getUsers().getRdn()).usersSearchFilter(searchFilter)
                 .returningAttributes(config.getUsers().getReturningAttributes()).rolesRdn(config.getRoles().getRdn())
                 .rolesSearchFilter(config.getRoles().getSearchFilter()).adminDn(toOptional(config.getAdminDn()))
@@ -67,12 +77,48 @@ public class LdapConfigBuilder {
      */
     public ExtendedLdapConfig asExtendedLdapConfig(String name, Server config) {
         String searchFilter = usersSearchFilter(name, config);
+        Caching caching = caching(config);
         return ExtendedLdapConfig.builder().name(name).enabled(config.isEnabled()).url(config.getUrl())
+                .replicas(replicas(config))
+                .healthCheck(ofNullable(config.getHealthCheck()).orElseGet(HealthCheck::new))
                 .baseDn(config.getBaseDn()).usersRdn(config.getUsers().getRdn()).usersSearchFilter(searchFilter)
-                .returningAttributes(config.getUsers().getReturningAttributes()).rolesRdn(config.getRoles().getRdn())
+                .returningAttributes(config.getUsers().getReturningAttributes())
+                .projectAttributes(config.getUsers().isProjectAttributes()).rolesRdn(config.getRoles().getRdn())
                 .rolesSearchFilter(config.getRoles().getSearchFilter()).orgsRdn(config.getOrgs().getRdn())
                 .pendingOrgsRdn(config.getOrgs().getPendingRdn()).adminDn(toOptional(config.getAdminDn()))
-                .adminPassword(toOptional(config.getAdminPassword())).build();
+                .adminPassword(toOptional(config.getAdminPassword())).usersCache(caching.getUsers())
+                .orgsCache(caching.getOrgs()).credentialsCache(caching.getCredentials())
+                .snapshot(ofNullable(config.getSnapshot()).orElseGet(DirectorySnapshot::new))
+                .emailIndex(ofNullable(config.getEmailIndex()).orElseGet(EmailIndex::new))
+                .roleIndex(ofNullable(config.getRoleIndex()).orElseGet(RoleMembershipIndex::new))
+                .pool(ofNullable(config.getPool()).orElseGet(ConnectionPool::new))
+                .circuitBreaker(ofNullable(config.getCircuitBreaker()).orElseGet(CircuitBreaker::new)).build();
+    }
+
+    /**
+     * Returns the cache settings of the given LDAP configuration, falling back to
+     * the defaults if not set.
+     *
+     * @param config the LDAP server configuration
+     * @return the cache settings
+     */
+    private Caching caching(Server config) {
+        Caching caching = ofNullable(config.getCache()).orElseGet(Caching::new);
+        return new Caching().setUsers(ofNullable(caching.getUsers()).orElseGet(CacheConfig::new))
+                .setOrgs(ofNullable(caching.getOrgs()).orElseGet(CacheConfig::new))
+                .setCredentials(ofNullable(caching.getCredentials()).orElseGet(() -> new Caching().getCredentials()));
+    }
+
+    /**
+     * Returns the URLs of the read replicas of the given LDAP configuration,
+     * ignoring blank entries.
+     *
+     * @param config the LDAP server configuration
+     * @return the replica URLs, possibly empty
+     */
+    private List<String> replicas(Server config) {
+        List<String> replicas = ofNullable(config.getReplicas()).orElseGet(List::of);
+        return replicas.stream().filter(StringUtils::hasText).map(String::trim).toList();
     }
 
     /**
@@ -0,0 +1,221 @@
+/*
+ * Copyright (C) 2022 by the geOrchestra PSC
+ *
+ * This file is part of geOrchestra.
+ *
+ * geOrchestra is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free
+ * Software Foundation, either version 3 of the License, or (at your option)
+ * any later version.
+ *
+ * geOrchestra is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * geOrchestra. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.georchestra.gateway.security.ldap;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.georchestra.gateway.security.GeorchestraGatewaySecurityConfigProperties.LdapAuthentication;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.security.authentication.AbstractAuthenticationToken;
+import org.springframework.security.authentication.AccountStatusException;
+import org.springframework.security.authentication.AuthenticationProvider;
+import org.springframework.security.authentication.AuthenticationServiceException;
+import org.springframework.security.authentication.InternalAuthenticationServiceException;
+import org.springframework.security.authentication.ProviderManager;
+import org.springframework.security.authentication.ProviderNotFoundException;
+import org.springframework.security.authentication.ReactiveAuthenticationManager;
+import org.springframework.security.core.Authentication;
+import org.springframework.security.core.AuthenticationException;
+import org.springframework.security.core.CredentialsContainer;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import lombok.NonNull;
+import lombok.extern.slf4j.Slf4j;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Scheduler;
+import reactor.core.scheduler.Schedulers;
+
+/**
+ * {@link ReactiveAuthenticationManager} checking the credentials against all
+ * the LDAP authentication providers concurrently.
+ * <p>
+ * A {@link ProviderManager} tries each provider in turn, so users of the last
+ * configured LDAP database wait for a failed bind against every other one
+ * first. Instead, this manager runs all the providers at once on a dedicated,
+ * bounded {@link Scheduler}, and keeps the same semantics as if they were run
+ * one after the other: the first successful authentication in priority order
+ * wins, and the pending checks of lower priority providers are cancelled as
+ * soon as it's known. A higher priority provider that rejects the account (e.g.
+ * locked or disabled) also stops the authentication.
+ * </p>
+ * <p>
+ * Authentications not completed within the configured
+ * {@link LdapAuthentication#getTimeout() timeout} fail with an
+ * {@link AuthenticationServiceException}, cancelling the pending checks.
+ * </p>
+ * <p>
+ * The latency of each provider is exported as the
+ * {@code georchestra.gateway.ldap.authentication} timer (with percentile
+ * histogram), tagged with {@code config=<config name>} and {@code outcome}
+ * ({@code success}, {@code failure}, or {@code cancelled}).
+ * </p>
+ *
+ * @see LdapAuthenticationConfiguration#ldapAuthenticationManager
+ */
+@Slf4j(topic = "org.georchestra.gateway.security.ldap")
+public class ParallelLdapAuthenticationManager implements ReactiveAuthenticationManager, MeterBinder, DisposableBean {
+
+    private static final String METRIC_NAME = "georchestra.gateway.ldap.authentication";
+
+    private final List<Map.Entry<String, AuthenticationProvider>> providers;
+
+    private final @NonNull Scheduler scheduler;
+
+    private final @NonNull Duration timeout;
+
+    private volatile MeterRegistry registry;
+
+    /**
+     * @param providers the authentication providers by LDAP configuration name,
+     *                  in priority order
+     * @param config    the thread pool and timeout configuration
+     */
+    public ParallelLdapAuthenticationManager(@NonNull Map<String, AuthenticationProvider> providers,
+            @NonNull LdapAuthentication config) {
+        this(providers, Schedulers.newBoundedElastic(config.getMaxThreads(), config.getMaxQueuedTasks(), "ldap-auth"),
+                config.getTimeout());
+        log.info("Authenticating against LDAP configs {} in parallel, with {} timeout, {} threads, {} queued tasks",
+                providers.keySet(), config.getTimeout(), config.getMaxThreads(), config.getMaxQueuedTasks());
+    }
+
+    ParallelLdapAuthenticationManager(@NonNull Map<String, AuthenticationProvider> providers,
+            @NonNull Scheduler scheduler, @NonNull Duration timeout) {
+        this.providers = List.copyOf(providers.entrySet());
+        this.scheduler = scheduler;
+        this.timeout = timeout;
+    }
+
+    /**
+     * Checks the credentials against all the LDAP authentication providers
+     * supporting them concurrently.
+     *
+     * @return the authentication of the highest priority provider that succeeded,
+     *         or the error of the last one that failed
+     */
+    @Override
+    public Mono<Authentication> authenticate(Authentication authentication) {
+        List<Mono<Outcome>> checks = providers.stream()
+                .filter(provider -> provider.getValue().supports(authentication.getClass()))
+                .map(provider -> check(provider.getKey(), provider.getValue(), authentication)).toList();
+
+        // mergeSequential subscribes to all the checks at once, but emits their
+        // outcomes in priority order
+        return Flux.mergeSequential(checks).takeUntil(Outcome::isFinal).reduce(Outcome.NONE, Outcome::then)
+                .flatMap(outcome -> outcome.result(authentication)).timeout(timeout, Mono.error(() -> {
+                    log.warn("LDAP authentication of {} timed out after {}", authentication.getName(), timeout);
+                    return new AuthenticationServiceException("LDAP authentication timed out");
+                }));
+    }
+
+    private Mono<Outcome> check(String configName, AuthenticationProvider provider, Authentication authentication) {
+        return Mono.defer(() -> {
+            final long start = System.nanoTime();
+            return Mono.fromCallable(() -> provider.authenticate(authentication)).map(Outcome::success)
+                    .onErrorResume(e -> Mono.just(Outcome.failure(e))).defaultIfEmpty(Outcome.NONE)
+                    .doOnNext(outcome -> record(configName, outcome.isSuccess() ? "success" : "failure", start))
+                    .doOnCancel(() -> record(configName, "cancelled", start));
+        }).subscribeOn(scheduler);
+    }
+
+    private void record(String configName, String outcome, long start) {
+        MeterRegistry meterRegistry = this.registry;
+        if (meterRegistry != null) {
+            Timer.builder(METRIC_NAME).description("Time taken to check credentials against an LDAP configuration")
+                    .tag("config", configName).tag("outcome", outcome).publishPercentileHistogram()
+                    .register(meterRegistry).record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+        }
+    }
+
+    /**
+     * Registers the {@code georchestra.gateway.ldap.authentication} timers.
+     */
+    @Override
+    public void bindTo(@NonNull MeterRegistry registry) {
+        this.registry = registry;
+    }
+
+    /**
+     * Releases the scheduler's threads.
+     */
+    @Override
+    public void destroy() {
+        scheduler.dispose();
+    }
+
+    /**
+     * Outcome of a credentials check, or of the checks performed so far
+     */
+    private record Outcome(Authentication authentication, Throwable error) {
+
+        static final Outcome NONE = new Outcome(null, null);
+
+        static Outcome success(Authentication authentication) {
+            return new Outcome(authentication, null);
+        }
+
+        static Outcome failure(Throwable error) {
+            return new Outcome(null, error);
+        }
+
+        boolean isSuccess() {
+            return authentication != null;
+        }
+
+        /**
+         * Whether the outcome stops the authentication, as {@link ProviderManager}
+         * does: success, account status errors, or unexpected errors
+         */
+        boolean isFinal() {
+            return isSuccess() || error instanceof AccountStatusException
+                    || error instanceof InternalAuthenticationServiceException
+                    || (error != null && !(error instanceof AuthenticationException));
+        }
+
+        /**
+         * Combines the outcomes of checks in priority order, keeping the last
+         * one that either succeeded or failed
+         */
+        Outcome then(Outcome next) {
+            return next.authentication != null || next.error != null ? next : this;
+        }
+
+        Mono<Authentication> result(Authentication request) {
+            if (isSuccess()) {
+                if (authentication instanceof AbstractAuthenticationToken token && token.getDetails() == null) {
+                    token.setDetails(request.getDetails());
+                }
+                if (authentication instanceof CredentialsContainer credentials) {
+                    credentials.eraseCredentials();
+                }
+                return Mono.just(authentication);
+            }
+            if (error != null) {
+                return Mono.error(error);
+            }
+            return Mono.error(() -> new ProviderNotFoundException(
+                    "No LDAP authentication provider found for " + request.getClass().getName()));
+        }
+    }
+}
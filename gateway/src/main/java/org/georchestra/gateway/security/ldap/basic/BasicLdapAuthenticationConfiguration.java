@@ -117,6 +117,7 @@ public class BasicLdapAuthenticationConfiguration {
 
         try {
             LdapAuthenticationProvider provider = new LdapAuthenticatorProviderBuilder().url(config.getUrl())
+                    .replicas(config.getReplicas()).connectTimeout(config.getHealthCheck().getTimeout())
                     .baseDn(config.getBaseDn()).userSearchBase(config.getUsersRdn())
                     .userSearchFilter(config.getUsersSearchFilter()).rolesSearchBase(config.getRolesRdn())
                     .rolesSearchFilter(config.getRolesSearchFilter()).adminDn(config.getAdminDn().orElse(null))
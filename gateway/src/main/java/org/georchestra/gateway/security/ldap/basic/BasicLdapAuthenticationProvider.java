@@ -24,6 +24,7 @@ import org.springframework.security.authentication.AuthenticationProvider;
 import org.springframework.security.core.Authentication;
 import org.springframework.security.core.AuthenticationException;
 
+import lombok.Getter;
 import lombok.NonNull;
 import lombok.extern.slf4j.Slf4j;
 
@@ -52,7 +53,10 @@ import lombok.extern.slf4j.Slf4j;
 @Slf4j(topic = "org.georchestra.gateway.security.ldap")
 public class BasicLdapAuthenticationProvider extends AuthenticationProviderDecorator {
 
-    private final @NonNull String configName;
+    /**
+     * The name of the LDAP configuration this provider authenticates against
+     */
+    private final @NonNull @Getter String configName;
 
     /**
      * Constructs a new {@code BasicLdapAuthenticationProvider} that decorates the
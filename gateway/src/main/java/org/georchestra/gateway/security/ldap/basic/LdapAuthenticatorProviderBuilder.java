@@ -20,16 +20,25 @@ package org.georchestra.gateway.security.ldap.basic;
 
 import static java.util.Objects.requireNonNull;
 
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
 import org.georchestra.ds.users.AccountDao;
 import org.georchestra.gateway.security.ldap.NoPasswordLdapUserDetailsMapper;
 import org.georchestra.gateway.security.ldap.extended.ExtendedLdapAuthenticationProvider;
 import org.georchestra.gateway.security.ldap.extended.ExtendedPasswordPolicyAwareContextSource;
+import org.georchestra.gateway.security.ldap.extended.LdapEmailIndex;
+import org.georchestra.gateway.security.ldap.extended.LdapRoleMembershipIndex;
 import org.springframework.ldap.core.support.BaseLdapPathContextSource;
 import org.springframework.security.core.authority.mapping.GrantedAuthoritiesMapper;
 import org.springframework.security.core.authority.mapping.SimpleAuthorityMapper;
 import org.springframework.security.ldap.authentication.BindAuthenticator;
 import org.springframework.security.ldap.search.FilterBasedLdapUserSearch;
 import org.springframework.security.ldap.userdetails.DefaultLdapAuthoritiesPopulator;
+import org.springframework.security.ldap.userdetails.LdapAuthoritiesPopulator;
 
 import lombok.Setter;
 import lombok.experimental.Accessors;
@@ -40,7 +49,8 @@ import lombok.experimental.Accessors;
  * <p>
  * This builder allows setting:
  * <ul>
- * <li>LDAP connection properties (URL, base DN, admin credentials)</li>
+ * <li>LDAP connection properties (URL, read replicas, base DN, admin
+ * credentials)</li>
  * <li>User search configuration (search base, filter, returning
  * attributes)</li>
  * <li>Role resolution configuration (group search base and filter)</li>
@@ -65,7 +75,25 @@ import lombok.experimental.Accessors;
 @Accessors(chain = true, fluent = true)
 public class LdapAuthenticatorProviderBuilder {
 
+    /**
+     * JNDI environment property holding the connection timeout, in milliseconds.
+     */
+    static final String CONNECT_TIMEOUT_ENV = "com.sun.jndi.ldap.connect.timeout";
+
     private @Setter String url;
+
+    /**
+     * URLs of read-only replicas of the server at {@link #url}, tried in order
+     * when it can't be connected to.
+     */
+    private @Setter List<String> replicas = List.of();
+
+    /**
+     * Maximum time to wait for a server to accept a connection before trying the
+     * next one. Only applied when {@link #replicas} are set, connections to a
+     * single server relying on the system defaults.
+     */
+    private @Setter Duration connectTimeout;
     private @Setter String baseDn;
 
     private @Setter String userSearchBase;
@@ -74,11 +102,23 @@ public class LdapAuthenticatorProviderBuilder {
     private @Setter String rolesSearchBase;
     private @Setter String rolesSearchFilter;
 
+    /**
+     * Optional index resolving the roles of authenticated users from memory,
+     * {@code null} to search them on each authentication.
+     */
+    private @Setter LdapRoleMembershipIndex roleIndex;
+
     private @Setter String adminDn;
     private @Setter String adminPassword;
 
     private @Setter AccountDao accountDao;
 
+    /**
+     * Optional index resolving the user names of users logging in with their
+     * email, {@code null} to always search them with the {@link #accountDao}.
+     */
+    private @Setter LdapEmailIndex emailIndex;
+
     /**
      * Attributes to be retrieved when querying LDAP for user details.
      * <p>
@@ -105,13 +145,14 @@ public class LdapAuthenticatorProviderBuilder {
 
         final ExtendedPasswordPolicyAwareContextSource contextSource = createContextSource();
         final BindAuthenticator authenticator = createLdapAuthenticator(contextSource);
-        final DefaultLdapAuthoritiesPopulator rolesPopulator = createLdapAuthoritiesPopulator(contextSource);
+        final LdapAuthoritiesPopulator rolesPopulator = createLdapAuthoritiesPopulator(contextSource);
 
         ExtendedLdapAuthenticationProvider provider = new ExtendedLdapAuthenticationProvider(authenticator,
                 rolesPopulator);
         provider.setAuthoritiesMapper(createAuthoritiesMapper());
         provider.setUserDetailsContextMapper(new NoPasswordLdapUserDetailsMapper());
         provider.setAccountDao(accountDao);
+        provider.setEmailIndex(emailIndex);
 
         return provider;
     }
@@ -132,10 +173,21 @@ public class LdapAuthenticatorProviderBuilder {
 
     /**
      * Creates and configures the LDAP context source for authentication.
+     * <p>
+     * When {@link #replicas} are set, they're given to JNDI along with the
+     * primary {@link #url} as a space-separated list, so connections fail over to
+     * them, in order, when the primary server is down, or doesn't accept the
+     * connection within {@link #connectTimeout}.
+     * </p>
      */
     private ExtendedPasswordPolicyAwareContextSource createContextSource() {
-        ExtendedPasswordPolicyAwareContextSource context = new ExtendedPasswordPolicyAwareContextSource(url);
+        String providerUrl = Stream.concat(Stream.of(url), replicas.stream()).collect(Collectors.joining(" "));
+        ExtendedPasswordPolicyAwareContextSource context = new ExtendedPasswordPolicyAwareContextSource(providerUrl);
         context.setBase(baseDn);
+        if (!replicas.isEmpty() && connectTimeout != null && connectTimeout.toMillis() > 0) {
+            context.setBaseEnvironmentProperties(
+                    Map.<String, Object>of(CONNECT_TIMEOUT_ENV, String.valueOf(connectTimeout.toMillis())));
+        }
         if (adminDn != null) {
             context.setUserDn(adminDn);
             context.setPassword(adminPassword);
@@ -153,12 +205,13 @@ public class LdapAuthenticatorProviderBuilder {
     }
 
     /**
-     * Creates and configures the LDAP role populator.
+     * Creates and configures the LDAP role populator, answering from the
+     * {@link #roleIndex} if set.
      */
-    private DefaultLdapAuthoritiesPopulator createLdapAuthoritiesPopulator(BaseLdapPathContextSource contextSource) {
+    private LdapAuthoritiesPopulator createLdapAuthoritiesPopulator(BaseLdapPathContextSource contextSource) {
         DefaultLdapAuthoritiesPopulator authoritiesPopulator = new DefaultLdapAuthoritiesPopulator(contextSource,
                 rolesSearchBase);
         authoritiesPopulator.setGroupSearchFilter(rolesSearchFilter);
-        return authoritiesPopulator;
+        return roleIndex == null ? authoritiesPopulator : roleIndex.populator(authoritiesPopulator);
     }
 }
@@ -18,9 +18,13 @@
  */
 package org.georchestra.gateway.security.ldap.basic;
 
+import java.util.List;
 import java.util.Optional;
 
+import org.georchestra.gateway.security.GeorchestraGatewaySecurityConfigProperties.HealthCheck;
+
 import lombok.Builder;
+import lombok.Builder.Default;
 import lombok.Generated;
 import lombok.NonNull;
 import lombok.Value;
@@ -86,6 +90,20 @@ public class LdapServerConfig {
      */
     private @NonNull String url;
 
+    /**
+     * Ordered URLs of read-only replicas of the LDAP server, authentications
+     * failing over to them when the server at {@link #getUrl() url} is down.
+     */
+    @Default
+    private @NonNull List<String> replicas = List.of();
+
+    /**
+     * Health checking settings. Only the timeout applies, bounding the time to
+     * connect to each server before failing over to the next one.
+     */
+    @Default
+    private @NonNull HealthCheck healthCheck = new HealthCheck();
+
     /**
      * Base Distinguished Name (DN) for the LDAP directory.
      * <p>
@@ -19,6 +19,7 @@
 package org.georchestra.gateway.security.ldap.extended;
 
 import java.util.HashSet;
+import java.util.List;
 import java.util.Map;
 import java.util.Objects;
 import java.util.Optional;
@@ -31,6 +32,8 @@ import org.georchestra.security.model.Organization;
 
 import com.google.common.annotations.VisibleForTesting;
 
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
 import lombok.NonNull;
 import lombok.RequiredArgsConstructor;
 
@@ -48,6 +51,21 @@ import lombok.RequiredArgsConstructor;
  * <li>Handle OAuth2-based user identification.</li>
  * </ul>
  * </p>
+ * <p>
+ * Users are looked up in the service's {@link LdapDirectorySnapshot in-memory
+ * directory snapshot} first, if it has one, and in the directory if not found
+ * there. Lookups by email excluding pending users always hit the directory.
+ * </p>
+ * <p>
+ * Concurrent identical directory lookups (e.g. the many requests a browser
+ * sends at once when opening a map) are coalesced into a single query, whose
+ * result is shared (see {@link InFlightLookups}).
+ * </p>
+ * <p>
+ * Directory lookups go through the service's circuit breaker, if enabled,
+ * failing with a {@link LdapCircuitOpenException} while the directory is
+ * unavailable (see {@link LdapCircuitBreakers}).
+ * </p>
  *
  * <p>
  * The mapping between LDAP configuration names and their corresponding APIs is
@@ -70,7 +88,7 @@ import lombok.RequiredArgsConstructor;
  * @see OrganizationsApi
  */
 @RequiredArgsConstructor
-public class DemultiplexingUsersApi {
+public class DemultiplexingUsersApi implements MeterBinder, AutoCloseable {
 
     /**
      * Mapping between service names and their corresponding {@link UsersApi}
@@ -79,10 +97,68 @@ public class DemultiplexingUsersApi {
     private final @NonNull Map<String, UsersApi> usersByConfigName;
 
     /**
-     * Mapping between service names and their corresponding
-     * {@link OrganizationsApi} instances.
+     * Organizations lookup, delegating to the {@link OrganizationsApi} instances
+     * of each service name, possibly through a cache.
+     */
+    private final @NonNull LdapOrganizationCache orgs;
+
+    /**
+     * In-memory directory snapshots of the service names that have one, serving
+     * user lookups before falling back to the {@link UsersApi}.
+     */
+    private final @NonNull Map<String, LdapDirectorySnapshot> snapshotsByConfigName;
+
+    /**
+     * Circuit breakers of the directory lookups, failing fast while a directory is
+     * unavailable.
      */
-    private final @NonNull Map<String, OrganizationsApi> orgsByConfigName;
+    private final @NonNull LdapCircuitBreakers breakers;
+
+    /**
+     * Coalescing of concurrent identical directory lookups, by lookup type
+     */
+    private final InFlightLookups<List<Object>, Optional<ExtendedGeorchestraUser>> byUsername = inFlight("username");
+    private final InFlightLookups<List<Object>, Optional<ExtendedGeorchestraUser>> byEmail = inFlight("email");
+    private final InFlightLookups<List<Object>, Optional<ExtendedGeorchestraUser>> byOAuth2Uid = inFlight("oauth2");
+
+    /**
+     * Creates a {@link DemultiplexingUsersApi} with no circuit breakers.
+     *
+     * @param usersByConfigName     mapping between service names and their
+     *                              corresponding {@link UsersApi} instances
+     * @param orgs                  the organizations lookup
+     * @param snapshotsByConfigName in-memory directory snapshots of the service
+     *                              names that have one
+     */
+    public DemultiplexingUsersApi(@NonNull Map<String, UsersApi> usersByConfigName,
+            @NonNull LdapOrganizationCache orgs, @NonNull Map<String, LdapDirectorySnapshot> snapshotsByConfigName) {
+        this(usersByConfigName, orgs, snapshotsByConfigName, LdapCircuitBreakers.none());
+    }
+
+    /**
+     * Creates a {@link DemultiplexingUsersApi} with no directory snapshots.
+     *
+     * @param usersByConfigName mapping between service names and their
+     *                          corresponding {@link UsersApi} instances
+     * @param orgs              the organizations lookup
+     */
+    public DemultiplexingUsersApi(@NonNull Map<String, UsersApi> usersByConfigName,
+            @NonNull LdapOrganizationCache orgs) {
+        this(usersByConfigName, orgs, Map.of());
+    }
+
+    /**
+     * Creates a {@link DemultiplexingUsersApi} that does not cache organizations.
+     *
+     * @param usersByConfigName mapping between service names and their
+     *                          corresponding {@link UsersApi} instances
+     * @param orgsByConfigName  mapping between service names and their
+     *                          corresponding {@link OrganizationsApi} instances
+     */
+    public DemultiplexingUsersApi(@NonNull Map<String, UsersApi> usersByConfigName,
+            @NonNull Map<String, OrganizationsApi> orgsByConfigName) {
+        this(usersByConfigName, new LdapOrganizationCache(orgsByConfigName, Map.of()));
+    }
 
     /**
      * Retrieves the set of configured service names.
@@ -104,11 +180,17 @@ public class DemultiplexingUsersApi {
      *                              given service.
      */
     public Optional<ExtendedGeorchestraUser> findByUsername(@NonNull String serviceName, @NonNull String username) {
+        Optional<ExtendedGeorchestraUser> snapshotUser = snapshot(serviceName).flatMap(s -> s.findByUsername(username));
+        if (snapshotUser.isPresent()) {
+            return snapshotUser;
+        }
         UsersApi usersApi = Objects.requireNonNull(usersByConfigName.get(serviceName),
                 () -> "No UsersApi found for config named " + serviceName);
 
-        Optional<GeorchestraUser> user = usersApi.findByUsername(username);
-        return extendUserWithOrganization(serviceName, user);
+        return byUsername.get(List.of(serviceName, username), () -> breakers.call(serviceName, () -> {
+            Optional<GeorchestraUser> user = usersApi.findByUsername(username);
+            return extendUserWithOrganization(serviceName, user);
+        }));
     }
 
     /**
@@ -138,11 +220,17 @@ public class DemultiplexingUsersApi {
      *                              given service.
      */
     public Optional<ExtendedGeorchestraUser> findByEmail(@NonNull String serviceName, @NonNull String email) {
+        Optional<ExtendedGeorchestraUser> snapshotUser = snapshot(serviceName).flatMap(s -> s.findByEmail(email));
+        if (snapshotUser.isPresent()) {
+            return snapshotUser;
+        }
         UsersApi usersApi = usersByConfigName.get(serviceName);
         Objects.requireNonNull(usersApi, () -> "No UsersApi found for config named " + serviceName);
-        Optional<GeorchestraUser> user = usersApi.findByEmail(email);
 
-        return extendUserWithOrganization(serviceName, user);
+        return byEmail.get(List.of(serviceName, email), () -> breakers.call(serviceName, () -> {
+            Optional<GeorchestraUser> user = usersApi.findByEmail(email);
+            return extendUserWithOrganization(serviceName, user);
+        }));
     }
 
     /**
@@ -158,18 +246,17 @@ public class DemultiplexingUsersApi {
      */
     public Optional<ExtendedGeorchestraUser> findByEmail(@NonNull String email) {
         String serviceName = usersByConfigName.keySet().stream().findFirst().get();
-        UsersApi usersApi = usersByConfigName.get(serviceName);
-        Optional<GeorchestraUser> user = usersApi.findByEmail(email);
-
-        return extendUserWithOrganization(serviceName, user);
+        return findByEmail(serviceName, email);
     }
 
     public Optional<ExtendedGeorchestraUser> findByEmail(@NonNull String email, boolean filterPending) {
         String serviceName = usersByConfigName.keySet().stream().findFirst().get();
         UsersApi usersApi = usersByConfigName.get(serviceName);
-        Optional<GeorchestraUser> user = usersApi.findByEmail(email, filterPending);
 
-        return extendUserWithOrganization(serviceName, user);
+        return byEmail.get(List.of(serviceName, email, filterPending), () -> breakers.call(serviceName, () -> {
+            Optional<GeorchestraUser> user = usersApi.findByEmail(email, filterPending);
+            return extendUserWithOrganization(serviceName, user);
+        }));
     }
 
     /**
@@ -190,17 +277,81 @@ public class DemultiplexingUsersApi {
     public Optional<ExtendedGeorchestraUser> findByOAuth2Uid(@NonNull String oauth2Provider,
             @NonNull String oauth2Uid) {
         return usersByConfigName.keySet().stream().findFirst().flatMap(serviceName -> {
+            Optional<ExtendedGeorchestraUser> snapshotUser = snapshot(serviceName)
+                    .flatMap(s -> s.findByOAuth2Uid(oauth2Provider, oauth2Uid));
+            if (snapshotUser.isPresent()) {
+                return snapshotUser;
+            }
             UsersApi usersApi = Objects.requireNonNull(usersByConfigName.get(serviceName),
                     () -> "No UsersApi found for config named " + serviceName);
 
-            Optional<GeorchestraUser> user = usersApi.findByOAuth2Uid(oauth2Provider, oauth2Uid);
-            return extendUserWithOrganization(serviceName, user);
+            return byOAuth2Uid.get(List.of(serviceName, oauth2Provider, oauth2Uid),
+                    () -> breakers.call(serviceName, () -> {
+                        Optional<GeorchestraUser> user = usersApi.findByOAuth2Uid(oauth2Provider, oauth2Uid);
+                        return extendUserWithOrganization(serviceName, user);
+                    }));
         });
     }
 
+    /**
+     * Discards the cached organization with the given short name, if any, in all
+     * the LDAP services. To be called after creating or modifying an organization.
+     *
+     * @param shortName the organization short name
+     * @see LdapOrganizationCache#evict(String, String)
+     */
+    public void evictOrganization(@NonNull String shortName) {
+        usersByConfigName.keySet().forEach(serviceName -> orgs.evict(serviceName, shortName));
+    }
+
+    /**
+     * Registers the organizations cache, directory snapshots, and lookups
+     * coalescing metrics.
+     * <p>
+     * The circuit breakers, shared with the authentication providers, register
+     * their own metrics.
+     * </p>
+     *
+     * @see LdapOrganizationCache#bindTo(MeterRegistry)
+     * @see LdapDirectorySnapshot#bindTo(MeterRegistry)
+     * @see InFlightLookups#bindTo(MeterRegistry)
+     */
+    @Override
+    public void bindTo(@NonNull MeterRegistry registry) {
+        orgs.bindTo(registry);
+        byUsername.bindTo(registry);
+        byEmail.bindTo(registry);
+        byOAuth2Uid.bindTo(registry);
+        snapshotsByConfigName.values().forEach(snapshot -> snapshot.bindTo(registry));
+    }
+
+    /**
+     * Stops synchronizing the directory snapshots.
+     */
+    @Override
+    public void close() {
+        snapshotsByConfigName.values().forEach(LdapDirectorySnapshot::close);
+    }
+
+    private static InFlightLookups<List<Object>, Optional<ExtendedGeorchestraUser>> inFlight(String lookup) {
+        return new InFlightLookups<>(lookup, user -> user.map(ExtendedGeorchestraUser::copy));
+    }
+
+    /**
+     * @return the directory snapshot of the given service, if it has one and it is
+     *         loaded
+     */
+    private Optional<LdapDirectorySnapshot> snapshot(String serviceName) {
+        return Optional.ofNullable(snapshotsByConfigName.get(serviceName)).filter(LdapDirectorySnapshot::isReady);
+    }
+
     /**
      * Extends a {@link GeorchestraUser} by attaching its corresponding organization
      * details.
+     * <p>
+     * The organization is looked up through the {@link LdapOrganizationCache}, as
+     * many users share the same organization.
+     * </p>
      *
      * @param serviceName the LDAP service configuration name.
      * @param user        the resolved user, if present.
@@ -211,10 +362,8 @@ public class DemultiplexingUsersApi {
      */
     private Optional<ExtendedGeorchestraUser> extendUserWithOrganization(String serviceName,
             Optional<GeorchestraUser> user) {
-        OrganizationsApi orgsApi = Objects.requireNonNull(orgsByConfigName.get(serviceName),
-                () -> "No OrganizationsApi found for config named " + serviceName);
-
-        Organization org = user.map(GeorchestraUser::getOrganization).flatMap(orgsApi::findByShortName).orElse(null);
+        Organization org = user.map(GeorchestraUser::getOrganization)
+                .flatMap(shortName -> orgs.findByShortName(serviceName, shortName)).orElse(null);
 
         return user.map(ExtendedGeorchestraUser::new).map(u -> u.setOrg(org));
     }
@@ -20,6 +20,7 @@ package org.georchestra.gateway.security.ldap.extended;
 
 import org.georchestra.security.model.GeorchestraUser;
 import org.georchestra.security.model.Organization;
+import org.springframework.util.SerializationUtils;
 
 import com.fasterxml.jackson.annotation.JsonIgnore;
 
@@ -116,4 +117,19 @@ public class ExtendedGeorchestraUser extends GeorchestraUser {
      */
     @JsonIgnore
     private @Getter @Setter String orgUniqueId;
+
+    /**
+     * Creates a deep copy of this user, so that modifications to the copy (e.g.
+     * role name normalization or mapping) do not affect this instance.
+     * <p>
+     * The {@link #getOrg() organization} is shared with the copy.
+     * </p>
+     *
+     * @return a new {@link ExtendedGeorchestraUser} with the same properties as
+     *         this one
+     */
+    public ExtendedGeorchestraUser copy() {
+        GeorchestraUser userCopy = SerializationUtils.clone(user);
+        return new ExtendedGeorchestraUser(userCopy).setOrg(org).setOrgUniqueId(orgUniqueId);
+    }
 }
@@ -19,10 +19,12 @@
 
 package org.georchestra.gateway.security.ldap.extended;
 
+import java.time.Duration;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Optional;
 
 import org.georchestra.ds.LdapDaoProperties;
 import org.georchestra.ds.orgs.OrgExtLdapWrapper;
@@ -39,7 +41,10 @@ import org.georchestra.ds.security.UsersApiImpl;
 import org.georchestra.ds.users.AccountDao;
 import org.georchestra.ds.users.AccountDaoImpl;
 import org.georchestra.ds.users.UserRule;
+import org.georchestra.gateway.model.GatewayConfigProperties;
 import org.georchestra.gateway.security.GeorchestraGatewaySecurityConfigProperties;
+import org.georchestra.gateway.security.GeorchestraGatewaySecurityConfigProperties.CacheConfig;
+import org.georchestra.gateway.security.GeorchestraGatewaySecurityConfigProperties.CircuitBreaker;
 import org.georchestra.gateway.security.GeorchestraUserMapperExtension;
 import org.georchestra.gateway.security.ldap.basic.LdapAuthenticatorProviderBuilder;
 import org.georchestra.security.api.OrganizationsApi;
@@ -47,10 +52,10 @@ import org.georchestra.security.api.UsersApi;
 import org.georchestra.security.model.GeorchestraUser;
 import org.springframework.beans.factory.BeanInitializationException;
 import org.springframework.boot.context.properties.EnableConfigurationProperties;
+import org.springframework.context.ApplicationEventPublisher;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 import org.springframework.ldap.core.LdapTemplate;
-import org.springframework.ldap.core.support.LdapContextSource;
 import org.springframework.security.ldap.userdetails.LdapUserDetails;
 
 import lombok.extern.slf4j.Slf4j;
@@ -65,7 +70,7 @@ import lombok.extern.slf4j.Slf4j;
  * APIs.
  */
 @Configuration(proxyBeanMethods = false)
-@EnableConfigurationProperties(GeorchestraGatewaySecurityConfigProperties.class)
+@EnableConfigurationProperties({ GeorchestraGatewaySecurityConfigProperties.class, GatewayConfigProperties.class })
 @Slf4j(topic = "org.georchestra.gateway.security.ldap.extended")
 public class ExtendedLdapAuthenticationConfiguration {
 
@@ -73,14 +78,166 @@ public class ExtendedLdapAuthenticationConfiguration {
      * Registers a user mapper that resolves LDAP-authenticated users to
      * {@link GeorchestraUser}.
      *
-     * @param users The {@link DemultiplexingUsersApi} used to look up users in
-     *              different LDAP directories.
+     * @param users     The {@link DemultiplexingUsersApi} used to look up users in
+     *                  different LDAP directories.
+     * @param userCache The {@link LdapUserCache} caching the users looked up in
+     *                  different LDAP directories.
      * @return A {@link GeorchestraLdapAuthenticatedUserMapper} instance if LDAP
      *         authentication is enabled; otherwise, returns {@code null}.
      */
     @Bean
-    GeorchestraLdapAuthenticatedUserMapper georchestraLdapAuthenticatedUserMapper(DemultiplexingUsersApi users) {
-        return users.getTargetNames().isEmpty() ? null : new GeorchestraLdapAuthenticatedUserMapper(users);
+    GeorchestraLdapAuthenticatedUserMapper georchestraLdapAuthenticatedUserMapper(DemultiplexingUsersApi users,
+            LdapUserCache userCache) {
+        return users.getTargetNames().isEmpty() ? null : new GeorchestraLdapAuthenticatedUserMapper(userCache);
+    }
+
+    /**
+     * Registers the cache of users looked up in the extended LDAP directories
+     * whose {@link ExtendedLdapConfig#getUsersCache() users cache} is enabled,
+     * also keeping the last known users of the directories whose
+     * {@link ExtendedLdapConfig#getCircuitBreaker() circuit breaker} is enabled.
+     *
+     * @param users   The {@link DemultiplexingUsersApi} to look up users on cache
+     *                misses.
+     * @param configs The list of extended LDAP configurations.
+     * @param reloads Runs the reloads of the cached users.
+     * @return A {@link LdapUserCache} instance.
+     */
+    @Bean
+    LdapUserCache ldapUserCache(DemultiplexingUsersApi users, List<ExtendedLdapConfig> configs,
+            LdapCacheReloads reloads) {
+        Map<String, CacheConfig> cacheConfigs = new HashMap<>();
+        Map<String, CacheConfig> staleCacheConfigs = new HashMap<>();
+        configs.forEach(config -> {
+            cacheConfigs.put(config.getName(), config.getUsersCache());
+            CircuitBreaker circuitBreaker = config.getCircuitBreaker();
+            Duration staleTimeToLive = circuitBreaker.getStaleUserTimeToLive();
+            boolean keepStale = circuitBreaker.isEnabled() && staleTimeToLive != null && staleTimeToLive.toMillis() > 0;
+            staleCacheConfigs.put(config.getName(), new CacheConfig().setEnabled(keepStale)
+                    .setTimeToLive(staleTimeToLive).setMaximumSize(config.getUsersCache().getMaximumSize()));
+        });
+        return new LdapUserCache(users, cacheConfigs, staleCacheConfigs, reloads);
+    }
+
+    /**
+     * Registers the thread pool reloading the entries of the users and
+     * organizations caches in the background, shared by all the extended LDAP
+     * configurations.
+     *
+     * @return A {@link LdapCacheReloads} instance.
+     */
+    @Bean(destroyMethod = "close")
+    LdapCacheReloads ldapCacheReloads() {
+        return new LdapCacheReloads();
+    }
+
+    /**
+     * Registers the circuit breakers of the extended LDAP directories whose
+     * {@link ExtendedLdapConfig#getCircuitBreaker() circuit breaker} is enabled.
+     *
+     * @param configs        The list of extended LDAP configurations.
+     * @param eventPublisher Publishes the circuit breakers state transitions.
+     * @return A {@link LdapCircuitBreakers} instance.
+     */
+    @Bean
+    LdapCircuitBreakers ldapCircuitBreakers(List<ExtendedLdapConfig> configs,
+            ApplicationEventPublisher eventPublisher) {
+        Map<String, CircuitBreaker> settings = new HashMap<>();
+        configs.forEach(config -> settings.put(config.getName(), config.getCircuitBreaker()));
+        return new LdapCircuitBreakers(settings, eventPublisher);
+    }
+
+    /**
+     * Registers the cache of successful HTTP Basic authentications against the
+     * extended LDAP directories whose {@link ExtendedLdapConfig#getCredentialsCache()
+     * credentials cache} is enabled.
+     *
+     * @param configs The list of extended LDAP configurations.
+     * @return A {@link LdapCredentialsCache} instance.
+     */
+    @Bean
+    LdapCredentialsCache ldapCredentialsCache(List<ExtendedLdapConfig> configs) {
+        Map<String, CacheConfig> cacheConfigs = new HashMap<>();
+        configs.forEach(config -> cacheConfigs.put(config.getName(), config.getCredentialsCache()));
+        return new LdapCredentialsCache(cacheConfigs);
+    }
+
+    /**
+     * Registers the pools of connections to the extended LDAP directories, used to
+     * look up users, organizations, and roles.
+     *
+     * @return A {@link LdapConnectionPools} instance.
+     */
+    @Bean
+    LdapConnectionPools ldapConnectionPools() {
+        return new LdapConnectionPools();
+    }
+
+    /**
+     * Registers the in-memory indexes of the user emails of the extended LDAP
+     * directories whose {@link ExtendedLdapConfig#getEmailIndex() email index} is
+     * enabled, and starts loading them.
+     *
+     * @param configs The list of extended LDAP configurations.
+     * @param pools   The connection pools of the extended LDAP directories.
+     * @return A {@link LdapEmailIndexes} instance.
+     */
+    @Bean(destroyMethod = "close")
+    LdapEmailIndexes ldapEmailIndexes(List<ExtendedLdapConfig> configs, LdapConnectionPools pools) {
+        Map<String, LdapEmailIndex> indexes = new HashMap<>();
+        configs.stream().filter(config -> config.getEmailIndex().isEnabled()).forEach(
+                config -> indexes.put(config.getName(), new LdapEmailIndex(config, pools.ldapTemplate(config))));
+        LdapEmailIndexes emailIndexes = new LdapEmailIndexes(indexes);
+        emailIndexes.start();
+        return emailIndexes;
+    }
+
+    /**
+     * Registers the in-memory indexes of the role memberships of the extended LDAP
+     * directories whose {@link ExtendedLdapConfig#getRoleIndex() role index} is
+     * enabled, and starts loading them.
+     * <p>
+     * The index can only answer role search filters matching a single membership
+     * attribute, such as {@code (member={0})}; configurations with other filters
+     * keep searching the roles on each authentication.
+     * </p>
+     *
+     * @param configs The list of extended LDAP configurations.
+     * @param pools   The connection pools of the extended LDAP directories.
+     * @return A {@link LdapRoleMembershipIndexes} instance.
+     */
+    @Bean(destroyMethod = "close")
+    LdapRoleMembershipIndexes ldapRoleMembershipIndexes(List<ExtendedLdapConfig> configs,
+            LdapConnectionPools pools) {
+        Map<String, LdapRoleMembershipIndex> indexes = new HashMap<>();
+        configs.stream().filter(config -> config.getRoleIndex().isEnabled()).forEach(config -> {
+            Optional<String> memberAttribute = LdapRoleMembershipIndex
+                    .membershipAttribute(config.getRolesSearchFilter());
+            if (memberAttribute.isEmpty()) {
+                log.warn("Role index of LDAP config {} disabled, role search filter {} is not supported",
+                        config.getName(), config.getRolesSearchFilter());
+                return;
+            }
+            indexes.put(config.getName(),
+                    new LdapRoleMembershipIndex(config, memberAttribute.get(), pools.ldapTemplate(config)));
+        });
+        LdapRoleMembershipIndexes roleIndexes = new LdapRoleMembershipIndexes(indexes);
+        roleIndexes.start();
+        return roleIndexes;
+    }
+
+    /**
+     * Computes the user attributes needed by the enabled geOrchestra headers, only
+     * retrieved from the extended LDAP directories whose
+     * {@link ExtendedLdapConfig#isProjectAttributes() attribute projection} is
+     * enabled.
+     *
+     * @param config The gateway configuration defining the enabled headers.
+     * @return A {@link LdapUserAttributes} instance.
+     */
+    @Bean
+    LdapUserAttributes ldapUserAttributes(GatewayConfigProperties config) {
+        return LdapUserAttributes.forHeaders(config);
     }
 
     /**
@@ -98,13 +255,23 @@ public class ExtendedLdapAuthenticationConfiguration {
      * Creates authentication providers for each enabled extended LDAP
      * configuration.
      *
-     * @param configs A list of enabled extended LDAP configurations.
+     * @param configs    A list of enabled extended LDAP configurations.
+     * @param pools      The connection pools of the extended LDAP directories.
+     * @param cache      The cache of successful authentications.
+     * @param breakers   The circuit breakers of the extended LDAP directories.
+     * @param attributes The user attributes needed by the enabled headers.
+     * @param emails     The user emails indexes of the extended LDAP directories.
+     * @param roles      The role memberships indexes of the extended LDAP
+     *                   directories.
      * @return A list of configured {@link GeorchestraLdapAuthenticationProvider}
      *         instances.
      */
     @Bean
-    List<GeorchestraLdapAuthenticationProvider> extendedLdapAuthenticationProviders(List<ExtendedLdapConfig> configs) {
-        return configs.stream().map(this::createLdapProvider).toList();
+    List<GeorchestraLdapAuthenticationProvider> extendedLdapAuthenticationProviders(List<ExtendedLdapConfig> configs,
+            LdapConnectionPools pools, LdapCredentialsCache cache, LdapCircuitBreakers breakers,
+            LdapUserAttributes attributes, LdapEmailIndexes emails, LdapRoleMembershipIndexes roles) {
+        return configs.stream()
+                .map(config -> createLdapProvider(config, pools, cache, breakers, attributes, emails, roles)).toList();
     }
 
     /**
@@ -120,26 +287,42 @@ public class ExtendedLdapAuthenticationConfiguration {
      * credentials if provided.
      * </p>
      *
-     * @param config The {@link ExtendedLdapConfig} defining the LDAP connection
-     *               details and search configurations.
+     * @param config     The {@link ExtendedLdapConfig} defining the LDAP connection
+     *                   details and search configurations.
+     * @param pools      The connection pools providing the {@link LdapTemplate}.
+     * @param cache      The cache of successful authentications.
+     * @param breakers   The circuit breakers of the extended LDAP directories.
+     * @param attributes The user attributes needed by the enabled headers.
+     * @param emails     The user emails indexes of the extended LDAP directories.
+     * @param roles      The role memberships indexes of the extended LDAP
+     *                   directories.
      * @return A configured {@link GeorchestraLdapAuthenticationProvider} for
      *         handling authentication against the specified LDAP server.
      * @throws IllegalStateException if an error occurs while creating the LDAP
      *                               authentication provider.
      */
-    private GeorchestraLdapAuthenticationProvider createLdapProvider(ExtendedLdapConfig config) {
+    private GeorchestraLdapAuthenticationProvider createLdapProvider(ExtendedLdapConfig config,
+            LdapConnectionPools pools, LdapCredentialsCache cache, LdapCircuitBreakers breakers,
+            LdapUserAttributes attributes, LdapEmailIndexes emails, LdapRoleMembershipIndexes roles) {
         log.info("Creating extended LDAP AuthenticationProvider {} at {}", config.getName(), config.getUrl());
 
         final LdapTemplate ldapTemplate;
         try {
-            ldapTemplate = ldapTemplate(config);
+            ldapTemplate = pools.ldapTemplate(config);
             LdapDaoProperties ldapDaoProperties = new LdapDaoProperties() //
                     .setBasePath(config.getBaseDn()).setOrgSearchBaseDN(config.getOrgsRdn())
                     .setPendingOrgSearchBaseDN(config.getPendingOrgsRdn()).setRoleSearchBaseDN(config.getRolesRdn())
                     .setUserSearchBaseDN(config.getUsersRdn()).setPendingUserSearchBaseDN("ou=pendingusers");
-            final AccountDao accountsDao = accountsDao(ldapTemplate, ldapDaoProperties);
+            final AccountDao accountsDao = accountsDao(usersTemplate(config, ldapTemplate, attributes),
+                    ldapDaoProperties);
+            String[] returningAttributes = config.getReturningAttributes();
+            if (returningAttributes == null && config.isProjectAttributes()) {
+                returningAttributes = attributes.project(null);
+            }
             ExtendedLdapAuthenticationProvider delegate = new LdapAuthenticatorProviderBuilder()//
                     .url(config.getUrl())//
+                    .replicas(config.getReplicas())//
+                    .connectTimeout(config.getHealthCheck().getTimeout())//
                     .baseDn(config.getBaseDn())//
                     .userSearchBase(config.getUsersRdn())//
                     .userSearchFilter(config.getUsersSearchFilter())//
@@ -147,8 +330,10 @@ public class ExtendedLdapAuthenticationConfiguration {
                     .rolesSearchFilter(config.getRolesSearchFilter())//
                     .adminDn(config.getAdminDn().orElse(null))//
                     .adminPassword(config.getAdminPassword().orElse(null))//
-                    .returningAttributes(config.getReturningAttributes()).accountDao(accountsDao).build();
-            return new GeorchestraLdapAuthenticationProvider(config.getName(), delegate);
+                    .returningAttributes(returningAttributes).accountDao(accountsDao)//
+                    .emailIndex(emails.get(config.getName()))//
+                    .roleIndex(roles.get(config.getName())).build();
+            return new GeorchestraLdapAuthenticationProvider(config.getName(), delegate, cache, breakers);
         } catch (Exception e) {
             throw new IllegalStateException(e);
         }
@@ -156,35 +341,52 @@ public class ExtendedLdapAuthenticationConfiguration {
 
     /**
      * Registers a {@link DemultiplexingUsersApi} that routes user API calls to the
-     * appropriate LDAP instance based on configuration.
+     * appropriate LDAP instance based on configuration, caching organizations as
+     * configured by {@link ExtendedLdapConfig#getOrgsCache()}, and keeping an
+     * in-memory snapshot of the directories whose
+     * {@link ExtendedLdapConfig#getSnapshot() snapshot} is enabled.
      *
-     * @param configs The list of extended LDAP configurations.
+     * @param configs    The list of extended LDAP configurations.
+     * @param pools      The connection pools of the extended LDAP directories.
+     * @param breakers   The circuit breakers of the extended LDAP directories.
+     * @param attributes The user attributes needed by the enabled headers.
+     * @param reloads    Runs the reloads of the cached organizations.
      * @return A {@link DemultiplexingUsersApi} instance.
      */
-    @Bean
-    DemultiplexingUsersApi demultiplexingUsersApi(List<ExtendedLdapConfig> configs) {
+    @Bean(destroyMethod = "close")
+    DemultiplexingUsersApi demultiplexingUsersApi(List<ExtendedLdapConfig> configs, LdapConnectionPools pools,
+            LdapCircuitBreakers breakers, LdapUserAttributes attributes, LdapCacheReloads reloads) {
         Map<String, UsersApi> usersByConfigName = new HashMap<>();
         Map<String, OrganizationsApi> orgsByConfigName = new HashMap<>();
+        Map<String, CacheConfig> orgsCacheConfigs = new HashMap<>();
+        Map<String, LdapDirectorySnapshot> snapshots = new HashMap<>();
         for (ExtendedLdapConfig config : configs) {
             try {
                 LdapDaoProperties ldapDaoProperties = new LdapDaoProperties() //
                         .setBasePath(config.getBaseDn()).setOrgSearchBaseDN(config.getOrgsRdn())
                         .setPendingOrgSearchBaseDN(config.getPendingOrgsRdn()).setRoleSearchBaseDN(config.getRolesRdn())
                         .setUserSearchBaseDN(config.getUsersRdn()).setPendingUserSearchBaseDN("ou=pendingusers");
-                LdapTemplate ldapTemplate = ldapTemplate(config);
-                AccountDaoImpl accountsDao = accountsDao(ldapTemplate, ldapDaoProperties);
+                LdapTemplate ldapTemplate = pools.ldapTemplate(config);
+                AccountDaoImpl accountsDao = accountsDao(usersTemplate(config, ldapTemplate, attributes),
+                        ldapDaoProperties);
                 OrgsDaoImpl orgsDao = orgsDao(ldapTemplate, ldapDaoProperties, accountsDao);
                 RoleDaoImpl roleDao = roleDao(ldapTemplate, ldapDaoProperties, accountsDao, orgsDao);
                 OrganizationsApi orgsApi = createOrgsApi(orgsDao);
                 UsersApi usersApi = createUsersApi(accountsDao, roleDao);
                 usersByConfigName.put(config.getName(), usersApi);
                 orgsByConfigName.put(config.getName(), orgsApi);
+                orgsCacheConfigs.put(config.getName(), config.getOrgsCache());
+                if (config.getSnapshot().isEnabled()) {
+                    snapshots.put(config.getName(), new LdapDirectorySnapshot(config, usersApi, orgsApi, ldapTemplate));
+                }
             } catch (Exception ex) {
                 throw new BeanInitializationException(
                         "Error creating georchestra users api for ldap config " + config.getName(), ex);
             }
         }
-        return new DemultiplexingUsersApi(usersByConfigName, orgsByConfigName);
+        LdapOrganizationCache orgsCache = new LdapOrganizationCache(orgsByConfigName, orgsCacheConfigs, reloads);
+        snapshots.values().forEach(LdapDirectorySnapshot::start);
+        return new DemultiplexingUsersApi(usersByConfigName, orgsCache, snapshots, breakers);
     }
 
     //////////////////////////////////////////////
@@ -213,15 +415,20 @@ public class ExtendedLdapAuthenticationConfiguration {
         return impl;
     }
 
-    private LdapTemplate ldapTemplate(ExtendedLdapConfig server) throws Exception {
-        LdapContextSource contextSource = new LdapContextSource();
-        contextSource.setUrl(server.getUrl());
-        contextSource.setBase(server.getBaseDn());
-        contextSource.afterPropertiesSet();
-
-        LdapTemplate ldapTemplate = new LdapTemplate(contextSource);
-        ldapTemplate.afterPropertiesSet();
-        return ldapTemplate;
+    /**
+     * Returns the template used to look up user entries: one only retrieving the
+     * attributes needed by the enabled headers if the configuration's
+     * {@link ExtendedLdapConfig#isProjectAttributes() attribute projection} is
+     * enabled, or the given one otherwise.
+     */
+    private LdapTemplate usersTemplate(ExtendedLdapConfig config, LdapTemplate ldapTemplate,
+            LdapUserAttributes attributes) {
+        if (!config.isProjectAttributes()) {
+            return ldapTemplate;
+        }
+        log.info("Retrieving only the attributes {} of the users of LDAP config {}", attributes.getRequired(),
+                config.getName());
+        return new ProjectingLdapTemplate(ldapTemplate.getContextSource(), attributes);
     }
 
     private AccountDaoImpl accountsDao(LdapTemplate ldapTemplate, LdapDaoProperties ldapDaoProperties) {
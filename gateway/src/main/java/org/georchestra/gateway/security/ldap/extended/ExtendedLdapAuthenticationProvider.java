@@ -18,6 +18,8 @@
  */
 package org.georchestra.gateway.security.ldap.extended;
 
+import java.util.Optional;
+
 import org.georchestra.ds.DataServiceException;
 import org.georchestra.ds.users.Account;
 import org.georchestra.ds.users.AccountDao;
@@ -46,11 +48,21 @@ import org.springframework.util.StringUtils;
  * <p>
  * This approach ensures that users can log in with their email addresses while
  * maintaining compatibility with LDAP-based user identification.
+ * <p>
+ * Logins that can't be emails (i.e. without an {@code @}) are used as user
+ * names right away, without searching the directory. Emails are first looked up
+ * in the {@link LdapEmailIndex email index}, if set and loaded, falling back to
+ * the {@link AccountDao} if not found there. Since the index may be outdated
+ * (e.g. the email was moved to another account since it was loaded), logins
+ * failing with bad credentials after an index hit are retried once with the
+ * account the {@link AccountDao} resolves, if it's another one.
  */
 public class ExtendedLdapAuthenticationProvider extends LdapAuthenticationProvider {
 
     private AccountDao accountDao;
 
+    private LdapEmailIndex emailIndex;
+
     /**
      * Constructs an {@link ExtendedLdapAuthenticationProvider} using the specified
      * {@link LdapAuthenticator} and {@link LdapAuthoritiesPopulator}.
@@ -74,6 +86,17 @@ public class ExtendedLdapAuthenticationProvider extends LdapAuthenticationProvid
         this.accountDao = accountDao;
     }
 
+    /**
+     * Sets the {@link LdapEmailIndex} used to resolve user names by email without
+     * searching the directory.
+     *
+     * @param emailIndex the email index, or {@code null} to always search the
+     *                   directory
+     */
+    public void setEmailIndex(LdapEmailIndex emailIndex) {
+        this.emailIndex = emailIndex;
+    }
+
     /**
      * Authenticates a user by first attempting to resolve the account via email
      * lookup, then delegating to the parent class for authentication against LDAP.
@@ -88,19 +111,37 @@ public class ExtendedLdapAuthenticationProvider extends LdapAuthenticationProvid
                 () -> this.messages.getMessage("LdapAuthenticationProvider.onlySupports",
                         "Only UsernamePasswordAuthenticationToken is supported"));
 
-        UsernamePasswordAuthenticationToken userToken = (UsernamePasswordAuthenticationToken) authentication;
-        Account account = null;
-
+        final String login = authentication.getName();
+        final Optional<String> indexed = findIndexedUsername(login);
+        final String uid = indexed.isPresent() ? indexed.get() : findUsername(login);
         try {
-            account = accountDao.findByEmail(userToken.getName());
-        } catch (DataServiceException | NameNotFoundException ignored) {
-            // Swallow exceptions and proceed with normal authentication if account is not
-            // found
+            return authenticate(authentication, uid);
+        } catch (BadCredentialsException e) {
+            String current = indexed.isPresent() ? findUsername(login) : null;
+            if (current == null || current.equals(uid)) {
+                throw e;
+            }
+            logger.debug("Email index entry of %s is outdated, retrying with user %s".formatted(login, current));
+            return authenticate(authentication, current);
         }
+    }
 
-        // If an account was found, replace the authentication token with its UID
-        if (account != null) {
-            userToken = new UsernamePasswordAuthenticationToken(account.getUid(), userToken.getCredentials());
+    /**
+     * Authenticates a user against LDAP.
+     *
+     * @param authentication the authentication request object
+     * @param uid            the user name of the account whose email is the
+     *                       login, or {@code null} to use the login as user name
+     * @return an authenticated {@link Authentication} instance if successful
+     * @throws AuthenticationException if authentication fails
+     */
+    private Authentication authenticate(Authentication authentication, String uid) throws AuthenticationException {
+        UsernamePasswordAuthenticationToken userToken = (UsernamePasswordAuthenticationToken) authentication;
+
+        // If the login is the email of an account, replace the authentication token
+        // with its UID
+        if (uid != null) {
+            userToken = new UsernamePasswordAuthenticationToken(uid, userToken.getCredentials());
         }
 
         String username = userToken.getName();
@@ -124,4 +165,45 @@ public class ExtendedLdapAuthenticationProvider extends LdapAuthenticationProvid
 
         return createSuccessfulAuthentication(userToken, user);
     }
+
+    /**
+     * Resolves the user name of the account whose email is the given login from
+     * the email index.
+     *
+     * @param login the login, either a user name or an email
+     * @return the account's user name, or empty if there's no email index or it
+     *         does not contain the login
+     */
+    private Optional<String> findIndexedUsername(String login) {
+        if (emailIndex == null || !isEmail(login)) {
+            return Optional.empty();
+        }
+        return emailIndex.findUsername(login);
+    }
+
+    /**
+     * Resolves the user name of the account whose email is the given login,
+     * searching the directory.
+     *
+     * @param login the login, either a user name or an email
+     * @return the account's user name, or {@code null} if the login is not the
+     *         email of an account
+     */
+    private String findUsername(String login) {
+        if (!isEmail(login)) {
+            return null;
+        }
+        try {
+            Account account = accountDao.findByEmail(login);
+            return account == null ? null : account.getUid();
+        } catch (DataServiceException | NameNotFoundException ignored) {
+            // Swallow exceptions and proceed with normal authentication if account is not
+            // found
+            return null;
+        }
+    }
+
+    private boolean isEmail(String login) {
+        return accountDao != null && login != null && login.indexOf('@') >= 0;
+    }
 }
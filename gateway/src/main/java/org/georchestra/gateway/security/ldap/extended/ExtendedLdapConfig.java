@@ -18,8 +18,18 @@
  */
 package org.georchestra.gateway.security.ldap.extended;
 
+import java.util.List;
 import java.util.Optional;
 
+import org.georchestra.gateway.security.GeorchestraGatewaySecurityConfigProperties.CacheConfig;
+import org.georchestra.gateway.security.GeorchestraGatewaySecurityConfigProperties.Caching;
+import org.georchestra.gateway.security.GeorchestraGatewaySecurityConfigProperties.CircuitBreaker;
+import org.georchestra.gateway.security.GeorchestraGatewaySecurityConfigProperties.ConnectionPool;
+import org.georchestra.gateway.security.GeorchestraGatewaySecurityConfigProperties.DirectorySnapshot;
+import org.georchestra.gateway.security.GeorchestraGatewaySecurityConfigProperties.EmailIndex;
+import org.georchestra.gateway.security.GeorchestraGatewaySecurityConfigProperties.HealthCheck;
+import org.georchestra.gateway.security.GeorchestraGatewaySecurityConfigProperties.RoleMembershipIndex;
+
 import lombok.Builder;
 import lombok.Builder.Default;
 import lombok.Generated;
@@ -55,10 +65,27 @@ public class ExtendedLdapConfig {
     private boolean enabled;
 
     /**
-     * The LDAP server URL.
+     * The LDAP server URL. When {@link #getReplicas() replicas} are configured,
+     * this is the primary server, the only one receiving write operations.
      */
     private @NonNull String url;
 
+    /**
+     * Ordered URLs of read-only replicas of the LDAP server.
+     *
+     * @see LdapReplicaSet
+     */
+    @Default
+    private @NonNull List<String> replicas = List.of();
+
+    /**
+     * Health checking settings of the primary server and its replicas.
+     *
+     * @see LdapReplicaSet
+     */
+    @Default
+    private @NonNull HealthCheck healthCheck = new HealthCheck();
+
     /**
      * The base distinguished name (DN) of the LDAP directory.
      */
@@ -93,6 +120,14 @@ public class ExtendedLdapConfig {
      */
     private String[] returningAttributes;
 
+    /**
+     * Whether to only retrieve the user attributes needed by the enabled
+     * geOrchestra headers.
+     *
+     * @see LdapUserAttributes
+     */
+    private boolean projectAttributes;
+
     /**
      * Optional administrator distinguished name (DN) for performing privileged
      * operations.
@@ -115,4 +150,69 @@ public class ExtendedLdapConfig {
      * The relative distinguished name (RDN) of the pending organization entries.
      */
     private @NonNull String pendingOrgsRdn;
+
+    /**
+     * Settings of the authenticated users cache.
+     *
+     * @see LdapUserCache
+     */
+    @Default
+    private @NonNull CacheConfig usersCache = new CacheConfig();
+
+    /**
+     * Settings of the organizations cache.
+     *
+     * @see LdapOrganizationCache
+     */
+    @Default
+    private @NonNull CacheConfig orgsCache = new CacheConfig();
+
+    /**
+     * Settings of the HTTP Basic credentials cache.
+     *
+     * @see LdapCredentialsCache
+     */
+    @Default
+    private @NonNull CacheConfig credentialsCache = new Caching().getCredentials();
+
+    /**
+     * Settings of the in-memory directory snapshot.
+     *
+     * @see LdapDirectorySnapshot
+     */
+    @Default
+    private @NonNull DirectorySnapshot snapshot = new DirectorySnapshot();
+
+    /**
+     * Settings of the in-memory index of user emails.
+     *
+     * @see LdapEmailIndex
+     */
+    @Default
+    private @NonNull EmailIndex emailIndex = new EmailIndex();
+
+    /**
+     * Settings of the in-memory index of role memberships.
+     *
+     * @see LdapRoleMembershipIndex
+     */
+    @Default
+    private @NonNull RoleMembershipIndex roleIndex = new RoleMembershipIndex();
+
+    /**
+     * Settings of the pool of connections used to look up users, organizations,
+     * and roles.
+     *
+     * @see LdapConnectionPools
+     */
+    @Default
+    private @NonNull ConnectionPool pool = new ConnectionPool();
+
+    /**
+     * Settings of the circuit breaker of directory lookups and authentications.
+     *
+     * @see LdapCircuitBreakers
+     */
+    @Default
+    private @NonNull CircuitBreaker circuitBreaker = new CircuitBreaker();
 }
@@ -48,13 +48,29 @@ import lombok.RequiredArgsConstructor;
  * Additionally, this class ensures role name consistency by normalizing
  * mismatched prefixes between LDAP authorities and geOrchestra roles.
  * </p>
+ * <p>
+ * Users are looked up through a {@link LdapUserCache}, so that resolving the
+ * user of an existing session does not necessarily require a directory round
+ * trip.
+ * </p>
  *
+ * @see LdapUserCache
  * @see DemultiplexingUsersApi
  */
 @RequiredArgsConstructor
 class GeorchestraLdapAuthenticatedUserMapper implements GeorchestraUserMapperExtension {
 
-    private final @NonNull DemultiplexingUsersApi users;
+    private final @NonNull LdapUserCache users;
+
+    /**
+     * @return whether the token is an LDAP authentication, whose user is looked up
+     *         in the LDAP directory
+     */
+    @Override
+    public boolean isBlocking(Authentication authToken) {
+        return authToken instanceof GeorchestraUserNamePasswordAuthenticationToken token
+                && token.getPrincipal() instanceof LdapUserDetails;
+    }
 
     @Override
     public Optional<GeorchestraUser> resolve(Authentication authToken) {
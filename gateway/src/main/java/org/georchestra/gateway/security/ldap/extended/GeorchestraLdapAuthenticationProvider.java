@@ -18,11 +18,15 @@
  */
 package org.georchestra.gateway.security.ldap.extended;
 
+import java.util.Map;
+
 import org.georchestra.gateway.security.ldap.AuthenticationProviderDecorator;
 import org.springframework.security.authentication.AuthenticationProvider;
+import org.springframework.security.authentication.AuthenticationServiceException;
 import org.springframework.security.core.Authentication;
 import org.springframework.security.core.AuthenticationException;
 
+import lombok.Getter;
 import lombok.NonNull;
 import lombok.extern.slf4j.Slf4j;
 
@@ -42,33 +46,80 @@ import lombok.extern.slf4j.Slf4j;
  * </p>
  * <p>
  * Under heavy load, the LDAP server may be overwhelmed and start failing
- * authentication requests. To mitigate this, a Caffeine cache with a short TTL
- * could be introduced to handle concurrency and avoid redundant authentication
- * attempts when multiple requests arrive simultaneously.
+ * authentication requests. To mitigate this, successful authentications can be
+ * cached for a short time by an {@link LdapCredentialsCache}, avoiding redundant
+ * binds when clients send their credentials with each request (HTTP Basic).
+ * </p>
+ * <p>
+ * Binds go through the configuration's circuit breaker, if enabled, so that new
+ * logins fail fast while the directory is unavailable (see
+ * {@link LdapCircuitBreakers}). Cached authentications are still served.
  * </p>
  */
 @Slf4j(topic = "org.georchestra.gateway.security.ldap.extended")
 public class GeorchestraLdapAuthenticationProvider extends AuthenticationProviderDecorator {
 
-    private final @NonNull String configName;
+    /**
+     * The name of the LDAP configuration this provider authenticates against
+     */
+    private final @NonNull @Getter String configName;
+
+    private final @NonNull LdapCredentialsCache credentialsCache;
+
+    private final @NonNull LdapCircuitBreakers breakers;
 
     /**
      * Constructs a new {@code GeorchestraLdapAuthenticationProvider} that wraps a
-     * delegate authentication provider.
+     * delegate authentication provider, with no credentials cache.
      *
      * @param configName the name of the LDAP configuration associated with this
      *                   provider
      * @param delegate   the actual LDAP authentication provider being decorated
      */
     public GeorchestraLdapAuthenticationProvider(@NonNull String configName, @NonNull AuthenticationProvider delegate) {
+        this(configName, delegate, new LdapCredentialsCache(Map.of()));
+    }
+
+    /**
+     * Constructs a new {@code GeorchestraLdapAuthenticationProvider} that wraps a
+     * delegate authentication provider.
+     *
+     * @param configName       the name of the LDAP configuration associated with
+     *                         this provider
+     * @param delegate         the actual LDAP authentication provider being
+     *                         decorated
+     * @param credentialsCache the cache of successful authentications
+     */
+    public GeorchestraLdapAuthenticationProvider(@NonNull String configName, @NonNull AuthenticationProvider delegate,
+            @NonNull LdapCredentialsCache credentialsCache) {
+        this(configName, delegate, credentialsCache, LdapCircuitBreakers.none());
+    }
+
+    /**
+     * Constructs a new {@code GeorchestraLdapAuthenticationProvider} that wraps a
+     * delegate authentication provider.
+     *
+     * @param configName       the name of the LDAP configuration associated with
+     *                         this provider
+     * @param delegate         the actual LDAP authentication provider being
+     *                         decorated
+     * @param credentialsCache the cache of successful authentications
+     * @param breakers         the circuit breakers of the LDAP directories
+     */
+    public GeorchestraLdapAuthenticationProvider(@NonNull String configName, @NonNull AuthenticationProvider delegate,
+            @NonNull LdapCredentialsCache credentialsCache, @NonNull LdapCircuitBreakers breakers) {
         super(delegate);
         this.configName = configName;
+        this.credentialsCache = credentialsCache;
+        this.breakers = breakers;
     }
 
     /**
      * Attempts to authenticate a user against the configured LDAP authentication
      * provider.
      * <p>
+     * Authentications previously succeeded with the same credentials are served
+     * from the {@link LdapCredentialsCache}, if enabled for this configuration.
      * If authentication succeeds, it wraps the authentication result in a
      * {@link GeorchestraUserNamePasswordAuthenticationToken}, ensuring that the
      * user's authentication is correctly associated with the configured LDAP
@@ -83,7 +134,7 @@ public class GeorchestraLdapAuthenticationProvider extends AuthenticationProvide
     public Authentication authenticate(Authentication authentication) throws AuthenticationException {
         log.debug("Attempting to authenticate user {} against {} extended LDAP", authentication.getName(), configName);
         try {
-            Authentication auth = super.authenticate(authentication);
+            Authentication auth = credentialsCache.authenticate(configName, authentication, this::bind);
             log.debug("Authenticated {} from {} with roles {}", auth.getName(), configName, auth.getAuthorities());
             return new GeorchestraUserNamePasswordAuthenticationToken(configName, auth);
         } catch (AuthenticationException e) {
@@ -97,4 +148,16 @@ public class GeorchestraLdapAuthenticationProvider extends AuthenticationProvide
             throw e;
         }
     }
+
+    /**
+     * Authenticates against the directory through its circuit breaker, failing
+     * right away while the circuit is open.
+     */
+    private Authentication bind(Authentication authentication) {
+        try {
+            return breakers.call(configName, () -> super.authenticate(authentication));
+        } catch (LdapCircuitOpenException e) {
+            throw new AuthenticationServiceException(e.getMessage(), e);
+        }
+    }
 }
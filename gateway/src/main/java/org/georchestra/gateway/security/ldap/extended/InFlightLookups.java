@@ -0,0 +1,152 @@
+/*
+ * Copyright (C) 2022 by the geOrchestra PSC
+ *
+ * This file is part of geOrchestra.
+ *
+ * geOrchestra is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free
+ * Software Foundation, either version 3 of the License, or (at your option)
+ * any later version.
+ *
+ * geOrchestra is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * geOrchestra. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.georchestra.gateway.security.ldap.extended;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+import java.util.function.UnaryOperator;
+
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import lombok.NonNull;
+import lombok.RequiredArgsConstructor;
+
+/**
+ * Coalesces concurrent identical lookups (single-flight): while a lookup for a
+ * given key is running, other threads asking for the same key wait for it and
+ * share its result, instead of issuing the same directory query.
+ * <p>
+ * Typically, a browser opening a map fires dozens of concurrent requests for
+ * the same user, each resolving it from the directory.
+ * </p>
+ * <p>
+ * Since callers are free to modify the returned values, the threads that waited
+ * for a lookup get a copy of its result, as does the thread that ran it if any
+ * thread waited for it. Errors are propagated to all of them.
+ * </p>
+ * <p>
+ * Exports the following metrics, tagged with {@code lookup=<name>}:
+ * <ul>
+ * <li>{@code georchestra.gateway.ldap.users.lookups}: number of lookups, tagged
+ * by {@code flight}: {@code leader} for the ones that ran the query,
+ * {@code waiter} for the ones that waited for another thread's query. The
+ * {@code waiter/leader} ratio is the average number of lookups coalesced per
+ * query
+ * <li>{@code georchestra.gateway.ldap.users.lookups.inflight}: number of
+ * queries currently running
+ * </ul>
+ * </p>
+ *
+ * @param <K> the lookup key type
+ * @param <V> the lookup result type
+ */
+@RequiredArgsConstructor
+class InFlightLookups<K, V> implements MeterBinder {
+
+    private static final String METRIC_PREFIX = "georchestra.gateway.ldap.users.lookups";
+
+    /**
+     * Name of the lookups, used as the {@code lookup} metrics tag
+     */
+    private final @NonNull String name;
+
+    /**
+     * Creates a copy of a lookup result for the threads sharing it
+     */
+    private final @NonNull UnaryOperator<V> copier;
+
+    private final ConcurrentMap<K, Flight<V>> flights = new ConcurrentHashMap<>();
+
+    private final AtomicLong leaders = new AtomicLong();
+    private final AtomicLong waiters = new AtomicLong();
+
+    /**
+     * Runs the lookup for the given key, unless one is already running, in which
+     * case waits for and returns a copy of its result.
+     *
+     * @param key    the lookup key
+     * @param lookup the lookup to run if none is running for the key
+     * @return the lookup result
+     */
+    public V get(@NonNull K key, @NonNull Supplier<V> lookup) {
+        final Flight<V> mine = new Flight<>();
+        final Flight<V> flight = flights.compute(key, (k, running) -> running == null ? mine : running.join());
+        if (flight != mine) {
+            waiters.incrementAndGet();
+            return copier.apply(flight.await());
+        }
+        leaders.incrementAndGet();
+        V result;
+        try {
+            result = lookup.get();
+            mine.result.complete(result);
+        } catch (RuntimeException | Error e) {
+            mine.result.completeExceptionally(e);
+            throw e;
+        } finally {
+            flights.remove(key, mine);
+        }
+        // no thread can join the flight once removed
+        return mine.waiters.get() == 0 ? result : copier.apply(result);
+    }
+
+    /**
+     * Registers the {@code georchestra.gateway.ldap.users.lookups*} metrics.
+     */
+    @Override
+    public void bindTo(@NonNull MeterRegistry registry) {
+        FunctionCounter.builder(METRIC_PREFIX, leaders, AtomicLong::get).tag("lookup", name).tag("flight", "leader")
+                .description("Number of user lookups that queried the directory").register(registry);
+        FunctionCounter.builder(METRIC_PREFIX, waiters, AtomicLong::get).tag("lookup", name).tag("flight", "waiter")
+                .description("Number of user lookups that shared a concurrent identical query").register(registry);
+        Gauge.builder(METRIC_PREFIX + ".inflight", flights, ConcurrentMap::size).tag("lookup", name)
+                .description("Number of user lookup queries currently running").register(registry);
+    }
+
+    private static class Flight<V> {
+        final CompletableFuture<V> result = new CompletableFuture<>();
+        final AtomicInteger waiters = new AtomicInteger();
+
+        Flight<V> join() {
+            waiters.incrementAndGet();
+            return this;
+        }
+
+        V await() {
+            try {
+                return result.join();
+            } catch (CompletionException e) {
+                if (e.getCause() instanceof RuntimeException cause) {
+                    throw cause;
+                }
+                if (e.getCause() instanceof Error cause) {
+                    throw cause;
+                }
+                throw e;
+            }
+        }
+    }
+}
@@ -0,0 +1,125 @@
+/*
+ * Copyright (C) 2022 by the geOrchestra PSC
+ *
+ * This file is part of geOrchestra.
+ *
+ * geOrchestra is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free
+ * Software Foundation, either version 3 of the License, or (at your option)
+ * any later version.
+ *
+ * geOrchestra is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * geOrchestra. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.georchestra.gateway.security.ldap.extended;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.cache.CacheLoader;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.ListenableFutureTask;
+import com.google.common.util.concurrent.MoreExecutors;
+
+import lombok.NonNull;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Reloads the entries of the LDAP caches ({@link LdapUserCache},
+ * {@link LdapOrganizationCache}) older than their {@code refreshAfterWrite} in
+ * the background, on a small bounded thread pool shared by all the caches.
+ * <p>
+ * The cached entry keeps being served while it's reloaded, so that reloads
+ * don't delay the requests triggering them. If the pool is saturated, the
+ * reload is skipped and the cached entry kept, to be reloaded on a later
+ * access.
+ * </p>
+ */
+@Slf4j(topic = "org.georchestra.gateway.security.ldap.extended")
+public class LdapCacheReloads implements AutoCloseable {
+
+    private static final int RELOAD_THREADS = 2;
+
+    private static final int RELOAD_QUEUE_SIZE = 1_000;
+
+    private final Executor executor;
+
+    public LdapCacheReloads() {
+        this(newReloadExecutor());
+    }
+
+    @VisibleForTesting
+    LdapCacheReloads(@NonNull Executor executor) {
+        this.executor = executor;
+    }
+
+    /**
+     * @return reloads running in the thread accessing the entry to reload, as
+     *         Guava caches do by default
+     */
+    public static LdapCacheReloads direct() {
+        return new LdapCacheReloads(MoreExecutors.directExecutor());
+    }
+
+    /**
+     * @param loader the loader of the cache entries
+     * @return a loader delegating to {@code loader}, whose reloads run in the
+     *         background
+     */
+    public <K, V> CacheLoader<K, V> reloading(@NonNull CacheLoader<K, V> loader) {
+        return new CacheLoader<>() {
+            @Override
+            public V load(K key) throws Exception {
+                return loader.load(key);
+            }
+
+            /**
+             * Unlike a discarded task, whose future would never complete, keeping the
+             * old value on rejection leaves the entry to be reloaded on its next access.
+             */
+            @Override
+            public ListenableFuture<V> reload(K key, V oldValue) {
+                ListenableFutureTask<V> task = ListenableFutureTask.create(() -> loader.load(key));
+                try {
+                    executor.execute(task);
+                } catch (RejectedExecutionException e) {
+                    log.debug("Reload pool saturated, keeping cached entry {}", key);
+                    return Futures.immediateFuture(oldValue);
+                }
+                return task;
+            }
+        };
+    }
+
+    /**
+     * Stops the background reloads.
+     */
+    @Override
+    public void close() {
+        if (executor instanceof ExecutorService service) {
+            service.shutdownNow();
+        }
+    }
+
+    private static ExecutorService newReloadExecutor() {
+        CustomizableThreadFactory threadFactory = new CustomizableThreadFactory("ldap-cache-reload-");
+        threadFactory.setDaemon(true);
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(RELOAD_THREADS, RELOAD_THREADS, 1, TimeUnit.MINUTES,
+                new ArrayBlockingQueue<>(RELOAD_QUEUE_SIZE), threadFactory);
+        executor.allowCoreThreadTimeOut(true);
+        return executor;
+    }
+}
@@ -0,0 +1,43 @@
+/*
+ * Copyright (C) 2022 by the geOrchestra PSC
+ *
+ * This file is part of geOrchestra.
+ *
+ * geOrchestra is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free
+ * Software Foundation, either version 3 of the License, or (at your option)
+ * any later version.
+ *
+ * geOrchestra is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * geOrchestra. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.georchestra.gateway.security.ldap.extended;
+
+import org.georchestra.gateway.security.ldap.extended.LdapCircuitBreakers.State;
+
+import lombok.NonNull;
+import lombok.Value;
+
+/**
+ * Application event published when the circuit breaker of an LDAP
+ * configuration changes state.
+ *
+ * @see LdapCircuitBreakers
+ */
+@Value
+public class LdapCircuitBreakerStateChanged {
+
+    /** The name of the LDAP configuration. */
+    private @NonNull String configName;
+
+    /** The previous state of the circuit breaker. */
+    private @NonNull State from;
+
+    /** The new state of the circuit breaker. */
+    private @NonNull State to;
+}
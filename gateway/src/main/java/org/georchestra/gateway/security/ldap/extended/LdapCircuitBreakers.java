@@ -0,0 +1,351 @@
+/*
+ * Copyright (C) 2022 by the geOrchestra PSC
+ *
+ * This file is part of geOrchestra.
+ *
+ * geOrchestra is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free
+ * Software Foundation, either version 3 of the License, or (at your option)
+ * any later version.
+ *
+ * geOrchestra is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * geOrchestra. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.georchestra.gateway.security.ldap.extended;
+
+import java.time.Duration;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+import org.georchestra.gateway.security.GeorchestraGatewaySecurityConfigProperties.CircuitBreaker;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.security.authentication.AuthenticationServiceException;
+import org.springframework.security.core.AuthenticationException;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Ticker;
+
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Tags;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import lombok.NonNull;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Circuit breakers of the calls to the extended LDAP directories, one per
+ * {@link ExtendedLdapConfig LDAP configuration} whose
+ * {@link ExtendedLdapConfig#getCircuitBreaker() circuit breaker} is enabled.
+ * <p>
+ * A hung directory would otherwise have every user lookup and authentication
+ * wait for socket timeouts, exhausting the threads and connections they use,
+ * and ultimately affecting unrelated (even anonymous) traffic. Instead, once
+ * the rate of failed calls among the most recent ones reaches the configured
+ * threshold, the circuit opens and calls fail right away with a
+ * {@link LdapCircuitOpenException}. After
+ * {@link CircuitBreaker#getWaitDurationInOpenState() some time}, the circuit
+ * becomes half-open and lets a single trial call through, closing again if it
+ * succeeds, or re-opening otherwise.
+ * </p>
+ * <p>
+ * Errors raised by the calls count as failures, except authentication errors
+ * other than {@link AuthenticationServiceException} (e.g. bad credentials),
+ * since the directory did answer. Successful calls taking longer than the
+ * {@link CircuitBreaker#getCallTimeout() call timeout} count as failures too.
+ * </p>
+ * <p>
+ * State transitions are logged and published as
+ * {@link LdapCircuitBreakerStateChanged} application events. The following
+ * metrics are exported, tagged with {@code config=<config name>}:
+ * <ul>
+ * <li>{@code georchestra.gateway.ldap.circuit.state}: {@code 1} for the current
+ * state of the circuit breaker, {@code 0} for the others, by {@code state}
+ * ({@code closed}, {@code open}, or {@code half_open})
+ * <li>{@code georchestra.gateway.ldap.circuit.transitions}: number of
+ * transitions to each {@code state}
+ * <li>{@code georchestra.gateway.ldap.circuit.calls}: number of calls by
+ * {@code outcome}: {@code success}, {@code failure}, or {@code rejected} (the
+ * circuit was open)
+ * </ul>
+ * </p>
+ *
+ * @see DemultiplexingUsersApi
+ * @see GeorchestraLdapAuthenticationProvider
+ * @see LdapUserCache
+ */
+@Slf4j(topic = "org.georchestra.gateway.security.ldap.extended")
+public class LdapCircuitBreakers implements MeterBinder {
+
+    private static final String METRIC_PREFIX = "georchestra.gateway.ldap.circuit";
+
+    /**
+     * Circuit breaker states
+     */
+    public enum State {
+        /** Calls go through, their outcome being recorded */
+        CLOSED,
+        /** Calls fail right away */
+        OPEN,
+        /** A single trial call goes through, deciding whether to close the circuit */
+        HALF_OPEN
+    }
+
+    private final Map<String, Breaker> breakersByConfigName = new HashMap<>();
+
+    /**
+     * @param settingsByConfig the circuit breaker settings for each LDAP
+     *                         configuration name
+     * @param eventPublisher   publisher of the {@link LdapCircuitBreakerStateChanged}
+     *                         events
+     */
+    public LdapCircuitBreakers(@NonNull Map<String, CircuitBreaker> settingsByConfig,
+            @NonNull ApplicationEventPublisher eventPublisher) {
+        this(settingsByConfig, eventPublisher, Ticker.systemTicker());
+    }
+
+    @VisibleForTesting
+    LdapCircuitBreakers(@NonNull Map<String, CircuitBreaker> settingsByConfig,
+            @NonNull ApplicationEventPublisher eventPublisher, @NonNull Ticker ticker) {
+        settingsByConfig.forEach((configName, settings) -> {
+            if (settings.isEnabled()) {
+                log.info("Circuit breaking calls to LDAP config {}: {}", configName, settings);
+                breakersByConfigName.put(configName, new Breaker(configName, settings, eventPublisher, ticker));
+            }
+        });
+    }
+
+    /**
+     * @return circuit breakers that let all calls through
+     */
+    public static LdapCircuitBreakers none() {
+        return new LdapCircuitBreakers(Map.of(), event -> {
+        });
+    }
+
+    /**
+     * Runs a call to the directory of the given LDAP configuration through its
+     * circuit breaker, if enabled.
+     *
+     * @param <T>        the call result type
+     * @param configName the LDAP configuration name
+     * @param call       the directory call
+     * @return the call result
+     * @throws LdapCircuitOpenException if the circuit is open
+     */
+    public <T> T call(@NonNull String configName, @NonNull Supplier<T> call) throws LdapCircuitOpenException {
+        Breaker breaker = breakersByConfigName.get(configName);
+        return breaker == null ? call.get() : breaker.call(call);
+    }
+
+    /**
+     * @param configName the LDAP configuration name
+     * @return the state of its circuit breaker, or empty if it has none
+     */
+    public Optional<State> getState(@NonNull String configName) {
+        return Optional.ofNullable(breakersByConfigName.get(configName)).map(Breaker::getState);
+    }
+
+    /**
+     * Registers the {@code georchestra.gateway.ldap.circuit.*} metrics of each
+     * circuit breaker.
+     */
+    @Override
+    public void bindTo(@NonNull MeterRegistry registry) {
+        breakersByConfigName.values().forEach(breaker -> breaker.bindTo(registry));
+    }
+
+    /**
+     * Whether the given error, raised by a directory call, denotes the directory
+     * being unavailable.
+     */
+    @VisibleForTesting
+    static boolean isFailure(Throwable error) {
+        return !(error instanceof AuthenticationException) || error instanceof AuthenticationServiceException;
+    }
+
+    /**
+     * Circuit breaker of a single LDAP configuration, computing the failure rate
+     * over a count-based sliding window.
+     */
+    private static class Breaker {
+
+        private final String configName;
+        private final ApplicationEventPublisher eventPublisher;
+        private final Ticker ticker;
+
+        private final int failureRateThreshold;
+        private final int minimumNumberOfCalls;
+        private final long callTimeoutNanos;
+        private final long waitDurationInOpenStateNanos;
+
+        /** Outcome of the most recent calls, {@code true} for failures */
+        private final boolean[] window;
+        private int windowIndex;
+        private int windowCalls;
+        private int windowFailures;
+
+        private volatile State state = State.CLOSED;
+        private long openedAt;
+        private boolean trialInProgress;
+
+        private final AtomicLong successes = new AtomicLong();
+        private final AtomicLong failures = new AtomicLong();
+        private final AtomicLong rejections = new AtomicLong();
+        private final Map<State, AtomicLong> transitions = new EnumMap<>(State.class);
+
+        Breaker(String configName, CircuitBreaker settings, ApplicationEventPublisher eventPublisher, Ticker ticker) {
+            this.configName = configName;
+            this.eventPublisher = eventPublisher;
+            this.ticker = ticker;
+            this.failureRateThreshold = settings.getFailureRateThreshold();
+            this.window = new boolean[Math.max(1, settings.getSlidingWindowSize())];
+            this.minimumNumberOfCalls = Math.min(window.length, Math.max(1, settings.getMinimumNumberOfCalls()));
+            this.callTimeoutNanos = nanos(settings.getCallTimeout(), Long.MAX_VALUE);
+            this.waitDurationInOpenStateNanos = nanos(settings.getWaitDurationInOpenState(), 0);
+            for (State s : State.values()) {
+                transitions.put(s, new AtomicLong());
+            }
+        }
+
+        private static long nanos(Duration duration, long defaultValue) {
+            return duration == null || duration.isNegative() || duration.isZero() ? defaultValue
+                    : duration.toNanos();
+        }
+
+        State getState() {
+            return state;
+        }
+
+        <T> T call(Supplier<T> call) {
+            final boolean trial = acquire();
+            final long start = ticker.read();
+            boolean failed = true;
+            try {
+                T result = call.get();
+                failed = ticker.read() - start > callTimeoutNanos;
+                if (failed) {
+                    log.debug("Call to LDAP config {} exceeded the call timeout", configName);
+                }
+                return result;
+            } catch (RuntimeException e) {
+                failed = isFailure(e);
+                throw e;
+            } finally {
+                (failed ? failures : successes).incrementAndGet();
+                record(failed, trial);
+            }
+        }
+
+        /**
+         * @return whether the call is the trial call of the half-open state
+         * @throws LdapCircuitOpenException if the call is not permitted
+         */
+        private boolean acquire() {
+            LdapCircuitBreakerStateChanged event = null;
+            boolean trial = false;
+            synchronized (this) {
+                if (state == State.OPEN) {
+                    if (ticker.read() - openedAt < waitDurationInOpenStateNanos) {
+                        rejections.incrementAndGet();
+                        throw new LdapCircuitOpenException(configName);
+                    }
+                    event = transition(State.HALF_OPEN);
+                }
+                if (state == State.HALF_OPEN) {
+                    if (trialInProgress) {
+                        rejections.incrementAndGet();
+                        throw new LdapCircuitOpenException(configName);
+                    }
+                    trialInProgress = true;
+                    trial = true;
+                }
+            }
+            publish(event);
+            return trial;
+        }
+
+        private void record(boolean failed, boolean trial) {
+            LdapCircuitBreakerStateChanged event = null;
+            synchronized (this) {
+                if (trial) {
+                    trialInProgress = false;
+                    event = transition(failed ? State.OPEN : State.CLOSED);
+                } else if (state == State.CLOSED) {
+                    if (windowCalls == window.length) {
+                        windowFailures -= window[windowIndex] ? 1 : 0;
+                    } else {
+                        windowCalls++;
+                    }
+                    window[windowIndex] = failed;
+                    windowFailures += failed ? 1 : 0;
+                    windowIndex = (windowIndex + 1) % window.length;
+                    if (windowCalls >= minimumNumberOfCalls
+                            && windowFailures * 100L >= (long) failureRateThreshold * windowCalls) {
+                        event = transition(State.OPEN);
+                    }
+                }
+            }
+            publish(event);
+        }
+
+        /**
+         * Must be called while holding the lock
+         */
+        private LdapCircuitBreakerStateChanged transition(State to) {
+            State from = state;
+            state = to;
+            transitions.get(to).incrementAndGet();
+            if (to == State.OPEN) {
+                openedAt = ticker.read();
+                log.warn("Circuit breaker of LDAP config {} is open, failing calls for the next {} ms", configName,
+                        waitDurationInOpenStateNanos / 1_000_000);
+            } else if (to == State.CLOSED) {
+                windowIndex = 0;
+                windowCalls = 0;
+                windowFailures = 0;
+                log.info("Circuit breaker of LDAP config {} is closed", configName);
+            } else {
+                log.info("Circuit breaker of LDAP config {} is half-open, letting a trial call through", configName);
+            }
+            return new LdapCircuitBreakerStateChanged(configName, from, to);
+        }
+
+        private void publish(LdapCircuitBreakerStateChanged event) {
+            if (event != null) {
+                eventPublisher.publishEvent(event);
+            }
+        }
+
+        void bindTo(MeterRegistry registry) {
+            for (State s : State.values()) {
+                String stateTag = s.name().toLowerCase(Locale.ROOT);
+                Tags tags = Tags.of("config", configName, "state", stateTag);
+                Gauge.builder(METRIC_PREFIX + ".state", this, b -> b.state == s ? 1 : 0).tags(tags)
+                        .description("Current state of the LDAP circuit breaker").register(registry);
+                FunctionCounter.builder(METRIC_PREFIX + ".transitions", transitions.get(s), AtomicLong::get)
+                        .tags(tags).description("Number of LDAP circuit breaker state transitions")
+                        .register(registry);
+            }
+            callsCounter(registry, "success", successes);
+            callsCounter(registry, "failure", failures);
+            callsCounter(registry, "rejected", rejections);
+        }
+
+        private void callsCounter(MeterRegistry registry, String outcome, AtomicLong count) {
+            FunctionCounter.builder(METRIC_PREFIX + ".calls", count, AtomicLong::get)
+                    .tags(Tags.of("config", configName, "outcome", outcome))
+                    .description("Number of calls through the LDAP circuit breaker").register(registry);
+        }
+    }
+}
@@ -0,0 +1,46 @@
+/*
+ * Copyright (C) 2022 by the geOrchestra PSC
+ *
+ * This file is part of geOrchestra.
+ *
+ * geOrchestra is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free
+ * Software Foundation, either version 3 of the License, or (at your option)
+ * any later version.
+ *
+ * geOrchestra is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * geOrchestra. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.georchestra.gateway.security.ldap.extended;
+
+import lombok.Getter;
+
+/**
+ * Thrown instead of calling an LDAP directory whose circuit breaker is open.
+ *
+ * @see LdapCircuitBreakers
+ */
+@SuppressWarnings("serial")
+public class LdapCircuitOpenException extends RuntimeException {
+
+    /**
+     * The name of the LDAP configuration whose circuit is open
+     */
+    private final @Getter String configName;
+
+    /**
+     * Constructs a new {@code LdapCircuitOpenException} for the given LDAP
+     * configuration.
+     *
+     * @param configName the name of the LDAP configuration whose circuit is open
+     */
+    public LdapCircuitOpenException(String configName) {
+        super("LDAP config %s is unavailable, circuit breaker is open".formatted(configName));
+        this.configName = configName;
+    }
+}
@@ -0,0 +1,264 @@
+/*
+ * Copyright (C) 2022 by the geOrchestra PSC
+ *
+ * This file is part of geOrchestra.
+ *
+ * geOrchestra is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free
+ * Software Foundation, either version 3 of the License, or (at your option)
+ * any later version.
+ *
+ * geOrchestra is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * geOrchestra. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.georchestra.gateway.security.ldap.extended;
+
+import java.time.Duration;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Stream;
+
+import javax.naming.directory.DirContext;
+
+import org.georchestra.gateway.security.GeorchestraGatewaySecurityConfigProperties.CircuitBreaker;
+import org.georchestra.gateway.security.GeorchestraGatewaySecurityConfigProperties.ConnectionPool;
+import org.georchestra.gateway.security.GeorchestraGatewaySecurityConfigProperties.HealthCheck;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.ldap.core.ContextSource;
+import org.springframework.ldap.core.LdapTemplate;
+import org.springframework.ldap.core.support.LdapContextSource;
+import org.springframework.ldap.pool.factory.PoolingContextSource;
+import org.springframework.ldap.pool.validation.DefaultDirContextValidator;
+
+import io.micrometer.core.instrument.FunctionTimer;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Tags;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import lombok.NonNull;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Provides the {@link LdapTemplate} used to look up users, organizations, and
+ * roles in each extended LDAP directory, sharing a pool of connections per
+ * {@link ExtendedLdapConfig LDAP configuration}.
+ * <p>
+ * Without pooling, each directory operation opens a new connection and binds
+ * it, which usually takes longer than the operation itself. Pooling is
+ * disabled by default, and enabled through {@link ExtendedLdapConfig#getPool()}.
+ * </p>
+ * <p>
+ * When the configuration has {@link ExtendedLdapConfig#getReplicas() read
+ * replicas}, each server gets its own pool, and an {@link LdapReplicaSet}
+ * routes the connections among them.
+ * </p>
+ * <p>
+ * When the configuration's {@link ExtendedLdapConfig#getCircuitBreaker()
+ * circuit breaker} is enabled, its call timeout is used as the read timeout of
+ * the connections, so that calls to a hung directory fail instead of blocking.
+ * </p>
+ * <p>
+ * Exports the following metrics, tagged with {@code config=<config name>} and
+ * {@code server=<server url>}:
+ * <ul>
+ * <li>{@code georchestra.gateway.ldap.pool.active}: number of connections in
+ * use
+ * <li>{@code georchestra.gateway.ldap.pool.idle}: number of idle connections
+ * <li>{@code georchestra.gateway.ldap.pool.wait}: time spent waiting for a
+ * connection (including opening it, if no idle one was available)
+ * </ul>
+ * </p>
+ */
+@Slf4j(topic = "org.georchestra.gateway.security.ldap.extended")
+public class LdapConnectionPools implements MeterBinder, DisposableBean {
+
+    private static final String METRIC_PREFIX = "georchestra.gateway.ldap.pool";
+
+    private static final String CONNECT_TIMEOUT_ENV = "com.sun.jndi.ldap.connect.timeout";
+    private static final String READ_TIMEOUT_ENV = "com.sun.jndi.ldap.read.timeout";
+
+    private final Map<String, ContextSource> contextSources = new ConcurrentHashMap<>();
+
+    /**
+     * Returns an {@link LdapTemplate} for the given LDAP configuration, using its
+     * connection pool if enabled.
+     *
+     * @param config the LDAP configuration
+     * @return an initialized {@link LdapTemplate}
+     */
+    public LdapTemplate ldapTemplate(@NonNull ExtendedLdapConfig config) {
+        ContextSource contextSource = contextSources.computeIfAbsent(config.getName(),
+                name -> createContextSource(config));
+        LdapTemplate ldapTemplate = new LdapTemplate(contextSource);
+        try {
+            ldapTemplate.afterPropertiesSet();
+        } catch (Exception e) {
+            throw new IllegalStateException(e);
+        }
+        return ldapTemplate;
+    }
+
+    private ContextSource createContextSource(ExtendedLdapConfig config) {
+        Map<String, Object> env = new HashMap<>();
+        CircuitBreaker circuitBreaker = config.getCircuitBreaker();
+        if (circuitBreaker.isEnabled()) {
+            // don't let hung directory calls wait for the socket timeout
+            env.put(READ_TIMEOUT_ENV, String.valueOf(positiveMillis(circuitBreaker.getCallTimeout())));
+        }
+        if (config.getReplicas().isEmpty()) {
+            return createContextSource(config, config.getUrl(), env);
+        }
+        List<String> urls = Stream.concat(Stream.of(config.getUrl()), config.getReplicas().stream()).toList();
+        log.info("Routing lookups of LDAP config {} among servers {}", config.getName(), urls);
+        HealthCheck healthCheck = config.getHealthCheck();
+        String timeout = String.valueOf(positiveMillis(healthCheck.getTimeout()));
+        env.put(CONNECT_TIMEOUT_ENV, timeout);
+        Map<String, Object> probeTimeouts = Map.of(CONNECT_TIMEOUT_ENV, timeout, READ_TIMEOUT_ENV, timeout);
+        List<LdapReplicaSet.Server> servers = urls.stream()
+                .map(url -> new LdapReplicaSet.Server(url, createContextSource(config, url, env),
+                        ldapContextSource(config, url, probeTimeouts)))
+                .toList();
+        LdapReplicaSet replicaSet = new LdapReplicaSet(config.getName(), servers, healthCheck.getInterval());
+        replicaSet.start();
+        return replicaSet;
+    }
+
+    private ContextSource createContextSource(ExtendedLdapConfig config, String url, Map<String, Object> env) {
+        LdapContextSource contextSource = ldapContextSource(config, url, env);
+        ConnectionPool pool = config.getPool();
+        if (!pool.isEnabled()) {
+            return contextSource;
+        }
+        log.info("Pooling connections to LDAP server {} of config {}: {}", url, config.getName(), pool);
+        MeteredPoolingContextSource pooling = new MeteredPoolingContextSource(url);
+        pooling.setContextSource(contextSource);
+        pooling.setDirContextValidator(new DefaultDirContextValidator());
+        pooling.setTestOnBorrow(pool.isTestOnBorrow());
+        pooling.setTestWhileIdle(pool.isTestWhileIdle());
+        pooling.setMinIdle(pool.getMinIdle());
+        pooling.setMaxIdle(pool.getMaxIdle());
+        pooling.setMaxActive(pool.getMaxActive());
+        pooling.setMaxTotal(pool.getMaxTotal());
+        pooling.setMaxWait(positiveMillis(pool.getMaxWait()));
+        pooling.setTimeBetweenEvictionRunsMillis(positiveMillis(pool.getTimeBetweenEvictionRuns()));
+        pooling.setMinEvictableIdleTimeMillis(pool.getMinEvictableIdleTime().toMillis());
+        return pooling;
+    }
+
+    private static LdapContextSource ldapContextSource(ExtendedLdapConfig config, String url,
+            Map<String, Object> env) {
+        LdapContextSource contextSource = new LdapContextSource();
+        contextSource.setUrl(url);
+        contextSource.setBase(config.getBaseDn());
+        if (!env.isEmpty()) {
+            contextSource.setBaseEnvironmentProperties(env);
+        }
+        contextSource.afterPropertiesSet();
+        return contextSource;
+    }
+
+    private static long positiveMillis(Duration duration) {
+        return duration == null || duration.isZero() || duration.isNegative() ? -1 : duration.toMillis();
+    }
+
+    /**
+     * Registers the {@code georchestra.gateway.ldap.pool.*} metrics of each
+     * connection pool.
+     */
+    @Override
+    public void bindTo(@NonNull MeterRegistry registry) {
+        contextSources.forEach((configName, contextSource) -> {
+            if (contextSource instanceof LdapReplicaSet replicaSet) {
+                replicaSet.bindTo(registry);
+                replicaSet.servers().forEach(server -> bindTo(registry, configName, server.contextSource));
+            } else {
+                bindTo(registry, configName, contextSource);
+            }
+        });
+    }
+
+    private void bindTo(MeterRegistry registry, String configName, ContextSource contextSource) {
+        if (contextSource instanceof MeteredPoolingContextSource pool) {
+            Tags tags = Tags.of("config", configName, "server", pool.url);
+            Gauge.builder(METRIC_PREFIX + ".active", pool, PoolingContextSource::getNumActive).tags(tags)
+                    .description("Number of LDAP connections in use").register(registry);
+            Gauge.builder(METRIC_PREFIX + ".idle", pool, PoolingContextSource::getNumIdle).tags(tags)
+                    .description("Number of idle LDAP connections").register(registry);
+            FunctionTimer.builder(METRIC_PREFIX + ".wait", pool, p -> p.borrows.get(), p -> p.waitNanos.get(),
+                    TimeUnit.NANOSECONDS).tags(tags).description("Time spent waiting for an LDAP connection")
+                    .register(registry);
+        }
+    }
+
+    /**
+     * Stops probing replicated servers and closes the pooled connections.
+     */
+    @Override
+    public void destroy() throws Exception {
+        for (ContextSource contextSource : contextSources.values()) {
+            if (contextSource instanceof LdapReplicaSet replicaSet) {
+                replicaSet.close();
+                for (LdapReplicaSet.Server server : replicaSet.servers()) {
+                    destroy(server.contextSource);
+                }
+            } else {
+                destroy(contextSource);
+            }
+        }
+    }
+
+    private static void destroy(ContextSource contextSource) throws Exception {
+        if (contextSource instanceof PoolingContextSource pool) {
+            pool.destroy();
+        }
+    }
+
+    /**
+     * {@link PoolingContextSource} keeping track of the time spent borrowing
+     * connections.
+     */
+    private static class MeteredPoolingContextSource extends PoolingContextSource {
+
+        final String url;
+        final AtomicLong borrows = new AtomicLong();
+        final AtomicLong waitNanos = new AtomicLong();
+
+        MeteredPoolingContextSource(String url) {
+            this.url = url;
+        }
+
+        @Override
+        public DirContext getReadOnlyContext() {
+            final long start = System.nanoTime();
+            try {
+                return super.getReadOnlyContext();
+            } finally {
+                record(start);
+            }
+        }
+
+        @Override
+        public DirContext getReadWriteContext() {
+            final long start = System.nanoTime();
+            try {
+                return super.getReadWriteContext();
+            } finally {
+                record(start);
+            }
+        }
+
+        private void record(long start) {
+            borrows.incrementAndGet();
+            waitNanos.addAndGet(System.nanoTime() - start);
+        }
+    }
+}
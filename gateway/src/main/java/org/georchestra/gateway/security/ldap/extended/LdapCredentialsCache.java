@@ -0,0 +1,183 @@
+/*
+ * Copyright (C) 2022 by the geOrchestra PSC
+ *
+ * This file is part of geOrchestra.
+ *
+ * geOrchestra is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free
+ * Software Foundation, either version 3 of the License, or (at your option)
+ * any later version.
+ *
+ * geOrchestra is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * geOrchestra. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.georchestra.gateway.security.ldap.extended;
+
+import java.security.GeneralSecurityException;
+import java.security.SecureRandom;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HexFormat;
+import java.util.Map;
+import java.util.function.UnaryOperator;
+
+import javax.crypto.SecretKeyFactory;
+import javax.crypto.spec.PBEKeySpec;
+
+import org.georchestra.gateway.security.GeorchestraGatewaySecurityConfigProperties.CacheConfig;
+import org.springframework.security.authentication.UsernamePasswordAuthenticationToken;
+import org.springframework.security.core.Authentication;
+import org.springframework.security.core.AuthenticationException;
+import org.springframework.security.core.CredentialsContainer;
+import org.springframework.security.ldap.ppolicy.PasswordPolicyData;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Ticker;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Tags;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import io.micrometer.core.instrument.binder.cache.GuavaCacheMetrics;
+import lombok.NonNull;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Short-lived, memory-only cache of successful username/password
+ * authentications against the extended LDAP directories.
+ * <p>
+ * Scripted clients (e.g. QGIS, GDAL, or WFS harvesters) send their credentials
+ * with each request using HTTP Basic authentication, each one requiring a
+ * directory search and bind. With this cache, they pay that cost once per
+ * {@link CacheConfig#getTimeToLive() time-to-live} instead.
+ * </p>
+ * <p>
+ * Entries are keyed by a salted, slow (PBKDF2) hash of the configuration name,
+ * username, and password. The salt is randomly generated at startup and never
+ * leaves memory, and the cached authentications have their credentials erased,
+ * so no password can be recovered from the cache contents. Failed
+ * authentications are not cached, and neither are the ones carrying a password
+ * policy warning (password about to expire, or grace logins in use), which also
+ * discard the cached entry, if any.
+ * </p>
+ * <p>
+ * Note a password changed in the directory keeps being accepted until its entry
+ * expires, hence the cache being disabled by default and meant to be
+ * configured with a short time-to-live.
+ * </p>
+ * <p>
+ * Cache statistics are exported as {@code cache.*} metrics tagged with
+ * {@code cache=georchestra.gateway.ldap.credentials} and
+ * {@code config=<config name>}.
+ * </p>
+ *
+ * @see GeorchestraLdapAuthenticationProvider
+ */
+@Slf4j(topic = "org.georchestra.gateway.security.ldap.extended")
+public class LdapCredentialsCache implements MeterBinder {
+
+    static final String CACHE_NAME = "georchestra.gateway.ldap.credentials";
+
+    private static final String HASH_ALGORITHM = "PBKDF2WithHmacSHA256";
+    private static final int HASH_ITERATIONS = 1_000;
+    private static final int HASH_LENGTH = 256;
+
+    private final byte[] salt = new byte[16];
+
+    private final Map<String, Cache<String, Authentication>> cachesByConfigName;
+
+    /**
+     * @param cachesByConfig the credentials cache settings for each LDAP
+     *                       configuration name
+     */
+    public LdapCredentialsCache(@NonNull Map<String, CacheConfig> cachesByConfig) {
+        this(cachesByConfig, Ticker.systemTicker());
+    }
+
+    @VisibleForTesting
+    LdapCredentialsCache(@NonNull Map<String, CacheConfig> cachesByConfig, @NonNull Ticker ticker) {
+        new SecureRandom().nextBytes(salt);
+        this.cachesByConfigName = new HashMap<>();
+        cachesByConfig.forEach((configName, config) -> {
+            if (config.isEnabled()) {
+                log.info("Caching HTTP Basic authentications of LDAP config {}: {}", configName, config);
+                cachesByConfigName.put(configName, CacheBuilder.newBuilder().maximumSize(config.getMaximumSize())
+                        .expireAfterWrite(config.getTimeToLive()).ticker(ticker).recordStats().build());
+            }
+        });
+    }
+
+    /**
+     * Returns the cached authentication for the given username and password, or
+     * authenticates them and caches the result.
+     *
+     * @param configName    the LDAP configuration name
+     * @param request       the authentication request
+     * @param authenticator performs the actual authentication on cache misses
+     * @return the successful authentication
+     * @throws AuthenticationException if the authentication fails
+     */
+    public Authentication authenticate(@NonNull String configName, @NonNull Authentication request,
+            @NonNull UnaryOperator<Authentication> authenticator) throws AuthenticationException {
+        Cache<String, Authentication> cache = cachesByConfigName.get(configName);
+        if (cache == null || !(request instanceof UsernamePasswordAuthenticationToken)
+                || !(request.getCredentials() instanceof String password) || request.getName() == null) {
+            return authenticator.apply(request);
+        }
+
+        final String key = key(configName, request.getName(), password);
+        Authentication cached = cache.getIfPresent(key);
+        if (cached != null) {
+            log.trace("Authentication of {} against {} served from cache", request.getName(), configName);
+            return cached;
+        }
+
+        Authentication result = authenticator.apply(request);
+        if (hasPasswordPolicyWarning(result)) {
+            log.debug("Not caching authentication of {} against {}, it has a password policy warning",
+                    request.getName(), configName);
+            cache.invalidate(key);
+        } else if (result != null) {
+            if (result instanceof CredentialsContainer credentials) {
+                credentials.eraseCredentials();
+            }
+            cache.put(key, result);
+        }
+        return result;
+    }
+
+    /**
+     * Registers the statistics of each credentials cache in the given registry.
+     */
+    @Override
+    public void bindTo(@NonNull MeterRegistry registry) {
+        cachesByConfigName.forEach((configName, cache) -> new GuavaCacheMetrics<>(cache, CACHE_NAME,
+                Tags.of("config", configName)).bindTo(registry));
+    }
+
+    private static boolean hasPasswordPolicyWarning(Authentication result) {
+        return result != null && result.getPrincipal() instanceof PasswordPolicyData ppolicy
+                && (ppolicy.getTimeBeforeExpiration() < Integer.MAX_VALUE
+                        || ppolicy.getGraceLoginsRemaining() < Integer.MAX_VALUE);
+    }
+
+    private String key(String configName, String username, String password) {
+        char[] chars = (configName + '\0' + username + '\0' + password).toCharArray();
+        PBEKeySpec spec = new PBEKeySpec(chars, salt, HASH_ITERATIONS, HASH_LENGTH);
+        try {
+            byte[] hash = SecretKeyFactory.getInstance(HASH_ALGORITHM).generateSecret(spec).getEncoded();
+            return HexFormat.of().formatHex(hash);
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException("Unable to hash credentials with " + HASH_ALGORITHM, e);
+        } finally {
+            spec.clearPassword();
+            Arrays.fill(chars, '\0');
+        }
+    }
+}
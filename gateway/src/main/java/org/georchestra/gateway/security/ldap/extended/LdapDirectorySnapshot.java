@@ -0,0 +1,564 @@
+/*
+ * Copyright (C) 2022 by the geOrchestra PSC
+ *
+ * This file is part of geOrchestra.
+ *
+ * geOrchestra is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free
+ * Software Foundation, either version 3 of the License, or (at your option)
+ * any later version.
+ *
+ * geOrchestra is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * geOrchestra. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.georchestra.gateway.security.ldap.extended;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.naming.NamingEnumeration;
+import javax.naming.NamingException;
+import javax.naming.directory.Attribute;
+import javax.naming.directory.Attributes;
+
+import org.georchestra.gateway.security.GeorchestraGatewaySecurityConfigProperties.DirectorySnapshot;
+import org.georchestra.security.api.OrganizationsApi;
+import org.georchestra.security.api.UsersApi;
+import org.georchestra.security.model.GeorchestraUser;
+import org.georchestra.security.model.Organization;
+import org.springframework.ldap.core.AttributesMapper;
+import org.springframework.ldap.core.LdapOperations;
+import org.springframework.ldap.query.LdapQueryBuilder;
+import org.springframework.ldap.support.LdapUtils;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+import org.springframework.util.SerializationUtils;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.collect.Interner;
+import com.google.common.collect.Interners;
+
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Tags;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import lombok.NonNull;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * In-memory snapshot of the users and organizations of an extended LDAP
+ * directory, serving lookups by username, email, and OAuth2 uid from hash
+ * indexes without network round trips.
+ * <p>
+ * The snapshot is loaded in full upon {@link #start() start}, and then kept up
+ * to date by a background thread that periodically searches the users, roles,
+ * and organizations entries whose {@code modifyTimestamp} changed since the
+ * previous synchronization, reloading the affected users only: the modified
+ * users entries, and the users added to or removed from a modified role or
+ * organization, found by comparing its members with the snapshot's reverse
+ * role and organization indexes. Entries deleted from the directory can't be
+ * found that way, so the whole snapshot is reloaded every
+ * {@link DirectorySnapshot#getFullSyncInterval() fullSyncInterval}, dropping
+ * them. Users deleted along with their role and organization memberships are
+ * dropped sooner, when reloaded as former members.
+ * </p>
+ * <p>
+ * The snapshot is a performance optimization, not the source of truth: lookups
+ * return an empty {@link Optional} until the snapshot is loaded or if the user
+ * is not in it (e.g. created since the last synchronization), in which case
+ * {@link DemultiplexingUsersApi} falls back to querying the directory. Emails
+ * shared by several users are left out of the email index, so that looking them
+ * up falls back to the directory as well, instead of returning an arbitrary one
+ * of these users.
+ * </p>
+ * <p>
+ * To keep its memory footprint low on large directories, the snapshot holds
+ * plain {@link GeorchestraUser}s, whose role names, organization short names,
+ * and OAuth2 provider names are interned, and whose immutable role lists are
+ * shared by the users having the same roles. Lookups return copies of the
+ * snapshot users, so callers can't modify them, resolving their
+ * {@link Organization} from the snapshot organizations.
+ * </p>
+ * <p>
+ * Exports the following metrics, tagged with {@code config=<config name>}:
+ * <ul>
+ * <li>{@code georchestra.gateway.ldap.snapshot.users}: number of users in the
+ * snapshot
+ * <li>{@code georchestra.gateway.ldap.snapshot.age}: seconds since the last
+ * successful synchronization
+ * <li>{@code georchestra.gateway.ldap.snapshot.syncs}: number of
+ * synchronizations, tagged by {@code type} ({@code full} or {@code delta}) and
+ * {@code outcome} ({@code success} or {@code error})
+ * <li>{@code georchestra.gateway.ldap.snapshot.lookups}: number of lookups,
+ * tagged by {@code result} ({@code hit} or {@code miss})
+ * </ul>
+ * </p>
+ */
+@Slf4j(topic = "org.georchestra.gateway.security.ldap.extended")
+public class LdapDirectorySnapshot implements MeterBinder, AutoCloseable {
+
+    private static final String METRIC_PREFIX = "georchestra.gateway.ldap.snapshot";
+
+    /**
+     * Format of LDAP generalized time values, as used by {@code modifyTimestamp}
+     */
+    private static final DateTimeFormatter GENERALIZED_TIME = DateTimeFormatter.ofPattern("yyyyMMddHHmmss'Z'")
+            .withZone(ZoneOffset.UTC);
+
+    /**
+     * Overlap between consecutive incremental synchronizations, accounting for
+     * clock differences between the gateway and the directory. Reloading an entry
+     * twice is harmless.
+     */
+    private static final Duration CLOCK_SKEW_MARGIN = Duration.ofMinutes(1);
+
+    private final @NonNull String configName;
+    private final @NonNull ExtendedLdapConfig config;
+    private final @NonNull UsersApi usersApi;
+    private final @NonNull OrganizationsApi orgsApi;
+    private final @NonNull LdapOperations ldap;
+
+    private final Interner<String> strings = Interners.newWeakInterner();
+    private final Interner<List<String>> roleLists = Interners.newWeakInterner();
+
+    /**
+     * The current snapshot, {@code null} until loaded
+     */
+    private volatile Index index;
+
+    private volatile Instant lastSync;
+    private volatile Instant lastFullSync;
+
+    private ScheduledExecutorService executor;
+
+    private final AtomicLong fullSyncs = new AtomicLong();
+    private final AtomicLong fullSyncErrors = new AtomicLong();
+    private final AtomicLong deltaSyncs = new AtomicLong();
+    private final AtomicLong deltaSyncErrors = new AtomicLong();
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+
+    /**
+     * @param config   the LDAP configuration, providing the entries' base RDNs and
+     *                 the synchronization settings
+     * @param usersApi the users lookup to load users from
+     * @param orgsApi  the organizations lookup to load organizations from
+     * @param ldap     the LDAP operations to search for modified entries
+     */
+    public LdapDirectorySnapshot(@NonNull ExtendedLdapConfig config, @NonNull UsersApi usersApi,
+            @NonNull OrganizationsApi orgsApi, @NonNull LdapOperations ldap) {
+        this.configName = config.getName();
+        this.config = config;
+        this.usersApi = usersApi;
+        this.orgsApi = orgsApi;
+        this.ldap = ldap;
+    }
+
+    /**
+     * @return whether the snapshot is loaded and can serve lookups
+     */
+    public boolean isReady() {
+        return index != null;
+    }
+
+    /**
+     * Starts loading the snapshot and synchronizing it periodically, on a
+     * background thread.
+     */
+    public synchronized void start() {
+        if (executor != null) {
+            return;
+        }
+        DirectorySnapshot settings = config.getSnapshot();
+        log.info("Keeping an in-memory snapshot of LDAP config {}: {}", configName, settings);
+        CustomizableThreadFactory threadFactory = new CustomizableThreadFactory("ldap-snapshot-" + configName + "-");
+        threadFactory.setDaemon(true);
+        executor = Executors.newSingleThreadScheduledExecutor(threadFactory);
+        long delay = settings.getSyncInterval().toMillis();
+        executor.scheduleWithFixedDelay(this::sync, 0, delay, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Stops synchronizing the snapshot.
+     */
+    @Override
+    public synchronized void close() {
+        if (executor != null) {
+            executor.shutdownNow();
+            executor = null;
+        }
+    }
+
+    /**
+     * @param username the user name
+     * @return a copy of the snapshot user, or empty if the snapshot is not loaded
+     *         or does not contain it
+     */
+    public Optional<ExtendedGeorchestraUser> findByUsername(@NonNull String username) {
+        Index current = index;
+        return count(current, current == null ? null : current.users.get(username));
+    }
+
+    /**
+     * @param email the user's email, case insensitive
+     * @return a copy of the snapshot user, or empty if the snapshot is not loaded,
+     *         does not contain it, or holds several users with this email
+     */
+    public Optional<ExtendedGeorchestraUser> findByEmail(@NonNull String email) {
+        Index current = index;
+        Set<String> usernames = current == null ? null : current.usernamesByEmail.get(emailKey(email));
+        String username = usernames == null || usernames.size() != 1 ? null : usernames.iterator().next();
+        return count(current, username == null ? null : current.users.get(username));
+    }
+
+    /**
+     * @param oauth2Provider the OAuth2 provider name
+     * @param oauth2Uid      the user's unique identifier within the provider
+     * @return a copy of the snapshot user, or empty if the snapshot is not loaded
+     *         or does not contain it
+     */
+    public Optional<ExtendedGeorchestraUser> findByOAuth2Uid(@NonNull String oauth2Provider,
+            @NonNull String oauth2Uid) {
+        Index current = index;
+        String username = current == null ? null
+                : current.usernamesByOAuth2Uid.get(oauth2Key(oauth2Provider, oauth2Uid));
+        return count(current, username == null ? null : current.users.get(username));
+    }
+
+    private Optional<ExtendedGeorchestraUser> count(Index current, GeorchestraUser user) {
+        if (user == null) {
+            misses.incrementAndGet();
+            return Optional.empty();
+        }
+        hits.incrementAndGet();
+        return Optional.of(expand(user, current));
+    }
+
+    /**
+     * Performs a full reload if none was performed yet or the last one is older
+     * than {@link DirectorySnapshot#getFullSyncInterval() fullSyncInterval}, an
+     * incremental synchronization otherwise. Errors are logged, and the snapshot
+     * kept as is until the next synchronization.
+     */
+    @VisibleForTesting
+    void sync() {
+        Instant lastFull = lastFullSync;
+        boolean full = lastFull == null
+                || lastFull.plus(config.getSnapshot().getFullSyncInterval()).isBefore(Instant.now());
+        try {
+            if (full) {
+                fullSync();
+            } else {
+                deltaSync();
+            }
+        } catch (RuntimeException e) {
+            (full ? fullSyncErrors : deltaSyncErrors).incrementAndGet();
+            log.warn("Error synchronizing the snapshot of LDAP config {}", configName, e);
+        }
+    }
+
+    /**
+     * Reloads all the users and organizations, replacing the current snapshot once
+     * done.
+     */
+    @VisibleForTesting
+    void fullSync() {
+        final Instant start = Instant.now();
+        Index loaded = new Index();
+        for (Organization org : orgsApi.findAll()) {
+            if (org.getShortName() != null) {
+                loaded.orgs.put(strings.intern(org.getShortName()), org);
+            }
+        }
+        for (GeorchestraUser user : usersApi.findAll()) {
+            loaded.put(compact(user));
+        }
+        this.index = loaded;
+        this.lastSync = start;
+        this.lastFullSync = start;
+        fullSyncs.incrementAndGet();
+        log.info("Loaded {} users and {} organizations of LDAP config {} in {}ms", loaded.users.size(),
+                loaded.orgs.size(), configName, Duration.between(start, Instant.now()).toMillis());
+    }
+
+    /**
+     * Reloads the users whose entry was modified since the last synchronization,
+     * and the users added to or removed from a modified role or organization,
+     * removing the ones not found anymore.
+     * <p>
+     * Users removed from a modified role or organization are not listed as its
+     * members anymore, so its members are compared with the snapshot users
+     * holding it, only reloading the differences. Modified organizations are
+     * reloaded, their users resolving them from the snapshot upon lookup.
+     * </p>
+     */
+    @VisibleForTesting
+    void deltaSync() {
+        final Index current = index;
+        if (current == null) {
+            fullSync();
+            return;
+        }
+        final Instant start = Instant.now();
+        final String since = GENERALIZED_TIME.format(lastSync.minus(CLOCK_SKEW_MARGIN));
+
+        Set<String> usernames = new HashSet<>();
+        for (ModifiedEntry user : searchModified(config.getUsersRdn(), "uid", since)) {
+            usernames.add(user.name());
+        }
+        for (ModifiedEntry role : searchModified(config.getRolesRdn(), "cn", since)) {
+            usernames.addAll(membershipChanges(role.members(), current.usernamesWithRole(role.name())));
+        }
+        for (ModifiedEntry org : searchModified(config.getOrgsRdn(), "cn", since)) {
+            Optional<Organization> reloaded = orgsApi.findByShortName(org.name());
+            reloaded.ifPresentOrElse(o -> current.orgs.put(strings.intern(org.name()), o),
+                    () -> current.orgs.remove(org.name()));
+            usernames.addAll(membershipChanges(org.members(), current.usernamesInOrg(org.name())));
+        }
+        for (String username : usernames) {
+            usersApi.findByUsername(username).map(this::compact).ifPresentOrElse(current::put,
+                    () -> current.remove(username));
+        }
+        this.lastSync = start;
+        deltaSyncs.incrementAndGet();
+        log.debug("Synchronized {} users of LDAP config {} modified since {}", usernames.size(), configName, since);
+    }
+
+    /**
+     * @return the users listed in {@code members} but not in {@code holders}, and
+     *         the other way around
+     */
+    private static Set<String> membershipChanges(List<String> members, Set<String> holders) {
+        Set<String> changes = new HashSet<>(members);
+        holders.forEach(username -> {
+            if (!changes.remove(username)) {
+                changes.add(username);
+            }
+        });
+        return changes;
+    }
+
+    private List<ModifiedEntry> searchModified(String baseRdn, String nameAttribute, String since) {
+        String filter = "(&(%s=*)(modifyTimestamp>=%s))".formatted(nameAttribute, since);
+        return ldap.search(LdapQueryBuilder.query().base(baseRdn).attributes(nameAttribute, "member").filter(filter),
+                (AttributesMapper<ModifiedEntry>) attributes -> toModifiedEntry(attributes, nameAttribute));
+    }
+
+    private ModifiedEntry toModifiedEntry(Attributes attributes, String nameAttribute) throws NamingException {
+        String name = (String) attributes.get(nameAttribute).get();
+        List<String> members = new ArrayList<>();
+        Attribute member = attributes.get("member");
+        if (member != null) {
+            NamingEnumeration<?> values = member.getAll();
+            while (values.hasMore()) {
+                memberUid(String.valueOf(values.next())).ifPresent(members::add);
+            }
+        }
+        return new ModifiedEntry(name, members);
+    }
+
+    private Optional<String> memberUid(String memberDn) {
+        try {
+            return Optional.of(LdapUtils.getStringValue(LdapUtils.newLdapName(memberDn), "uid"));
+        } catch (RuntimeException notAUser) {
+            return Optional.empty();
+        }
+    }
+
+    /**
+     * Creates the snapshot representation of a user, interning its role names,
+     * organization short name, and OAuth2 provider name, and sharing its immutable
+     * role list with the other users having the same roles.
+     */
+    private GeorchestraUser compact(GeorchestraUser user) {
+        if (user.getRoles() != null) {
+            user.setRoles(roleLists.intern(user.getRoles().stream().map(strings::intern).toList()));
+        }
+        if (user.getOrganization() != null) {
+            user.setOrganization(strings.intern(user.getOrganization()));
+        }
+        if (user.getOAuth2Provider() != null) {
+            user.setOAuth2Provider(strings.intern(user.getOAuth2Provider()));
+        }
+        return user;
+    }
+
+    /**
+     * Creates a modifiable copy of a snapshot user, resolving its organization
+     * from the snapshot's.
+     */
+    private static ExtendedGeorchestraUser expand(GeorchestraUser user, Index current) {
+        GeorchestraUser copy = SerializationUtils.clone(user);
+        if (user.getRoles() != null) {
+            copy.setRoles(new ArrayList<>(user.getRoles()));
+        }
+        Organization org = user.getOrganization() == null ? null : current.orgs.get(user.getOrganization());
+        return new ExtendedGeorchestraUser(copy).setOrg(org);
+    }
+
+    private static String emailKey(String email) {
+        return email.toLowerCase(Locale.ROOT);
+    }
+
+    private static String oauth2Key(String oauth2Provider, String oauth2Uid) {
+        return oauth2Provider + '\0' + oauth2Uid;
+    }
+
+    /**
+     * Registers the {@code georchestra.gateway.ldap.snapshot.*} metrics.
+     */
+    @Override
+    public void bindTo(@NonNull MeterRegistry registry) {
+        Tags tags = Tags.of("config", configName);
+        Gauge.builder(METRIC_PREFIX + ".users", this, s -> s.index == null ? 0 : s.index.users.size()).tags(tags)
+                .description("Number of users in the directory snapshot").register(registry);
+        Gauge.builder(METRIC_PREFIX + ".age", this, LdapDirectorySnapshot::age).tags(tags)
+                .description("Seconds since the last successful snapshot synchronization").register(registry);
+        syncCounter(registry, tags.and("type", "full", "outcome", "success"), fullSyncs);
+        syncCounter(registry, tags.and("type", "full", "outcome", "error"), fullSyncErrors);
+        syncCounter(registry, tags.and("type", "delta", "outcome", "success"), deltaSyncs);
+        syncCounter(registry, tags.and("type", "delta", "outcome", "error"), deltaSyncErrors);
+        FunctionCounter.builder(METRIC_PREFIX + ".lookups", hits, AtomicLong::get).tags(tags).tag("result", "hit")
+                .description("Number of user lookups served by the directory snapshot").register(registry);
+        FunctionCounter.builder(METRIC_PREFIX + ".lookups", misses, AtomicLong::get).tags(tags).tag("result", "miss")
+                .description("Number of user lookups not served by the directory snapshot").register(registry);
+    }
+
+    private void syncCounter(MeterRegistry registry, Tags tags, AtomicLong count) {
+        FunctionCounter.builder(METRIC_PREFIX + ".syncs", count, AtomicLong::get).tags(tags)
+                .description("Number of directory snapshot synchronizations").register(registry);
+    }
+
+    private double age() {
+        Instant last = lastSync;
+        return last == null ? Double.NaN : Duration.between(last, Instant.now()).toSeconds();
+    }
+
+    /**
+     * A users, roles, or organizations entry found by an incremental
+     * synchronization search.
+     *
+     * @param name    the entry's {@code uid} or {@code cn}
+     * @param members the uids of the entry's {@code member} DNs, if any
+     */
+    @VisibleForTesting
+    record ModifiedEntry(String name, List<String> members) {
+    }
+
+    /**
+     * The snapshot contents and lookup indexes. Incremental synchronizations
+     * update it in place, full reloads replace it.
+     * <p>
+     * The email index keeps all the users of each email, so that an email stops
+     * being shared when all but one of its users are removed or changed. The role
+     * and organization indexes are only used by incremental synchronizations, to
+     * find the users holding a modified role or organization without scanning all
+     * the users.
+     * </p>
+     */
+    private static class Index {
+        final Map<String, GeorchestraUser> users = new ConcurrentHashMap<>();
+        final Map<String, Set<String>> usernamesByEmail = new ConcurrentHashMap<>();
+        final Map<String, String> usernamesByOAuth2Uid = new ConcurrentHashMap<>();
+        final Map<String, Set<String>> usernamesByRole = new ConcurrentHashMap<>();
+        final Map<String, Set<String>> usernamesByOrg = new ConcurrentHashMap<>();
+        final Map<String, Organization> orgs = new ConcurrentHashMap<>();
+
+        void put(GeorchestraUser user) {
+            GeorchestraUser previous = users.put(user.getUsername(), user);
+            if (previous != null) {
+                removeKeys(previous);
+            }
+            if (user.getEmail() != null) {
+                usernamesByEmail.merge(emailKey(user.getEmail()), Set.of(user.getUsername()), Index::union);
+            }
+            if (user.getOAuth2Provider() != null && user.getOAuth2Uid() != null) {
+                usernamesByOAuth2Uid.put(oauth2Key(user.getOAuth2Provider(), user.getOAuth2Uid()),
+                        user.getUsername());
+            }
+            if (user.getRoles() != null) {
+                user.getRoles().forEach(role -> addMember(usernamesByRole, role, user.getUsername()));
+            }
+            if (user.getOrganization() != null) {
+                addMember(usernamesByOrg, user.getOrganization(), user.getUsername());
+            }
+        }
+
+        void remove(String username) {
+            GeorchestraUser previous = users.remove(username);
+            if (previous != null) {
+                removeKeys(previous);
+            }
+        }
+
+        private void removeKeys(GeorchestraUser previous) {
+            String username = previous.getUsername();
+            if (previous.getEmail() != null) {
+                usernamesByEmail.computeIfPresent(emailKey(previous.getEmail()),
+                        (email, usernames) -> without(usernames, username));
+            }
+            if (previous.getOAuth2Provider() != null && previous.getOAuth2Uid() != null) {
+                usernamesByOAuth2Uid.remove(oauth2Key(previous.getOAuth2Provider(), previous.getOAuth2Uid()),
+                        username);
+            }
+            if (previous.getRoles() != null) {
+                previous.getRoles().forEach(role -> removeMember(usernamesByRole, role, username));
+            }
+            if (previous.getOrganization() != null) {
+                removeMember(usernamesByOrg, previous.getOrganization(), username);
+            }
+        }
+
+        private static void addMember(Map<String, Set<String>> index, String key, String username) {
+            index.computeIfAbsent(key, k -> ConcurrentHashMap.newKeySet()).add(username);
+        }
+
+        private static void removeMember(Map<String, Set<String>> index, String key, String username) {
+            index.computeIfPresent(key, (k, usernames) -> {
+                usernames.remove(username);
+                return usernames.isEmpty() ? null : usernames;
+            });
+        }
+
+        private static Set<String> union(Set<String> usernames, Set<String> added) {
+            Set<String> union = new HashSet<>(usernames);
+            union.addAll(added);
+            return Set.copyOf(union);
+        }
+
+        private static Set<String> without(Set<String> usernames, String removed) {
+            Set<String> remaining = new HashSet<>(usernames);
+            remaining.remove(removed);
+            return remaining.isEmpty() ? null : Set.copyOf(remaining);
+        }
+
+        Set<String> usernamesWithRole(String roleName) {
+            Set<String> usernames = new HashSet<>(usernamesByRole.getOrDefault(roleName, Set.of()));
+            usernames.addAll(usernamesByRole.getOrDefault("ROLE_" + roleName, Set.of()));
+            return usernames;
+        }
+
+        Set<String> usernamesInOrg(String shortName) {
+            return usernamesByOrg.getOrDefault(shortName, Set.of());
+        }
+    }
+}
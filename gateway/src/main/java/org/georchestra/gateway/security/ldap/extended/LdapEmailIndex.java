@@ -0,0 +1,213 @@
+/*
+ * Copyright (C) 2022 by the geOrchestra PSC
+ *
+ * This file is part of geOrchestra.
+ *
+ * geOrchestra is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free
+ * Software Foundation, either version 3 of the License, or (at your option)
+ * any later version.
+ *
+ * geOrchestra is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * geOrchestra. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.georchestra.gateway.security.ldap.extended;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.naming.NamingException;
+import javax.naming.directory.Attribute;
+
+import org.georchestra.gateway.security.GeorchestraGatewaySecurityConfigProperties.EmailIndex;
+import org.springframework.ldap.core.AttributesMapper;
+import org.springframework.ldap.core.LdapOperations;
+import org.springframework.ldap.query.LdapQueryBuilder;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+
+import com.google.common.annotations.VisibleForTesting;
+
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Tags;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import lombok.NonNull;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * In-memory index of the emails of an extended LDAP directory's users,
+ * resolving the user name of those logging in with their email without
+ * searching the directory.
+ * <p>
+ * The index only holds the {@code mail} and {@code uid} attributes of the user
+ * entries. It's loaded upon {@link #start() start}, and reloaded by a
+ * background thread every {@link EmailIndex#getRefreshInterval()
+ * refreshInterval}. Emails shared by several users are left out, so that
+ * {@link ExtendedLdapAuthenticationProvider} keeps resolving them as before,
+ * by searching the directory, as it does for emails not in the index (e.g. of
+ * users created since the last reload).
+ * </p>
+ * <p>
+ * Exports the following metrics, tagged with {@code config=<config name>}:
+ * <ul>
+ * <li>{@code georchestra.gateway.ldap.emails.size}: number of emails in the
+ * index
+ * <li>{@code georchestra.gateway.ldap.emails.lookups}: number of lookups,
+ * tagged by {@code result} ({@code hit} or {@code miss})
+ * <li>{@code georchestra.gateway.ldap.emails.refreshes}: number of reloads,
+ * tagged by {@code outcome} ({@code success} or {@code error})
+ * </ul>
+ * </p>
+ */
+@Slf4j(topic = "org.georchestra.gateway.security.ldap.extended")
+public class LdapEmailIndex implements MeterBinder, AutoCloseable {
+
+    private static final String METRIC_PREFIX = "georchestra.gateway.ldap.emails";
+
+    private final @NonNull String configName;
+    private final @NonNull String usersRdn;
+    private final @NonNull Duration refreshInterval;
+    private final @NonNull LdapOperations ldap;
+
+    /**
+     * The user names by lower case email, {@code null} until loaded
+     */
+    private volatile Map<String, String> usernamesByEmail;
+
+    private ScheduledExecutorService executor;
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong refreshes = new AtomicLong();
+    private final AtomicLong refreshErrors = new AtomicLong();
+
+    /**
+     * @param config the LDAP configuration, providing the users RDN and the index
+     *               settings
+     * @param ldap   the LDAP operations to search the user entries
+     */
+    public LdapEmailIndex(@NonNull ExtendedLdapConfig config, @NonNull LdapOperations ldap) {
+        this.configName = config.getName();
+        this.usersRdn = config.getUsersRdn();
+        this.refreshInterval = config.getEmailIndex().getRefreshInterval();
+        this.ldap = ldap;
+    }
+
+    /**
+     * @return whether the index is loaded and can serve lookups
+     */
+    public boolean isReady() {
+        return usernamesByEmail != null;
+    }
+
+    /**
+     * Starts loading the index and reloading it periodically, on a background
+     * thread.
+     */
+    public synchronized void start() {
+        if (executor != null) {
+            return;
+        }
+        log.info("Indexing the user emails of LDAP config {}, refreshed every {}", configName, refreshInterval);
+        CustomizableThreadFactory threadFactory = new CustomizableThreadFactory("ldap-emails-" + configName + "-");
+        threadFactory.setDaemon(true);
+        executor = Executors.newSingleThreadScheduledExecutor(threadFactory);
+        executor.scheduleWithFixedDelay(this::refresh, 0, refreshInterval.toMillis(), TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Stops reloading the index.
+     */
+    @Override
+    public synchronized void close() {
+        if (executor != null) {
+            executor.shutdownNow();
+            executor = null;
+        }
+    }
+
+    /**
+     * @param email the email, case insensitive
+     * @return the user name of the only user with this email, or empty if the
+     *         index is not loaded or does not contain it
+     */
+    public Optional<String> findUsername(@NonNull String email) {
+        Map<String, String> index = usernamesByEmail;
+        String username = index == null ? null : index.get(emailKey(email));
+        (username == null ? misses : hits).incrementAndGet();
+        return Optional.ofNullable(username);
+    }
+
+    /**
+     * Reloads the index, replacing the current one once done. Errors are logged,
+     * and the index kept as is until the next reload.
+     */
+    @VisibleForTesting
+    void refresh() {
+        final Instant start = Instant.now();
+        try {
+            List<String[]> entries = ldap.search(
+                    LdapQueryBuilder.query().base(usersRdn).attributes("uid", "mail").where("mail").isPresent(),
+                    (AttributesMapper<String[]>) attributes -> new String[] { value(attributes.get("uid")),
+                            value(attributes.get("mail")) });
+            Map<String, String> loaded = new HashMap<>(entries.size());
+            Set<String> shared = new HashSet<>();
+            for (String[] entry : entries) {
+                if (entry[0] != null && entry[1] != null && loaded.put(emailKey(entry[1]), entry[0]) != null) {
+                    shared.add(emailKey(entry[1]));
+                }
+            }
+            shared.forEach(loaded::remove);
+            this.usernamesByEmail = loaded;
+            refreshes.incrementAndGet();
+            log.debug("Indexed {} user emails of LDAP config {} in {}ms", loaded.size(), configName,
+                    Duration.between(start, Instant.now()).toMillis());
+        } catch (RuntimeException e) {
+            refreshErrors.incrementAndGet();
+            log.warn("Error indexing the user emails of LDAP config {}", configName, e);
+        }
+    }
+
+    private static String value(Attribute attribute) throws NamingException {
+        return attribute == null ? null : (String) attribute.get();
+    }
+
+    private static String emailKey(String email) {
+        return email.toLowerCase(Locale.ROOT);
+    }
+
+    /**
+     * Registers the {@code georchestra.gateway.ldap.emails.*} metrics.
+     */
+    @Override
+    public void bindTo(@NonNull MeterRegistry registry) {
+        Tags tags = Tags.of("config", configName);
+        Gauge.builder(METRIC_PREFIX + ".size", this, i -> i.usernamesByEmail == null ? 0 : i.usernamesByEmail.size())
+                .tags(tags).description("Number of emails in the user emails index").register(registry);
+        FunctionCounter.builder(METRIC_PREFIX + ".lookups", hits, AtomicLong::get).tags(tags).tag("result", "hit")
+                .description("Number of emails resolved by the user emails index").register(registry);
+        FunctionCounter.builder(METRIC_PREFIX + ".lookups", misses, AtomicLong::get).tags(tags).tag("result", "miss")
+                .description("Number of emails not found in the user emails index").register(registry);
+        FunctionCounter.builder(METRIC_PREFIX + ".refreshes", refreshes, AtomicLong::get).tags(tags)
+                .tag("outcome", "success").description("Number of user emails index reloads").register(registry);
+        FunctionCounter.builder(METRIC_PREFIX + ".refreshes", refreshErrors, AtomicLong::get).tags(tags)
+                .tag("outcome", "error").description("Number of user emails index reloads").register(registry);
+    }
+}
@@ -0,0 +1,74 @@
+/*
+ * Copyright (C) 2022 by the geOrchestra PSC
+ *
+ * This file is part of geOrchestra.
+ *
+ * geOrchestra is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free
+ * Software Foundation, either version 3 of the License, or (at your option)
+ * any later version.
+ *
+ * geOrchestra is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * geOrchestra. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.georchestra.gateway.security.ldap.extended;
+
+import java.util.Map;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import lombok.NonNull;
+
+/**
+ * Holds the {@link LdapEmailIndex user emails indexes} of the extended LDAP
+ * directories whose {@link ExtendedLdapConfig#getEmailIndex() email index} is
+ * enabled, registering their metrics and stopping them on shutdown.
+ */
+public class LdapEmailIndexes implements MeterBinder, AutoCloseable {
+
+    private final Map<String, LdapEmailIndex> indexesByConfigName;
+
+    /**
+     * @param indexesByConfigName the email indexes, by LDAP configuration name
+     */
+    public LdapEmailIndexes(@NonNull Map<String, LdapEmailIndex> indexesByConfigName) {
+        this.indexesByConfigName = Map.copyOf(indexesByConfigName);
+    }
+
+    /**
+     * @param configName the LDAP configuration name
+     * @return the email index of the configuration, or {@code null} if it's not
+     *         enabled
+     */
+    public LdapEmailIndex get(@NonNull String configName) {
+        return indexesByConfigName.get(configName);
+    }
+
+    /**
+     * Starts loading the indexes.
+     */
+    public void start() {
+        indexesByConfigName.values().forEach(LdapEmailIndex::start);
+    }
+
+    /**
+     * Stops reloading the indexes.
+     */
+    @Override
+    public void close() {
+        indexesByConfigName.values().forEach(LdapEmailIndex::close);
+    }
+
+    /**
+     * @see LdapEmailIndex#bindTo(MeterRegistry)
+     */
+    @Override
+    public void bindTo(@NonNull MeterRegistry registry) {
+        indexesByConfigName.values().forEach(index -> index.bindTo(registry));
+    }
+}
@@ -0,0 +1,189 @@
+/*
+ * Copyright (C) 2022 by the geOrchestra PSC
+ *
+ * This file is part of geOrchestra.
+ *
+ * geOrchestra is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free
+ * Software Foundation, either version 3 of the License, or (at your option)
+ * any later version.
+ *
+ * geOrchestra is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * geOrchestra. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.georchestra.gateway.security.ldap.extended;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Optional;
+
+import org.georchestra.gateway.security.GeorchestraGatewaySecurityConfigProperties.CacheConfig;
+import org.georchestra.security.api.OrganizationsApi;
+import org.georchestra.security.model.Organization;
+
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheLoader;
+import com.google.common.cache.LoadingCache;
+import com.google.common.util.concurrent.UncheckedExecutionException;
+
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Tags;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import io.micrometer.core.instrument.binder.cache.GuavaCacheMetrics;
+import lombok.NonNull;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Cache of {@link Organization organizations} looked up by short name, in front
+ * of the {@link OrganizationsApi} of each LDAP configuration.
+ * <p>
+ * Many users share a comparatively small number of organizations, so caching
+ * them spares an LDAP search each time a user is extended with its
+ * organization (see {@link DemultiplexingUsersApi}).
+ * </p>
+ * <p>
+ * A separate cache is kept for each {@link ExtendedLdapConfig LDAP
+ * configuration} whose {@link ExtendedLdapConfig#getOrgsCache() organizations
+ * cache} is enabled, bounded by its maximum size and time-to-live. Missing
+ * organizations are cached too (negative caching), so callers modifying
+ * organizations in the directory shall {@link #evict(String, String) evict}
+ * them. Entries older than the configured {@code refreshAfterWrite} are
+ * reloaded from the directory in the background (see {@link LdapCacheReloads})
+ * on their next access, while the cached organization keeps being served.
+ * </p>
+ * <p>
+ * Cache statistics are exported as {@code cache.*} metrics tagged with
+ * {@code cache=georchestra.gateway.ldap.orgs} and {@code config=<config name>},
+ * plus a {@code georchestra.gateway.ldap.orgs.cache.hit.ratio} gauge.
+ * </p>
+ */
+@Slf4j(topic = "org.georchestra.gateway.security.ldap.extended")
+public class LdapOrganizationCache implements MeterBinder {
+
+    static final String CACHE_NAME = "georchestra.gateway.ldap.orgs";
+
+    private final @NonNull Map<String, OrganizationsApi> orgsByConfigName;
+
+    private final Map<String, LoadingCache<String, Optional<Organization>>> cachesByConfigName;
+
+    /**
+     * @param orgsByConfigName the organizations lookup of each LDAP configuration
+     *                         name
+     * @param cachesByConfig   the organizations cache settings for each LDAP
+     *                         configuration name
+     */
+    public LdapOrganizationCache(@NonNull Map<String, OrganizationsApi> orgsByConfigName,
+            @NonNull Map<String, CacheConfig> cachesByConfig) {
+        this(orgsByConfigName, cachesByConfig, LdapCacheReloads.direct());
+    }
+
+    /**
+     * @param orgsByConfigName the organizations lookup of each LDAP configuration
+     *                         name
+     * @param cachesByConfig   the organizations cache settings for each LDAP
+     *                         configuration name
+     * @param reloads          runs the reloads of the cached organizations
+     */
+    public LdapOrganizationCache(@NonNull Map<String, OrganizationsApi> orgsByConfigName,
+            @NonNull Map<String, CacheConfig> cachesByConfig, @NonNull LdapCacheReloads reloads) {
+        this.orgsByConfigName = orgsByConfigName;
+        this.cachesByConfigName = new HashMap<>();
+        cachesByConfig.forEach((configName, config) -> {
+            if (config.isEnabled()) {
+                log.info("Caching organizations of LDAP config {}: {}", configName, config);
+                OrganizationsApi orgsApi = orgsApi(configName);
+                cachesByConfigName.put(configName, createCache(orgsApi, config, reloads));
+            }
+        });
+    }
+
+    /**
+     * Finds an organization by short name in the given LDAP configuration, from
+     * the cache if enabled for it.
+     *
+     * @param configName the LDAP configuration name
+     * @param shortName  the organization short name
+     * @return the organization, or empty if not found
+     * @throws NullPointerException if no {@link OrganizationsApi} is registered for
+     *                              the given configuration
+     */
+    public Optional<Organization> findByShortName(@NonNull String configName, @NonNull String shortName) {
+        LoadingCache<String, Optional<Organization>> cache = cachesByConfigName.get(configName);
+        if (cache == null) {
+            return orgsApi(configName).findByShortName(shortName);
+        }
+        try {
+            return cache.getUnchecked(shortName);
+        } catch (UncheckedExecutionException e) {
+            if (e.getCause() instanceof RuntimeException cause) {
+                throw cause;
+            }
+            throw e;
+        }
+    }
+
+    /**
+     * Discards the cached organization, if any, so that the next lookup hits the
+     * directory. To be called when an organization is created or modified.
+     *
+     * @param configName the LDAP configuration name
+     * @param shortName  the organization short name
+     */
+    public void evict(@NonNull String configName, @NonNull String shortName) {
+        LoadingCache<String, Optional<Organization>> cache = cachesByConfigName.get(configName);
+        if (cache != null) {
+            log.debug("Evicting organization {} of LDAP config {}", shortName, configName);
+            cache.invalidate(shortName);
+        }
+    }
+
+    /**
+     * Discards all the cached organizations of the given LDAP configuration.
+     *
+     * @param configName the LDAP configuration name
+     */
+    public void evictAll(@NonNull String configName) {
+        LoadingCache<String, Optional<Organization>> cache = cachesByConfigName.get(configName);
+        if (cache != null) {
+            log.debug("Evicting all organizations of LDAP config {}", configName);
+            cache.invalidateAll();
+        }
+    }
+
+    /**
+     * Registers the statistics and hit ratio of each organizations cache in the
+     * given registry.
+     */
+    @Override
+    public void bindTo(@NonNull MeterRegistry registry) {
+        cachesByConfigName.forEach((configName, cache) -> {
+            Tags tags = Tags.of("config", configName);
+            new GuavaCacheMetrics<>(cache, CACHE_NAME, tags).bindTo(registry);
+            Gauge.builder(CACHE_NAME + ".cache.hit.ratio", cache, c -> c.stats().hitRate()).tags(tags)
+                    .description("Ratio of organization lookups served from the cache").register(registry);
+        });
+    }
+
+    private OrganizationsApi orgsApi(String configName) {
+        return Objects.requireNonNull(orgsByConfigName.get(configName),
+                () -> "No OrganizationsApi found for config named " + configName);
+    }
+
+    private LoadingCache<String, Optional<Organization>> createCache(OrganizationsApi orgsApi, CacheConfig config,
+            LdapCacheReloads reloads) {
+        CacheBuilder<Object, Object> builder = CacheBuilder.newBuilder().maximumSize(config.getMaximumSize())
+                .expireAfterWrite(config.getTimeToLive()).recordStats();
+        if (config.getRefreshAfterWrite() != null && !config.getRefreshAfterWrite().isZero()) {
+            builder.refreshAfterWrite(config.getRefreshAfterWrite());
+        }
+        CacheLoader<String, Optional<Organization>> loader = CacheLoader.from(orgsApi::findByShortName);
+        return builder.build(reloads.reloading(loader));
+    }
+}
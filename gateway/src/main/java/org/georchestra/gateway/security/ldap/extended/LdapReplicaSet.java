@@ -0,0 +1,309 @@
+/*
+ * Copyright (C) 2022 by the geOrchestra PSC
+ *
+ * This file is part of geOrchestra.
+ *
+ * geOrchestra is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free
+ * Software Foundation, either version 3 of the License, or (at your option)
+ * any later version.
+ *
+ * geOrchestra is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * geOrchestra. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.georchestra.gateway.security.ldap.extended;
+
+import java.time.Duration;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+
+import javax.naming.directory.DirContext;
+
+import org.springframework.ldap.CommunicationException;
+import org.springframework.ldap.NamingException;
+import org.springframework.ldap.ServiceUnavailableException;
+import org.springframework.ldap.core.ContextSource;
+import org.springframework.ldap.support.LdapUtils;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Throwables;
+
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Tags;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import lombok.NonNull;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * {@link ContextSource} routing the connections of an extended LDAP
+ * configuration among its primary server and read replicas.
+ * <p>
+ * Each server is probed every {@link ExtendedLdapConfig#getHealthCheck()
+ * health check interval} by reading the base DN entry, keeping track of whether
+ * it's up, and of an exponentially weighted moving average (EWMA) of its
+ * response time. Read-only connections go to the fastest healthy server,
+ * failing over to the next ones if it can't be connected to, in which case it's
+ * considered down until it answers a probe again. Read-write connections always
+ * go to the primary server.
+ * </p>
+ * <p>
+ * Exports the following metrics, tagged with {@code config=<config name>} and
+ * {@code server=<server url>}:
+ * <ul>
+ * <li>{@code georchestra.gateway.ldap.server.up}: {@code 1} if the server is
+ * considered healthy, {@code 0} otherwise
+ * <li>{@code georchestra.gateway.ldap.server.latency}: moving average of the
+ * server's response time to probes, in seconds
+ * <li>{@code georchestra.gateway.ldap.server.failures}: number of failed
+ * connections and probes
+ * </ul>
+ * </p>
+ *
+ * @see LdapConnectionPools
+ */
+@Slf4j(topic = "org.georchestra.gateway.security.ldap.extended")
+class LdapReplicaSet implements ContextSource, MeterBinder, AutoCloseable {
+
+    private static final String METRIC_PREFIX = "georchestra.gateway.ldap.server";
+
+    /**
+     * Weight of each new response time sample in the moving average
+     */
+    static final double EWMA_WEIGHT = 0.3;
+
+    private static final String[] PROBE_ATTRIBUTES = { "objectClass" };
+
+    private final String configName;
+    private final List<Server> servers;
+    private final Duration probeInterval;
+
+    private ScheduledExecutorService executor;
+
+    /**
+     * @param configName    the LDAP configuration name
+     * @param servers       the primary server followed by its read replicas
+     * @param probeInterval delay between probes of each server
+     */
+    LdapReplicaSet(@NonNull String configName, @NonNull List<Server> servers, @NonNull Duration probeInterval) {
+        if (servers.isEmpty()) {
+            throw new IllegalArgumentException("At least the primary LDAP server is required");
+        }
+        this.configName = configName;
+        this.servers = List.copyOf(servers);
+        this.probeInterval = probeInterval;
+    }
+
+    /**
+     * @return the primary server followed by its read replicas
+     */
+    List<Server> servers() {
+        return servers;
+    }
+
+    /**
+     * Starts probing the servers periodically, on a background thread.
+     */
+    public synchronized void start() {
+        if (executor != null) {
+            return;
+        }
+        CustomizableThreadFactory threadFactory = new CustomizableThreadFactory("ldap-health-" + configName + "-");
+        threadFactory.setDaemon(true);
+        executor = Executors.newSingleThreadScheduledExecutor(threadFactory);
+        executor.scheduleWithFixedDelay(this::probe, 0, probeInterval.toMillis(), TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Stops probing the servers.
+     */
+    @Override
+    public synchronized void close() {
+        if (executor != null) {
+            executor.shutdownNow();
+            executor = null;
+        }
+    }
+
+    /**
+     * Probes each server once.
+     */
+    @VisibleForTesting
+    void probe() {
+        servers.forEach(Server::probe);
+    }
+
+    /**
+     * @return a read-only connection to the fastest healthy server
+     */
+    @Override
+    public DirContext getReadOnlyContext() throws NamingException {
+        return connect(ContextSource::getReadOnlyContext);
+    }
+
+    /**
+     * @return a read-write connection to the primary server
+     */
+    @Override
+    public DirContext getReadWriteContext() throws NamingException {
+        return servers.get(0).contextSource.getReadWriteContext();
+    }
+
+    /**
+     * @return a connection to the fastest healthy server, authenticated as the
+     *         given principal
+     */
+    @Override
+    public DirContext getContext(String principal, String credentials) throws NamingException {
+        return connect(contextSource -> contextSource.getContext(principal, credentials));
+    }
+
+    /**
+     * @return the servers in the order they shall be tried: healthy ones first,
+     *         fastest first, servers with the same latency keeping their configured
+     *         order
+     */
+    @VisibleForTesting
+    List<Server> candidates() {
+        return servers.stream().sorted(Comparator.comparing((Server server) -> !server.isUp())
+                .thenComparingDouble(Server::latencyRank)).toList();
+    }
+
+    private DirContext connect(Function<ContextSource, DirContext> connector) {
+        RuntimeException failure = null;
+        for (Server server : candidates()) {
+            try {
+                return connector.apply(server.contextSource);
+            } catch (RuntimeException e) {
+                if (!isConnectionFailure(e)) {
+                    throw e;
+                }
+                log.warn("LDAP server {} of config {} is unreachable: {}", server.url, configName, e.getMessage());
+                server.markDown();
+                failure = failure == null ? e : failure;
+            }
+        }
+        throw failure;
+    }
+
+    /**
+     * Whether the given exception denotes a server that can't be connected to, as
+     * opposed to, for example, invalid credentials or an exhausted connection pool,
+     * which don't warrant trying another server. Pooled connection sources wrap
+     * these errors, hence looking up the causal chain.
+     */
+    @VisibleForTesting
+    static boolean isConnectionFailure(Throwable error) {
+        return Throwables.getCausalChain(error).stream()
+                .anyMatch(e -> e instanceof CommunicationException || e instanceof ServiceUnavailableException
+                        || e instanceof javax.naming.CommunicationException
+                        || e instanceof javax.naming.ServiceUnavailableException);
+    }
+
+    /**
+     * Registers the {@code georchestra.gateway.ldap.server.*} metrics of each
+     * server.
+     */
+    @Override
+    public void bindTo(@NonNull MeterRegistry registry) {
+        for (Server server : servers) {
+            Tags tags = Tags.of("config", configName, "server", server.url);
+            Gauge.builder(METRIC_PREFIX + ".up", server, s -> s.isUp() ? 1 : 0).tags(tags)
+                    .description("Whether the LDAP server is considered healthy").register(registry);
+            Gauge.builder(METRIC_PREFIX + ".latency", server, s -> s.latencyNanos() / 1e9).tags(tags)
+                    .baseUnit("seconds").description("Moving average of the LDAP server response time to probes")
+                    .register(registry);
+            FunctionCounter.builder(METRIC_PREFIX + ".failures", server.failures, AtomicLong::get).tags(tags)
+                    .description("Number of failed connections to the LDAP server").register(registry);
+        }
+    }
+
+    /**
+     * A server of the replica set, and its health.
+     */
+    static class Server {
+
+        final String url;
+        final ContextSource contextSource;
+        final ContextSource probeContextSource;
+        final AtomicLong failures = new AtomicLong();
+
+        private volatile boolean up = true;
+        private volatile double latencyNanos = Double.NaN;
+
+        /**
+         * @param url                the server URL
+         * @param contextSource      provides the connections handed out by the
+         *                           replica set, possibly pooled
+         * @param probeContextSource provides non pooled connections to probe the
+         *                           server with
+         */
+        Server(@NonNull String url, @NonNull ContextSource contextSource, @NonNull ContextSource probeContextSource) {
+            this.url = url;
+            this.contextSource = contextSource;
+            this.probeContextSource = probeContextSource;
+        }
+
+        boolean isUp() {
+            return up;
+        }
+
+        /**
+         * @return the moving average of the server response time, {@code NaN} if it
+         *         has not been probed successfully yet
+         */
+        double latencyNanos() {
+            return latencyNanos;
+        }
+
+        private double latencyRank() {
+            return Double.isNaN(latencyNanos) ? Double.MAX_VALUE : latencyNanos;
+        }
+
+        void probe() {
+            final long start = System.nanoTime();
+            DirContext context = null;
+            try {
+                context = probeContextSource.getReadOnlyContext();
+                context.getAttributes("", PROBE_ATTRIBUTES);
+                recordLatency(System.nanoTime() - start);
+            } catch (javax.naming.NamingException | RuntimeException e) {
+                if (up) {
+                    log.warn("LDAP server {} failed its health check: {}", url, e.getMessage());
+                }
+                markDown();
+            } finally {
+                LdapUtils.closeContext(context);
+            }
+        }
+
+        /**
+         * Records a successful response, marking the server as up.
+         */
+        void recordLatency(long nanos) {
+            double current = latencyNanos;
+            latencyNanos = Double.isNaN(current) ? nanos : EWMA_WEIGHT * nanos + (1 - EWMA_WEIGHT) * current;
+            if (!up) {
+                log.info("LDAP server {} is back up", url);
+            }
+            up = true;
+        }
+
+        void markDown() {
+            failures.incrementAndGet();
+            up = false;
+        }
+    }
+}
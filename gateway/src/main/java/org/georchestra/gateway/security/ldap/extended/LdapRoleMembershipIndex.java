@@ -0,0 +1,416 @@
+/*
+ * Copyright (C) 2022 by the geOrchestra PSC
+ *
+ * This file is part of geOrchestra.
+ *
+ * geOrchestra is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free
+ * Software Foundation, either version 3 of the License, or (at your option)
+ * any later version.
+ *
+ * geOrchestra is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * geOrchestra. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.georchestra.gateway.security.ldap.extended;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import javax.naming.NamingEnumeration;
+import javax.naming.NamingException;
+import javax.naming.directory.Attribute;
+import javax.naming.directory.Attributes;
+import javax.naming.ldap.LdapName;
+
+import org.georchestra.gateway.security.GeorchestraGatewaySecurityConfigProperties.RoleMembershipIndex;
+import org.springframework.ldap.core.AttributesMapper;
+import org.springframework.ldap.core.LdapOperations;
+import org.springframework.ldap.query.LdapQueryBuilder;
+import org.springframework.ldap.query.SearchScope;
+import org.springframework.ldap.support.LdapUtils;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+import org.springframework.security.core.GrantedAuthority;
+import org.springframework.security.core.authority.SimpleGrantedAuthority;
+import org.springframework.security.ldap.userdetails.DefaultLdapAuthoritiesPopulator;
+import org.springframework.security.ldap.userdetails.LdapAuthoritiesPopulator;
+
+import com.google.common.annotations.VisibleForTesting;
+
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Tags;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import lombok.NonNull;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * In-memory index of the role memberships of an extended LDAP directory,
+ * resolving the roles of authenticated users without the group search
+ * {@link DefaultLdapAuthoritiesPopulator} runs on each authentication.
+ * <p>
+ * The index maps each member DN to the authorities of the roles listing it,
+ * built the same way as {@link DefaultLdapAuthoritiesPopulator} does (i.e.
+ * {@code ROLE_} followed by the upper case role {@code cn}). It's loaded in
+ * full from a single search of the roles upon {@link #start() start}, and then
+ * kept up to date by a background thread that periodically reloads the roles
+ * whose {@code modifyTimestamp} changed since the previous synchronization. A
+ * membership change thus takes at most
+ * {@link RoleMembershipIndex#getSyncInterval() syncInterval} to apply. Deleted
+ * roles can't be found that way, so the whole index is reloaded every
+ * {@link RoleMembershipIndex#getFullSyncInterval() fullSyncInterval}.
+ * </p>
+ * <p>
+ * Only role search filters matching a single membership attribute against the
+ * user DN, such as {@code (member={0})}, can be answered from the index, see
+ * {@link #membershipAttribute(String)}. Until the index is loaded, the
+ * {@link #populator(LdapAuthoritiesPopulator) populator} falls back to
+ * searching the directory.
+ * </p>
+ * <p>
+ * Exports the following metrics, tagged with {@code config=<config name>}:
+ * <ul>
+ * <li>{@code georchestra.gateway.ldap.roles.members}: number of member DNs in
+ * the index
+ * <li>{@code georchestra.gateway.ldap.roles.age}: seconds since the last
+ * successful synchronization
+ * <li>{@code georchestra.gateway.ldap.roles.syncs}: number of
+ * synchronizations, tagged by {@code type} ({@code full} or {@code delta}) and
+ * {@code outcome} ({@code success} or {@code error})
+ * <li>{@code georchestra.gateway.ldap.roles.lookups}: number of lookups, tagged
+ * by {@code result} ({@code hit} or {@code miss})
+ * </ul>
+ * </p>
+ */
+@Slf4j(topic = "org.georchestra.gateway.security.ldap.extended")
+public class LdapRoleMembershipIndex implements MeterBinder, AutoCloseable {
+
+    private static final String METRIC_PREFIX = "georchestra.gateway.ldap.roles";
+
+    /**
+     * Role search filters the index can answer, capturing the membership attribute
+     */
+    private static final Pattern MEMBERSHIP_FILTER = Pattern.compile("^\\(\\s*([\\w-]+)\\s*=\\s*\\{0\\}\\s*\\)$");
+
+    /**
+     * Format of LDAP generalized time values, as used by {@code modifyTimestamp}
+     */
+    private static final DateTimeFormatter GENERALIZED_TIME = DateTimeFormatter.ofPattern("yyyyMMddHHmmss'Z'")
+            .withZone(ZoneOffset.UTC);
+
+    /**
+     * Overlap between consecutive incremental synchronizations, accounting for
+     * clock differences between the gateway and the directory. Reloading a role
+     * twice is harmless.
+     */
+    private static final Duration CLOCK_SKEW_MARGIN = Duration.ofMinutes(1);
+
+    private final @NonNull String configName;
+    private final @NonNull String rolesRdn;
+    private final @NonNull String memberAttribute;
+    private final @NonNull RoleMembershipIndex settings;
+    private final @NonNull LdapOperations ldap;
+
+    /**
+     * The current index, {@code null} until loaded
+     */
+    private volatile Index index;
+
+    private volatile Instant lastSync;
+    private volatile Instant lastFullSync;
+
+    private ScheduledExecutorService executor;
+
+    private final AtomicLong fullSyncs = new AtomicLong();
+    private final AtomicLong fullSyncErrors = new AtomicLong();
+    private final AtomicLong deltaSyncs = new AtomicLong();
+    private final AtomicLong deltaSyncErrors = new AtomicLong();
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+
+    /**
+     * @param config          the LDAP configuration, providing the roles RDN and
+     *                        the synchronization settings
+     * @param memberAttribute the roles attribute holding the member DNs, as
+     *                        returned by {@link #membershipAttribute(String)}
+     * @param ldap            the LDAP operations to search the roles
+     */
+    public LdapRoleMembershipIndex(@NonNull ExtendedLdapConfig config, @NonNull String memberAttribute,
+            @NonNull LdapOperations ldap) {
+        this.configName = config.getName();
+        this.rolesRdn = config.getRolesRdn();
+        this.memberAttribute = memberAttribute;
+        this.settings = config.getRoleIndex();
+        this.ldap = ldap;
+    }
+
+    /**
+     * Extracts the membership attribute of a role search filter.
+     *
+     * @param rolesSearchFilter the role search filter, e.g. {@code (member={0})}
+     * @return the attribute matched against the user DN, e.g. {@code member}, or
+     *         empty if the filter is not a single equality match on the user DN
+     */
+    public static Optional<String> membershipAttribute(String rolesSearchFilter) {
+        if (rolesSearchFilter == null) {
+            return Optional.empty();
+        }
+        Matcher matcher = MEMBERSHIP_FILTER.matcher(rolesSearchFilter.trim());
+        return matcher.matches() ? Optional.of(matcher.group(1)) : Optional.empty();
+    }
+
+    /**
+     * @return whether the index is loaded and can serve lookups
+     */
+    public boolean isReady() {
+        return index != null;
+    }
+
+    /**
+     * Starts loading the index and synchronizing it periodically, on a background
+     * thread.
+     */
+    public synchronized void start() {
+        if (executor != null) {
+            return;
+        }
+        log.info("Indexing the role memberships of LDAP config {}: {}", configName, settings);
+        CustomizableThreadFactory threadFactory = new CustomizableThreadFactory("ldap-roles-" + configName + "-");
+        threadFactory.setDaemon(true);
+        executor = Executors.newSingleThreadScheduledExecutor(threadFactory);
+        long delay = settings.getSyncInterval().toMillis();
+        executor.scheduleWithFixedDelay(this::sync, 0, delay, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Stops synchronizing the index.
+     */
+    @Override
+    public synchronized void close() {
+        if (executor != null) {
+            executor.shutdownNow();
+            executor = null;
+        }
+    }
+
+    /**
+     * @param userDn the full DN of the user
+     * @return the authorities of the roles the user is a member of, or empty if
+     *         the index is not loaded
+     */
+    public Optional<List<GrantedAuthority>> findAuthorities(@NonNull String userDn) {
+        Index current = index;
+        LdapName key = current == null ? null : memberKey(userDn);
+        if (key == null) {
+            misses.incrementAndGet();
+            return Optional.empty();
+        }
+        hits.incrementAndGet();
+        return Optional.of(current.authoritiesByMember.getOrDefault(key, List.of()));
+    }
+
+    /**
+     * Returns an {@link LdapAuthoritiesPopulator} answering from this index, and
+     * delegating to {@code fallback} while it's not loaded.
+     *
+     * @param fallback the populator searching the directory
+     * @return the indexed populator
+     */
+    public LdapAuthoritiesPopulator populator(@NonNull LdapAuthoritiesPopulator fallback) {
+        return (userData, username) -> {
+            Optional<List<GrantedAuthority>> authorities = findAuthorities(userData.getNameInNamespace());
+            if (authorities.isPresent()) {
+                return authorities.get();
+            }
+            return fallback.getGrantedAuthorities(userData, username);
+        };
+    }
+
+    /**
+     * Performs a full reload if none was performed yet or the last one is older
+     * than {@link RoleMembershipIndex#getFullSyncInterval() fullSyncInterval}, an
+     * incremental synchronization otherwise. Errors are logged, and the index kept
+     * as is until the next synchronization.
+     */
+    @VisibleForTesting
+    void sync() {
+        Instant lastFull = lastFullSync;
+        boolean full = lastFull == null || lastFull.plus(settings.getFullSyncInterval()).isBefore(Instant.now());
+        try {
+            if (full) {
+                fullSync();
+            } else {
+                deltaSync();
+            }
+        } catch (RuntimeException e) {
+            (full ? fullSyncErrors : deltaSyncErrors).incrementAndGet();
+            log.warn("Error synchronizing the role memberships of LDAP config {}", configName, e);
+        }
+    }
+
+    /**
+     * Reloads all the roles, replacing the current index once done.
+     */
+    @VisibleForTesting
+    void fullSync() {
+        final Instant start = Instant.now();
+        Map<String, List<LdapName>> membersByRole = new HashMap<>();
+        for (RoleEntry role : searchRoles("(cn=*)")) {
+            membersByRole.put(role.name(), members(role));
+        }
+        Index loaded = new Index(membersByRole);
+        this.index = loaded;
+        this.lastSync = start;
+        this.lastFullSync = start;
+        fullSyncs.incrementAndGet();
+        log.info("Indexed {} roles with {} members of LDAP config {} in {}ms", membersByRole.size(),
+                loaded.authoritiesByMember.size(), configName, Duration.between(start, Instant.now()).toMillis());
+    }
+
+    /**
+     * Reloads the roles modified since the last synchronization, replacing the
+     * current index once done.
+     */
+    @VisibleForTesting
+    void deltaSync() {
+        final Index current = index;
+        if (current == null) {
+            fullSync();
+            return;
+        }
+        final Instant start = Instant.now();
+        final String since = GENERALIZED_TIME.format(lastSync.minus(CLOCK_SKEW_MARGIN));
+        List<RoleEntry> modified = searchRoles("(&(cn=*)(modifyTimestamp>=%s))".formatted(since));
+        if (!modified.isEmpty()) {
+            Map<String, List<LdapName>> membersByRole = new HashMap<>(current.membersByRole);
+            modified.forEach(role -> membersByRole.put(role.name(), members(role)));
+            this.index = new Index(membersByRole);
+        }
+        this.lastSync = start;
+        deltaSyncs.incrementAndGet();
+        log.debug("Synchronized {} roles of LDAP config {} modified since {}", modified.size(), configName, since);
+    }
+
+    private List<RoleEntry> searchRoles(String filter) {
+        return ldap.search(
+                LdapQueryBuilder.query().base(rolesRdn).searchScope(SearchScope.ONELEVEL)
+                        .attributes("cn", memberAttribute).filter(filter),
+                (AttributesMapper<RoleEntry>) this::toRoleEntry);
+    }
+
+    private RoleEntry toRoleEntry(Attributes attributes) throws NamingException {
+        String name = (String) attributes.get("cn").get();
+        List<String> members = new ArrayList<>();
+        Attribute member = attributes.get(memberAttribute);
+        if (member != null) {
+            NamingEnumeration<?> values = member.getAll();
+            while (values.hasMore()) {
+                members.add(String.valueOf(values.next()));
+            }
+        }
+        return new RoleEntry(name, members);
+    }
+
+    private List<LdapName> members(RoleEntry role) {
+        List<LdapName> members = new ArrayList<>(role.memberDns().size());
+        for (String memberDn : role.memberDns()) {
+            LdapName key = memberKey(memberDn);
+            if (key != null) {
+                members.add(key);
+            }
+        }
+        return members;
+    }
+
+    /**
+     * Parses a DN into a key comparing equal to other spellings of the same DN
+     * (e.g. differing in case or spacing), or {@code null} if it's not valid
+     */
+    private static LdapName memberKey(String dn) {
+        try {
+            return LdapUtils.newLdapName(dn);
+        } catch (RuntimeException invalid) {
+            return null;
+        }
+    }
+
+    /**
+     * Registers the {@code georchestra.gateway.ldap.roles.*} metrics.
+     */
+    @Override
+    public void bindTo(@NonNull MeterRegistry registry) {
+        Tags tags = Tags.of("config", configName);
+        Gauge.builder(METRIC_PREFIX + ".members", this, i -> i.index == null ? 0 : i.index.authoritiesByMember.size())
+                .tags(tags).description("Number of member DNs in the role memberships index").register(registry);
+        Gauge.builder(METRIC_PREFIX + ".age", this, LdapRoleMembershipIndex::age).tags(tags)
+                .description("Seconds since the last successful role memberships synchronization")
+                .register(registry);
+        syncCounter(registry, tags.and("type", "full", "outcome", "success"), fullSyncs);
+        syncCounter(registry, tags.and("type", "full", "outcome", "error"), fullSyncErrors);
+        syncCounter(registry, tags.and("type", "delta", "outcome", "success"), deltaSyncs);
+        syncCounter(registry, tags.and("type", "delta", "outcome", "error"), deltaSyncErrors);
+        FunctionCounter.builder(METRIC_PREFIX + ".lookups", hits, AtomicLong::get).tags(tags).tag("result", "hit")
+                .description("Number of role lookups served by the role memberships index").register(registry);
+        FunctionCounter.builder(METRIC_PREFIX + ".lookups", misses, AtomicLong::get).tags(tags).tag("result", "miss")
+                .description("Number of role lookups not served by the role memberships index").register(registry);
+    }
+
+    private void syncCounter(MeterRegistry registry, Tags tags, AtomicLong count) {
+        FunctionCounter.builder(METRIC_PREFIX + ".syncs", count, AtomicLong::get).tags(tags)
+                .description("Number of role memberships synchronizations").register(registry);
+    }
+
+    private double age() {
+        Instant last = lastSync;
+        return last == null ? Double.NaN : Duration.between(last, Instant.now()).toSeconds();
+    }
+
+    /**
+     * A roles entry found by a synchronization search.
+     *
+     * @param name      the role's {@code cn}
+     * @param memberDns the values of the role's membership attribute
+     */
+    @VisibleForTesting
+    record RoleEntry(String name, List<String> memberDns) {
+    }
+
+    /**
+     * The index contents, replaced as a whole by each synchronization changing
+     * it, so that lookups never see a partially updated index.
+     */
+    private static class Index {
+        final Map<String, List<LdapName>> membersByRole;
+        final Map<LdapName, List<GrantedAuthority>> authoritiesByMember;
+
+        Index(Map<String, List<LdapName>> membersByRole) {
+            this.membersByRole = membersByRole;
+            Map<LdapName, List<GrantedAuthority>> byMember = new HashMap<>();
+            membersByRole.forEach((role, members) -> {
+                GrantedAuthority authority = new SimpleGrantedAuthority("ROLE_" + role.toUpperCase(Locale.ROOT));
+                members.forEach(member -> byMember.computeIfAbsent(member, m -> new ArrayList<>()).add(authority));
+            });
+            byMember.replaceAll((member, authorities) -> List.copyOf(authorities));
+            this.authoritiesByMember = byMember;
+        }
+    }
+}
@@ -0,0 +1,75 @@
+/*
+ * Copyright (C) 2022 by the geOrchestra PSC
+ *
+ * This file is part of geOrchestra.
+ *
+ * geOrchestra is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free
+ * Software Foundation, either version 3 of the License, or (at your option)
+ * any later version.
+ *
+ * geOrchestra is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * geOrchestra. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.georchestra.gateway.security.ldap.extended;
+
+import java.util.Map;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import lombok.NonNull;
+
+/**
+ * Holds the {@link LdapRoleMembershipIndex role memberships indexes} of the
+ * extended LDAP directories whose {@link ExtendedLdapConfig#getRoleIndex() role
+ * index} is enabled, registering their metrics and stopping them on shutdown.
+ */
+public class LdapRoleMembershipIndexes implements MeterBinder, AutoCloseable {
+
+    private final Map<String, LdapRoleMembershipIndex> indexesByConfigName;
+
+    /**
+     * @param indexesByConfigName the role memberships indexes, by LDAP
+     *                            configuration name
+     */
+    public LdapRoleMembershipIndexes(@NonNull Map<String, LdapRoleMembershipIndex> indexesByConfigName) {
+        this.indexesByConfigName = Map.copyOf(indexesByConfigName);
+    }
+
+    /**
+     * @param configName the LDAP configuration name
+     * @return the role memberships index of the configuration, or {@code null} if
+     *         it's not enabled
+     */
+    public LdapRoleMembershipIndex get(@NonNull String configName) {
+        return indexesByConfigName.get(configName);
+    }
+
+    /**
+     * Starts loading the indexes.
+     */
+    public void start() {
+        indexesByConfigName.values().forEach(LdapRoleMembershipIndex::start);
+    }
+
+    /**
+     * Stops synchronizing the indexes.
+     */
+    @Override
+    public void close() {
+        indexesByConfigName.values().forEach(LdapRoleMembershipIndex::close);
+    }
+
+    /**
+     * @see LdapRoleMembershipIndex#bindTo(MeterRegistry)
+     */
+    @Override
+    public void bindTo(@NonNull MeterRegistry registry) {
+        indexesByConfigName.values().forEach(index -> index.bindTo(registry));
+    }
+}
@@ -0,0 +1,155 @@
+/*
+ * Copyright (C) 2022 by the geOrchestra PSC
+ *
+ * This file is part of geOrchestra.
+ *
+ * geOrchestra is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free
+ * Software Foundation, either version 3 of the License, or (at your option)
+ * any later version.
+ *
+ * geOrchestra is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * geOrchestra. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.georchestra.gateway.security.ldap.extended;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Optional;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.stream.Stream;
+
+import org.georchestra.gateway.model.GatewayConfigProperties;
+import org.georchestra.gateway.model.HeaderMappings;
+import org.georchestra.gateway.model.Service;
+
+import lombok.NonNull;
+
+/**
+ * The attributes to retrieve from the user entries of an extended LDAP
+ * directory, when only the ones needed to build the geOrchestra headers
+ * appended to proxied requests should be loaded.
+ * <p>
+ * Attributes identifying the user, their organization, and the state of their
+ * account are always retrieved. The ones only needed by a specific header (e.g.
+ * {@code telephoneNumber} for {@code sec-tel}) are retrieved only if the header
+ * is enabled by the {@link GatewayConfigProperties#getDefaultHeaders() default
+ * headers} or the {@link Service#getHeaders() headers of any service}. Large
+ * attributes not mapped to any header, such as {@code jpegPhoto}, are never
+ * retrieved.
+ * </p>
+ *
+ * @see ProjectingLdapTemplate
+ */
+public class LdapUserAttributes {
+
+    /**
+     * Attributes always retrieved, needed to identify users and look them up by
+     * email or OAuth2 identifier, resolve their organization, and compute the
+     * state of their account
+     */
+    static final Set<String> CORE = attributes("objectClass", "uid", "cn", "mail", "georchestraObjectIdentifier", "o",
+            "shadowExpire", "privacyPolicyAgreementDate", "oAuth2Provider", "oAuth2Uid");
+
+    static final Set<String> FIRSTNAME = attributes("givenName");
+    static final Set<String> LASTNAME = attributes("sn");
+    static final Set<String> TEL = attributes("telephoneNumber");
+    static final Set<String> ADDRESS = attributes("postalAddress");
+    static final Set<String> TITLE = attributes("title");
+    static final Set<String> NOTES = attributes("description", "knowledgeInformation");
+
+    /**
+     * Attributes not mapped to any header, never retrieved
+     */
+    static final Set<String> UNUSED = attributes("jpegPhoto", "sshPublicKey", "userPassword");
+
+    private final Set<String> required;
+
+    /**
+     * Attributes known to be only needed by disabled headers, or not needed at all
+     */
+    private final Set<String> excluded;
+
+    LdapUserAttributes(@NonNull Collection<String> required) {
+        this.required = Collections.unmodifiableSet(attributes(required));
+        Set<String> optional = attributes(UNUSED);
+        Stream.of(FIRSTNAME, LASTNAME, TEL, ADDRESS, TITLE, NOTES).forEach(optional::addAll);
+        optional.removeAll(this.required);
+        this.excluded = Collections.unmodifiableSet(optional);
+    }
+
+    /**
+     * Computes the attributes needed by the union of the headers enabled by the
+     * default headers and the headers of each service.
+     *
+     * @param config the gateway configuration
+     * @return the user attributes to retrieve
+     */
+    public static LdapUserAttributes forHeaders(@NonNull GatewayConfigProperties config) {
+        HeaderMappings defaults = Optional.ofNullable(config.getDefaultHeaders()).orElseGet(HeaderMappings::new);
+        List<HeaderMappings> mappings = Stream.concat(Stream.of(defaults), config.getServices().values().stream()
+                .map(Service::headers).flatMap(Optional::stream).map(headers -> defaults.copy().merge(headers)))
+                .toList();
+
+        Set<String> required = attributes(CORE);
+        for (HeaderMappings headers : mappings) {
+            boolean all = enabled(headers.getJsonUser());
+            addIf(all || enabled(headers.getFirstname()), FIRSTNAME, required);
+            addIf(all || enabled(headers.getLastname()), LASTNAME, required);
+            addIf(all || enabled(headers.getTel()), TEL, required);
+            addIf(all || enabled(headers.getAddress()), ADDRESS, required);
+            addIf(all || enabled(headers.getTitle()), TITLE, required);
+            addIf(all || enabled(headers.getNotes()), NOTES, required);
+        }
+        return new LdapUserAttributes(required);
+    }
+
+    /**
+     * @return the attributes to retrieve, in case-insensitive order
+     */
+    public Set<String> getRequired() {
+        return required;
+    }
+
+    /**
+     * Applies this projection to the attributes requested by a search.
+     *
+     * @param requested the attributes requested, {@code null} meaning all of them
+     * @return the {@link #getRequired() required attributes} if all were requested,
+     *         otherwise the requested ones but those known not to be needed
+     */
+    public String[] project(String[] requested) {
+        if (requested == null) {
+            return required.toArray(String[]::new);
+        }
+        return Arrays.stream(requested).filter(name -> !excluded.contains(name)).toArray(String[]::new);
+    }
+
+    private static void addIf(boolean enabled, Set<String> attributes, Set<String> target) {
+        if (enabled) {
+            target.addAll(attributes);
+        }
+    }
+
+    private static boolean enabled(Optional<Boolean> header) {
+        return header != null && header.orElse(false);
+    }
+
+    private static Set<String> attributes(String... names) {
+        return attributes(Arrays.asList(names));
+    }
+
+    private static Set<String> attributes(Collection<String> names) {
+        Set<String> set = new TreeSet<>(String.CASE_INSENSITIVE_ORDER);
+        set.addAll(names);
+        return set;
+    }
+}
@@ -0,0 +1,266 @@
+/*
+ * Copyright (C) 2022 by the geOrchestra PSC
+ *
+ * This file is part of geOrchestra.
+ *
+ * geOrchestra is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free
+ * Software Foundation, either version 3 of the License, or (at your option)
+ * any later version.
+ *
+ * geOrchestra is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * geOrchestra. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.georchestra.gateway.security.ldap.extended;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Optional;
+
+import org.georchestra.gateway.security.GeorchestraGatewaySecurityConfigProperties.CacheConfig;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Ticker;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheLoader;
+import com.google.common.cache.LoadingCache;
+import com.google.common.util.concurrent.UncheckedExecutionException;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Tags;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import io.micrometer.core.instrument.binder.cache.GuavaCacheMetrics;
+import lombok.NonNull;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Cross-request cache of {@link ExtendedGeorchestraUser} snapshots, sitting in
+ * front of a {@link DemultiplexingUsersApi} to avoid querying the LDAP
+ * directory each time an already authenticated user is resolved.
+ * <p>
+ * A separate cache is kept for each {@link ExtendedLdapConfig LDAP
+ * configuration} whose {@link ExtendedLdapConfig#getUsersCache() users cache}
+ * is enabled, bounded by its maximum size and time-to-live. Lookups against
+ * configurations without a cache are delegated to the
+ * {@link DemultiplexingUsersApi} as-is.
+ * </p>
+ * <p>
+ * Entries older than the configured {@code refreshAfterWrite} are reloaded from
+ * the directory on their next access, in the background (see
+ * {@link LdapCacheReloads}), while the cached snapshot keeps being served.
+ * </p>
+ * <p>
+ * Since callers are free to modify the returned users (e.g. to normalize role
+ * names), each lookup returns a {@link ExtendedGeorchestraUser#copy() copy} of
+ * the cached snapshot.
+ * </p>
+ * <p>
+ * For configurations with a circuit breaker (see {@link LdapCircuitBreakers}),
+ * the last known snapshot of each user loaded from the directory is kept for
+ * longer, independently of the users cache. It's served when looking up the
+ * user fails (e.g. the directory is down, or its circuit is open), so that
+ * already authenticated users keep being resolved meanwhile.
+ * </p>
+ * <p>
+ * Cache statistics are exported as {@code cache.*} metrics tagged with
+ * {@code cache=georchestra.gateway.ldap.users} and {@code config=<config
+ * name>}, and {@code cache=georchestra.gateway.ldap.users.stale} for the last
+ * known users, whose hits count the stale snapshots served.
+ * </p>
+ *
+ * @see GeorchestraLdapAuthenticatedUserMapper
+ */
+@Slf4j(topic = "org.georchestra.gateway.security.ldap.extended")
+public class LdapUserCache implements MeterBinder {
+
+    static final String CACHE_NAME = "georchestra.gateway.ldap.users";
+
+    static final String STALE_CACHE_NAME = "georchestra.gateway.ldap.users.stale";
+
+    private final @NonNull DemultiplexingUsersApi users;
+
+    private final Map<String, LoadingCache<String, Optional<ExtendedGeorchestraUser>>> cachesByConfigName;
+
+    /**
+     * Last known snapshot of the users loaded from each directory, served when it
+     * fails
+     */
+    private final Map<String, Cache<String, ExtendedGeorchestraUser>> lastKnownByConfigName;
+
+    /**
+     * Runs the reloads of the entries older than {@code refreshAfterWrite}.
+     */
+    private final LdapCacheReloads reloads;
+
+    /**
+     * @param users          the users lookup to delegate to on cache misses
+     * @param cachesByConfig the users cache settings for each LDAP configuration
+     *                       name
+     */
+    public LdapUserCache(@NonNull DemultiplexingUsersApi users, @NonNull Map<String, CacheConfig> cachesByConfig) {
+        this(users, cachesByConfig, Map.of(), LdapCacheReloads.direct());
+    }
+
+    /**
+     * @param users               the users lookup to delegate to on cache misses
+     * @param cachesByConfig      the users cache settings for each LDAP
+     *                            configuration name
+     * @param staleCachesByConfig the settings of the last known users kept for
+     *                            each LDAP configuration name, to be served while
+     *                            its directory is unavailable
+     * @param reloads             runs the reloads of the cached users
+     */
+    public LdapUserCache(@NonNull DemultiplexingUsersApi users, @NonNull Map<String, CacheConfig> cachesByConfig,
+            @NonNull Map<String, CacheConfig> staleCachesByConfig, @NonNull LdapCacheReloads reloads) {
+        this(users, cachesByConfig, staleCachesByConfig, Ticker.systemTicker(), reloads);
+    }
+
+    @VisibleForTesting
+    LdapUserCache(@NonNull DemultiplexingUsersApi users, @NonNull Map<String, CacheConfig> cachesByConfig,
+            @NonNull Ticker ticker) {
+        this(users, cachesByConfig, Map.of(), ticker);
+    }
+
+    @VisibleForTesting
+    LdapUserCache(@NonNull DemultiplexingUsersApi users, @NonNull Map<String, CacheConfig> cachesByConfig,
+            @NonNull Map<String, CacheConfig> staleCachesByConfig, @NonNull Ticker ticker) {
+        this(users, cachesByConfig, staleCachesByConfig, ticker, LdapCacheReloads.direct());
+    }
+
+    @VisibleForTesting
+    LdapUserCache(@NonNull DemultiplexingUsersApi users, @NonNull Map<String, CacheConfig> cachesByConfig,
+            @NonNull Map<String, CacheConfig> staleCachesByConfig, @NonNull Ticker ticker,
+            @NonNull LdapCacheReloads reloads) {
+        this.users = users;
+        this.reloads = reloads;
+        this.cachesByConfigName = new HashMap<>();
+        this.lastKnownByConfigName = new HashMap<>();
+        cachesByConfig.forEach((configName, config) -> {
+            if (config.isEnabled()) {
+                log.info("Caching users of LDAP config {}: {}", configName, config);
+                cachesByConfigName.put(configName, createCache(configName, config, ticker));
+            }
+        });
+        staleCachesByConfig.forEach((configName, config) -> {
+            if (config.isEnabled()) {
+                log.info("Keeping the last known users of LDAP config {} for {}", configName, config.getTimeToLive());
+                lastKnownByConfigName.put(configName, CacheBuilder.newBuilder().ticker(ticker)
+                        .maximumSize(config.getMaximumSize()).expireAfterWrite(config.getTimeToLive()).recordStats()
+                        .build());
+            }
+        });
+    }
+
+    /**
+     * Finds a user by username within a specific LDAP service, from the cache if
+     * enabled for that service.
+     *
+     * @param serviceName the LDAP service configuration name.
+     * @param username    the username to search for.
+     * @return an {@link Optional} containing a copy of the
+     *         {@link ExtendedGeorchestraUser}, or empty if the user is not found.
+     * @see DemultiplexingUsersApi#findByUsername(String, String)
+     */
+    public Optional<ExtendedGeorchestraUser> findByUsername(@NonNull String serviceName, @NonNull String username) {
+        try {
+            return lookup(serviceName, username);
+        } catch (RuntimeException e) {
+            Cache<String, ExtendedGeorchestraUser> lastKnown = lastKnownByConfigName.get(serviceName);
+            ExtendedGeorchestraUser stale = lastKnown == null ? null : lastKnown.getIfPresent(username);
+            if (stale == null) {
+                throw e;
+            }
+            log.warn("Serving last known snapshot of user {}, LDAP config {} failed: {}", username, serviceName,
+                    e.getMessage());
+            return Optional.of(stale.copy());
+        }
+    }
+
+    private Optional<ExtendedGeorchestraUser> lookup(String serviceName, String username) {
+        LoadingCache<String, Optional<ExtendedGeorchestraUser>> cache = cachesByConfigName.get(serviceName);
+        if (cache == null) {
+            return remember(serviceName, username, users.findByUsername(serviceName, username));
+        }
+        try {
+            return cache.getUnchecked(username).map(ExtendedGeorchestraUser::copy);
+        } catch (UncheckedExecutionException e) {
+            if (e.getCause() instanceof RuntimeException cause) {
+                throw cause;
+            }
+            throw e;
+        }
+    }
+
+    /**
+     * Keeps a copy of the user loaded from the directory, if its last known
+     * snapshots are kept, or forgets it if it no longer exists.
+     */
+    private Optional<ExtendedGeorchestraUser> remember(String serviceName, String username,
+            Optional<ExtendedGeorchestraUser> user) {
+        Cache<String, ExtendedGeorchestraUser> lastKnown = lastKnownByConfigName.get(serviceName);
+        if (lastKnown != null) {
+            user.ifPresentOrElse(u -> lastKnown.put(username, u.copy()), () -> lastKnown.invalidate(username));
+        }
+        return user;
+    }
+
+    /**
+     * Discards the cached snapshot of a user, if any, so that the next lookup
+     * hits the directory.
+     *
+     * @param serviceName the LDAP service configuration name.
+     * @param username    the username whose cached snapshot to discard.
+     */
+    public void invalidate(@NonNull String serviceName, @NonNull String username) {
+        LoadingCache<String, Optional<ExtendedGeorchestraUser>> cache = cachesByConfigName.get(serviceName);
+        if (cache != null) {
+            cache.invalidate(username);
+        }
+    }
+
+    /**
+     * Registers the statistics of each users cache in the given registry.
+     */
+    @Override
+    public void bindTo(@NonNull MeterRegistry registry) {
+        cachesByConfigName.forEach((configName, cache) -> new GuavaCacheMetrics<>(cache, CACHE_NAME,
+                Tags.of("config", configName)).bindTo(registry));
+        lastKnownByConfigName.forEach((configName, cache) -> new GuavaCacheMetrics<>(cache, STALE_CACHE_NAME,
+                Tags.of("config", configName)).bindTo(registry));
+    }
+
+    private LoadingCache<String, Optional<ExtendedGeorchestraUser>> createCache(String configName,
+            CacheConfig config, Ticker ticker) {
+
+        CacheBuilder<Object, Object> builder = CacheBuilder.newBuilder().ticker(ticker)
+                .maximumSize(config.getMaximumSize()).expireAfterWrite(config.getTimeToLive()).recordStats();
+        if (config.getRefreshAfterWrite() != null && !config.getRefreshAfterWrite().isZero()) {
+            builder.refreshAfterWrite(config.getRefreshAfterWrite());
+        }
+        return builder.build(reloads.reloading(new UserLoader(configName)));
+    }
+
+    /**
+     * Loads users from the {@link DemultiplexingUsersApi}.
+     */
+    private class UserLoader extends CacheLoader<String, Optional<ExtendedGeorchestraUser>> {
+
+        private final String configName;
+
+        UserLoader(String configName) {
+            this.configName = configName;
+        }
+
+        @Override
+        public Optional<ExtendedGeorchestraUser> load(String username) {
+            log.debug("Loading user {} from LDAP config {}", username, configName);
+            return remember(configName, username, users.findByUsername(configName, username));
+        }
+    }
+}
@@ -0,0 +1,80 @@
+/*
+ * Copyright (C) 2022 by the geOrchestra PSC
+ *
+ * This file is part of geOrchestra.
+ *
+ * geOrchestra is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free
+ * Software Foundation, either version 3 of the License, or (at your option)
+ * any later version.
+ *
+ * geOrchestra is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * geOrchestra. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.georchestra.gateway.security.ldap.extended;
+
+import javax.naming.Name;
+import javax.naming.directory.SearchControls;
+
+import org.georchestra.ds.users.AccountDao;
+import org.springframework.ldap.core.ContextMapper;
+import org.springframework.ldap.core.ContextSource;
+import org.springframework.ldap.core.DirContextProcessor;
+import org.springframework.ldap.core.LdapTemplate;
+import org.springframework.ldap.core.NameClassPairCallbackHandler;
+
+import lombok.NonNull;
+
+/**
+ * {@link LdapTemplate} only retrieving the {@link LdapUserAttributes user
+ * attributes} needed by the gateway, used by the {@link AccountDao} that looks
+ * up users.
+ * <p>
+ * Searches and lookups of all attributes retrieve the
+ * {@link LdapUserAttributes#getRequired() required attributes} instead, and
+ * searches of specific attributes skip those known not to be needed. Entries
+ * looked up to be modified ({@link #lookupContext(Name)}) are left untouched.
+ * </p>
+ */
+class ProjectingLdapTemplate extends LdapTemplate {
+
+    private final @NonNull LdapUserAttributes attributes;
+
+    ProjectingLdapTemplate(@NonNull ContextSource contextSource, @NonNull LdapUserAttributes attributes) {
+        super(contextSource);
+        this.attributes = attributes;
+    }
+
+    @Override
+    public void search(Name base, String filter, SearchControls controls, NameClassPairCallbackHandler handler,
+            DirContextProcessor processor) {
+        super.search(base, filter, project(controls), handler, processor);
+    }
+
+    @Override
+    public void search(String base, String filter, SearchControls controls, NameClassPairCallbackHandler handler,
+            DirContextProcessor processor) {
+        super.search(base, filter, project(controls), handler, processor);
+    }
+
+    @Override
+    public <T> T lookup(Name dn, ContextMapper<T> mapper) {
+        return super.lookup(dn, attributes.project(null), mapper);
+    }
+
+    @Override
+    public <T> T lookup(String dn, ContextMapper<T> mapper) {
+        return super.lookup(dn, attributes.project(null), mapper);
+    }
+
+    private SearchControls project(SearchControls controls) {
+        return new SearchControls(controls.getSearchScope(), controls.getCountLimit(), controls.getTimeLimit(),
+                attributes.project(controls.getReturningAttributes()), controls.getReturningObjFlag(),
+                controls.getDerefLinkFlag());
+    }
+}
@@ -12,7 +12,6 @@ import org.springframework.cloud.gateway.filter.GatewayFilter;
 import org.springframework.cloud.gateway.filter.factory.AbstractGatewayFilterFactory;
 import org.springframework.cloud.gateway.filter.factory.StripPrefixGatewayFilterFactory;
 import org.springframework.cloud.gateway.filter.factory.StripPrefixGatewayFilterFactory.Config;
-import org.springframework.http.server.reactive.ServerHttpRequest;
 import org.springframework.util.StringUtils;
 
 import lombok.Data;
@@ -31,7 +30,10 @@ import lombok.Data;
  * <p>
  * This filter works by calculating how many segments of the URI need to be
  * removed based on the configured prefix. If the prefix is found in the request
- * URI, it is stripped before the request is forwarded.
+ * URI, it is stripped before the request is forwarded. The number of segments to
+ * strip, and the {@link StripPrefixGatewayFilterFactory StripPrefix} filters
+ * stripping them, are resolved once when the filter is created, for requests to
+ * the base path itself and for requests below it.
  * <p>
  * For more details, see <a href=
  * "https://github.com/spring-cloud/spring-cloud-gateway/issues/1759">issue
@@ -60,57 +62,42 @@ public class StripBasePathGatewayFilterFactory
     @Override
     public GatewayFilter apply(PrefixConfig config) {
         config.checkPreconditions();
+        final String basePath = config.getPrefix();
+        if (null == basePath) {
+            return (exchange, chain) -> chain.filter(exchange); // No prefix to strip
+        }
+        final int basePathSteps = StringUtils.countOccurrencesOf(basePath, "/");
+        // Requests to the base path itself keep their last segment
+        final GatewayFilter stripRoot = stripPrefixFilter(basePathSteps - 1);
+        final GatewayFilter stripBelowRoot = stripPrefixFilter(basePathSteps);
         return (exchange, chain) -> {
-            final ServerHttpRequest request = exchange.getRequest();
-
-            final String basePath = config.getPrefix();
-            final String path = request.getURI().getRawPath();
-
-            // Calculate how many parts of the path to strip based on the base path
-            final int partsToRemove = resolvePartsToStrip(basePath, path);
-            if (partsToRemove == 0) {
+            final String path = exchange.getRequest().getURI().getRawPath();
+            if (!path.startsWith(basePath)) {
+                return chain.filter(exchange); // Base path is not part of the request URI
+            }
+            final GatewayFilter stripFilter = path.length() == basePath.length() ? stripRoot : stripBelowRoot;
+            if (stripFilter == null) {
                 return chain.filter(exchange); // No base path to strip, continue with the chain
             }
-
-            // Create and apply the StripPrefix filter with the correct number of parts to
-            // remove
-            GatewayFilter stripFilter = stripPrefix.apply(newStripPrefixConfig(partsToRemove));
             return stripFilter.filter(exchange, chain);
         };
     }
 
     /**
-     * Creates a new configuration for the {@link StripPrefixGatewayFilterFactory}
-     * with the specified number of parts to remove from the URI.
+     * Creates the {@link StripPrefixGatewayFilterFactory StripPrefix} filter
+     * removing the specified number of parts from the URI.
      *
      * @param partsToRemove the number of URI path segments to strip
-     * @return a new {@link Config} for the StripPrefix filter
+     * @return the StripPrefix filter, or {@code null} if there are no parts to
+     *         remove
      */
-    private Config newStripPrefixConfig(int partsToRemove) {
+    private GatewayFilter stripPrefixFilter(int partsToRemove) {
+        if (partsToRemove == 0) {
+            return null;
+        }
         Config config = stripPrefix.newConfig();
         config.setParts(partsToRemove);
-        return config;
-    }
-
-    /**
-     * Resolves the number of URI path segments to strip based on the base path and
-     * the incoming request URI.
-     * 
-     * @param basePath    the base path to strip
-     * @param requestPath the incoming request path
-     * @return the number of path segments to strip
-     */
-    private int resolvePartsToStrip(String basePath, String requestPath) {
-        if (null == basePath) {
-            return 0; // No prefix to strip
-        }
-        if (!requestPath.startsWith(basePath)) {
-            return 0; // Base path is not part of the request URI
-        }
-
-        final int basePathSteps = StringUtils.countOccurrencesOf(basePath, "/");
-        boolean isRoot = basePath.equals(requestPath);
-        return isRoot ? basePathSteps - 1 : basePathSteps; // Calculate how many parts to remove
+        return stripPrefix.apply(config);
     }
 
     /**
@@ -6,9 +6,9 @@ package org.geoserver.cloud.gateway.predicate;
 
 import java.util.Arrays;
 import java.util.List;
-import java.util.Optional;
-import java.util.Set;
+import java.util.Map;
 import java.util.function.Predicate;
+import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
 import org.springframework.cloud.gateway.handler.predicate.AbstractRoutePredicateFactory;
@@ -18,10 +18,13 @@ import org.springframework.util.StringUtils;
 import org.springframework.validation.annotation.Validated;
 import org.springframework.web.server.ServerWebExchange;
 
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheLoader;
+import com.google.common.cache.LoadingCache;
+
 import jakarta.validation.constraints.NotEmpty;
 import lombok.Data;
 import lombok.NonNull;
-import lombok.RequiredArgsConstructor;
 import lombok.experimental.Accessors;
 
 /**
@@ -58,6 +61,12 @@ import lombok.experimental.Accessors;
  *       - RegExpQuery=(?i:service),(?i:wfs)
  * </code>
  * </pre>
+ *
+ * <p>
+ * The regular expressions are compiled once per route. Those matching a single
+ * literal, optionally case insensitive like the above ones, are evaluated as a
+ * plain (case-folded) string comparison, and the outcome of other parameter
+ * name regular expressions is cached for the most recent parameter names.
  */
 public class RegExpQueryRoutePredicateFactory
         extends AbstractRoutePredicateFactory<RegExpQueryRoutePredicateFactory.Config> {
@@ -68,6 +77,15 @@ public class RegExpQueryRoutePredicateFactory
     /** HTTP request query parameter value regexp key. */
     public static final String VALUE_KEY = "valueRegexp";
 
+    /** Maximum number of parameter names whose regexp outcome is cached per route. */
+    static final int PARAM_NAMES_CACHE_SIZE = 128;
+
+    /**
+     * Regular expressions matching a single literal, optionally case insensitive
+     * (e.g. {@code service}, {@code (?i)service}, or {@code (?i:service)})
+     */
+    private static final Pattern LITERAL = Pattern.compile("(\\(\\?i\\))?([\\w-]+)|\\(\\?i:([\\w-]+)\\)");
+
     /**
      * Constructs a new instance of {@link RegExpQueryRoutePredicateFactory}.
      */
@@ -100,9 +118,17 @@ public class RegExpQueryRoutePredicateFactory
      * A {@link GatewayPredicate} implementation for matching query parameters based
      * on regular expressions.
      */
-    @RequiredArgsConstructor
     private static class RegExpQueryRoutePredicate implements GatewayPredicate {
         private final @NonNull Config config;
+        private final Predicate<String> paramName;
+        /** {@code null} to match the parameter names only */
+        private final Predicate<String> paramValue;
+
+        RegExpQueryRoutePredicate(@NonNull Config config) {
+            this.config = config;
+            this.paramName = paramNameMatcher(config.getParamRegexp());
+            this.paramValue = StringUtils.hasText(config.getValueRegexp()) ? matcher(config.getValueRegexp()) : null;
+        }
 
         /**
          * Tests if the given exchange matches the predicate based on the configured
@@ -113,16 +139,12 @@ public class RegExpQueryRoutePredicateFactory
          */
         @Override
         public boolean test(ServerWebExchange exchange) {
-            final String paramRegexp = config.getParamRegexp();
-            final String valueRegexp = config.getValueRegexp();
-
-            boolean matchNameOnly = !StringUtils.hasText(config.getValueRegexp());
-            Optional<String> paramName = findParameterName(paramRegexp, exchange);
-            boolean paramNameMatches = paramName.isPresent();
-            if (matchNameOnly) {
-                return paramNameMatches;
+            for (Map.Entry<String, List<String>> param : exchange.getRequest().getQueryParams().entrySet()) {
+                if (paramName.test(param.getKey())) {
+                    return paramValue == null || paramValueMatches(param.getValue(), paramValue);
+                }
             }
-            return paramNameMatches && paramValueMatches(paramName.get(), valueRegexp, exchange);
+            return false;
         }
 
         /**
@@ -138,31 +160,81 @@ public class RegExpQueryRoutePredicateFactory
     }
 
     /**
-     * Finds the first query parameter that matches the provided regular expression.
+     * Checks if any value of the query parameter matches the value regular
+     * expression.
      *
-     * @param regex    the regular expression to match the parameter name.
-     * @param exchange the exchange containing the request.
-     * @return an optional containing the parameter name if a match is found, or
-     *         empty otherwise.
+     * @param values     the values of the parameter, may be {@code null}.
+     * @param valueRegEx the matcher of the value regular expression.
+     * @return true if a matching value is found, false otherwise.
      */
-    static Optional<String> findParameterName(@NonNull String regex, ServerWebExchange exchange) {
-        Set<String> parameterNames = exchange.getRequest().getQueryParams().keySet();
-        return parameterNames.stream().filter(name -> name.matches(regex)).findFirst();
+    static boolean paramValueMatches(List<String> values, @NonNull Predicate<String> valueRegEx) {
+        if (values != null) {
+            for (String value : values) {
+                if (value != null && valueRegEx.test(value)) {
+                    return true;
+                }
+            }
+        }
+        return false;
     }
 
     /**
-     * Checks if the value of the query parameter matches the provided regular
-     * expression.
+     * Creates the matcher of a parameter name regular expression, caching the
+     * outcome for the {@link #PARAM_NAMES_CACHE_SIZE} most recent parameter names
+     * unless it matches a single literal.
      *
-     * @param paramName  the name of the parameter.
-     * @param valueRegEx the regular expression to match the parameter value.
-     * @param exchange   the exchange containing the request.
-     * @return true if a matching value is found, false otherwise.
+     * @param regex the regular expression to match the parameter names.
+     * @return the parameter names matcher.
      */
-    static boolean paramValueMatches(@NonNull String paramName, @NonNull String valueRegEx,
-            ServerWebExchange exchange) {
-        List<String> values = exchange.getRequest().getQueryParams().get(paramName);
-        return values != null && values.stream().anyMatch(v -> v != null && v.matches(valueRegEx));
+    static Predicate<String> paramNameMatcher(@NonNull String regex) {
+        if (LITERAL.matcher(regex).matches()) {
+            return matcher(regex);
+        }
+        Pattern pattern = Pattern.compile(regex);
+        LoadingCache<String, Boolean> matches = CacheBuilder.newBuilder().maximumSize(PARAM_NAMES_CACHE_SIZE)
+                .build(CacheLoader.from(name -> pattern.matcher(name).matches()));
+        return matches::getUnchecked;
+    }
+
+    /**
+     * Creates the matcher of a regular expression, comparing strings to the
+     * literal it matches if any, folding the case of US-ASCII letters as the
+     * {@code (?i)} flag does, instead of evaluating the regular expression.
+     *
+     * @param regex the regular expression.
+     * @return a predicate telling whether a string matches the regular
+     *         expression.
+     */
+    static Predicate<String> matcher(@NonNull String regex) {
+        Matcher literal = LITERAL.matcher(regex);
+        if (!literal.matches()) {
+            Pattern pattern = Pattern.compile(regex);
+            return value -> pattern.matcher(value).matches();
+        }
+        if (literal.group(3) != null) {
+            return caseFoldedEquals(literal.group(3));
+        }
+        return literal.group(1) == null ? literal.group(2)::equals : caseFoldedEquals(literal.group(2));
+    }
+
+    private static Predicate<String> caseFoldedEquals(String literal) {
+        return value -> {
+            if (value.length() != literal.length()) {
+                return false;
+            }
+            for (int i = 0; i < literal.length(); i++) {
+                char c = value.charAt(i);
+                char l = literal.charAt(i);
+                if (c != l && !(isAsciiLetter(l) && (c | 0x20) == (l | 0x20))) {
+                    return false;
+                }
+            }
+            return true;
+        };
+    }
+
+    private static boolean isAsciiLetter(char c) {
+        return (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z');
     }
 
     /**
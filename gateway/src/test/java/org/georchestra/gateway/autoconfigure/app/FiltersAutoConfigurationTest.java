@@ -26,6 +26,7 @@ import org.georchestra.gateway.filter.global.ResolveTargetGlobalFilter;
 import org.georchestra.gateway.filter.headers.AddSecHeadersGatewayFilterFactory;
 import org.georchestra.gateway.filter.headers.RemoveHeadersGatewayFilterFactory;
 import org.georchestra.gateway.filter.headers.RemoveSecurityHeadersGatewayFilterFactory;
+import org.georchestra.gateway.filter.headers.RewriteSecHeadersGatewayFilterFactory;
 import org.georchestra.gateway.filter.headers.providers.GeorchestraOrganizationHeadersContributor;
 import org.georchestra.gateway.filter.headers.providers.GeorchestraUserHeadersContributor;
 import org.georchestra.gateway.filter.headers.providers.SecProxyHeaderContributor;
@@ -53,6 +54,7 @@ class FiltersAutoConfigurationTest {
             assertThat(context).hasSingleBean(GeorchestraOrganizationHeadersContributor.class);
             assertThat(context).hasSingleBean(RemoveHeadersGatewayFilterFactory.class);
             assertThat(context).hasSingleBean(RemoveSecurityHeadersGatewayFilterFactory.class);
+            assertThat(context).hasSingleBean(RewriteSecHeadersGatewayFilterFactory.class);
             assertThat(context).hasSingleBean(LoginParamRedirectGatewayFilterFactory.class);
         });
     }
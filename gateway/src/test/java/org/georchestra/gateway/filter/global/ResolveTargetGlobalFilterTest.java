@@ -22,6 +22,7 @@ package org.georchestra.gateway.filter.global;
 import static org.assertj.core.api.Assertions.assertThat;
 import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
 import static org.junit.jupiter.api.Assertions.assertSame;
 import static org.junit.jupiter.api.Assertions.assertTrue;
 import static org.mockito.ArgumentMatchers.any;
@@ -44,11 +45,14 @@ import org.georchestra.gateway.model.RoleBasedAccessRule;
 import org.georchestra.gateway.model.Service;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
+import org.springframework.cloud.gateway.event.RefreshRoutesResultEvent;
 import org.springframework.cloud.gateway.filter.GatewayFilterChain;
 import org.springframework.cloud.gateway.route.Route;
+import org.springframework.cloud.gateway.route.RouteLocator;
 import org.springframework.mock.http.server.reactive.MockServerHttpRequest;
 import org.springframework.mock.web.server.MockServerWebExchange;
 
+import reactor.core.publisher.Flux;
 import reactor.core.publisher.Mono;
 
 /**
@@ -99,6 +103,57 @@ class ResolveTargetGlobalFilterTest {
         verify(mockChain, times(1)).filter(same(exchange));
     }
 
+    @Test
+    void filter_uses_precomputed_target() {
+        when(matchingRoute.getId()).thenReturn("route1");
+        GeorchestraTargetConfig precomputed = new GeorchestraTargetConfig();
+        filter.setTargets(Map.of("route1", precomputed));
+
+        filter.filter(exchange, mockChain);
+
+        assertSame(precomputed, GeorchestraTargetConfig.getTarget(exchange).orElseThrow());
+    }
+
+    @Test
+    void onApplicationEvent_resolves_route_targets() {
+        when(matchingRoute.getId()).thenReturn("route1");
+        Route otherRoute = mock(Route.class);
+        when(otherRoute.getId()).thenReturn("route2");
+        when(otherRoute.getUri()).thenReturn(URI.create("https://backend.service.2"));
+        RoleBasedAccessRule serviceSpecificRule = rule("/rule/path");
+        Service service = service(matchingURI);
+        service.setAccessRules(List.of(serviceSpecificRule));
+        config.setServices(Map.of("service1", service));
+
+        RouteLocator routeLocator = () -> Flux.just(matchingRoute, otherRoute);
+        filter.onApplicationEvent(new RefreshRoutesResultEvent(routeLocator));
+
+        filter.filter(exchange, mockChain);
+        GeorchestraTargetConfig target = GeorchestraTargetConfig.getTarget(exchange).orElseThrow();
+        assertEquals(List.of(serviceSpecificRule), target.accessRules());
+
+        // targets are resolved once, not per request
+        MockServerWebExchange exchange2 = MockServerWebExchange.from(request);
+        exchange2.getAttributes().put(GATEWAY_ROUTE_ATTR, matchingRoute);
+        filter.filter(exchange2, mockChain);
+        assertSame(target, GeorchestraTargetConfig.getTarget(exchange2).orElseThrow());
+    }
+
+    @Test
+    void onApplicationEvent_ignores_failed_refresh() {
+        when(matchingRoute.getId()).thenReturn("route1");
+        RouteLocator routeLocator = () -> Flux.just(matchingRoute);
+        filter.onApplicationEvent(new RefreshRoutesResultEvent(routeLocator, new IllegalStateException("failed")));
+
+        filter.filter(exchange, mockChain);
+        MockServerWebExchange exchange2 = MockServerWebExchange.from(request);
+        exchange2.getAttributes().put(GATEWAY_ROUTE_ATTR, matchingRoute);
+        filter.filter(exchange2, mockChain);
+
+        assertNotSame(GeorchestraTargetConfig.getTarget(exchange).orElseThrow(),
+                GeorchestraTargetConfig.getTarget(exchange2).orElseThrow());
+    }
+
     @Test
     void resolveTarget_defaultsToGlobal() {
         GeorchestraTargetConfig target = filter.resolveTarget(matchingRoute);
@@ -0,0 +1,85 @@
+/*
+ * Copyright (C) 2022 by the geOrchestra PSC
+ *
+ * This file is part of geOrchestra.
+ *
+ * geOrchestra is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free
+ * Software Foundation, either version 3 of the License, or (at your option)
+ * any later version.
+ *
+ * geOrchestra is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * geOrchestra. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.georchestra.gateway.filter.headers;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Pattern;
+
+import org.junit.jupiter.api.Test;
+
+/**
+ * Test suite for {@link HeaderNamePattern}
+ */
+class HeaderNamePatternTest {
+
+    private static final Map<String, List<String>> BROWSER_HEADERS = Map.ofEntries(//
+            Map.entry("Host", List.of("georchestra.example.org")), //
+            Map.entry("User-Agent",
+                    List.of("Mozilla/5.0 (X11; Linux x86_64; rv:128.0) Gecko/20100101 Firefox/128.0")), //
+            Map.entry("Accept", List.of("text/html,application/xhtml+xml,application/xml;q=0.9,*/*;q=0.8")), //
+            Map.entry("Accept-Language", List.of("fr-FR,fr;q=0.8,en-US;q=0.5,en;q=0.3")), //
+            Map.entry("Accept-Encoding", List.of("gzip, deflate, br, zstd")), //
+            Map.entry("Cookie", List.of("SESSION=NjE3ZjM2YzEtZjY4Ny00", "JSESSIONID=node01")), //
+            Map.entry("Sec-Fetch-Dest", List.of("document")), //
+            Map.entry("sec-ch-ua", List.of("\"Chromium\";v=\"128\"")), //
+            Map.entry("SEC-USERNAME", List.of("impostor")), //
+            Map.entry("sec-", List.of("")), //
+            Map.entry("sec", List.of("true")), //
+            Map.entry("secured", List.of("true")), //
+            Map.entry("Authorization", List.of("Basic dGVzdHVzZXI6dGVzdHVzZXI=", "Bearer ahlai7Eer1Vuz8ThaiY4")), //
+            Map.entry("authorization-x", List.of("true")), //
+            Map.entry("X-Forwarded-For", List.of("10.0.0.1", "10.0.0.2")), //
+            Map.entry("If-None-Match", List.of()));
+
+    @Test
+    void matches_as_the_regular_expression() {
+        List.of("(?i)(sec-.*|Authorization)", "(?i)^(sec-.*|Authorization)$", "(?i)(?:sec-.*)",
+                "(?i)sec-.*|authorization.*", "sec-.*", "(Authorization)", "(?i)X-Forwarded-.*|Cookie.*|sec")
+                .forEach(this::assertMatchesAsTheRegularExpression);
+    }
+
+    private void assertMatchesAsTheRegularExpression(String regEx) {
+        HeaderNamePattern namePattern = HeaderNamePattern.of(regEx).orElseThrow();
+        Pattern pattern = Pattern.compile(regEx);
+
+        BROWSER_HEADERS.forEach((name, values) -> {
+            boolean expected = values.stream().anyMatch(value -> pattern.matcher(name + ": " + value).matches());
+            assertThat(!values.isEmpty() && namePattern.matches(name)).as("%s with %s", name, regEx)
+                    .isEqualTo(expected);
+        });
+    }
+
+    @Test
+    void value_sensitive_or_unsupported_regular_expressions() {
+        List.of("(?i)^(sec-.*|Authorization:(?!\\s*Bearer\\s*$))", "(?i)sec-.*: true", "sec-.+", "(?is)sec-.*",
+                "(?i)(sec-[a-z]*)", "(sec-.*", "")
+                .forEach(regEx -> assertThat(HeaderNamePattern.of(regEx)).as(regEx).isEmpty());
+    }
+
+    @Test
+    void case_insensitive_matching_only_folds_ascii_letters() {
+        HeaderNamePattern namePattern = HeaderNamePattern.of("(?i)(sec-.*)").orElseThrow();
+        assertThat(namePattern.matches("Sec-Proxy")).isTrue();
+        assertThat(namePattern.matches("\u017Fec-proxy")).isFalse();
+        assertThat(HeaderNamePattern.of("sec-.*").orElseThrow().matches("Sec-Proxy")).isFalse();
+    }
+}
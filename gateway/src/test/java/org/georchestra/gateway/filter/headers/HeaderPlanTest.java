@@ -0,0 +1,69 @@
+/*
+ * Copyright (C) 2022 by the geOrchestra PSC
+ *
+ * This file is part of geOrchestra.
+ *
+ * geOrchestra is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free
+ * Software Foundation, either version 3 of the License, or (at your option)
+ * any later version.
+ *
+ * geOrchestra is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * geOrchestra. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.georchestra.gateway.filter.headers;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.util.List;
+import java.util.Optional;
+
+import org.georchestra.security.model.GeorchestraUser;
+import org.junit.jupiter.api.Test;
+import org.springframework.http.HttpHeaders;
+
+/**
+ * Test suite for {@link HeaderPlan}
+ */
+class HeaderPlanTest {
+
+    @Test
+    void builder_skips_disabled_headers() {
+        HeaderPlan<GeorchestraUser> plan = HeaderPlan.<GeorchestraUser>builder() //
+                .add("sec-userid", Optional.of(true), GeorchestraUser::getId) //
+                .add("sec-username", Optional.of(false), GeorchestraUser::getUsername) //
+                .add("sec-email", Optional.empty(), GeorchestraUser::getEmail) //
+                .add("sec-org", GeorchestraUser::getOrganization) //
+                .build();
+
+        assertThat(plan.names()).containsExactly("sec-userid", "sec-org");
+        assertThat(plan.isEmpty()).isFalse();
+        assertThat(HeaderPlan.<GeorchestraUser>builder().add("sec-userid", Optional.of(false), GeorchestraUser::getId)
+                .build().isEmpty()).isTrue();
+    }
+
+    @Test
+    void apply_skips_null_values() {
+        HeaderPlan<GeorchestraUser> plan = HeaderPlan.<GeorchestraUser>builder() //
+                .add("sec-userid", GeorchestraUser::getId) //
+                .add("sec-email", GeorchestraUser::getEmail) //
+                .add("sec-org", GeorchestraUser::getOrganization) //
+                .build();
+        GeorchestraUser user = new GeorchestraUser();
+        user.setId("abc");
+        user.setOrganization("PSC");
+        HttpHeaders headers = new HttpHeaders();
+        headers.add("sec-org", "other");
+
+        plan.apply(user, headers);
+
+        assertThat(headers.get("sec-userid")).isEqualTo(List.of("abc"));
+        assertThat(headers.get("sec-org")).isEqualTo(List.of("other", "PSC"));
+        assertThat(headers.containsKey("sec-email")).isFalse();
+    }
+}
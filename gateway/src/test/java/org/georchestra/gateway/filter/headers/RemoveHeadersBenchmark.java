@@ -0,0 +1,117 @@
+/*
+ * Copyright (C) 2022 by the geOrchestra PSC
+ *
+ * This file is part of geOrchestra.
+ *
+ * geOrchestra is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free
+ * Software Foundation, either version 3 of the License, or (at your option)
+ * any later version.
+ *
+ * geOrchestra is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * geOrchestra. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.georchestra.gateway.filter.headers;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Pattern;
+
+import org.georchestra.gateway.filter.headers.RemoveHeadersGatewayFilterFactory.RegExConfig;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.http.HttpHeaders;
+
+/**
+ * Compares matching the headers of a browser request against the default
+ * {@code RemoveHeaders} regular expression as {@code name: value} strings, as
+ * {@link RegExConfig} used to do it, to matching the header names with the
+ * equivalent {@link HeaderNamePattern}.
+ * <p>
+ * Run with {@code -prof gc} to compare the allocation rates.
+ * </p>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class RemoveHeadersBenchmark {
+
+    private static final String REGEX = "(?i)(sec-.*|Authorization)";
+
+    private final Pattern pattern = Pattern.compile(REGEX);
+
+    private final RegExConfig config = new RegExConfig(REGEX);
+
+    /**
+     * Headers of a page navigation by a Chromium based browser, with a session
+     * cookie, behind a reverse proxy
+     */
+    private final HttpHeaders headers = browserHeaders();
+
+    private static HttpHeaders browserHeaders() {
+        HttpHeaders headers = new HttpHeaders();
+        headers.add("Host", "georchestra.example.org");
+        headers.add("Connection", "keep-alive");
+        headers.add("sec-ch-ua", "\"Chromium\";v=\"128\", \"Not;A=Brand\";v=\"24\", \"Google Chrome\";v=\"128\"");
+        headers.add("sec-ch-ua-mobile", "?0");
+        headers.add("sec-ch-ua-platform", "\"Linux\"");
+        headers.add("Upgrade-Insecure-Requests", "1");
+        headers.add("User-Agent", "Mozilla/5.0 (X11; Linux x86_64) AppleWebKit/537.36 (KHTML, like Gecko) "
+                + "Chrome/128.0.0.0 Safari/537.36");
+        headers.add("Accept", "text/html,application/xhtml+xml,application/xml;q=0.9,image/avif,image/webp,"
+                + "image/apng,*/*;q=0.8,application/signed-exchange;v=b3;q=0.7");
+        headers.add("Sec-Fetch-Site", "same-origin");
+        headers.add("Sec-Fetch-Mode", "navigate");
+        headers.add("Sec-Fetch-User", "?1");
+        headers.add("Sec-Fetch-Dest", "document");
+        headers.add("Referer", "https://georchestra.example.org/datahub/");
+        headers.add("Accept-Encoding", "gzip, deflate, br, zstd");
+        headers.add("Accept-Language", "fr-FR,fr;q=0.9,en-US;q=0.8,en;q=0.7");
+        headers.add("Cookie", "SESSION=NjE3ZjM2YzEtZjY4Ny00ZGQ0LWI2NzQtMmE0YjQ5ZDU3Y2Rk");
+        headers.add("Cookie", "JSESSIONID=node01abcdefghijklmnop0.node0");
+        headers.add("X-Forwarded-For", "203.0.113.7");
+        headers.add("X-Forwarded-Proto", "https");
+        return headers;
+    }
+
+    @Benchmark
+    public int tuples() {
+        int matches = 0;
+        for (Map.Entry<String, List<String>> header : headers.entrySet()) {
+            for (String value : header.getValue()) {
+                if (pattern.matcher(header.getKey() + ": " + value).matches()) {
+                    matches++;
+                    break;
+                }
+            }
+        }
+        return matches;
+    }
+
+    @Benchmark
+    public int names() {
+        int matches = 0;
+        for (Map.Entry<String, List<String>> header : headers.entrySet()) {
+            if (config.matches(header.getKey(), header.getValue())) {
+                matches++;
+            }
+        }
+        return matches;
+    }
+}
@@ -0,0 +1,156 @@
+/*
+ * Copyright (C) 2022 by the geOrchestra PSC
+ *
+ * This file is part of geOrchestra.
+ *
+ * geOrchestra is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free
+ * Software Foundation, either version 3 of the License, or (at your option)
+ * any later version.
+ *
+ * geOrchestra is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * geOrchestra. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.georchestra.gateway.filter.headers.providers;
+
+import static org.georchestra.commons.security.SecurityHeaders.SEC_ADDRESS;
+import static org.georchestra.commons.security.SecurityHeaders.SEC_EMAIL;
+import static org.georchestra.commons.security.SecurityHeaders.SEC_EXTERNAL_AUTHENTICATION;
+import static org.georchestra.commons.security.SecurityHeaders.SEC_FIRSTNAME;
+import static org.georchestra.commons.security.SecurityHeaders.SEC_LASTNAME;
+import static org.georchestra.commons.security.SecurityHeaders.SEC_LASTUPDATED;
+import static org.georchestra.commons.security.SecurityHeaders.SEC_LDAP_REMAINING_DAYS;
+import static org.georchestra.commons.security.SecurityHeaders.SEC_NOTES;
+import static org.georchestra.commons.security.SecurityHeaders.SEC_ORG;
+import static org.georchestra.commons.security.SecurityHeaders.SEC_ROLES;
+import static org.georchestra.commons.security.SecurityHeaders.SEC_TEL;
+import static org.georchestra.commons.security.SecurityHeaders.SEC_TITLE;
+import static org.georchestra.commons.security.SecurityHeaders.SEC_USERID;
+import static org.georchestra.commons.security.SecurityHeaders.SEC_USERNAME;
+
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+import org.georchestra.gateway.filter.headers.HeaderContributor;
+import org.georchestra.gateway.model.GeorchestraTargetConfig;
+import org.georchestra.gateway.model.GeorchestraUsers;
+import org.georchestra.gateway.model.HeaderMappings;
+import org.georchestra.security.model.GeorchestraUser;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.http.HttpHeaders;
+import org.springframework.mock.http.server.reactive.MockServerHttpRequest;
+import org.springframework.mock.web.server.MockServerWebExchange;
+import org.springframework.web.server.ServerWebExchange;
+
+/**
+ * Compares appending the user {@literal sec-*} headers by checking each header
+ * mapping and wrapping each value in an {@link Optional}, as
+ * {@link GeorchestraUserHeadersContributor} used to do it, to applying the
+ * {@link org.georchestra.gateway.filter.headers.HeaderPlan HeaderPlan} compiled
+ * for the route, with all the user headers enabled.
+ * <p>
+ * Run with {@code -prof gc} to compare the allocations per request.
+ * </p>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class GeorchestraUserHeadersContributorBenchmark {
+
+    private final HeaderContributor optionals = new OptionalsUserHeadersContributor();
+
+    private final HeaderContributor plan = new GeorchestraUserHeadersContributor();
+
+    private ServerWebExchange exchange;
+
+    @Setup
+    public void setup() {
+        GeorchestraUser user = new GeorchestraUser();
+        user.setId("8f5cc1c4-6d0b-4cbb-a4ec-b45a9d0e7c5a");
+        user.setUsername("testuser");
+        user.setOrganization("PSC");
+        user.setEmail("testuser@example.com");
+        user.setFirstName("Test");
+        user.setLastName("User");
+        user.setTelephoneNumber("+33 4 00 00 00 00");
+        user.setTitle("Advisor");
+        user.setPostalAddress("123 happy street");
+        user.setLastUpdated("20260101000000Z");
+        user.setRoles(List.of("ROLE_USER", "ROLE_GN_EDITOR", "ROLE_MAPSTORE_ADMIN"));
+        user.setLdapWarn(false);
+
+        exchange = MockServerWebExchange.from(MockServerHttpRequest.get("/geoserver/wms"));
+        HeaderMappings mappings = new HeaderMappings().enableAll();
+        GeorchestraTargetConfig.setTarget(exchange, new GeorchestraTargetConfig().headers(mappings));
+        GeorchestraUsers.store(exchange, user);
+    }
+
+    @Benchmark
+    public HttpHeaders optionals() {
+        HttpHeaders headers = new HttpHeaders();
+        optionals.prepare(exchange).accept(headers);
+        return headers;
+    }
+
+    @Benchmark
+    public HttpHeaders plan() {
+        HttpHeaders headers = new HttpHeaders();
+        plan.prepare(exchange).accept(headers);
+        return headers;
+    }
+
+    /**
+     * The user headers contributor before header plans
+     */
+    static class OptionalsUserHeadersContributor extends HeaderContributor {
+
+        public @Override Consumer<HttpHeaders> prepare(ServerWebExchange exchange) {
+            return headers -> GeorchestraTargetConfig.getTarget(exchange).map(GeorchestraTargetConfig::headers)
+                    .ifPresent(mappings -> {
+                        Optional<GeorchestraUser> user = GeorchestraUsers.resolve(exchange);
+                        add(headers, SEC_USERID, mappings.getUserid(), user.map(GeorchestraUser::getId));
+                        add(headers, SEC_USERNAME, mappings.getUsername(), user.map(GeorchestraUser::getUsername));
+                        add(headers, SEC_ORG, mappings.getOrg(), user.map(GeorchestraUser::getOrganization));
+                        add(headers, SEC_EMAIL, mappings.getEmail(), user.map(GeorchestraUser::getEmail));
+                        add(headers, SEC_FIRSTNAME, mappings.getFirstname(), user.map(GeorchestraUser::getFirstName));
+                        add(headers, SEC_LASTNAME, mappings.getLastname(), user.map(GeorchestraUser::getLastName));
+                        add(headers, SEC_TEL, mappings.getTel(), user.map(GeorchestraUser::getTelephoneNumber));
+
+                        List<String> roles = user.map(GeorchestraUser::getRoles).orElse(List.of());
+                        add(headers, SEC_ROLES, mappings.getRoles(), roles);
+
+                        add(headers, SEC_LASTUPDATED, mappings.getLastUpdated(),
+                                user.map(GeorchestraUser::getLastUpdated));
+                        add(headers, SEC_ADDRESS, mappings.getAddress(), user.map(GeorchestraUser::getPostalAddress));
+                        add(headers, SEC_TITLE, mappings.getTitle(), user.map(GeorchestraUser::getTitle));
+                        add(headers, SEC_NOTES, mappings.getNotes(), user.map(GeorchestraUser::getNotes));
+
+                        add(headers, SEC_LDAP_REMAINING_DAYS,
+                                Optional.of(user.isPresent() && Boolean.TRUE.equals(user.get().getLdapWarn())),
+                                user.map(GeorchestraUser::getLdapRemainingDays));
+
+                        add(headers, SEC_EXTERNAL_AUTHENTICATION, Optional.of(user.isPresent()), String
+                                .valueOf(user.isPresent() && Boolean.TRUE.equals(user.get().getIsExternalAuth())));
+                    });
+        }
+    }
+}
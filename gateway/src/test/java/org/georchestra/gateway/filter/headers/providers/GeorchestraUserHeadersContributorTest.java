@@ -24,6 +24,7 @@ import static org.georchestra.commons.security.SecurityHeaders.SEC_EMAIL;
 import static org.georchestra.commons.security.SecurityHeaders.SEC_EXTERNAL_AUTHENTICATION;
 import static org.georchestra.commons.security.SecurityHeaders.SEC_FIRSTNAME;
 import static org.georchestra.commons.security.SecurityHeaders.SEC_LASTNAME;
+import static org.georchestra.commons.security.SecurityHeaders.SEC_LDAP_REMAINING_DAYS;
 import static org.georchestra.commons.security.SecurityHeaders.SEC_NOTES;
 import static org.georchestra.commons.security.SecurityHeaders.SEC_ORG;
 import static org.georchestra.commons.security.SecurityHeaders.SEC_ROLES;
@@ -40,10 +41,12 @@ import static org.mockito.Mockito.when;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Optional;
 import java.util.function.Consumer;
 import java.util.stream.Collectors;
 
 import org.georchestra.gateway.filter.headers.HeaderContributor;
+import org.georchestra.gateway.filter.headers.HeaderPlan;
 import org.georchestra.gateway.model.GeorchestraTargetConfig;
 import org.georchestra.gateway.model.GeorchestraUsers;
 import org.georchestra.gateway.model.HeaderMappings;
@@ -142,4 +145,31 @@ class GeorchestraUserHeadersContributorTest {
         String roles = user.getRoles().stream().collect(Collectors.joining(";"));
         assertEquals(List.of(roles), target.get(SEC_ROLES));
     }
+
+    @Test
+    void testCompileOnlyEnabledHeaders() {
+        HeaderMappings mappings = new HeaderMappings().disableAll();
+        mappings.setUsername(Optional.of(true));
+        mappings.setRoles(Optional.of(true));
+
+        HeaderPlan<GeorchestraUser> plan = GeorchestraUserHeadersContributor.compile(mappings);
+
+        assertEquals(List.of(SEC_USERNAME, SEC_ROLES, SEC_LDAP_REMAINING_DAYS, SEC_EXTERNAL_AUTHENTICATION),
+                plan.names());
+    }
+
+    @Test
+    void testHeaderValuesResolvedPerRequest() {
+        GeorchestraUser user = new GeorchestraUser();
+        user.setUsername("testuser");
+        GeorchestraUsers.store(exchange, user);
+        matchedRouteHeadersConfig.setUsername(Optional.of(true));
+
+        HttpHeaders target = new HttpHeaders();
+        headerContributor.prepare(exchange).accept(target);
+        user.setUsername("otheruser");
+        headerContributor.prepare(exchange).accept(target);
+
+        assertEquals(List.of("testuser", "otheruser"), target.get(SEC_USERNAME));
+    }
 }
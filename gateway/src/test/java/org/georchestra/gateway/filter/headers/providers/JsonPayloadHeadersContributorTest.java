@@ -21,6 +21,7 @@ package org.georchestra.gateway.filter.headers.providers;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
 import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.when;
 
@@ -47,6 +48,8 @@ import com.fasterxml.jackson.core.JsonProcessingException;
 import com.fasterxml.jackson.databind.JsonMappingException;
 import com.fasterxml.jackson.databind.ObjectMapper;
 
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
 /**
  * Test suite for the {@link JsonPayloadHeadersContributorTest}
  * {@link HeaderContributor}
@@ -114,6 +117,64 @@ class JsonPayloadHeadersContributorTest {
         testContributesJsonHeader(org, "sec-organization");
     }
 
+    @Test
+    void testUserPayloadCachedByVersion() throws Exception {
+        GeorchestraUser user = new GeorchestraUser();
+        user.setId("abc");
+        user.setUsername("testuser");
+        user.setLastUpdated("v1");
+        user.setRoles(List.of("ROLE_USER"));
+        GeorchestraUsers.store(exchange, user);
+        SimpleMeterRegistry registry = new SimpleMeterRegistry();
+        headerContributor.bindTo(registry);
+
+        String first = contribute("sec-user");
+        assertSame(first, contribute("sec-user"));
+        assertEquals(1, registry.get("cache.gets").tag("cache", JsonPayloadHeadersContributor.USERS_CACHE_NAME)
+                .tag("result", "hit").functionCounter().count());
+
+        user.setRoles(List.of("ROLE_USER", "ROLE_ADMIN"));
+        testContributesJsonHeader(user, "sec-user");
+
+        user.setEmail("testuser@example.com");
+        user.setLastUpdated("v2");
+        testContributesJsonHeader(user, "sec-user");
+    }
+
+    @Test
+    void testUnversionedUserPayloadNotCached() throws Exception {
+        GeorchestraUser user = new GeorchestraUser();
+        user.setId("abc");
+        user.setUsername("testuser");
+        GeorchestraUsers.store(exchange, user);
+
+        contribute("sec-user");
+        user.setEmail("testuser@example.com");
+        testContributesJsonHeader(user, "sec-user");
+    }
+
+    @Test
+    void testOrganizationPayloadCachedByVersion() throws Exception {
+        Organization org = new Organization();
+        org.setId("abc");
+        org.setName("PSC");
+        org.setLastUpdated("123");
+        org.setMembers(List.of("homer"));
+        GeorchestraOrganizations.store(exchange, org);
+
+        String first = contribute("sec-organization");
+        assertSame(first, contribute("sec-organization"));
+
+        org.setMembers(List.of("homer", "marge"));
+        testContributesJsonHeader(org, "sec-organization");
+    }
+
+    private String contribute(String headerName) {
+        HttpHeaders target = new HttpHeaders();
+        headerContributor.prepare(exchange).accept(target);
+        return target.getFirst(headerName);
+    }
+
     private void testContributesJsonHeader(Object object, String headerName)
             throws JsonProcessingException, JsonMappingException {
         Consumer<HttpHeaders> contributor = headerContributor.prepare(exchange);
@@ -0,0 +1,118 @@
+/*
+ * Copyright (C) 2022 by the geOrchestra PSC
+ *
+ * This file is part of geOrchestra.
+ *
+ * geOrchestra is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free
+ * Software Foundation, either version 3 of the License, or (at your option)
+ * any later version.
+ *
+ * geOrchestra is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * geOrchestra. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.georchestra.gateway.handler;
+
+import static org.georchestra.gateway.handler.PathRouteIndexTest.definition;
+import static org.mockito.Mockito.mock;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.cloud.gateway.config.GlobalCorsProperties;
+import org.springframework.cloud.gateway.event.RefreshRoutesResultEvent;
+import org.springframework.cloud.gateway.handler.FilteringWebHandler;
+import org.springframework.cloud.gateway.handler.predicate.PathRoutePredicateFactory;
+import org.springframework.cloud.gateway.route.Route;
+import org.springframework.cloud.gateway.route.RouteDefinition;
+import org.springframework.cloud.gateway.route.RouteDefinitionLocator;
+import org.springframework.cloud.gateway.route.RouteLocator;
+import org.springframework.mock.env.MockEnvironment;
+import org.springframework.mock.http.server.reactive.MockServerHttpRequest;
+import org.springframework.mock.web.server.MockServerWebExchange;
+
+import reactor.core.publisher.Flux;
+
+/**
+ * Compares selecting a route among {@value #ROUTES} {@code Path=/<app>/**}
+ * routes followed by a {@code Path=/**} fallback route, by evaluating the
+ * routes in order as Spring Cloud Gateway does, to selecting it among the
+ * candidates of the {@link PathRouteIndex}. The routes use the actual
+ * {@link PathRoutePredicateFactory} predicates.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class IndexedRoutePredicateHandlerMappingBenchmark {
+
+    static final int ROUTES = 250;
+
+    /**
+     * Request paths matching the first, a middle, and the last app routes, and the
+     * fallback route
+     */
+    @Param({ "/app0/index.html", "/app125/ows?service=WMS", "/app249/api/records", "/unknown/" })
+    public String path;
+
+    private IndexedRoutePredicateHandlerMapping linear;
+
+    private IndexedRoutePredicateHandlerMapping indexed;
+
+    @Setup
+    public void setup() {
+        List<RouteDefinition> definitions = new ArrayList<>();
+        List<Route> routes = new ArrayList<>();
+        for (int i = 0; i < ROUTES; i++) {
+            addRoute("app" + i, "/app%d/**".formatted(i), definitions, routes);
+        }
+        addRoute("fallback", "/**", definitions, routes);
+
+        RouteLocator routeLocator = () -> Flux.fromIterable(routes);
+        RouteDefinitionLocator routeDefinitionLocator = () -> Flux.fromIterable(definitions);
+        FilteringWebHandler webHandler = mock(FilteringWebHandler.class);
+        // never refreshed, so evaluating all the routes in order
+        linear = new IndexedRoutePredicateHandlerMapping(webHandler, routeLocator, routeDefinitionLocator,
+                new GlobalCorsProperties(), new MockEnvironment());
+        indexed = new IndexedRoutePredicateHandlerMapping(webHandler, routeLocator, routeDefinitionLocator,
+                new GlobalCorsProperties(), new MockEnvironment());
+        indexed.onApplicationEvent(new RefreshRoutesResultEvent(routeLocator));
+    }
+
+    private static void addRoute(String id, String pattern, List<RouteDefinition> definitions, List<Route> routes) {
+        RouteDefinition definition = definition(id, "Path=" + pattern);
+        definitions.add(definition);
+        routes.add(Route.async().id(id).uri(definition.getUri())
+                .predicate(new PathRoutePredicateFactory().apply(config -> config.setPatterns(List.of(pattern))))
+                .build());
+    }
+
+    @Benchmark
+    public Route linear() {
+        return linear.lookupRoute(MockServerWebExchange.from(MockServerHttpRequest.get(path))).block();
+    }
+
+    @Benchmark
+    public Route indexed() {
+        return indexed.lookupRoute(MockServerWebExchange.from(MockServerHttpRequest.get(path))).block();
+    }
+}
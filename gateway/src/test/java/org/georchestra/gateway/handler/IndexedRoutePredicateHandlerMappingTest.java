@@ -0,0 +1,120 @@
+/*
+ * Copyright (C) 2022 by the geOrchestra PSC
+ *
+ * This file is part of geOrchestra.
+ *
+ * geOrchestra is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free
+ * Software Foundation, either version 3 of the License, or (at your option)
+ * any later version.
+ *
+ * geOrchestra is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * geOrchestra. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.georchestra.gateway.handler;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.georchestra.gateway.handler.PathRouteIndexTest.definition;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+import static org.springframework.cloud.gateway.support.ServerWebExchangeUtils.GATEWAY_PREDICATE_ROUTE_ATTR;
+
+import java.util.List;
+import java.util.function.Predicate;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.cloud.gateway.config.GlobalCorsProperties;
+import org.springframework.cloud.gateway.event.RefreshRoutesResultEvent;
+import org.springframework.cloud.gateway.handler.FilteringWebHandler;
+import org.springframework.cloud.gateway.route.Route;
+import org.springframework.cloud.gateway.route.RouteDefinition;
+import org.springframework.cloud.gateway.route.RouteDefinitionLocator;
+import org.springframework.cloud.gateway.route.RouteLocator;
+import org.springframework.mock.env.MockEnvironment;
+import org.springframework.mock.http.server.reactive.MockServerHttpRequest;
+import org.springframework.mock.web.server.MockServerWebExchange;
+import org.springframework.web.server.ServerWebExchange;
+
+import reactor.core.publisher.Flux;
+
+/**
+ * Test suite for {@link IndexedRoutePredicateHandlerMapping}
+ */
+class IndexedRoutePredicateHandlerMappingTest {
+
+    private RouteLocator routeLocator;
+    private IndexedRoutePredicateHandlerMapping mapping;
+
+    @BeforeEach
+    void setUp() {
+        List<RouteDefinition> definitions = List.of(//
+                definition("geoserver-wfs", "Path=/geoserver/**", "Query=service,WFS"), //
+                definition("geoserver", "Path=/geoserver/**"), //
+                definition("console", "Path=/console/**"), //
+                definition("fallback", "Path=/**"));
+        List<Route> routes = List.of(//
+                route("geoserver-wfs", exchange -> path(exchange).startsWith("/geoserver/")
+                        && "WFS".equals(exchange.getRequest().getQueryParams().getFirst("service"))), //
+                route("geoserver", exchange -> path(exchange).startsWith("/geoserver/")), //
+                route("console", exchange -> path(exchange).startsWith("/console/")), //
+                route("fallback", exchange -> true));
+
+        routeLocator = mock(RouteLocator.class);
+        when(routeLocator.getRoutes()).thenAnswer(invocation -> Flux.fromIterable(routes));
+        RouteDefinitionLocator routeDefinitionLocator = mock(RouteDefinitionLocator.class);
+        when(routeDefinitionLocator.getRouteDefinitions()).thenAnswer(invocation -> Flux.fromIterable(definitions));
+
+        mapping = new IndexedRoutePredicateHandlerMapping(mock(FilteringWebHandler.class), routeLocator,
+                routeDefinitionLocator, new GlobalCorsProperties(), new MockEnvironment());
+    }
+
+    @Test
+    void selects_the_same_routes_once_indexed() {
+        List<String> paths = List.of("/geoserver/ows?service=WFS", "/geoserver/ows?service=WMS", "/console/",
+                "/mapstore/", "/", "/header");
+        List<String> unindexed = paths.stream().map(this::lookupRoute).toList();
+        assertThat(unindexed).containsExactly("geoserver-wfs", "geoserver", "console", "fallback", "fallback",
+                "fallback");
+
+        mapping.onApplicationEvent(new RefreshRoutesResultEvent(routeLocator));
+
+        assertThat(paths.stream().map(this::lookupRoute).toList()).isEqualTo(unindexed);
+    }
+
+    @Test
+    void sets_the_evaluated_route_attribute() {
+        mapping.onApplicationEvent(new RefreshRoutesResultEvent(routeLocator));
+
+        ServerWebExchange exchange = MockServerWebExchange.from(MockServerHttpRequest.get("/console/").build());
+        mapping.lookupRoute(exchange).block();
+
+        assertThat((String) exchange.getAttribute(GATEWAY_PREDICATE_ROUTE_ATTR)).isEqualTo("console");
+    }
+
+    @Test
+    void ignores_failed_refreshes() {
+        mapping.onApplicationEvent(new RefreshRoutesResultEvent(routeLocator, new IllegalStateException()));
+
+        assertThat(lookupRoute("/console/")).isEqualTo("console");
+    }
+
+    private String lookupRoute(String uri) {
+        ServerWebExchange exchange = MockServerWebExchange.from(MockServerHttpRequest.get(uri).build());
+        Route route = mapping.lookupRoute(exchange).block();
+        return route == null ? null : route.getId();
+    }
+
+    private static String path(ServerWebExchange exchange) {
+        return exchange.getRequest().getPath().value();
+    }
+
+    private static Route route(String id, Predicate<ServerWebExchange> predicate) {
+        return Route.async().id(id).uri("http://%s:8080".formatted(id)).predicate(predicate).build();
+    }
+}
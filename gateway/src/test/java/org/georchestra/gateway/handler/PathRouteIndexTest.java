@@ -0,0 +1,128 @@
+/*
+ * Copyright (C) 2022 by the geOrchestra PSC
+ *
+ * This file is part of geOrchestra.
+ *
+ * geOrchestra is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free
+ * Software Foundation, either version 3 of the License, or (at your option)
+ * any later version.
+ *
+ * geOrchestra is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * geOrchestra. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.georchestra.gateway.handler;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.net.URI;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.cloud.gateway.handler.predicate.PredicateDefinition;
+import org.springframework.cloud.gateway.route.Route;
+import org.springframework.cloud.gateway.route.RouteDefinition;
+import org.springframework.http.server.RequestPath;
+import org.springframework.mock.http.server.reactive.MockServerHttpRequest;
+
+/**
+ * Test suite for {@link PathRouteIndex}
+ */
+class PathRouteIndexTest {
+
+    private final List<RouteDefinition> definitions = List.of(//
+            definition("root", "Path=/"), //
+            definition("header", "Path=/header,/header/**"), //
+            definition("geoserver-wfs", "Path=/geoserver/**", "Query=service,WFS"), //
+            definition("geoserver", "Path=/geoserver/**"), //
+            definition("apps", "Path=/{app}/static/**"), //
+            definition("console", "Path=/console/**,false"), //
+            definition("echo", "Path=/echo"), //
+            definition("any", "Method=GET"));
+
+    private final List<Route> routes = definitions.stream().map(PathRouteIndexTest::route).toList();
+
+    private final PathRouteIndex index = PathRouteIndex.of(routes, byId(definitions));
+
+    @Test
+    void candidates_keep_the_routes_order() {
+        assertThat(candidates("/geoserver/wfs")).containsExactly("geoserver-wfs", "geoserver", "apps", "any");
+        assertThat(candidates("/geoserver")).containsExactly("geoserver-wfs", "geoserver", "apps", "any");
+        assertThat(candidates("/header/")).containsExactly("header", "geoserver-wfs", "apps", "any");
+        assertThat(candidates("/console/account/userdetails")).containsExactly("geoserver-wfs", "apps", "console",
+                "any");
+        assertThat(candidates("/")).containsExactly("root", "geoserver-wfs", "apps", "any");
+    }
+
+    @Test
+    void unknown_first_segment() {
+        assertThat(candidates("/mapstore/")).containsExactly("geoserver-wfs", "apps", "any");
+        assertThat(candidates("/GeoServer/wms")).containsExactly("geoserver-wfs", "apps", "any");
+    }
+
+    @Test
+    void first_segment_path_parameters_are_ignored() {
+        assertThat(candidates("/echo;jsessionid=1234")).containsExactly("geoserver-wfs", "apps", "echo", "any");
+    }
+
+    @Test
+    void paths_not_indexed() {
+        RequestPath emptyFirstSegment = MockServerHttpRequest.get("http://localhost//geoserver/wms").build().getPath();
+        assertThat(index.candidates(emptyFirstSegment)).isEmpty();
+        RequestPath withContextPath = MockServerHttpRequest.get("/gateway/geoserver/wms").contextPath("/gateway")
+                .build().getPath();
+        assertThat(index.candidates(withContextPath)).isEmpty();
+    }
+
+    @Test
+    void pathPatterns() {
+        assertThat(PathRouteIndex.pathPatterns(definition("a", "Path=/a/**,/b,true"))).contains(List.of("/a/**", "/b"));
+        assertThat(PathRouteIndex.pathPatterns(definition("a", "Path=/a/**", "Host=**.org"))).isEmpty();
+        assertThat(PathRouteIndex.pathPatterns(definition("a", "Host=**.org"))).isEmpty();
+        assertThat(PathRouteIndex.pathPatterns(definition("a"))).isEmpty();
+        assertThat(PathRouteIndex.pathPatterns(null)).isEmpty();
+    }
+
+    @Test
+    void firstSegment() {
+        assertThat(PathRouteIndex.firstSegment("/")).contains("");
+        assertThat(PathRouteIndex.firstSegment("/geoserver")).contains("geoserver");
+        assertThat(PathRouteIndex.firstSegment("/geoserver/**")).contains("geoserver");
+        assertThat(PathRouteIndex.firstSegment("/**")).isEmpty();
+        assertThat(PathRouteIndex.firstSegment("/{app}/**")).isEmpty();
+        assertThat(PathRouteIndex.firstSegment("/geo*/**")).isEmpty();
+        assertThat(PathRouteIndex.firstSegment("/geoserver%20/**")).isEmpty();
+        assertThat(PathRouteIndex.firstSegment("//geoserver")).isEmpty();
+        assertThat(PathRouteIndex.firstSegment("geoserver/**")).isEmpty();
+    }
+
+    private List<String> candidates(String path) {
+        RequestPath requestPath = MockServerHttpRequest.get(path).build().getPath();
+        return index.candidates(requestPath).orElseThrow().stream().map(Route::getId).toList();
+    }
+
+    static RouteDefinition definition(String id, String... predicates) {
+        RouteDefinition definition = new RouteDefinition();
+        definition.setId(id);
+        definition.setUri(URI.create("http://%s:8080".formatted(id)));
+        definition.setPredicates(Arrays.stream(predicates).map(PredicateDefinition::new).toList());
+        return definition;
+    }
+
+    static Route route(RouteDefinition definition) {
+        return Route.async().id(definition.getId()).uri(definition.getUri()).predicate(exchange -> true).build();
+    }
+
+    static Map<String, RouteDefinition> byId(List<RouteDefinition> definitions) {
+        return definitions.stream().collect(Collectors.toMap(RouteDefinition::getId, Function.identity()));
+    }
+}
@@ -27,15 +27,26 @@ import static org.junit.jupiter.api.Assertions.assertTrue;
 import static org.mockito.ArgumentMatchers.any;
 import static org.mockito.ArgumentMatchers.same;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
+import java.time.Duration;
 import java.util.List;
 import java.util.Optional;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.georchestra.security.model.GeorchestraUser;
 import org.junit.jupiter.api.Test;
+import org.springframework.mock.http.server.reactive.MockServerHttpRequest;
+import org.springframework.mock.web.server.MockServerWebExchange;
 import org.springframework.security.core.Authentication;
 
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import reactor.core.scheduler.Scheduler;
+import reactor.core.scheduler.Schedulers;
+
 /**
  * Test suite for {@link GeorchestraUserMapper}
  */
@@ -120,4 +131,181 @@ class GeorchestraUserMapperTest {
         assertEquals("customizer1", resolved.get().getUsername());
         assertEquals(List.of("ROLE_1", "ROLE_2"), resolved.get().getRoles());
     }
+
+    @Test
+    void testResolveMemoizesPerExchange() {
+        Authentication auth = mock(Authentication.class);
+        GeorchestraUser user = new GeorchestraUser();
+        GeorchestraUserMapperExtension ext = mock(GeorchestraUserMapperExtension.class);
+        when(ext.resolve(same(auth))).thenReturn(Optional.of(user));
+
+        GeorchestraUserMapper mapper = new GeorchestraUserMapper(List.of(ext));
+        MockServerWebExchange exchange = MockServerWebExchange.from(MockServerHttpRequest.get("/test").build());
+
+        assertSame(user, mapper.resolve(auth, exchange).orElseThrow());
+        assertSame(user, mapper.resolve(auth, exchange).orElseThrow());
+        assertSame(user, mapper.resolve(auth, exchange.mutate().build()).orElseThrow());
+        verify(ext, times(1)).resolve(same(auth));
+
+        MockServerWebExchange another = MockServerWebExchange.from(MockServerHttpRequest.get("/test").build());
+        assertSame(user, mapper.resolve(auth, another).orElseThrow());
+        verify(ext, times(2)).resolve(same(auth));
+    }
+
+    @Test
+    void testResolveMemoizesEmptyResult() {
+        Authentication auth = mock(Authentication.class);
+        GeorchestraUserMapperExtension ext = mock(GeorchestraUserMapperExtension.class);
+        when(ext.resolve(same(auth))).thenReturn(Optional.empty());
+
+        GeorchestraUserMapper mapper = new GeorchestraUserMapper(List.of(ext));
+        MockServerWebExchange exchange = MockServerWebExchange.from(MockServerHttpRequest.get("/test").build());
+
+        assertTrue(mapper.resolve(auth, exchange).isEmpty());
+        assertTrue(mapper.resolve(auth, exchange).isEmpty());
+        verify(ext, times(1)).resolve(same(auth));
+    }
+
+    @Test
+    void testResolveDoesNotReuseResolutionForAnotherAuthentication() {
+        Authentication auth1 = mock(Authentication.class);
+        Authentication auth2 = mock(Authentication.class);
+        GeorchestraUser user1 = new GeorchestraUser();
+        GeorchestraUser user2 = new GeorchestraUser();
+        GeorchestraUserMapperExtension ext = mock(GeorchestraUserMapperExtension.class);
+        when(ext.resolve(same(auth1))).thenReturn(Optional.of(user1));
+        when(ext.resolve(same(auth2))).thenReturn(Optional.of(user2));
+
+        GeorchestraUserMapper mapper = new GeorchestraUserMapper(List.of(ext));
+        MockServerWebExchange exchange = MockServerWebExchange.from(MockServerHttpRequest.get("/test").build());
+
+        assertSame(user1, mapper.resolve(auth1, exchange).orElseThrow());
+        assertSame(user2, mapper.resolve(auth2, exchange).orElseThrow());
+    }
+
+    @Test
+    void testResolveCounters() {
+        Authentication auth = mock(Authentication.class);
+        GeorchestraUserMapperExtension ext = mock(GeorchestraUserMapperExtension.class);
+        when(ext.resolve(same(auth))).thenReturn(Optional.of(new GeorchestraUser()));
+
+        GeorchestraUserMapper mapper = new GeorchestraUserMapper(List.of(ext));
+        SimpleMeterRegistry registry = new SimpleMeterRegistry();
+        mapper.bindTo(registry);
+
+        MockServerWebExchange exchange = MockServerWebExchange.from(MockServerHttpRequest.get("/test").build());
+        mapper.resolve(auth, exchange);
+        mapper.resolve(auth, exchange);
+        mapper.resolve(auth, exchange);
+
+        assertEquals(1d, registry.get("georchestra.gateway.users.resolve").tag("source", "mapper").functionCounter()
+                .count());
+        assertEquals(2d, registry.get("georchestra.gateway.users.resolve").tag("source", "exchange")
+                .functionCounter().count());
+    }
+
+    @Test
+    void testResolveAsync() {
+        Authentication auth = mock(Authentication.class);
+        GeorchestraUser user = new GeorchestraUser();
+        GeorchestraUserMapperExtension ext1 = a -> Optional.empty();
+        GeorchestraUserMapperExtension ext2 = a -> a == auth ? Optional.of(user) : Optional.empty();
+        GeorchestraUserCustomizerExtension customizer = (a, u) -> {
+            u.setUsername("customized");
+            return u;
+        };
+
+        GeorchestraUserMapper mapper = new GeorchestraUserMapper(List.of(ext1, ext2), List.of(customizer));
+
+        Optional<GeorchestraUser> resolved = mapper.resolveAsync(auth).block();
+        assertSame(user, resolved.orElseThrow());
+        assertEquals("customized", user.getUsername());
+
+        assertTrue(mapper.resolveAsync(mock(Authentication.class)).block().isEmpty());
+    }
+
+    @Test
+    void testResolveAsyncRunsBlockingExtensionsOnScheduler() {
+        Authentication auth = mock(Authentication.class);
+        List<String> threads = new CopyOnWriteArrayList<>();
+        GeorchestraUserMapperExtension blockingResolver = new GeorchestraUserMapperExtension() {
+            public @Override Optional<GeorchestraUser> resolve(Authentication authToken) {
+                threads.add(Thread.currentThread().getName());
+                return Optional.of(new GeorchestraUser());
+            }
+
+            public @Override boolean isBlocking(Authentication authToken) {
+                return true;
+            }
+        };
+        GeorchestraUserCustomizerExtension blockingCustomizer = new GeorchestraUserCustomizerExtension() {
+            public @Override GeorchestraUser apply(Authentication a, GeorchestraUser u) {
+                threads.add(Thread.currentThread().getName());
+                return u;
+            }
+
+            public @Override boolean isBlocking(Authentication authToken) {
+                return true;
+            }
+        };
+
+        Scheduler scheduler = Schedulers.newSingle("blocking-test");
+        try {
+            GeorchestraUserMapper mapper = new GeorchestraUserMapper(List.of(blockingResolver),
+                    List.of(blockingCustomizer), new UserResolutionScheduler(scheduler, Duration.ofSeconds(5)));
+
+            assertTrue(mapper.resolveAsync(auth).block().isPresent());
+            assertEquals(2, threads.size());
+            assertTrue(threads.stream().allMatch(name -> name.startsWith("blocking-test")), threads::toString);
+        } finally {
+            scheduler.dispose();
+        }
+    }
+
+    @Test
+    void testResolveAsyncRunsExtensionsOnCallingThreadForTokensTheyDontHandle() {
+        Authentication auth = mock(Authentication.class);
+        List<String> threads = new CopyOnWriteArrayList<>();
+        GeorchestraUserMapperExtension ldapLikeResolver = new GeorchestraUserMapperExtension() {
+            public @Override Optional<GeorchestraUser> resolve(Authentication authToken) {
+                threads.add(Thread.currentThread().getName());
+                return Optional.empty();
+            }
+
+            public @Override boolean isBlocking(Authentication authToken) {
+                return authToken != auth;
+            }
+        };
+        GeorchestraUserMapperExtension resolver = a -> Optional.of(new GeorchestraUser());
+
+        Scheduler scheduler = Schedulers.newSingle("blocking-test");
+        try {
+            GeorchestraUserMapper mapper = new GeorchestraUserMapper(List.of(ldapLikeResolver, resolver), List.of(),
+                    new UserResolutionScheduler(scheduler, Duration.ofSeconds(5)));
+
+            assertTrue(mapper.resolveAsync(auth).block().isPresent());
+            assertEquals(List.of(Thread.currentThread().getName()), threads);
+        } finally {
+            scheduler.dispose();
+        }
+    }
+
+    @Test
+    void testResolveAsyncMemoizesPerExchange() {
+        Authentication auth = mock(Authentication.class);
+        GeorchestraUser user = new GeorchestraUser();
+        AtomicInteger calls = new AtomicInteger();
+        GeorchestraUserMapperExtension ext = a -> {
+            calls.incrementAndGet();
+            return Optional.of(user);
+        };
+
+        GeorchestraUserMapper mapper = new GeorchestraUserMapper(List.of(ext));
+        MockServerWebExchange exchange = MockServerWebExchange.from(MockServerHttpRequest.get("/test").build());
+
+        assertSame(user, mapper.resolveAsync(auth, exchange).block().orElseThrow());
+        assertSame(user, mapper.resolveAsync(auth, exchange).block().orElseThrow());
+        assertSame(user, mapper.resolve(auth, exchange).orElseThrow());
+        assertEquals(1, calls.get());
+    }
 }
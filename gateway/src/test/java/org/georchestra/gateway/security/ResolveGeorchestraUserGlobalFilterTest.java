@@ -31,7 +31,9 @@ import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
 import java.security.Principal;
+import java.util.List;
 import java.util.Optional;
+import java.util.concurrent.CopyOnWriteArrayList;
 
 import org.georchestra.gateway.model.GeorchestraUsers;
 import org.georchestra.gateway.security.ldap.extended.ExtendedGeorchestraUser;
@@ -39,13 +41,19 @@ import org.georchestra.security.model.GeorchestraUser;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.springframework.cloud.gateway.filter.GatewayFilterChain;
+import org.springframework.http.server.reactive.AbstractServerHttpRequest;
 import org.springframework.mock.http.server.reactive.MockServerHttpRequest;
 import org.springframework.mock.web.server.MockServerWebExchange;
 import org.springframework.security.core.Authentication;
 import org.springframework.security.web.server.authentication.ServerAuthenticationFailureHandler;
 import org.springframework.web.server.ServerWebExchange;
 
+import io.netty.channel.Channel;
+import io.netty.channel.DefaultEventLoop;
 import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Scheduler;
+import reactor.core.scheduler.Schedulers;
+import reactor.netty.Connection;
 
 /**
  * Test suite for {@link ResolveGeorchestraUserGlobalFilter}
@@ -73,6 +81,7 @@ class ResolveGeorchestraUserGlobalFilterTest {
         when(mockChain.filter(any())).thenReturn(Mono.empty());
         request = MockServerHttpRequest.get("/test").build();
         exchange = MockServerWebExchange.from(request);
+        when(mockMapper.resolveAsync(any(), any())).thenReturn(Mono.just(Optional.empty()));
 
     }
 
@@ -82,7 +91,7 @@ class ResolveGeorchestraUserGlobalFilterTest {
         assertNotNull(ret);
         ret.block();
         verify(mockChain, times(1)).filter(same(exchange));
-        verify(mockMapper, never()).resolve(any());
+        verify(mockMapper, never()).resolveAsync(any(), any());
     }
 
     @Test
@@ -93,7 +102,7 @@ class ResolveGeorchestraUserGlobalFilterTest {
         filter.filter(exchange, mockChain).block();
 
         verify(mockChain, times(1)).filter(same(exchange));
-        verify(mockMapper, never()).resolve(any());
+        verify(mockMapper, never()).resolveAsync(any(), any());
     }
 
     @Test
@@ -104,7 +113,7 @@ class ResolveGeorchestraUserGlobalFilterTest {
         filter.filter(exchange, mockChain).block();
 
         verify(mockChain, times(1)).filter(same(exchange));
-        verify(mockMapper, times(1)).resolve(any());
+        verify(mockMapper, times(1)).resolveAsync(any(), same(exchange));
 
         assertTrue(GeorchestraUsers.resolve(exchange).isEmpty());
     }
@@ -113,14 +122,14 @@ class ResolveGeorchestraUserGlobalFilterTest {
     void testFilter_UseResolved() {
         Authentication auth1 = mock(Authentication.class);
         GeorchestraUser user1 = mock(GeorchestraUser.class);
-        when(mockMapper.resolve(same(auth1))).thenReturn(Optional.of(user1));
+        when(mockMapper.resolveAsync(same(auth1), any())).thenReturn(Mono.just(Optional.of(user1)));
 
         ServerWebExchange exchange = this.exchange.mutate().principal(Mono.just(auth1)).build();
 
         filter.filter(exchange, mockChain).block();
 
         verify(mockChain, times(1)).filter(same(exchange));
-        verify(mockMapper, times(1)).resolve(any());
+        verify(mockMapper, times(1)).resolveAsync(any(), same(exchange));
 
         Optional<GeorchestraUser> resolved = GeorchestraUsers.resolve(exchange);
         assertSame(user1, resolved.orElseThrow());
@@ -130,7 +139,7 @@ class ResolveGeorchestraUserGlobalFilterTest {
     void testFilter_UseResolvedWithoutOrganization() {
         Authentication auth1 = mock(Authentication.class);
         ExtendedGeorchestraUser user1 = mock(ExtendedGeorchestraUser.class);
-        when(mockMapper.resolve(same(auth1))).thenReturn(Optional.of(user1));
+        when(mockMapper.resolveAsync(same(auth1), any())).thenReturn(Mono.just(Optional.of(user1)));
         when(user1.getOrg()).thenReturn(null);
 
         ServerWebExchange exchange = this.exchange.mutate().principal(Mono.just(auth1)).build();
@@ -138,9 +147,41 @@ class ResolveGeorchestraUserGlobalFilterTest {
         filter.filter(exchange, mockChain).block();
 
         verify(mockChain, times(1)).filter(same(exchange));
-        verify(mockMapper, times(1)).resolve(any());
+        verify(mockMapper, times(1)).resolveAsync(any(), same(exchange));
 
         Optional<GeorchestraUser> resolved = GeorchestraUsers.resolve(exchange);
         assertSame(user1, resolved.orElseThrow());
     }
+
+    @Test
+    void testFilter_ContinuesOnRequestEventLoop() {
+        DefaultEventLoop eventLoop = new DefaultEventLoop();
+        Scheduler usersScheduler = Schedulers.newSingle("users-test");
+        try {
+            Channel channel = mock(Channel.class);
+            when(channel.eventLoop()).thenReturn(eventLoop);
+            Connection connection = mock(Connection.class);
+            when(connection.channel()).thenReturn(channel);
+            AbstractServerHttpRequest nettyRequest = mock(AbstractServerHttpRequest.class);
+            when(nettyRequest.<Connection>getNativeRequest()).thenReturn(connection);
+
+            Authentication auth1 = mock(Authentication.class);
+            when(mockMapper.resolveAsync(same(auth1), any()))
+                    .thenReturn(Mono.just(Optional.of(mock(GeorchestraUser.class))).publishOn(usersScheduler));
+            List<Thread> threads = new CopyOnWriteArrayList<>();
+            when(mockChain.filter(any())).thenAnswer(invocation -> {
+                threads.add(Thread.currentThread());
+                return Mono.empty();
+            });
+            ServerWebExchange exchange = this.exchange.mutate().request(nettyRequest).principal(Mono.just(auth1))
+                    .build();
+
+            filter.filter(exchange, mockChain).block();
+
+            assertTrue(threads.size() == 1 && eventLoop.inEventLoop(threads.get(0)), threads::toString);
+        } finally {
+            usersScheduler.dispose();
+            eventLoop.shutdownGracefully();
+        }
+    }
 }
@@ -0,0 +1,128 @@
+/*
+ * Copyright (C) 2022 by the geOrchestra PSC
+ *
+ * This file is part of geOrchestra.
+ *
+ * geOrchestra is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free
+ * Software Foundation, either version 3 of the License, or (at your option)
+ * any later version.
+ *
+ * geOrchestra is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * geOrchestra. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.georchestra.gateway.security;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+import java.time.Duration;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Schedulers;
+
+/**
+ * Test suite for {@link UserResolutionScheduler}
+ */
+class UserResolutionSchedulerTest {
+
+    private UserResolutionScheduler scheduler;
+    private SimpleMeterRegistry registry;
+
+    @BeforeEach
+    void setUp() {
+        scheduler = new UserResolutionScheduler(Schedulers.newBoundedElastic(1, 1, "test-users"),
+                Duration.ofSeconds(5));
+        registry = new SimpleMeterRegistry();
+        scheduler.bindTo(registry);
+    }
+
+    @AfterEach
+    void tearDown() {
+        scheduler.destroy();
+    }
+
+    private double tasks(String outcome) {
+        return registry.get("georchestra.gateway.users.blocking.tasks").tag("outcome", outcome).functionCounter()
+                .count();
+    }
+
+    @Test
+    void schedule_runs_on_scheduler_thread() {
+        String thread = scheduler.schedule(Mono.fromSupplier(() -> Thread.currentThread().getName())).block();
+
+        assertThat(thread).startsWith("test-users");
+        assertThat(tasks("success")).isEqualTo(1);
+        assertThat(registry.get("georchestra.gateway.users.blocking.active").gauge().value()).isZero();
+        assertThat(registry.get("georchestra.gateway.users.blocking.queued").gauge().value()).isZero();
+    }
+
+    @Test
+    void schedule_error() {
+        Mono<Object> failing = scheduler.schedule(Mono.error(new IllegalStateException("ldap down")));
+
+        assertThatThrownBy(failing::block).isInstanceOf(IllegalStateException.class);
+        assertThat(tasks("error")).isEqualTo(1);
+    }
+
+    @Test
+    void schedule_timeout() {
+        scheduler.destroy();
+        scheduler = new UserResolutionScheduler(Schedulers.newBoundedElastic(1, 1, "test-users"),
+                Duration.ofMillis(50));
+        scheduler.bindTo(registry = new SimpleMeterRegistry());
+
+        Mono<Integer> slow = scheduler.schedule(Mono.fromCallable(() -> {
+            Thread.sleep(1_000);
+            return 1;
+        }));
+
+        assertThatThrownBy(slow::block).hasCauseInstanceOf(TimeoutException.class);
+        assertThat(tasks("timeout")).isEqualTo(1);
+    }
+
+    @Test
+    void schedule_rejects_beyond_queue_limit() throws InterruptedException {
+        CountDownLatch running = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        Mono<Boolean> blocking = Mono.fromCallable(() -> {
+            running.countDown();
+            return release.await(5, TimeUnit.SECONDS);
+        });
+
+        // occupies the single thread
+        scheduler.schedule(blocking).subscribe();
+        assertThat(running.await(5, TimeUnit.SECONDS)).isTrue();
+        // fills up the queue
+        scheduler.schedule(Mono.just(true)).subscribe();
+        assertThat(registry.get("georchestra.gateway.users.blocking.queued").gauge().value()).isEqualTo(1);
+        assertThat(registry.get("georchestra.gateway.users.blocking.active").gauge().value()).isEqualTo(1);
+
+        Mono<Boolean> rejected = scheduler.schedule(Mono.just(true));
+        assertThatThrownBy(rejected::block).isInstanceOf(RejectedExecutionException.class);
+        assertThat(tasks("rejected")).isEqualTo(1);
+
+        release.countDown();
+    }
+
+    @Test
+    void immediate_runs_on_calling_thread() {
+        UserResolutionScheduler immediate = UserResolutionScheduler.immediate();
+        String thread = immediate.schedule(Mono.fromSupplier(() -> Thread.currentThread().getName())).block();
+        assertThat(thread).isEqualTo(Thread.currentThread().getName());
+    }
+}
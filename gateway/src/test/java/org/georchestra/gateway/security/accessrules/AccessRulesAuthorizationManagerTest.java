@@ -0,0 +1,163 @@
+/*
+ * Copyright (C) 2022 by the geOrchestra PSC
+ *
+ * This file is part of geOrchestra.
+ *
+ * geOrchestra is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free
+ * Software Foundation, either version 3 of the License, or (at your option)
+ * any later version.
+ *
+ * geOrchestra is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * geOrchestra. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.georchestra.gateway.security.accessrules;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.util.List;
+import java.util.Map;
+
+import org.georchestra.gateway.model.GatewayConfigProperties;
+import org.georchestra.gateway.model.RoleBasedAccessRule;
+import org.georchestra.gateway.model.Service;
+import org.georchestra.gateway.security.GeorchestraUserMapper;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.http.server.PathContainer;
+import org.springframework.mock.http.server.reactive.MockServerHttpRequest;
+import org.springframework.mock.web.server.MockServerWebExchange;
+import org.springframework.security.authentication.TestingAuthenticationToken;
+import org.springframework.security.authorization.AuthorizationDecision;
+import org.springframework.security.authorization.ReactiveAuthorizationManager;
+import org.springframework.security.web.server.authorization.AuthorizationContext;
+import org.springframework.web.util.pattern.PathPatternParser;
+
+import reactor.core.publisher.Mono;
+
+/**
+ * Test suite for {@link AccessRulesAuthorizationManager}
+ */
+class AccessRulesAuthorizationManagerTest {
+
+    private static final ReactiveAuthorizationManager<AuthorizationContext> PERMIT = (a, c) -> Mono
+            .just(new AuthorizationDecision(true));
+    private static final ReactiveAuthorizationManager<AuthorizationContext> DENY = (a, c) -> Mono
+            .just(new AuthorizationDecision(false));
+
+    private AccessRulesAuthorizationManager manager;
+
+    @BeforeEach
+    void setUp() {
+        manager = new AccessRulesAuthorizationManager();
+    }
+
+    private int match(String path) {
+        return manager.match(PathContainer.parsePath(path));
+    }
+
+    private boolean granted(AccessRulesAuthorizationManager manager, String path) {
+        MockServerWebExchange exchange = MockServerWebExchange.from(MockServerHttpRequest.get(path).build());
+        return manager.check(Mono.just(new TestingAuthenticationToken("testuser", null, "ROLE_USER")),
+                new AuthorizationContext(exchange)).map(AuthorizationDecision::isGranted).block();
+    }
+
+    @Test
+    void literalPrefix() {
+        assertThat(AccessRulesAuthorizationManager.literalPrefix("/geoserver/ows/**")).containsExactly("geoserver",
+                "ows");
+        assertThat(AccessRulesAuthorizationManager.literalPrefix("/geoserver/*/wms")).containsExactly("geoserver");
+        assertThat(AccessRulesAuthorizationManager.literalPrefix("/geoserver/{workspace}/wms"))
+                .containsExactly("geoserver");
+        assertThat(AccessRulesAuthorizationManager.literalPrefix("/geoserver/web?")).containsExactly("geoserver");
+        assertThat(AccessRulesAuthorizationManager.literalPrefix("/console/")).containsExactly("console");
+        assertThat(AccessRulesAuthorizationManager.literalPrefix("/**")).isEmpty();
+        assertThat(AccessRulesAuthorizationManager.literalPrefix("/")).isEmpty();
+    }
+
+    @Test
+    void first_match_wins() {
+        manager.add(List.of("/geoserver/web/**"), DENY);
+        manager.add(List.of("/geoserver/**"), PERMIT);
+        manager.add(List.of("/geoserver/web/wicket/**", "/console/**"), PERMIT);
+        manager.add(List.of("/**"), DENY);
+
+        assertThat(match("/geoserver/web/wicket/page")).isZero();
+        assertThat(match("/geoserver/web")).isZero();
+        assertThat(match("/geoserver/ows")).isOne();
+        assertThat(match("/geoserver")).isOne();
+        assertThat(match("/console/account")).isEqualTo(3);
+        assertThat(match("/header")).isEqualTo(4);
+        assertThat(match("/")).isEqualTo(4);
+    }
+
+    @Test
+    void wildcards_and_variables() {
+        manager.add(List.of("/geoserver/*/wms"), DENY);
+        manager.add(List.of("/mapstore/{app}/config.json"), DENY);
+        manager.add(List.of("/geonetwork/srv/???/catalog.search"), DENY);
+
+        assertThat(match("/geoserver/topp/wms")).isZero();
+        assertThat(match("/geoserver/topp/wfs")).isEqualTo(-1);
+        assertThat(match("/mapstore/viewer/config.json")).isOne();
+        assertThat(match("/geonetwork/srv/eng/catalog.search")).isEqualTo(2);
+        assertThat(match("/geonetwork/srv/english/catalog.search")).isEqualTo(-1);
+    }
+
+    @Test
+    void matches_like_path_patterns() {
+        List<String> patterns = List.of("/geoserver/web/**", "/geoserver/*/ows", "/console/account/{id}",
+                "/console/", "/analytics/**", "/img/*.png");
+        patterns.forEach(pattern -> manager.add(List.of(pattern), PERMIT));
+        List<String> paths = List.of("/geoserver/web", "/geoserver/web/", "/geoserver/topp/ows", "/geoserver/ows",
+                "/console/account/1", "/console/account/1/", "/console", "/console/", "/analytics",
+                "/Analytics/x", "/img/logo.png", "/geoserver/web%2Fx", "//geoserver/web");
+
+        PathPatternParser parser = PathPatternParser.defaultInstance;
+        for (String path : paths) {
+            PathContainer container = PathContainer.parsePath(path);
+            int expected = -1;
+            for (int i = 0; i < patterns.size() && expected < 0; i++) {
+                if (parser.parse(patterns.get(i)).matches(container)) {
+                    expected = i;
+                }
+            }
+            assertThat(manager.match(container)).as(path).isEqualTo(expected);
+        }
+    }
+
+    @Test
+    void no_match_denies() {
+        manager.add(List.of("/geoserver/**"), PERMIT);
+
+        assertThat(granted(manager, "/geoserver/ows")).isTrue();
+        assertThat(granted(manager, "/console/account")).isFalse();
+    }
+
+    @Test
+    void compile_service_rules_before_global_rules() {
+        Service geoserver = new Service();
+        geoserver.setAccessRules(List.of(new RoleBasedAccessRule().setInterceptUrl(List.of("/geoserver/admin/**"))
+                .setAllowedRoles(List.of("ADMINISTRATOR"))));
+        GatewayConfigProperties config = new GatewayConfigProperties();
+        config.setServices(Map.of("geoserver", geoserver));
+        config.setGlobalAccessRules(List.of(
+                new RoleBasedAccessRule().setInterceptUrl(List.of("/geoserver/**")).setAnonymous(true),
+                new RoleBasedAccessRule().setInterceptUrl(List.of("/private/**")).setForbidden(true),
+                new RoleBasedAccessRule().setInterceptUrl(List.of("/**"))));
+
+        AccessRulesAuthorizationManager compiled = new AccessRulesCustomizer(config,
+                new GeorchestraUserMapper(List.of(), List.of())).compile();
+
+        assertThat(compiled.size()).isEqualTo(4);
+        assertThat(granted(compiled, "/geoserver/ows")).isTrue();
+        assertThat(granted(compiled, "/geoserver/admin/users")).isFalse();
+        assertThat(granted(compiled, "/private/data")).isFalse();
+        assertThat(granted(compiled, "/header")).isTrue();
+    }
+}
@@ -19,6 +19,7 @@
 
 package org.georchestra.gateway.security.accessrules;
 
+import static org.assertj.core.api.Assertions.assertThat;
 import static org.junit.jupiter.api.Assertions.assertSame;
 import static org.junit.jupiter.api.Assertions.assertThrows;
 import static org.mockito.ArgumentMatchers.any;
@@ -203,6 +204,21 @@ class AccessRulesCustomizerTest {
         verify(customizer, never()).permitAll(any());
     }
 
+    @Test
+    void testRoleIds_service_and_global_rules() {
+        Service service1 = new Service();
+        service1.setAccessRules(List.of(rule("/service1/**").setAllowedRoles(List.of("EDITOR", "ROLE_ADMIN"))));
+        config.setServices(Map.of("service1", service1));
+        config.setGlobalAccessRules(List.of(rule("/**").setAllowedRoles(List.of("ADMIN", "USER")),
+                rule("/public/**").setAnonymous(true)));
+
+        RoleIds roleIds = customizer.roleIds();
+
+        assertThat(roleIds.size()).isEqualTo(3);
+        assertThat(roleIds.containsAll(List.of("ROLE_EDITOR", "ROLE_ADMIN", "ROLE_USER"))).isTrue();
+        assertSame(roleIds, customizer.roleIds());
+    }
+
     private RoleBasedAccessRule rule(String... interceptUrls) {
         RoleBasedAccessRule rule = new RoleBasedAccessRule();
         rule.setInterceptUrl(List.of(interceptUrls));
@@ -20,7 +20,10 @@ package org.georchestra.gateway.security.accessrules;
 
 import static org.assertj.core.api.Assertions.assertThat;
 import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.same;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
 import java.util.List;
@@ -30,7 +33,13 @@ import org.georchestra.gateway.security.GeorchestraUserMapper;
 import org.georchestra.security.model.GeorchestraUser;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
+import org.springframework.mock.http.server.reactive.MockServerHttpRequest;
+import org.springframework.mock.web.server.MockServerWebExchange;
 import org.springframework.security.authentication.TestingAuthenticationToken;
+import org.springframework.security.authorization.AuthorizationDecision;
+import org.springframework.security.web.server.authorization.AuthorizationContext;
+
+import reactor.core.publisher.Mono;
 
 class GeorchestraUserRolesAuthorizationManagerTest {
 
@@ -42,7 +51,7 @@ class GeorchestraUserRolesAuthorizationManagerTest {
     void setup() {
         userMapper = mock(GeorchestraUserMapper.class);
         user = new GeorchestraUser();
-        when(userMapper.resolve(any())).thenReturn(Optional.of(user));
+        when(userMapper.resolveAsync(any())).thenReturn(Mono.just(Optional.of(user)));
 
         authManager = GeorchestraUserRolesAuthorizationManager.hasAnyAuthority(userMapper, "GDI_ADMIN", "SUPERUSER",
                 "ROLE_ADMIN");
@@ -56,46 +65,89 @@ class GeorchestraUserRolesAuthorizationManagerTest {
     void hasAnyAuthority_notAuthenticated() {
         TestingAuthenticationToken authentication = authentication();
         authentication.setAuthenticated(false);
-        assertThat(authManager.authorize(authentication)).isFalse();
+        assertThat(authManager.authorize(authentication).block()).isFalse();
     }
 
     @Test
     void hasAnyAuthority() {
         TestingAuthenticationToken authentication = authentication("ROLE_USER");
         user.setRoles(List.of("ROLE_USER", "GDI_ADMIN"));
-        assertThat(authManager.authorize(authentication)).isTrue();
+        assertThat(authManager.authorize(authentication).block()).isTrue();
 
         user.setRoles(List.of("ROLE_USER", "SUPERUSER"));
-        assertThat(authManager.authorize(authentication)).isTrue();
+        assertThat(authManager.authorize(authentication).block()).isTrue();
 
         user.setRoles(List.of("ROLE_USER", "ROLE_ADMIN"));
-        assertThat(authManager.authorize(authentication)).isTrue();
+        assertThat(authManager.authorize(authentication).block()).isTrue();
 
         user.setRoles(List.of("ROLE_USER"));
-        assertThat(authManager.authorize(authentication)).isFalse();
+        assertThat(authManager.authorize(authentication).block()).isFalse();
     }
 
     @Test
     void hasAnyAuthority_joins_user_and_authentication_authorities() {
         TestingAuthenticationToken authentication = authentication("GDI_ADMIN");
         user.setRoles(List.of("ROLE_USER"));
-        assertThat(authManager.authorize(authentication)).isTrue();
+        assertThat(authManager.authorize(authentication).block()).isTrue();
     }
 
     @Test
     void hasAnyAuthority_noResolvedUser_nor_grantedAuthorities() {
         TestingAuthenticationToken authentication = authentication();
-        when(userMapper.resolve(any())).thenReturn(Optional.empty());
+        when(userMapper.resolveAsync(any())).thenReturn(Mono.just(Optional.empty()));
 
-        assertThat(authManager.authorize(authentication)).isFalse();
+        assertThat(authManager.authorize(authentication).block()).isFalse();
     }
 
     @Test
     void hasAnyAuthority_noResolvedUser_resolved_grantedAuthorities() {
         TestingAuthenticationToken authentication = authentication("GDI_ADMIN");
-        when(userMapper.resolve(any())).thenReturn(Optional.empty());
+        when(userMapper.resolveAsync(any())).thenReturn(Mono.just(Optional.empty()));
+
+        assertThat(authManager.authorize(authentication).block()).isTrue();
+    }
+
+    @Test
+    void hasAnyAuthority_shared_roleIds() {
+        RoleIds roleIds = RoleIds.of(List.of("ROLE_USER", "GDI_ADMIN", "ROLE_EDITOR"));
+        authManager = GeorchestraUserRolesAuthorizationManager.hasAnyAuthority(userMapper, roleIds, "GDI_ADMIN",
+                "ROLE_EDITOR");
+        TestingAuthenticationToken authentication = authentication("ROLE_USER");
+
+        user.setRoles(List.of("ROLE_USER", "ROLE_EDITOR"));
+        assertThat(authManager.authorize(authentication).block()).isTrue();
+
+        user.setRoles(List.of("ROLE_USER"));
+        assertThat(authManager.authorize(authentication).block()).isFalse();
+    }
+
+    @Test
+    void hasAnyAuthority_shared_roleIds_missing_authorities() {
+        RoleIds roleIds = RoleIds.of(List.of("ROLE_USER"));
+        authManager = GeorchestraUserRolesAuthorizationManager.hasAnyAuthority(userMapper, roleIds, "GDI_ADMIN");
+        TestingAuthenticationToken authentication = authentication("ROLE_USER");
+
+        user.setRoles(List.of("ROLE_USER", "GDI_ADMIN"));
+        assertThat(authManager.authorize(authentication).block()).isTrue();
 
-        assertThat(authManager.authorize(authentication)).isTrue();
+        user.setRoles(List.of("ROLE_USER"));
+        assertThat(authManager.authorize(authentication).block()).isFalse();
     }
 
+    @Test
+    void check_resolves_user_through_exchange() {
+        TestingAuthenticationToken authentication = authentication("ROLE_USER");
+        user.setRoles(List.of("ROLE_USER", "GDI_ADMIN"));
+        MockServerWebExchange exchange = MockServerWebExchange.from(MockServerHttpRequest.get("/test").build());
+        when(userMapper.resolveAsync(same(authentication), same(exchange))).thenReturn(Mono.just(Optional.of(user)));
+
+        GeorchestraUserRolesAuthorizationManager<AuthorizationContext> manager = GeorchestraUserRolesAuthorizationManager
+                .hasAnyAuthority(userMapper, "GDI_ADMIN");
+        AuthorizationDecision decision = manager.check(Mono.just(authentication), new AuthorizationContext(exchange))
+                .block();
+
+        assertThat(decision.isGranted()).isTrue();
+        verify(userMapper).resolveAsync(same(authentication), same(exchange));
+        verify(userMapper, never()).resolveAsync(any());
+    }
 }
@@ -0,0 +1,80 @@
+/*
+ * Copyright (C) 2022 by the geOrchestra PSC
+ *
+ * This file is part of geOrchestra.
+ *
+ * geOrchestra is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free
+ * Software Foundation, either version 3 of the License, or (at your option)
+ * any later version.
+ *
+ * geOrchestra is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * geOrchestra. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.georchestra.gateway.security.accessrules;
+
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.security.core.GrantedAuthority;
+import org.springframework.security.core.authority.AuthorityUtils;
+
+/**
+ * Compares the stream based check of a user's roles against an access rule's
+ * roles, as {@link GeorchestraUserRolesAuthorizationManager} used to do it, to
+ * the {@link RoleIds} bitset check it uses now. The user doesn't have any of the
+ * rule's roles, so both check all of them.
+ * <p>
+ * Run with {@code -prof gc} to compare the allocation rates.
+ * </p>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class RoleIdsBenchmark {
+
+    private final List<String> ruleRoles = List.of("ROLE_SUPERUSER", "ROLE_ADMINISTRATOR", "ROLE_MAPSTORE_ADMIN");
+
+    private final List<String> userRoles = List.of("ROLE_USER", "ROLE_GN_EDITOR", "ROLE_GN_REVIEWER",
+            "ROLE_EMAILPROXY", "ROLE_ORGADMIN", "ROLE_IMPORT");
+
+    private final List<GrantedAuthority> authorities = AuthorityUtils.createAuthorityList("ROLE_USER");
+
+    private final Set<String> authorityFilter = Set.copyOf(ruleRoles);
+
+    private final RoleIds roleIds = RoleIds.of(ruleRoles);
+
+    private final long[] bitset = roleIds.bitset(ruleRoles);
+
+    @Benchmark
+    public boolean streams() {
+        Stream<String> effectiveRoles = userRoles.stream();
+        Stream<String> grantedAuthorities = authorities.stream().map(GrantedAuthority::getAuthority);
+        return Stream.concat(effectiveRoles, grantedAuthorities).sorted().distinct()
+                .anyMatch(authorityFilter::contains);
+    }
+
+    @Benchmark
+    public boolean bitset() {
+        return roleIds.containsAny(bitset, userRoles, authorities);
+    }
+}
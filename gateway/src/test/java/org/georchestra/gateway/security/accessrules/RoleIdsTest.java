@@ -0,0 +1,80 @@
+/*
+ * Copyright (C) 2022 by the geOrchestra PSC
+ *
+ * This file is part of geOrchestra.
+ *
+ * geOrchestra is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free
+ * Software Foundation, either version 3 of the License, or (at your option)
+ * any later version.
+ *
+ * geOrchestra is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * geOrchestra. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.georchestra.gateway.security.accessrules;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.util.List;
+import java.util.stream.IntStream;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.security.core.authority.AuthorityUtils;
+
+class RoleIdsTest {
+
+    @Test
+    void of_ignores_duplicates() {
+        RoleIds ids = RoleIds.of(List.of("ROLE_ADMIN", "ROLE_USER", "ROLE_ADMIN"));
+        assertThat(ids.size()).isEqualTo(2);
+        assertThat(ids.containsAll(List.of("ROLE_USER", "ROLE_ADMIN"))).isTrue();
+        assertThat(ids.containsAll(List.of("ROLE_USER", "ROLE_EDITOR"))).isFalse();
+    }
+
+    @Test
+    void bitset_unknown_role() {
+        RoleIds ids = RoleIds.of(List.of("ROLE_ADMIN"));
+        assertThrows(IllegalArgumentException.class, () -> ids.bitset(List.of("ROLE_USER")));
+    }
+
+    @Test
+    void contains() {
+        RoleIds ids = RoleIds.of(List.of("ROLE_ADMIN", "ROLE_USER", "ROLE_EDITOR"));
+        long[] bitset = ids.bitset(List.of("ROLE_ADMIN", "ROLE_EDITOR"));
+
+        assertThat(ids.contains(bitset, "ROLE_ADMIN")).isTrue();
+        assertThat(ids.contains(bitset, "ROLE_EDITOR")).isTrue();
+        assertThat(ids.contains(bitset, "ROLE_USER")).isFalse();
+        assertThat(ids.contains(bitset, "ROLE_UNKNOWN")).isFalse();
+        assertThat(ids.contains(bitset, null)).isFalse();
+    }
+
+    @Test
+    void contains_more_than_64_roles() {
+        List<String> roles = IntStream.range(0, 150).mapToObj(i -> "ROLE_" + i).toList();
+        RoleIds ids = RoleIds.of(roles);
+        long[] bitset = ids.bitset(List.of("ROLE_1", "ROLE_64", "ROLE_149"));
+
+        assertThat(bitset).hasSize(3);
+        assertThat(roles.stream().filter(role -> ids.contains(bitset, role))).containsExactly("ROLE_1", "ROLE_64",
+                "ROLE_149");
+    }
+
+    @Test
+    void containsAny() {
+        RoleIds ids = RoleIds.of(List.of("ROLE_ADMIN", "ROLE_USER", "ROLE_EDITOR"));
+        long[] bitset = ids.bitset(List.of("ROLE_ADMIN", "ROLE_EDITOR"));
+
+        assertThat(ids.containsAny(bitset, List.of("ROLE_USER", "ROLE_EDITOR"), List.of())).isTrue();
+        assertThat(ids.containsAny(bitset, null, AuthorityUtils.createAuthorityList("ROLE_ADMIN"))).isTrue();
+        assertThat(ids.containsAny(bitset, List.of("ROLE_USER"), AuthorityUtils.createAuthorityList("ROLE_OTHER")))
+                .isFalse();
+        assertThat(ids.containsAny(bitset, null, List.of())).isFalse();
+    }
+}
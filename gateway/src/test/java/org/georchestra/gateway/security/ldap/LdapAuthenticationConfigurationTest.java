@@ -0,0 +1,54 @@
+/*
+ * Copyright (C) 2022 by the geOrchestra PSC
+ *
+ * This file is part of geOrchestra.
+ *
+ * geOrchestra is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free
+ * Software Foundation, either version 3 of the License, or (at your option)
+ * any later version.
+ *
+ * geOrchestra is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * geOrchestra. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.georchestra.gateway.security.ldap;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.mock;
+
+import java.util.List;
+import java.util.Map;
+
+import org.georchestra.gateway.security.ldap.basic.BasicLdapAuthenticationProvider;
+import org.georchestra.gateway.security.ldap.extended.GeorchestraLdapAuthenticationProvider;
+import org.junit.jupiter.api.Test;
+import org.springframework.security.authentication.AuthenticationProvider;
+
+/**
+ * Test suite for {@link LdapAuthenticationConfiguration}
+ */
+class LdapAuthenticationConfigurationTest {
+
+    @Test
+    void byPriority_keeps_basic_providers_before_extended_ones() {
+        BasicLdapAuthenticationProvider basic1 = new BasicLdapAuthenticationProvider("basic1",
+                mock(AuthenticationProvider.class));
+        BasicLdapAuthenticationProvider basic2 = new BasicLdapAuthenticationProvider("basic2",
+                mock(AuthenticationProvider.class));
+        GeorchestraLdapAuthenticationProvider extended1 = new GeorchestraLdapAuthenticationProvider("extended1",
+                mock(AuthenticationProvider.class));
+        GeorchestraLdapAuthenticationProvider extended2 = new GeorchestraLdapAuthenticationProvider("extended2",
+                mock(AuthenticationProvider.class));
+
+        Map<String, AuthenticationProvider> byPriority = LdapAuthenticationConfiguration
+                .byPriority(List.of(basic1, basic2), List.of(extended2, extended1));
+
+        assertThat(byPriority).containsExactly(Map.entry("basic1", basic1), Map.entry("basic2", basic2),
+                Map.entry("extended2", extended2), Map.entry("extended1", extended1));
+    }
+}
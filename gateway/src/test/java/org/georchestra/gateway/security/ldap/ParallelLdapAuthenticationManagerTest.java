@@ -0,0 +1,193 @@
+/*
+ * Copyright (C) 2022 by the geOrchestra PSC
+ *
+ * This file is part of geOrchestra.
+ *
+ * geOrchestra is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free
+ * Software Foundation, either version 3 of the License, or (at your option)
+ * any later version.
+ *
+ * geOrchestra is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * geOrchestra. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.georchestra.gateway.security.ldap;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+import java.time.Duration;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.security.authentication.AuthenticationProvider;
+import org.springframework.security.authentication.AuthenticationServiceException;
+import org.springframework.security.authentication.BadCredentialsException;
+import org.springframework.security.authentication.LockedException;
+import org.springframework.security.authentication.ProviderNotFoundException;
+import org.springframework.security.authentication.UsernamePasswordAuthenticationToken;
+import org.springframework.security.core.Authentication;
+import org.springframework.security.core.AuthenticationException;
+import org.springframework.security.core.authority.SimpleGrantedAuthority;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import reactor.core.scheduler.Schedulers;
+
+/**
+ * Test suite for {@link ParallelLdapAuthenticationManager}
+ */
+class ParallelLdapAuthenticationManagerTest {
+
+    private final Authentication request = new UsernamePasswordAuthenticationToken("testuser", "secret");
+
+    private Map<String, AuthenticationProvider> providers;
+    private ParallelLdapAuthenticationManager manager;
+    private SimpleMeterRegistry registry;
+    private CountDownLatch release;
+
+    @BeforeEach
+    void setUp() {
+        providers = new LinkedHashMap<>();
+        registry = new SimpleMeterRegistry();
+        release = new CountDownLatch(1);
+    }
+
+    @AfterEach
+    void tearDown() {
+        release.countDown();
+        if (manager != null) {
+            manager.destroy();
+        }
+    }
+
+    private Authentication authenticate() {
+        manager = new ParallelLdapAuthenticationManager(providers, Schedulers.newBoundedElastic(4, 10, "test-auth"),
+                Duration.ofSeconds(5));
+        manager.bindTo(registry);
+        return manager.authenticate(request).block();
+    }
+
+    private Authentication authenticated(String configName) {
+        return new UsernamePasswordAuthenticationToken("testuser", "secret",
+                List.of(new SimpleGrantedAuthority("ROLE_" + configName.toUpperCase())));
+    }
+
+    private AuthenticationProvider provider(Supplier<Authentication> result) {
+        return new AuthenticationProvider() {
+            public @Override Authentication authenticate(Authentication authentication)
+                    throws AuthenticationException {
+                return result.get();
+            }
+
+            public @Override boolean supports(Class<?> authentication) {
+                return UsernamePasswordAuthenticationToken.class.isAssignableFrom(authentication);
+            }
+        };
+    }
+
+    private Supplier<Authentication> blocked(Supplier<Authentication> result) {
+        return () -> {
+            try {
+                release.await(10, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            return result.get();
+        };
+    }
+
+    private static Supplier<Authentication> failing(AuthenticationException error) {
+        return () -> {
+            throw error;
+        };
+    }
+
+    private long timerCount(String configName, String outcome) {
+        return registry.get("georchestra.gateway.ldap.authentication").tag("config", configName)
+                .tag("outcome", outcome).timer().count();
+    }
+
+    @Test
+    void highest_priority_success_wins() {
+        Authentication first = authenticated("first");
+        providers.put("first", provider(() -> {
+            try {
+                Thread.sleep(100);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            return first;
+        }));
+        providers.put("second", provider(() -> authenticated("second")));
+
+        assertThat(authenticate()).isSameAs(first);
+        assertThat(timerCount("first", "success")).isEqualTo(1);
+    }
+
+    @Test
+    void lower_priority_success_after_failures() {
+        Authentication third = authenticated("third");
+        providers.put("first", provider(failing(new BadCredentialsException("first"))));
+        providers.put("second", provider(() -> null));
+        providers.put("third", provider(() -> third));
+
+        assertThat(authenticate()).isSameAs(third);
+        assertThat(timerCount("first", "failure")).isEqualTo(1);
+        assertThat(timerCount("third", "success")).isEqualTo(1);
+    }
+
+    @Test
+    void success_does_not_wait_for_lower_priority_checks() {
+        Authentication first = authenticated("first");
+        providers.put("first", provider(() -> first));
+        providers.put("second", provider(blocked(() -> authenticated("second"))));
+
+        assertThat(authenticate()).isSameAs(first);
+        assertThat(release.getCount()).as("second provider check should still be pending").isOne();
+    }
+
+    @Test
+    void all_failed_throws_last_error() {
+        providers.put("first", provider(failing(new BadCredentialsException("first"))));
+        providers.put("second", provider(failing(new BadCredentialsException("second"))));
+
+        assertThatThrownBy(this::authenticate).isInstanceOf(BadCredentialsException.class).hasMessage("second");
+    }
+
+    @Test
+    void account_status_error_stops_authentication() {
+        providers.put("first", provider(failing(new LockedException("locked"))));
+        providers.put("second", provider(() -> authenticated("second")));
+
+        assertThatThrownBy(this::authenticate).isInstanceOf(LockedException.class);
+    }
+
+    @Test
+    void timeout_cancels_pending_checks() {
+        providers.put("first", provider(blocked(() -> authenticated("first"))));
+        manager = new ParallelLdapAuthenticationManager(providers, Schedulers.newBoundedElastic(4, 10, "test-auth"),
+                Duration.ofMillis(100));
+        manager.bindTo(registry);
+
+        assertThatThrownBy(() -> manager.authenticate(request).block())
+                .isInstanceOf(AuthenticationServiceException.class);
+        assertThat(timerCount("first", "cancelled")).isEqualTo(1);
+    }
+
+    @Test
+    void no_supporting_provider() {
+        assertThatThrownBy(this::authenticate).isInstanceOf(ProviderNotFoundException.class);
+    }
+}
@@ -24,6 +24,7 @@ import static org.assertj.core.api.Assertions.assertThat;
 import java.util.List;
 import java.util.Set;
 
+import org.assertj.core.api.InstanceOfAssertFactories;
 import org.junit.jupiter.api.Test;
 import org.springframework.boot.context.annotation.UserConfigurations;
 import org.springframework.boot.test.context.runner.ApplicationContextRunner;
@@ -67,6 +68,7 @@ class ExtendedLdapAuthenticationConfigurationTest {
                 , "georchestra.gateway.security.ldap.ldap1.roles.rdn: ou=roles" //
                 , "georchestra.gateway.security.ldap.ldap1.roles.searchFilter: (member={0})" //
                 , "georchestra.gateway.security.ldap.ldap1.orgs.rdn: ou=orgs" //
+                , "georchestra.gateway.security.ldap.ldap1.cache.users.enabled: true" //
         ).run(context -> {
             assertThat(context).hasNotFailed();
             assertThat(context).getBean("enabledExtendedLdapConfigs").isInstanceOf(List.class);
@@ -80,6 +82,8 @@ class ExtendedLdapAuthenticationConfigurationTest {
 
             assertThat(context.getBean(DemultiplexingUsersApi.class)).hasFieldOrPropertyWithValue("targetNames",
                     Set.of("ldap1"));
+            assertThat(context.getBean(LdapUserCache.class)).extracting("cachesByConfigName")
+                    .asInstanceOf(InstanceOfAssertFactories.MAP).containsOnlyKeys("ldap1");
         });
     }
 
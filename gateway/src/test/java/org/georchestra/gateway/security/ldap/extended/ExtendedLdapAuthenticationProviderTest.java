@@ -0,0 +1,142 @@
+/*
+ * Copyright (C) 2022 by the geOrchestra PSC
+ *
+ * This file is part of geOrchestra.
+ *
+ * geOrchestra is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free
+ * Software Foundation, either version 3 of the License, or (at your option)
+ * any later version.
+ *
+ * geOrchestra is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * geOrchestra. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.georchestra.gateway.security.ldap.extended;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.argThat;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.util.Optional;
+
+import org.georchestra.ds.users.Account;
+import org.georchestra.ds.users.AccountDao;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.springframework.ldap.core.DirContextAdapter;
+import org.springframework.security.authentication.BadCredentialsException;
+import org.springframework.security.authentication.UsernamePasswordAuthenticationToken;
+import org.springframework.security.core.Authentication;
+import org.springframework.security.ldap.authentication.LdapAuthenticator;
+import org.springframework.security.ldap.userdetails.LdapAuthoritiesPopulator;
+
+/**
+ * Test suite for {@link ExtendedLdapAuthenticationProvider}
+ */
+class ExtendedLdapAuthenticationProviderTest {
+
+    private LdapAuthenticator mockAuthenticator;
+    private AccountDao mockAccountDao;
+    private LdapEmailIndex mockEmailIndex;
+    private ExtendedLdapAuthenticationProvider provider;
+
+    @BeforeEach
+    void before() {
+        mockAuthenticator = mock(LdapAuthenticator.class);
+        mockAccountDao = mock(AccountDao.class);
+        mockEmailIndex = mock(LdapEmailIndex.class);
+        when(mockAuthenticator.authenticate(any())).thenReturn(new DirContextAdapter("uid=testuser,ou=users"));
+        provider = new ExtendedLdapAuthenticationProvider(mockAuthenticator, mock(LdapAuthoritiesPopulator.class));
+        provider.setAccountDao(mockAccountDao);
+    }
+
+    private String authenticatedUsername(String login) {
+        provider.authenticate(new UsernamePasswordAuthenticationToken(login, "secret"));
+        ArgumentCaptor<Authentication> captor = ArgumentCaptor.forClass(Authentication.class);
+        verify(mockAuthenticator).authenticate(captor.capture());
+        return captor.getValue().getName();
+    }
+
+    @Test
+    void username_login_skips_email_search() throws Exception {
+        provider.setEmailIndex(mockEmailIndex);
+
+        assertThat(authenticatedUsername("testuser")).isEqualTo("testuser");
+        verify(mockAccountDao, never()).findByEmail(anyString());
+        verify(mockEmailIndex, never()).findUsername(anyString());
+    }
+
+    @Test
+    void email_login_searches_directory() throws Exception {
+        Account account = mock(Account.class);
+        when(account.getUid()).thenReturn("testuser");
+        when(mockAccountDao.findByEmail("testuser@example.com")).thenReturn(account);
+
+        assertThat(authenticatedUsername("testuser@example.com")).isEqualTo("testuser");
+    }
+
+    @Test
+    void email_login_resolved_by_index() throws Exception {
+        when(mockEmailIndex.findUsername("testuser@example.com")).thenReturn(Optional.of("testuser"));
+        provider.setEmailIndex(mockEmailIndex);
+
+        assertThat(authenticatedUsername("testuser@example.com")).isEqualTo("testuser");
+        verify(mockAccountDao, never()).findByEmail(anyString());
+    }
+
+    @Test
+    void email_login_not_indexed_searches_directory() throws Exception {
+        Account account = mock(Account.class);
+        when(account.getUid()).thenReturn("created");
+        when(mockAccountDao.findByEmail("created@example.com")).thenReturn(account);
+        when(mockEmailIndex.findUsername("created@example.com")).thenReturn(Optional.empty());
+        provider.setEmailIndex(mockEmailIndex);
+
+        assertThat(authenticatedUsername("created@example.com")).isEqualTo("created");
+    }
+
+    @Test
+    void email_login_retries_outdated_index_entry() throws Exception {
+        // the email moved from olduser to testuser since the index was loaded
+        when(mockEmailIndex.findUsername("testuser@example.com")).thenReturn(Optional.of("olduser"));
+        provider.setEmailIndex(mockEmailIndex);
+        Account account = mock(Account.class);
+        when(account.getUid()).thenReturn("testuser");
+        when(mockAccountDao.findByEmail("testuser@example.com")).thenReturn(account);
+        when(mockAuthenticator.authenticate(argThat(auth -> "olduser".equals(auth.getName()))))
+                .thenThrow(new BadCredentialsException("Bad credentials"));
+
+        Authentication authenticated = provider
+                .authenticate(new UsernamePasswordAuthenticationToken("testuser@example.com", "secret"));
+
+        assertThat(authenticated.getName()).isEqualTo("testuser");
+        verify(mockAuthenticator, times(2)).authenticate(any());
+    }
+
+    @Test
+    void email_login_bad_credentials_not_retried_for_current_index_entry() throws Exception {
+        when(mockEmailIndex.findUsername("testuser@example.com")).thenReturn(Optional.of("testuser"));
+        provider.setEmailIndex(mockEmailIndex);
+        Account account = mock(Account.class);
+        when(account.getUid()).thenReturn("testuser");
+        when(mockAccountDao.findByEmail("testuser@example.com")).thenReturn(account);
+        when(mockAuthenticator.authenticate(any())).thenThrow(new BadCredentialsException("Bad credentials"));
+
+        assertThrows(BadCredentialsException.class, () -> provider
+                .authenticate(new UsernamePasswordAuthenticationToken("testuser@example.com", "wrong")));
+        verify(mockAuthenticator, times(1)).authenticate(any());
+    }
+}
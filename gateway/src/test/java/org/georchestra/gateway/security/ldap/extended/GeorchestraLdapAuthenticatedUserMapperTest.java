@@ -63,7 +63,7 @@ class GeorchestraLdapAuthenticatedUserMapperTest {
         when(mockUsers.findByUsername(anyString())).thenReturn(Optional.empty());
         DemultiplexingUsersApi demultiplexingUsers = new DemultiplexingUsersApi(Map.of("default", mockUsers),
                 Map.of("default", mockOrgs));
-        mapper = new GeorchestraLdapAuthenticatedUserMapper(demultiplexingUsers);
+        mapper = new GeorchestraLdapAuthenticatedUserMapper(new LdapUserCache(demultiplexingUsers, Map.of()));
     }
 
     @Test
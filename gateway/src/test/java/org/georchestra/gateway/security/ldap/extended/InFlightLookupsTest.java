@@ -0,0 +1,141 @@
+/*
+ * Copyright (C) 2022 by the geOrchestra PSC
+ *
+ * This file is part of geOrchestra.
+ *
+ * geOrchestra is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free
+ * Software Foundation, either version 3 of the License, or (at your option)
+ * any later version.
+ *
+ * geOrchestra is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * geOrchestra. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.georchestra.gateway.security.ldap.extended;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+/**
+ * Test suite for {@link InFlightLookups}
+ */
+class InFlightLookupsTest {
+
+    private InFlightLookups<String, List<String>> lookups;
+    private SimpleMeterRegistry registry;
+    private ExecutorService executor;
+
+    @BeforeEach
+    void setUp() {
+        lookups = new InFlightLookups<>("username", ArrayList::new);
+        registry = new SimpleMeterRegistry();
+        lookups.bindTo(registry);
+        executor = Executors.newFixedThreadPool(4);
+    }
+
+    @AfterEach
+    void tearDown() {
+        executor.shutdownNow();
+    }
+
+    private double count(String flight) {
+        return registry.get("georchestra.gateway.ldap.users.lookups").tag("lookup", "username").tag("flight", flight)
+                .functionCounter().count();
+    }
+
+    private void awaitWaiters(int expected) throws InterruptedException {
+        for (int i = 0; i < 500 && count("waiter") < expected; i++) {
+            Thread.sleep(10);
+        }
+        assertThat(count("waiter")).isEqualTo(expected);
+    }
+
+    @Test
+    void sequential_lookups_are_not_coalesced() {
+        AtomicInteger queries = new AtomicInteger();
+        List<String> first = lookups.get("testuser", () -> List.of("v" + queries.incrementAndGet()));
+        List<String> second = lookups.get("testuser", () -> List.of("v" + queries.incrementAndGet()));
+
+        assertThat(first).containsExactly("v1");
+        assertThat(second).containsExactly("v2");
+        assertThat(count("leader")).isEqualTo(2);
+        assertThat(count("waiter")).isZero();
+    }
+
+    @Test
+    void concurrent_lookups_share_one_query() throws Exception {
+        AtomicInteger queries = new AtomicInteger();
+        CountDownLatch release = new CountDownLatch(1);
+        List<String> result = List.of("USER");
+
+        CompletableFuture<List<String>> leader = CompletableFuture.supplyAsync(() -> lookups.get("testuser", () -> {
+            queries.incrementAndGet();
+            await(release);
+            return result;
+        }), executor);
+        while (registry.get("georchestra.gateway.ldap.users.lookups.inflight").gauge().value() < 1) {
+            Thread.sleep(10);
+        }
+        CompletableFuture<List<String>> waiter1 = CompletableFuture
+                .supplyAsync(() -> lookups.get("testuser", () -> List.of("unexpected")), executor);
+        CompletableFuture<List<String>> waiter2 = CompletableFuture
+                .supplyAsync(() -> lookups.get("testuser", () -> List.of("unexpected")), executor);
+        awaitWaiters(2);
+        release.countDown();
+
+        assertThat(leader.get(5, TimeUnit.SECONDS)).isEqualTo(result);
+        assertThat(waiter1.get(5, TimeUnit.SECONDS)).isEqualTo(result).isNotSameAs(result);
+        assertThat(waiter2.get(5, TimeUnit.SECONDS)).isEqualTo(result).isNotSameAs(result);
+        assertThat(queries.get()).isEqualTo(1);
+        assertThat(count("leader")).isEqualTo(1);
+    }
+
+    @Test
+    void concurrent_lookups_share_errors() throws Exception {
+        CountDownLatch release = new CountDownLatch(1);
+        CompletableFuture<List<String>> leader = CompletableFuture.supplyAsync(() -> lookups.get("testuser", () -> {
+            await(release);
+            throw new IllegalStateException("ldap down");
+        }), executor);
+        while (registry.get("georchestra.gateway.ldap.users.lookups.inflight").gauge().value() < 1) {
+            Thread.sleep(10);
+        }
+        CompletableFuture<List<String>> waiter = CompletableFuture
+                .supplyAsync(() -> lookups.get("testuser", () -> List.of("unexpected")), executor);
+        awaitWaiters(1);
+        release.countDown();
+
+        assertThatThrownBy(() -> leader.get(5, TimeUnit.SECONDS)).hasCauseInstanceOf(IllegalStateException.class);
+        assertThatThrownBy(() -> waiter.get(5, TimeUnit.SECONDS)).hasCauseInstanceOf(IllegalStateException.class);
+        // the failed flight is not kept
+        assertThat(lookups.get("testuser", () -> List.of("USER"))).containsExactly("USER");
+    }
+
+    private static void await(CountDownLatch latch) {
+        try {
+            latch.await(5, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,189 @@
+/*
+ * Copyright (C) 2022 by the geOrchestra PSC
+ *
+ * This file is part of geOrchestra.
+ *
+ * geOrchestra is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free
+ * Software Foundation, either version 3 of the License, or (at your option)
+ * any later version.
+ *
+ * geOrchestra is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * geOrchestra. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.georchestra.gateway.security.ldap.extended;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.georchestra.gateway.security.GeorchestraGatewaySecurityConfigProperties.CircuitBreaker;
+import org.georchestra.gateway.security.ldap.extended.LdapCircuitBreakers.State;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.security.authentication.BadCredentialsException;
+import org.springframework.security.authentication.InternalAuthenticationServiceException;
+
+import com.google.common.base.Ticker;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+/**
+ * Test suite for {@link LdapCircuitBreakers}
+ */
+class LdapCircuitBreakersTest {
+
+    private CircuitBreaker settings;
+    private AtomicLong nanos;
+    private List<Object> events;
+    private AtomicInteger calls;
+
+    @BeforeEach
+    void before() {
+        settings = new CircuitBreaker().setEnabled(true).setFailureRateThreshold(50).setSlidingWindowSize(4)
+                .setMinimumNumberOfCalls(4).setCallTimeout(Duration.ofSeconds(1))
+                .setWaitDurationInOpenState(Duration.ofSeconds(30));
+        nanos = new AtomicLong();
+        events = new ArrayList<>();
+        calls = new AtomicInteger();
+    }
+
+    private LdapCircuitBreakers breakers() {
+        Ticker ticker = new Ticker() {
+            public @Override long read() {
+                return nanos.get();
+            }
+        };
+        return new LdapCircuitBreakers(Map.of("default", settings), events::add, ticker);
+    }
+
+    private String succeed() {
+        calls.incrementAndGet();
+        return "ok";
+    }
+
+    private String fail() {
+        calls.incrementAndGet();
+        throw new IllegalStateException("ldap down");
+    }
+
+    private void failTimes(LdapCircuitBreakers breakers, int times) {
+        for (int i = 0; i < times; i++) {
+            assertThatThrownBy(() -> breakers.call("default", this::fail)).isInstanceOf(IllegalStateException.class);
+        }
+    }
+
+    @Test
+    void opens_at_failure_rate_threshold() {
+        LdapCircuitBreakers breakers = breakers();
+        breakers.call("default", this::succeed);
+        breakers.call("default", this::succeed);
+        failTimes(breakers, 1);
+        assertThat(breakers.getState("default")).contains(State.CLOSED);
+
+        failTimes(breakers, 1);
+        assertThat(breakers.getState("default")).contains(State.OPEN);
+        assertThat(events).containsExactly(new LdapCircuitBreakerStateChanged("default", State.CLOSED, State.OPEN));
+    }
+
+    @Test
+    void open_circuit_fails_fast() {
+        LdapCircuitBreakers breakers = breakers();
+        failTimes(breakers, 4);
+        calls.set(0);
+
+        assertThatThrownBy(() -> breakers.call("default", this::succeed)).isInstanceOf(LdapCircuitOpenException.class)
+                .hasMessageContaining("default");
+        assertThat(calls.get()).isZero();
+    }
+
+    @Test
+    void half_open_trial_success_closes_circuit() {
+        LdapCircuitBreakers breakers = breakers();
+        failTimes(breakers, 4);
+
+        nanos.addAndGet(Duration.ofSeconds(31).toNanos());
+        assertThat(breakers.call("default", this::succeed)).isEqualTo("ok");
+
+        assertThat(breakers.getState("default")).contains(State.CLOSED);
+        assertThat(events).extracting(LdapCircuitBreakerStateChanged::getTo).containsExactly(State.OPEN,
+                State.HALF_OPEN, State.CLOSED);
+    }
+
+    @Test
+    void half_open_trial_failure_reopens_circuit() {
+        LdapCircuitBreakers breakers = breakers();
+        failTimes(breakers, 4);
+
+        nanos.addAndGet(Duration.ofSeconds(31).toNanos());
+        failTimes(breakers, 1);
+
+        assertThat(breakers.getState("default")).contains(State.OPEN);
+        assertThatThrownBy(() -> breakers.call("default", this::succeed)).isInstanceOf(LdapCircuitOpenException.class);
+    }
+
+    @Test
+    void slow_calls_count_as_failures() {
+        LdapCircuitBreakers breakers = breakers();
+        for (int i = 0; i < 4; i++) {
+            assertThat(breakers.call("default", () -> {
+                nanos.addAndGet(Duration.ofSeconds(2).toNanos());
+                return succeed();
+            })).isEqualTo("ok");
+        }
+        assertThat(breakers.getState("default")).contains(State.OPEN);
+    }
+
+    @Test
+    void bad_credentials_are_not_failures() {
+        LdapCircuitBreakers breakers = breakers();
+        for (int i = 0; i < 4; i++) {
+            assertThatThrownBy(() -> breakers.call("default", () -> {
+                throw new BadCredentialsException("Bad credentials");
+            })).isInstanceOf(BadCredentialsException.class);
+        }
+        assertThat(breakers.getState("default")).contains(State.CLOSED);
+        assertThat(LdapCircuitBreakers.isFailure(new InternalAuthenticationServiceException("ldap down"))).isTrue();
+    }
+
+    @Test
+    void disabled_circuit_breaker() {
+        settings.setEnabled(false);
+        LdapCircuitBreakers breakers = breakers();
+        failTimes(breakers, 10);
+
+        assertThat(breakers.getState("default")).isEmpty();
+        assertThat(breakers.call("default", this::succeed)).isEqualTo("ok");
+    }
+
+    @Test
+    void bindTo_registers_circuit_metrics() {
+        LdapCircuitBreakers breakers = breakers();
+        SimpleMeterRegistry registry = new SimpleMeterRegistry();
+        breakers.bindTo(registry);
+        failTimes(breakers, 4);
+        assertThatThrownBy(() -> breakers.call("default", this::succeed)).isInstanceOf(LdapCircuitOpenException.class);
+
+        assertThat(registry.get("georchestra.gateway.ldap.circuit.state").tag("config", "default").tag("state", "open")
+                .gauge().value()).isEqualTo(1);
+        assertThat(registry.get("georchestra.gateway.ldap.circuit.state").tag("state", "closed").gauge().value())
+                .isZero();
+        assertThat(registry.get("georchestra.gateway.ldap.circuit.transitions").tag("state", "open")
+                .functionCounter().count()).isEqualTo(1);
+        assertThat(registry.get("georchestra.gateway.ldap.circuit.calls").tag("outcome", "failure")
+                .functionCounter().count()).isEqualTo(4);
+        assertThat(registry.get("georchestra.gateway.ldap.circuit.calls").tag("outcome", "rejected")
+                .functionCounter().count()).isEqualTo(1);
+    }
+}
@@ -0,0 +1,110 @@
+/*
+ * Copyright (C) 2022 by the geOrchestra PSC
+ *
+ * This file is part of geOrchestra.
+ *
+ * geOrchestra is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free
+ * Software Foundation, either version 3 of the License, or (at your option)
+ * any later version.
+ *
+ * geOrchestra is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * geOrchestra. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.georchestra.gateway.security.ldap.extended;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.time.Duration;
+import java.util.List;
+
+import org.georchestra.gateway.security.GeorchestraGatewaySecurityConfigProperties.ConnectionPool;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.ldap.core.LdapTemplate;
+import org.springframework.ldap.core.support.LdapContextSource;
+import org.springframework.ldap.pool.factory.PoolingContextSource;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+/**
+ * Test suite for {@link LdapConnectionPools}
+ */
+class LdapConnectionPoolsTest {
+
+    private final LdapConnectionPools pools = new LdapConnectionPools();
+
+    @AfterEach
+    void tearDown() throws Exception {
+        pools.destroy();
+    }
+
+    private ExtendedLdapConfig config(String name, ConnectionPool pool) {
+        return ExtendedLdapConfig.builder().name(name).url("ldap://localhost:389").baseDn("dc=georchestra,dc=org")
+                .usersRdn("ou=users").usersSearchFilter("(uid={0})").rolesRdn("ou=roles")
+                .rolesSearchFilter("(member={0})").orgsRdn("ou=orgs").pendingOrgsRdn("ou=pendingorgs").pool(pool)
+                .build();
+    }
+
+    @Test
+    void ldapTemplate_shares_pool_per_config() {
+        ConnectionPool settings = new ConnectionPool().setEnabled(true).setMaxActive(4)
+                .setMaxWait(Duration.ofSeconds(2));
+        ExtendedLdapConfig config = config("default", settings);
+
+        LdapTemplate first = pools.ldapTemplate(config);
+        LdapTemplate second = pools.ldapTemplate(config);
+        LdapTemplate other = pools.ldapTemplate(config("other", settings));
+
+        assertThat(first.getContextSource()).isInstanceOf(PoolingContextSource.class)
+                .isSameAs(second.getContextSource()).isNotSameAs(other.getContextSource());
+        PoolingContextSource pool = (PoolingContextSource) first.getContextSource();
+        assertThat(pool.getMaxActive()).isEqualTo(4);
+        assertThat(pool.getMaxWait()).isEqualTo(2_000);
+        assertThat(pool.isTestOnBorrow()).isTrue();
+    }
+
+    @Test
+    void ldapTemplate_pool_disabled_by_default() {
+        LdapTemplate template = pools.ldapTemplate(config("default", new ConnectionPool()));
+
+        assertThat(template.getContextSource()).isInstanceOf(LdapContextSource.class);
+    }
+
+    @Test
+    void ldapTemplate_routes_among_replicas() {
+        ExtendedLdapConfig config = ExtendedLdapConfig.builder().name("default").url("ldap://primary:389")
+                .replicas(List.of("ldap://replica:389")).baseDn("dc=georchestra,dc=org").usersRdn("ou=users")
+                .usersSearchFilter("(uid={0})").rolesRdn("ou=roles").rolesSearchFilter("(member={0})")
+                .orgsRdn("ou=orgs").pendingOrgsRdn("ou=pendingorgs").pool(new ConnectionPool().setEnabled(true))
+                .build();
+
+        LdapTemplate template = pools.ldapTemplate(config);
+
+        assertThat(template.getContextSource()).isInstanceOf(LdapReplicaSet.class);
+        LdapReplicaSet replicaSet = (LdapReplicaSet) template.getContextSource();
+        assertThat(replicaSet.servers()).extracting(server -> server.url).containsExactly("ldap://primary:389",
+                "ldap://replica:389");
+        assertThat(replicaSet.servers()).extracting(server -> server.contextSource)
+                .allMatch(PoolingContextSource.class::isInstance);
+    }
+
+    @Test
+    void bindTo_registers_pool_metrics() {
+        pools.ldapTemplate(config("default", new ConnectionPool().setEnabled(true)));
+        SimpleMeterRegistry registry = new SimpleMeterRegistry();
+        pools.bindTo(registry);
+
+        assertThat(registry.get("georchestra.gateway.ldap.pool.active").tag("config", "default")
+                .tag("server", "ldap://localhost:389").gauge().value()).isZero();
+        assertThat(registry.get("georchestra.gateway.ldap.pool.idle").tag("config", "default").gauge().value())
+                .isZero();
+        assertThat(registry.get("georchestra.gateway.ldap.pool.wait").tag("config", "default").functionTimer()
+                .count()).isZero();
+    }
+}
@@ -0,0 +1,183 @@
+/*
+ * Copyright (C) 2022 by the geOrchestra PSC
+ *
+ * This file is part of geOrchestra.
+ *
+ * geOrchestra is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free
+ * Software Foundation, either version 3 of the License, or (at your option)
+ * any later version.
+ *
+ * geOrchestra is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * geOrchestra. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.georchestra.gateway.security.ldap.extended;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.UnaryOperator;
+
+import org.georchestra.gateway.security.GeorchestraGatewaySecurityConfigProperties.CacheConfig;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.security.authentication.BadCredentialsException;
+import org.springframework.security.authentication.UsernamePasswordAuthenticationToken;
+import org.springframework.security.core.Authentication;
+import org.springframework.security.core.authority.SimpleGrantedAuthority;
+import org.springframework.security.ldap.userdetails.LdapUserDetailsImpl;
+
+import com.google.common.base.Ticker;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+/**
+ * Test suite for {@link LdapCredentialsCache}
+ */
+class LdapCredentialsCacheTest {
+
+    private CacheConfig cacheConfig;
+    private AtomicLong nanos;
+    private AtomicInteger binds;
+
+    @BeforeEach
+    void before() {
+        cacheConfig = new CacheConfig().setEnabled(true).setTimeToLive(Duration.ofMinutes(5))
+                .setRefreshAfterWrite(Duration.ZERO).setMaximumSize(100);
+        nanos = new AtomicLong();
+        binds = new AtomicInteger();
+    }
+
+    private LdapCredentialsCache cache() {
+        Ticker ticker = new Ticker() {
+            public @Override long read() {
+                return nanos.get();
+            }
+        };
+        return new LdapCredentialsCache(Map.of("default", cacheConfig), ticker);
+    }
+
+    private UsernamePasswordAuthenticationToken request(String username, String password) {
+        return UsernamePasswordAuthenticationToken.unauthenticated(username, password);
+    }
+
+    private UnaryOperator<Authentication> authenticator(LdapUserDetailsImpl.Essence principal) {
+        return request -> {
+            binds.incrementAndGet();
+            if (!"secret".equals(request.getCredentials())) {
+                throw new BadCredentialsException("Bad credentials");
+            }
+            principal.setDn("uid=%s,ou=users".formatted(request.getName()));
+            principal.setUsername(request.getName());
+            return UsernamePasswordAuthenticationToken.authenticated(principal.createUserDetails(),
+                    request.getCredentials(), List.of(new SimpleGrantedAuthority("ROLE_USER")));
+        };
+    }
+
+    private UnaryOperator<Authentication> authenticator() {
+        return request -> authenticator(new LdapUserDetailsImpl.Essence()).apply(request);
+    }
+
+    @Test
+    void authenticate_binds_once() {
+        LdapCredentialsCache cache = cache();
+
+        Authentication first = cache.authenticate("default", request("testuser", "secret"), authenticator());
+        Authentication second = cache.authenticate("default", request("testuser", "secret"), authenticator());
+
+        assertThat(second).isSameAs(first);
+        assertThat(binds.get()).isEqualTo(1);
+    }
+
+    @Test
+    void authenticate_erases_cached_credentials() {
+        LdapCredentialsCache cache = cache();
+
+        Authentication auth = cache.authenticate("default", request("testuser", "secret"), authenticator());
+
+        assertThat(auth.getCredentials()).isNull();
+        assertThat(auth.getName()).isEqualTo("testuser");
+    }
+
+    @Test
+    void authenticate_different_password_misses() {
+        LdapCredentialsCache cache = cache();
+        cache.authenticate("default", request("testuser", "secret"), authenticator());
+
+        assertThatThrownBy(() -> cache.authenticate("default", request("testuser", "wrong"), authenticator()))
+                .isInstanceOf(BadCredentialsException.class);
+        assertThat(binds.get()).isEqualTo(2);
+    }
+
+    @Test
+    void authenticate_does_not_cache_failures() {
+        LdapCredentialsCache cache = cache();
+
+        for (int i = 0; i < 2; i++) {
+            assertThatThrownBy(() -> cache.authenticate("default", request("testuser", "wrong"), authenticator()))
+                    .isInstanceOf(BadCredentialsException.class);
+        }
+        assertThat(binds.get()).isEqualTo(2);
+    }
+
+    @Test
+    void authenticate_does_not_cache_password_policy_warnings() {
+        LdapCredentialsCache cache = cache();
+        LdapUserDetailsImpl.Essence expiring = new LdapUserDetailsImpl.Essence();
+        expiring.setTimeBeforeExpiration(3600);
+
+        cache.authenticate("default", request("testuser", "secret"), authenticator(expiring));
+        cache.authenticate("default", request("testuser", "secret"), authenticator());
+        cache.authenticate("default", request("testuser", "secret"), authenticator());
+
+        assertThat(binds.get()).isEqualTo(2);
+    }
+
+    @Test
+    void authenticate_expires_after_time_to_live() {
+        LdapCredentialsCache cache = cache();
+
+        cache.authenticate("default", request("testuser", "secret"), authenticator());
+        nanos.addAndGet(Duration.ofMinutes(4).toNanos());
+        cache.authenticate("default", request("testuser", "secret"), authenticator());
+        assertThat(binds.get()).isEqualTo(1);
+
+        nanos.addAndGet(Duration.ofMinutes(2).toNanos());
+        cache.authenticate("default", request("testuser", "secret"), authenticator());
+        assertThat(binds.get()).isEqualTo(2);
+    }
+
+    @Test
+    void authenticate_cache_disabled() {
+        cacheConfig.setEnabled(false);
+        LdapCredentialsCache cache = cache();
+
+        cache.authenticate("default", request("testuser", "secret"), authenticator());
+        cache.authenticate("default", request("testuser", "secret"), authenticator());
+
+        assertThat(binds.get()).isEqualTo(2);
+    }
+
+    @Test
+    void bindTo_registers_cache_metrics() {
+        LdapCredentialsCache cache = cache();
+        SimpleMeterRegistry registry = new SimpleMeterRegistry();
+        cache.bindTo(registry);
+
+        cache.authenticate("default", request("testuser", "secret"), authenticator());
+        cache.authenticate("default", request("testuser", "secret"), authenticator());
+
+        assertThat(registry.get("cache.gets").tag("cache", LdapCredentialsCache.CACHE_NAME).tag("config", "default")
+                .tag("result", "hit").functionCounter().count()).isEqualTo(1);
+    }
+}
@@ -0,0 +1,321 @@
+/*
+ * Copyright (C) 2022 by the geOrchestra PSC
+ *
+ * This file is part of geOrchestra.
+ *
+ * geOrchestra is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free
+ * Software Foundation, either version 3 of the License, or (at your option)
+ * any later version.
+ *
+ * geOrchestra is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * geOrchestra. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.georchestra.gateway.security.ldap.extended;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.argThat;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+
+import org.georchestra.gateway.security.GeorchestraGatewaySecurityConfigProperties.DirectorySnapshot;
+import org.georchestra.gateway.security.ldap.extended.LdapDirectorySnapshot.ModifiedEntry;
+import org.georchestra.security.api.OrganizationsApi;
+import org.georchestra.security.api.UsersApi;
+import org.georchestra.security.model.GeorchestraUser;
+import org.georchestra.security.model.Organization;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentMatchers;
+import org.springframework.ldap.core.AttributesMapper;
+import org.springframework.ldap.core.LdapOperations;
+import org.springframework.ldap.query.LdapQuery;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+/**
+ * Test suite for {@link LdapDirectorySnapshot}
+ */
+class LdapDirectorySnapshotTest {
+
+    private UsersApi mockUsers;
+    private OrganizationsApi mockOrgs;
+    private LdapOperations mockLdap;
+    private Organization psc;
+    private LdapDirectorySnapshot snapshot;
+
+    @BeforeEach
+    void before() {
+        mockUsers = mock(UsersApi.class);
+        mockOrgs = mock(OrganizationsApi.class);
+        mockLdap = mock(LdapOperations.class);
+        psc = new Organization();
+        psc.setShortName("PSC");
+        when(mockOrgs.findAll()).thenReturn(List.of(psc));
+
+        ExtendedLdapConfig config = ExtendedLdapConfig.builder().name("default").url("ldap://localhost:389")
+                .baseDn("dc=georchestra,dc=org").usersRdn("ou=users").usersSearchFilter("(uid={0})")
+                .rolesRdn("ou=roles").rolesSearchFilter("(member={0})").orgsRdn("ou=orgs")
+                .pendingOrgsRdn("ou=pendingorgs").snapshot(new DirectorySnapshot().setEnabled(true)).build();
+        snapshot = new LdapDirectorySnapshot(config, mockUsers, mockOrgs, mockLdap);
+    }
+
+    private GeorchestraUser user(String username, String email, String org, String... roles) {
+        GeorchestraUser user = new GeorchestraUser();
+        user.setUsername(username);
+        user.setEmail(email);
+        user.setOrganization(org);
+        user.setRoles(new ArrayList<>(List.of(roles)));
+        return user;
+    }
+
+    private void stubModified(String baseRdn, ModifiedEntry... entries) {
+        when(mockLdap.search(argThat((LdapQuery query) -> query != null && baseRdn.equals(query.base().toString())
+                && query.filter().encode().contains("modifyTimestamp")),
+                ArgumentMatchers.<AttributesMapper<ModifiedEntry>>any())).thenReturn(List.of(entries));
+    }
+
+    @Test
+    void lookups_before_loading_miss() {
+        assertThat(snapshot.isReady()).isFalse();
+        assertThat(snapshot.findByUsername("testuser")).isEmpty();
+        verify(mockUsers, never()).findByUsername("testuser");
+    }
+
+    @Test
+    void fullSync_indexes_users() {
+        GeorchestraUser testuser = user("testuser", "TestUser@example.com", "PSC", "USER");
+        testuser.setOAuth2Provider("google");
+        testuser.setOAuth2Uid("1234");
+        when(mockUsers.findAll()).thenReturn(List.of(testuser, user("other", "other@example.com", null, "USER")));
+
+        snapshot.fullSync();
+
+        assertThat(snapshot.isReady()).isTrue();
+        assertThat(snapshot.findByUsername("testuser")).isPresent();
+        assertThat(snapshot.findByEmail("testuser@example.com").orElseThrow().getUsername()).isEqualTo("testuser");
+        assertThat(snapshot.findByOAuth2Uid("google", "1234").orElseThrow().getUsername()).isEqualTo("testuser");
+        assertThat(snapshot.findByUsername("testuser").orElseThrow().getOrg()).isSameAs(psc);
+        assertThat(snapshot.findByUsername("other").orElseThrow().getOrg()).isNull();
+        assertThat(snapshot.findByUsername("missing")).isEmpty();
+        verify(mockUsers, never()).findByUsername("testuser");
+    }
+
+    @Test
+    void findByEmail_misses_shared_emails() {
+        when(mockUsers.findAll()).thenReturn(List.of(user("testuser", "shared@example.com", null, "USER"),
+                user("other", "Shared@example.com", null, "USER")));
+        snapshot.fullSync();
+
+        assertThat(snapshot.findByEmail("shared@example.com")).isEmpty();
+
+        // the email is not shared anymore once other changed it
+        stubModified("ou=users", new ModifiedEntry("other", List.of()));
+        when(mockUsers.findByUsername("other")).thenReturn(Optional.of(user("other", "other@example.com", null)));
+        snapshot.deltaSync();
+
+        assertThat(snapshot.findByEmail("shared@example.com").orElseThrow().getUsername()).isEqualTo("testuser");
+        assertThat(snapshot.findByEmail("other@example.com").orElseThrow().getUsername()).isEqualTo("other");
+    }
+
+    @Test
+    void fullSync_shares_role_lists() {
+        when(mockUsers.findAll()).thenReturn(List.of(user("testuser", null, "PSC", "USER"),
+                user("other", null, new String("PSC"), new String("USER"))));
+        snapshot.fullSync();
+
+        Object index = ReflectionTestUtils.getField(snapshot, "index");
+        @SuppressWarnings("unchecked")
+        Map<String, GeorchestraUser> users = (Map<String, GeorchestraUser>) ReflectionTestUtils.getField(index,
+                "users");
+
+        assertThat(users.get("other").getRoles()).isSameAs(users.get("testuser").getRoles());
+        assertThat(users.get("other").getOrganization()).isSameAs(users.get("testuser").getOrganization());
+    }
+
+    @Test
+    void lookups_return_copies() {
+        when(mockUsers.findAll()).thenReturn(List.of(user("testuser", null, null, "USER")));
+        snapshot.fullSync();
+
+        snapshot.findByUsername("testuser").orElseThrow().setRoles(new ArrayList<>(List.of("ROLE_ADMINISTRATOR")));
+
+        assertThat(snapshot.findByUsername("testuser").orElseThrow().getRoles()).containsExactly("USER");
+    }
+
+    @Test
+    void deltaSync_reloads_modified_users() {
+        when(mockUsers.findAll()).thenReturn(List.of(user("testuser", "old@example.com", null, "USER")));
+        snapshot.fullSync();
+
+        stubModified("ou=users", new ModifiedEntry("testuser", List.of()), new ModifiedEntry("created", List.of()));
+        when(mockUsers.findByUsername("testuser"))
+                .thenReturn(Optional.of(user("testuser", "new@example.com", null, "USER")));
+        when(mockUsers.findByUsername("created")).thenReturn(Optional.of(user("created", null, null, "USER")));
+        snapshot.deltaSync();
+
+        assertThat(snapshot.findByEmail("old@example.com")).isEmpty();
+        assertThat(snapshot.findByEmail("new@example.com")).isPresent();
+        assertThat(snapshot.findByUsername("created")).isPresent();
+        verify(mockUsers, times(1)).findAll();
+    }
+
+    @Test
+    void deltaSync_reloads_members_of_modified_roles() {
+        when(mockUsers.findAll()).thenReturn(
+                List.of(user("admin", null, null, "USER", "ADMINISTRATOR"), user("granted", null, null, "USER")));
+        snapshot.fullSync();
+
+        // admin was removed from the role, granted was added to it
+        stubModified("ou=roles", new ModifiedEntry("ADMINISTRATOR", List.of("granted")));
+        when(mockUsers.findByUsername("admin")).thenReturn(Optional.of(user("admin", null, null, "USER")));
+        when(mockUsers.findByUsername("granted"))
+                .thenReturn(Optional.of(user("granted", null, null, "USER", "ADMINISTRATOR")));
+        snapshot.deltaSync();
+
+        assertThat(snapshot.findByUsername("admin").orElseThrow().getRoles()).containsExactly("USER");
+        assertThat(snapshot.findByUsername("granted").orElseThrow().getRoles()).containsExactly("USER",
+                "ADMINISTRATOR");
+    }
+
+    @Test
+    void deltaSync_only_reloads_membership_changes_of_modified_roles() {
+        when(mockUsers.findAll()).thenReturn(List.of(user("admin", null, null, "ROLE_USER", "ROLE_ADMINISTRATOR"),
+                user("other", null, null, "ROLE_USER")));
+        snapshot.fullSync();
+
+        // the role's description changed, not its members
+        stubModified("ou=roles", new ModifiedEntry("ADMINISTRATOR", List.of("admin")),
+                new ModifiedEntry("USER", List.of("admin", "other")));
+        snapshot.deltaSync();
+
+        verify(mockUsers, never()).findByUsername(ArgumentMatchers.anyString());
+        assertThat(snapshot.findByUsername("admin").orElseThrow().getRoles()).containsExactly("ROLE_USER",
+                "ROLE_ADMINISTRATOR");
+    }
+
+    @Test
+    void deltaSync_reloads_modified_organizations() {
+        when(mockUsers.findAll()).thenReturn(List.of(user("testuser", null, "PSC", "USER")));
+        snapshot.fullSync();
+
+        Organization updated = new Organization();
+        updated.setShortName("PSC");
+        updated.setName("Updated");
+        stubModified("ou=orgs", new ModifiedEntry("PSC", List.of("testuser")));
+        when(mockOrgs.findByShortName("PSC")).thenReturn(Optional.of(updated));
+        when(mockUsers.findByUsername("testuser")).thenReturn(Optional.of(user("testuser", null, "PSC", "USER")));
+        snapshot.deltaSync();
+
+        assertThat(snapshot.findByUsername("testuser").orElseThrow().getOrg()).isSameAs(updated);
+        verify(mockUsers, never()).findByUsername("testuser");
+    }
+
+    @Test
+    void deltaSync_removes_deleted_users() {
+        when(mockUsers.findAll()).thenReturn(List.of(user("testuser", "test@example.com", null, "USER")));
+        snapshot.fullSync();
+
+        stubModified("ou=users", new ModifiedEntry("testuser", List.of()));
+        when(mockUsers.findByUsername("testuser")).thenReturn(Optional.empty());
+        snapshot.deltaSync();
+
+        assertThat(snapshot.findByUsername("testuser")).isEmpty();
+        assertThat(snapshot.findByEmail("test@example.com")).isEmpty();
+    }
+
+    @Test
+    void deltaSync_removes_users_deleted_from_modified_roles() {
+        when(mockUsers.findAll()).thenReturn(List.of(user("testuser", "test@example.com", null, "USER"),
+                user("other", null, null, "USER")));
+        snapshot.fullSync();
+
+        // deleting testuser removed it from its role
+        stubModified("ou=roles", new ModifiedEntry("USER", List.of("other")));
+        when(mockUsers.findByUsername("testuser")).thenReturn(Optional.empty());
+        snapshot.deltaSync();
+
+        assertThat(snapshot.findByUsername("testuser")).isEmpty();
+        assertThat(snapshot.findByEmail("test@example.com")).isEmpty();
+        assertThat(snapshot.findByUsername("other")).isPresent();
+        verify(mockUsers, never()).findByUsername("other");
+    }
+
+    @Test
+    void fullSync_removes_users_deleted_from_directory() {
+        when(mockUsers.findAll()).thenReturn(List.of(user("testuser", "test@example.com", null, "USER"),
+                user("other", null, null, "USER")));
+        snapshot.fullSync();
+
+        // testuser was deleted, which doesn't update any modifyTimestamp
+        when(mockUsers.findAll()).thenReturn(List.of(user("other", null, null, "USER")));
+        snapshot.deltaSync();
+        assertThat(snapshot.findByUsername("testuser")).isPresent();
+
+        snapshot.fullSync();
+        assertThat(snapshot.findByUsername("testuser")).isEmpty();
+        assertThat(snapshot.findByEmail("test@example.com")).isEmpty();
+        assertThat(snapshot.findByUsername("other")).isPresent();
+    }
+
+    @Test
+    void sync_keeps_snapshot_on_errors() {
+        when(mockUsers.findAll()).thenReturn(List.of(user("testuser", null, null, "USER")));
+        snapshot.sync();
+
+        when(mockLdap.search(ArgumentMatchers.<LdapQuery>any(),
+                ArgumentMatchers.<AttributesMapper<ModifiedEntry>>any()))
+                .thenThrow(new IllegalStateException("ldap down"));
+        snapshot.sync();
+
+        assertThat(snapshot.findByUsername("testuser")).isPresent();
+    }
+
+    @Test
+    void demultiplexingUsersApi_falls_back_to_directory() {
+        when(mockUsers.findAll()).thenReturn(List.of(user("testuser", null, "PSC", "USER")));
+        when(mockUsers.findByUsername("created")).thenReturn(Optional.of(user("created", null, null, "USER")));
+        snapshot.fullSync();
+        DemultiplexingUsersApi users = new DemultiplexingUsersApi(Map.of("default", mockUsers),
+                new LdapOrganizationCache(Map.of("default", mockOrgs), Map.of()), Map.of("default", snapshot));
+
+        assertThat(users.findByUsername("default", "testuser").orElseThrow().getOrg()).isSameAs(psc);
+        assertThat(users.findByUsername("default", "created")).isPresent();
+        verify(mockUsers, never()).findByUsername("testuser");
+        verify(mockUsers, times(1)).findByUsername("created");
+    }
+
+    @Test
+    void bindTo_registers_metrics() {
+        when(mockUsers.findAll()).thenReturn(List.of(user("testuser", null, null, "USER")));
+        SimpleMeterRegistry registry = new SimpleMeterRegistry();
+        snapshot.bindTo(registry);
+
+        snapshot.sync();
+        snapshot.findByUsername("testuser");
+        snapshot.findByUsername("missing");
+
+        assertThat(registry.get("georchestra.gateway.ldap.snapshot.users").tag("config", "default").gauge().value())
+                .isEqualTo(1);
+        assertThat(registry.get("georchestra.gateway.ldap.snapshot.syncs").tag("type", "full")
+                .tag("outcome", "success").functionCounter().count()).isEqualTo(1);
+        assertThat(registry.get("georchestra.gateway.ldap.snapshot.lookups").tag("result", "hit").functionCounter()
+                .count()).isEqualTo(1);
+        assertThat(registry.get("georchestra.gateway.ldap.snapshot.lookups").tag("result", "miss").functionCounter()
+                .count()).isEqualTo(1);
+    }
+}
@@ -0,0 +1,134 @@
+/*
+ * Copyright (C) 2022 by the geOrchestra PSC
+ *
+ * This file is part of geOrchestra.
+ *
+ * geOrchestra is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free
+ * Software Foundation, either version 3 of the License, or (at your option)
+ * any later version.
+ *
+ * geOrchestra is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * geOrchestra. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.georchestra.gateway.security.ldap.extended;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.util.List;
+
+import org.georchestra.gateway.security.GeorchestraGatewaySecurityConfigProperties.EmailIndex;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentMatchers;
+import org.springframework.ldap.core.AttributesMapper;
+import org.springframework.ldap.core.LdapOperations;
+import org.springframework.ldap.query.LdapQuery;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+/**
+ * Test suite for {@link LdapEmailIndex}
+ */
+class LdapEmailIndexTest {
+
+    private LdapOperations mockLdap;
+    private LdapEmailIndex index;
+
+    @BeforeEach
+    void before() {
+        mockLdap = mock(LdapOperations.class);
+        ExtendedLdapConfig config = ExtendedLdapConfig.builder().name("default").url("ldap://localhost:389")
+                .baseDn("dc=georchestra,dc=org").usersRdn("ou=users").usersSearchFilter("(uid={0})")
+                .rolesRdn("ou=roles").rolesSearchFilter("(member={0})").orgsRdn("ou=orgs")
+                .pendingOrgsRdn("ou=pendingorgs").emailIndex(new EmailIndex().setEnabled(true)).build();
+        index = new LdapEmailIndex(config, mockLdap);
+    }
+
+    private void stubEntries(String[]... entries) {
+        when(mockLdap.search(any(LdapQuery.class), ArgumentMatchers.<AttributesMapper<String[]>>any()))
+                .thenReturn(List.of(entries));
+    }
+
+    @Test
+    void lookups_before_loading_miss() {
+        assertThat(index.isReady()).isFalse();
+        assertThat(index.findUsername("testuser@example.com")).isEmpty();
+    }
+
+    @Test
+    void refresh_indexes_emails_case_insensitively() {
+        stubEntries(new String[] { "testuser", "TestUser@example.com" }, new String[] { "other", "other@example.com" });
+
+        index.refresh();
+
+        assertThat(index.isReady()).isTrue();
+        assertThat(index.findUsername("testuser@example.com")).contains("testuser");
+        assertThat(index.findUsername("OTHER@example.com")).contains("other");
+        assertThat(index.findUsername("missing@example.com")).isEmpty();
+    }
+
+    @Test
+    void refresh_skips_shared_emails() {
+        stubEntries(new String[] { "first", "shared@example.com" }, new String[] { "second", "Shared@example.com" },
+                new String[] { "testuser", "testuser@example.com" }, new String[] { null, "nouid@example.com" });
+
+        index.refresh();
+
+        assertThat(index.findUsername("shared@example.com")).isEmpty();
+        assertThat(index.findUsername("nouid@example.com")).isEmpty();
+        assertThat(index.findUsername("testuser@example.com")).contains("testuser");
+    }
+
+    @Test
+    void refresh_replaces_index() {
+        stubEntries(new String[] { "testuser", "old@example.com" });
+        index.refresh();
+        stubEntries(new String[] { "testuser", "new@example.com" });
+        index.refresh();
+
+        assertThat(index.findUsername("old@example.com")).isEmpty();
+        assertThat(index.findUsername("new@example.com")).contains("testuser");
+    }
+
+    @Test
+    void refresh_error_keeps_index() {
+        stubEntries(new String[] { "testuser", "testuser@example.com" });
+        index.refresh();
+        when(mockLdap.search(any(LdapQuery.class), ArgumentMatchers.<AttributesMapper<String[]>>any()))
+                .thenThrow(new IllegalStateException("directory down"));
+
+        index.refresh();
+
+        assertThat(index.findUsername("testuser@example.com")).contains("testuser");
+    }
+
+    @Test
+    void metrics() {
+        SimpleMeterRegistry registry = new SimpleMeterRegistry();
+        index.bindTo(registry);
+        stubEntries(new String[] { "testuser", "testuser@example.com" });
+        index.refresh();
+
+        index.findUsername("testuser@example.com");
+        index.findUsername("missing@example.com");
+        index.findUsername("missing@example.com");
+
+        assertThat(registry.get("georchestra.gateway.ldap.emails.size").tag("config", "default").gauge().value())
+                .isEqualTo(1);
+        assertThat(registry.get("georchestra.gateway.ldap.emails.lookups").tag("result", "hit").functionCounter()
+                .count()).isEqualTo(1);
+        assertThat(registry.get("georchestra.gateway.ldap.emails.lookups").tag("result", "miss").functionCounter()
+                .count()).isEqualTo(2);
+        assertThat(registry.get("georchestra.gateway.ldap.emails.refreshes").tag("outcome", "success")
+                .functionCounter().count()).isEqualTo(1);
+    }
+}
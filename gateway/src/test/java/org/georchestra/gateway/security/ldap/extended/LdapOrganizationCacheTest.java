@@ -0,0 +1,178 @@
+/*
+ * Copyright (C) 2022 by the geOrchestra PSC
+ *
+ * This file is part of geOrchestra.
+ *
+ * geOrchestra is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free
+ * Software Foundation, either version 3 of the License, or (at your option)
+ * any later version.
+ *
+ * geOrchestra is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * geOrchestra. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.georchestra.gateway.security.ldap.extended;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+
+import org.georchestra.gateway.security.GeorchestraGatewaySecurityConfigProperties.CacheConfig;
+import org.georchestra.security.api.OrganizationsApi;
+import org.georchestra.security.api.UsersApi;
+import org.georchestra.security.model.GeorchestraUser;
+import org.georchestra.security.model.Organization;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+/**
+ * Test suite for {@link LdapOrganizationCache}
+ */
+class LdapOrganizationCacheTest {
+
+    private OrganizationsApi mockOrgs;
+    private CacheConfig cacheConfig;
+    private Organization org;
+
+    @BeforeEach
+    void before() {
+        mockOrgs = mock(OrganizationsApi.class);
+        cacheConfig = new CacheConfig().setEnabled(true).setTimeToLive(Duration.ofMinutes(10))
+                .setRefreshAfterWrite(Duration.ZERO).setMaximumSize(100);
+        org = new Organization();
+        org.setShortName("PSC");
+        when(mockOrgs.findByShortName("PSC")).thenReturn(Optional.of(org));
+        when(mockOrgs.findByShortName("missing")).thenReturn(Optional.empty());
+    }
+
+    private LdapOrganizationCache cache() {
+        return new LdapOrganizationCache(Map.of("default", mockOrgs), Map.of("default", cacheConfig));
+    }
+
+    @Test
+    void findByShortName_hits_directory_once() {
+        LdapOrganizationCache cache = cache();
+
+        assertThat(cache.findByShortName("default", "PSC")).containsSame(org);
+        assertThat(cache.findByShortName("default", "PSC")).containsSame(org);
+
+        verify(mockOrgs, times(1)).findByShortName("PSC");
+    }
+
+    @Test
+    void findByShortName_caches_missing_orgs() {
+        LdapOrganizationCache cache = cache();
+
+        assertThat(cache.findByShortName("default", "missing")).isEmpty();
+        assertThat(cache.findByShortName("default", "missing")).isEmpty();
+
+        verify(mockOrgs, times(1)).findByShortName("missing");
+    }
+
+    @Test
+    void findByShortName_cache_disabled() {
+        cacheConfig.setEnabled(false);
+        LdapOrganizationCache cache = cache();
+
+        cache.findByShortName("default", "PSC");
+        cache.findByShortName("default", "PSC");
+
+        verify(mockOrgs, times(2)).findByShortName("PSC");
+    }
+
+    @Test
+    void findByShortName_refresh_runs_in_background() {
+        List<Runnable> reloads = new ArrayList<>();
+        cacheConfig.setRefreshAfterWrite(Duration.ofNanos(1));
+        LdapOrganizationCache cache = new LdapOrganizationCache(Map.of("default", mockOrgs),
+                Map.of("default", cacheConfig), new LdapCacheReloads(reloads::add));
+        cache.findByShortName("default", "PSC");
+
+        Organization updated = new Organization();
+        when(mockOrgs.findByShortName("PSC")).thenReturn(Optional.of(updated));
+
+        // the cached organization is served while reloading
+        assertThat(cache.findByShortName("default", "PSC")).containsSame(org);
+        assertThat(reloads).hasSize(1);
+        verify(mockOrgs, times(1)).findByShortName("PSC");
+
+        reloads.remove(0).run();
+        assertThat(cache.findByShortName("default", "PSC")).containsSame(updated);
+    }
+
+    @Test
+    void evict() {
+        LdapOrganizationCache cache = cache();
+        assertThat(cache.findByShortName("default", "missing")).isEmpty();
+
+        Organization created = new Organization();
+        when(mockOrgs.findByShortName("missing")).thenReturn(Optional.of(created));
+        cache.evict("default", "missing");
+
+        assertThat(cache.findByShortName("default", "missing")).containsSame(created);
+    }
+
+    @Test
+    void evictAll() {
+        LdapOrganizationCache cache = cache();
+        cache.findByShortName("default", "PSC");
+        cache.findByShortName("default", "missing");
+
+        cache.evictAll("default");
+        cache.findByShortName("default", "PSC");
+        cache.findByShortName("default", "missing");
+
+        verify(mockOrgs, times(2)).findByShortName("PSC");
+        verify(mockOrgs, times(2)).findByShortName("missing");
+    }
+
+    @Test
+    void bindTo_registers_hit_ratio() {
+        LdapOrganizationCache cache = cache();
+        SimpleMeterRegistry registry = new SimpleMeterRegistry();
+        cache.bindTo(registry);
+
+        cache.findByShortName("default", "PSC");
+        cache.findByShortName("default", "PSC");
+        cache.findByShortName("default", "PSC");
+        cache.findByShortName("default", "PSC");
+
+        assertThat(registry.get("georchestra.gateway.ldap.orgs.cache.hit.ratio").tag("config", "default").gauge()
+                .value()).isEqualTo(0.75);
+        assertThat(registry.get("cache.gets").tag("cache", LdapOrganizationCache.CACHE_NAME).tag("result", "hit")
+                .functionCounter().count()).isEqualTo(3);
+    }
+
+    @Test
+    void demultiplexingUsersApi_extends_users_with_cached_orgs() {
+        UsersApi mockUsers = mock(UsersApi.class);
+        GeorchestraUser user = new GeorchestraUser();
+        user.setUsername("testuser");
+        user.setOrganization("PSC");
+        when(mockUsers.findByUsername("testuser")).thenReturn(Optional.of(user));
+        DemultiplexingUsersApi users = new DemultiplexingUsersApi(Map.of("default", mockUsers), cache());
+
+        assertThat(users.findByUsername("default", "testuser").orElseThrow().getOrg()).isSameAs(org);
+        assertThat(users.findByUsername("default", "testuser").orElseThrow().getOrg()).isSameAs(org);
+        verify(mockOrgs, times(1)).findByShortName("PSC");
+
+        users.evictOrganization("PSC");
+        users.findByUsername("default", "testuser");
+        verify(mockOrgs, times(2)).findByShortName("PSC");
+    }
+}
@@ -0,0 +1,174 @@
+/*
+ * Copyright (C) 2022 by the geOrchestra PSC
+ *
+ * This file is part of geOrchestra.
+ *
+ * geOrchestra is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free
+ * Software Foundation, either version 3 of the License, or (at your option)
+ * any later version.
+ *
+ * geOrchestra is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * geOrchestra. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.georchestra.gateway.security.ldap.extended;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.time.Duration;
+import java.util.List;
+
+import javax.naming.directory.DirContext;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.dao.DataAccessResourceFailureException;
+import org.springframework.ldap.AuthenticationException;
+import org.springframework.ldap.CommunicationException;
+import org.springframework.ldap.core.ContextSource;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+/**
+ * Test suite for {@link LdapReplicaSet}
+ */
+class LdapReplicaSetTest {
+
+    private ContextSource primarySource;
+    private ContextSource replicaSource;
+    private LdapReplicaSet.Server primary;
+    private LdapReplicaSet.Server replica;
+    private LdapReplicaSet replicaSet;
+
+    @BeforeEach
+    void setUp() {
+        primarySource = mock(ContextSource.class);
+        replicaSource = mock(ContextSource.class);
+        primary = new LdapReplicaSet.Server("ldap://primary:389", primarySource, mock(ContextSource.class));
+        replica = new LdapReplicaSet.Server("ldap://replica:389", replicaSource, mock(ContextSource.class));
+        replicaSet = new LdapReplicaSet("default", List.of(primary, replica), Duration.ofSeconds(10));
+    }
+
+    @Test
+    void candidates_prefer_primary_until_probed() {
+        assertThat(replicaSet.candidates()).containsExactly(primary, replica);
+    }
+
+    @Test
+    void candidates_prefer_fastest_server() {
+        primary.recordLatency(50_000_000);
+        replica.recordLatency(5_000_000);
+
+        assertThat(replicaSet.candidates()).containsExactly(replica, primary);
+    }
+
+    @Test
+    void candidates_skip_servers_down() {
+        primary.recordLatency(5_000_000);
+        replica.recordLatency(50_000_000);
+        primary.markDown();
+
+        assertThat(replicaSet.candidates()).containsExactly(replica, primary);
+
+        primary.recordLatency(5_000_000);
+        assertThat(replicaSet.candidates()).containsExactly(primary, replica);
+    }
+
+    @Test
+    void recordLatency_moving_average() {
+        primary.recordLatency(100);
+        assertThat(primary.latencyNanos()).isEqualTo(100);
+
+        primary.recordLatency(200);
+        assertThat(primary.latencyNanos()).isEqualTo(100 + LdapReplicaSet.EWMA_WEIGHT * 100);
+    }
+
+    @Test
+    void getReadOnlyContext_fails_over_to_replica() {
+        DirContext replicaContext = mock(DirContext.class);
+        when(primarySource.getReadOnlyContext()).thenThrow(new DataAccessResourceFailureException(
+                "Failed to borrow DirContext from pool.", new CommunicationException(
+                        new javax.naming.CommunicationException("primary:389"))));
+        when(replicaSource.getReadOnlyContext()).thenReturn(replicaContext);
+
+        assertThat(replicaSet.getReadOnlyContext()).isSameAs(replicaContext);
+        assertThat(primary.isUp()).isFalse();
+        assertThat(replicaSet.candidates()).containsExactly(replica, primary);
+    }
+
+    @Test
+    void getReadOnlyContext_all_servers_down() {
+        CommunicationException error = new CommunicationException(
+                new javax.naming.CommunicationException("primary:389"));
+        when(primarySource.getReadOnlyContext()).thenThrow(error);
+        when(replicaSource.getReadOnlyContext())
+                .thenThrow(new CommunicationException(new javax.naming.CommunicationException("replica:389")));
+
+        assertThatThrownBy(replicaSet::getReadOnlyContext).isSameAs(error);
+        assertThat(primary.isUp()).isFalse();
+        assertThat(replica.isUp()).isFalse();
+    }
+
+    @Test
+    void getContext_does_not_fail_over_on_authentication_errors() {
+        when(primarySource.getContext(eq("uid=testuser"), any()))
+                .thenThrow(new AuthenticationException(new javax.naming.AuthenticationException("bad credentials")));
+
+        assertThatThrownBy(() -> replicaSet.getContext("uid=testuser", "wrong"))
+                .isInstanceOf(AuthenticationException.class);
+        assertThat(primary.isUp()).isTrue();
+        verify(replicaSource, never()).getContext(any(), any());
+    }
+
+    @Test
+    void getReadWriteContext_targets_primary() {
+        DirContext primaryContext = mock(DirContext.class);
+        when(primarySource.getReadWriteContext()).thenReturn(primaryContext);
+        primary.recordLatency(50_000_000);
+        replica.recordLatency(5_000_000);
+
+        assertThat(replicaSet.getReadWriteContext()).isSameAs(primaryContext);
+        verify(replicaSource, never()).getReadWriteContext();
+    }
+
+    @Test
+    void probe_marks_unreachable_server_down() throws Exception {
+        DirContext probeContext = mock(DirContext.class);
+        when(primary.probeContextSource.getReadOnlyContext()).thenReturn(probeContext);
+        when(replica.probeContextSource.getReadOnlyContext())
+                .thenThrow(new CommunicationException(new javax.naming.CommunicationException("replica:389")));
+
+        replicaSet.probe();
+
+        assertThat(primary.isUp()).isTrue();
+        assertThat(primary.latencyNanos()).isPositive();
+        assertThat(replica.isUp()).isFalse();
+        verify(probeContext).close();
+    }
+
+    @Test
+    void bindTo_registers_server_metrics() {
+        SimpleMeterRegistry registry = new SimpleMeterRegistry();
+        replicaSet.bindTo(registry);
+        replica.markDown();
+
+        assertThat(registry.get("georchestra.gateway.ldap.server.up").tag("config", "default")
+                .tag("server", "ldap://primary:389").gauge().value()).isEqualTo(1);
+        assertThat(registry.get("georchestra.gateway.ldap.server.up").tag("server", "ldap://replica:389").gauge()
+                .value()).isZero();
+        assertThat(registry.get("georchestra.gateway.ldap.server.failures").tag("server", "ldap://replica:389")
+                .functionCounter().count()).isEqualTo(1);
+    }
+}
@@ -0,0 +1,172 @@
+/*
+ * Copyright (C) 2022 by the geOrchestra PSC
+ *
+ * This file is part of geOrchestra.
+ *
+ * geOrchestra is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free
+ * Software Foundation, either version 3 of the License, or (at your option)
+ * any later version.
+ *
+ * geOrchestra is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * geOrchestra. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.georchestra.gateway.security.ldap.extended;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.argThat;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.util.List;
+
+import org.georchestra.gateway.security.GeorchestraGatewaySecurityConfigProperties.RoleMembershipIndex;
+import org.georchestra.gateway.security.ldap.extended.LdapRoleMembershipIndex.RoleEntry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentMatchers;
+import org.springframework.ldap.core.AttributesMapper;
+import org.springframework.ldap.core.DirContextAdapter;
+import org.springframework.ldap.core.LdapOperations;
+import org.springframework.ldap.query.LdapQuery;
+import org.springframework.security.core.GrantedAuthority;
+import org.springframework.security.core.authority.AuthorityUtils;
+import org.springframework.security.core.authority.SimpleGrantedAuthority;
+import org.springframework.security.ldap.userdetails.LdapAuthoritiesPopulator;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+/**
+ * Test suite for {@link LdapRoleMembershipIndex}
+ */
+class LdapRoleMembershipIndexTest {
+
+    private static final String TESTUSER_DN = "uid=testuser,ou=users,dc=georchestra,dc=org";
+    private static final String OTHER_DN = "uid=other,ou=users,dc=georchestra,dc=org";
+
+    private LdapOperations mockLdap;
+    private LdapRoleMembershipIndex index;
+
+    @BeforeEach
+    void before() {
+        mockLdap = mock(LdapOperations.class);
+        ExtendedLdapConfig config = ExtendedLdapConfig.builder().name("default").url("ldap://localhost:389")
+                .baseDn("dc=georchestra,dc=org").usersRdn("ou=users").usersSearchFilter("(uid={0})")
+                .rolesRdn("ou=roles").rolesSearchFilter("(member={0})").orgsRdn("ou=orgs")
+                .pendingOrgsRdn("ou=pendingorgs").roleIndex(new RoleMembershipIndex().setEnabled(true)).build();
+        index = new LdapRoleMembershipIndex(config, "member", mockLdap);
+    }
+
+    private void stubRoles(String filterPrefix, RoleEntry... roles) {
+        when(mockLdap.search(
+                argThat((LdapQuery query) -> query != null && query.filter().encode().startsWith(filterPrefix)),
+                ArgumentMatchers.<AttributesMapper<RoleEntry>>any())).thenReturn(List.of(roles));
+    }
+
+    private List<String> roles(String userDn) {
+        return index.findAuthorities(userDn).orElseThrow().stream().map(GrantedAuthority::getAuthority).sorted()
+                .toList();
+    }
+
+    @Test
+    void membershipAttribute() {
+        assertThat(LdapRoleMembershipIndex.membershipAttribute("(member={0})")).contains("member");
+        assertThat(LdapRoleMembershipIndex.membershipAttribute(" ( uniqueMember = {0} ) ")).contains("uniqueMember");
+        assertThat(LdapRoleMembershipIndex.membershipAttribute("(memberUid={1})")).isEmpty();
+        assertThat(LdapRoleMembershipIndex.membershipAttribute("(&(objectClass=groupOfMembers)(member={0}))"))
+                .isEmpty();
+        assertThat(LdapRoleMembershipIndex.membershipAttribute(null)).isEmpty();
+    }
+
+    @Test
+    void lookups_before_loading_miss() {
+        assertThat(index.isReady()).isFalse();
+        assertThat(index.findAuthorities(TESTUSER_DN)).isEmpty();
+    }
+
+    @Test
+    void fullSync_indexes_members() {
+        stubRoles("(cn=*)", new RoleEntry("USER", List.of(TESTUSER_DN, OTHER_DN)),
+                new RoleEntry("Administrator", List.of(TESTUSER_DN)), new RoleEntry("EMPTY", List.of()));
+
+        index.fullSync();
+
+        assertThat(index.isReady()).isTrue();
+        assertThat(roles(TESTUSER_DN)).containsExactly("ROLE_ADMINISTRATOR", "ROLE_USER");
+        assertThat(roles("UID=Other, OU=users,dc=georchestra,dc=org")).containsExactly("ROLE_USER");
+        assertThat(roles("uid=missing,ou=users,dc=georchestra,dc=org")).isEmpty();
+    }
+
+    @Test
+    void deltaSync_reloads_modified_roles() {
+        stubRoles("(cn=*)", new RoleEntry("USER", List.of(TESTUSER_DN, OTHER_DN)),
+                new RoleEntry("ADMINISTRATOR", List.of(TESTUSER_DN)));
+        index.fullSync();
+
+        stubRoles("(&(cn=*)(modifyTimestamp>=", new RoleEntry("ADMINISTRATOR", List.of(OTHER_DN)),
+                new RoleEntry("GN_EDITOR", List.of(TESTUSER_DN)));
+        index.deltaSync();
+
+        assertThat(roles(TESTUSER_DN)).containsExactly("ROLE_GN_EDITOR", "ROLE_USER");
+        assertThat(roles(OTHER_DN)).containsExactly("ROLE_ADMINISTRATOR", "ROLE_USER");
+    }
+
+    @Test
+    void sync_error_keeps_index() {
+        stubRoles("(cn=*)", new RoleEntry("USER", List.of(TESTUSER_DN)));
+        index.sync();
+        when(mockLdap.search(any(LdapQuery.class), ArgumentMatchers.<AttributesMapper<RoleEntry>>any()))
+                .thenThrow(new IllegalStateException("directory down"));
+
+        index.sync();
+
+        assertThat(roles(TESTUSER_DN)).containsExactly("ROLE_USER");
+    }
+
+    @Test
+    @SuppressWarnings({ "unchecked", "rawtypes" })
+    void populator_falls_back_until_loaded() {
+        LdapAuthoritiesPopulator fallback = mock(LdapAuthoritiesPopulator.class);
+        when(fallback.getGrantedAuthorities(any(), eq("testuser")))
+                .thenReturn((List) AuthorityUtils.createAuthorityList("ROLE_FALLBACK"));
+        DirContextAdapter userData = new DirContextAdapter(TESTUSER_DN);
+        LdapAuthoritiesPopulator populator = index.populator(fallback);
+
+        assertThat(populator.getGrantedAuthorities(userData, "testuser"))
+                .containsExactly(new SimpleGrantedAuthority("ROLE_FALLBACK"));
+
+        stubRoles("(cn=*)", new RoleEntry("USER", List.of(TESTUSER_DN)));
+        index.fullSync();
+        assertThat(populator.getGrantedAuthorities(userData, "testuser"))
+                .containsExactly(new SimpleGrantedAuthority("ROLE_USER"));
+        verify(fallback, times(1)).getGrantedAuthorities(any(), eq("testuser"));
+    }
+
+    @Test
+    void metrics() {
+        SimpleMeterRegistry registry = new SimpleMeterRegistry();
+        index.bindTo(registry);
+        index.findAuthorities(TESTUSER_DN);
+        stubRoles("(cn=*)", new RoleEntry("USER", List.of(TESTUSER_DN, OTHER_DN)));
+        index.sync();
+        index.findAuthorities(TESTUSER_DN);
+
+        assertThat(registry.get("georchestra.gateway.ldap.roles.members").tag("config", "default").gauge().value())
+                .isEqualTo(2);
+        assertThat(registry.get("georchestra.gateway.ldap.roles.lookups").tag("result", "hit").functionCounter()
+                .count()).isEqualTo(1);
+        assertThat(registry.get("georchestra.gateway.ldap.roles.lookups").tag("result", "miss").functionCounter()
+                .count()).isEqualTo(1);
+        assertThat(registry.get("georchestra.gateway.ldap.roles.syncs").tag("type", "full").tag("outcome", "success")
+                .functionCounter().count()).isEqualTo(1);
+    }
+}
@@ -0,0 +1,127 @@
+/*
+ * Copyright (C) 2022 by the geOrchestra PSC
+ *
+ * This file is part of geOrchestra.
+ *
+ * geOrchestra is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free
+ * Software Foundation, either version 3 of the License, or (at your option)
+ * any later version.
+ *
+ * geOrchestra is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * geOrchestra. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.georchestra.gateway.security.ldap.extended;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.util.Map;
+import java.util.Optional;
+
+import javax.naming.NamingEnumeration;
+import javax.naming.directory.DirContext;
+import javax.naming.directory.SearchControls;
+import javax.naming.directory.SearchResult;
+
+import org.georchestra.gateway.model.GatewayConfigProperties;
+import org.georchestra.gateway.model.HeaderMappings;
+import org.georchestra.gateway.model.Service;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.springframework.ldap.core.ContextSource;
+import org.springframework.ldap.core.DirContextOperations;
+import org.springframework.ldap.core.support.AbstractContextMapper;
+
+/**
+ * Test suite for {@link LdapUserAttributes} and {@link ProjectingLdapTemplate}
+ */
+class LdapUserAttributesTest {
+
+    @Test
+    void forHeaders_core_attributes_only() {
+        GatewayConfigProperties config = new GatewayConfigProperties();
+        config.setDefaultHeaders(new HeaderMappings().disableAll());
+        config.getDefaultHeaders().setUsername(Optional.of(true));
+        config.getDefaultHeaders().setRoles(Optional.of(true));
+
+        LdapUserAttributes attributes = LdapUserAttributes.forHeaders(config);
+
+        assertThat(attributes.getRequired()).containsExactlyInAnyOrderElementsOf(LdapUserAttributes.CORE);
+        assertThat(attributes.getRequired()).doesNotContain("jpegPhoto", "description", "telephoneNumber");
+    }
+
+    @Test
+    void forHeaders_union_of_service_headers() {
+        HeaderMappings serviceHeaders = new HeaderMappings();
+        serviceHeaders.setTel(Optional.of(true));
+        Service service = new Service();
+        service.setHeaders(serviceHeaders);
+
+        GatewayConfigProperties config = new GatewayConfigProperties();
+        config.setDefaultHeaders(new HeaderMappings().disableAll());
+        config.getDefaultHeaders().setFirstname(Optional.of(true));
+        config.setServices(Map.of("geoserver", service));
+
+        LdapUserAttributes attributes = LdapUserAttributes.forHeaders(config);
+
+        assertThat(attributes.getRequired()).contains("givenName", "telephoneNumber", "uid")
+                .doesNotContain("sn", "description", "jpegPhoto");
+    }
+
+    @Test
+    void forHeaders_json_user_requires_all_header_attributes() {
+        GatewayConfigProperties config = new GatewayConfigProperties();
+        config.setDefaultHeaders(new HeaderMappings().disableAll().jsonUser(true));
+
+        LdapUserAttributes attributes = LdapUserAttributes.forHeaders(config);
+
+        assertThat(attributes.getRequired()).contains("givenName", "sn", "telephoneNumber", "postalAddress", "title",
+                "description").doesNotContain("jpegPhoto", "userPassword");
+    }
+
+    @Test
+    void project() {
+        GatewayConfigProperties config = new GatewayConfigProperties();
+        config.setDefaultHeaders(new HeaderMappings().disableAll());
+        config.getDefaultHeaders().setTitle(Optional.of(true));
+        LdapUserAttributes attributes = LdapUserAttributes.forHeaders(config);
+
+        assertThat(attributes.project(null)).containsExactlyInAnyOrderElementsOf(attributes.getRequired());
+        assertThat(attributes.project(new String[] { "uid", "JPEGPHOTO", "title", "description", "employeeNumber" }))
+                .containsExactly("uid", "title", "employeeNumber");
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    void projectingLdapTemplate_search() throws Exception {
+        LdapUserAttributes attributes = new LdapUserAttributes(LdapUserAttributes.CORE);
+        ContextSource contextSource = mock(ContextSource.class);
+        DirContext context = mock(DirContext.class);
+        NamingEnumeration<SearchResult> results = mock(NamingEnumeration.class);
+        when(contextSource.getReadOnlyContext()).thenReturn(context);
+        when(context.search(anyString(), anyString(), any(SearchControls.class))).thenReturn(results);
+
+        ProjectingLdapTemplate template = new ProjectingLdapTemplate(contextSource, attributes);
+        template.search("ou=users", "(uid=testuser)", new AbstractContextMapper<String>() {
+            protected @Override String doMapFromContext(DirContextOperations ctx) {
+                return ctx.getStringAttribute("uid");
+            }
+        });
+
+        ArgumentCaptor<SearchControls> controls = ArgumentCaptor.forClass(SearchControls.class);
+        verify(context).search(eq("ou=users"), eq("(uid=testuser)"), controls.capture());
+        assertThat(controls.getValue().getReturningAttributes())
+                .containsExactlyInAnyOrderElementsOf(LdapUserAttributes.CORE);
+    }
+}
@@ -0,0 +1,285 @@
+/*
+ * Copyright (C) 2022 by the geOrchestra PSC
+ *
+ * This file is part of geOrchestra.
+ *
+ * geOrchestra is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free
+ * Software Foundation, either version 3 of the License, or (at your option)
+ * any later version.
+ *
+ * geOrchestra is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * geOrchestra. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.georchestra.gateway.security.ldap.extended;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.georchestra.gateway.security.GeorchestraGatewaySecurityConfigProperties.CacheConfig;
+import org.georchestra.security.api.OrganizationsApi;
+import org.georchestra.security.api.UsersApi;
+import org.georchestra.security.model.GeorchestraUser;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import com.google.common.base.Ticker;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+/**
+ * Test suite for {@link LdapUserCache}
+ */
+class LdapUserCacheTest {
+
+    private UsersApi mockUsers;
+    private DemultiplexingUsersApi demultiplexingUsers;
+    private FakeTicker ticker;
+    private CacheConfig cacheConfig;
+
+    @BeforeEach
+    void before() {
+        mockUsers = mock(UsersApi.class);
+        demultiplexingUsers = new DemultiplexingUsersApi(Map.of("default", mockUsers),
+                Map.of("default", mock(OrganizationsApi.class)));
+        ticker = new FakeTicker();
+        cacheConfig = new CacheConfig().setEnabled(true).setTimeToLive(Duration.ofMinutes(10))
+                .setRefreshAfterWrite(Duration.ofMinutes(1)).setMaximumSize(100);
+    }
+
+    private LdapUserCache cache() {
+        return new LdapUserCache(demultiplexingUsers, Map.of("default", cacheConfig), ticker);
+    }
+
+    private GeorchestraUser user(String username, String lastUpdated, String... roles) {
+        GeorchestraUser user = new GeorchestraUser();
+        user.setUsername(username);
+        user.setLastUpdated(lastUpdated);
+        user.setRoles(new ArrayList<>(List.of(roles)));
+        return user;
+    }
+
+    @Test
+    void findByUsername_hits_directory_once() {
+        when(mockUsers.findByUsername("testuser")).thenReturn(Optional.of(user("testuser", "v1", "USER")));
+        LdapUserCache cache = cache();
+
+        assertThat(cache.findByUsername("default", "testuser")).isPresent();
+        assertThat(cache.findByUsername("default", "testuser")).isPresent();
+
+        verify(mockUsers, times(1)).findByUsername("testuser");
+    }
+
+    @Test
+    void findByUsername_returns_copies() {
+        when(mockUsers.findByUsername("testuser")).thenReturn(Optional.of(user("testuser", "v1", "USER")));
+        LdapUserCache cache = cache();
+
+        ExtendedGeorchestraUser first = cache.findByUsername("default", "testuser").orElseThrow();
+        first.setRoles(new ArrayList<>(List.of("ROLE_USER", "ROLE_ADMINISTRATOR")));
+
+        ExtendedGeorchestraUser second = cache.findByUsername("default", "testuser").orElseThrow();
+        assertThat(second).isNotSameAs(first);
+        assertThat(second.getRoles()).containsExactly("USER");
+    }
+
+    @Test
+    void findByUsername_cache_disabled() {
+        when(mockUsers.findByUsername("testuser")).thenReturn(Optional.of(user("testuser", "v1", "USER")));
+        cacheConfig.setEnabled(false);
+        LdapUserCache cache = cache();
+
+        cache.findByUsername("default", "testuser");
+        cache.findByUsername("default", "testuser");
+
+        verify(mockUsers, times(2)).findByUsername("testuser");
+    }
+
+    @Test
+    void findByUsername_expires_after_time_to_live() {
+        when(mockUsers.findByUsername("testuser")).thenReturn(Optional.of(user("testuser", "v1", "USER")));
+        cacheConfig.setRefreshAfterWrite(Duration.ZERO);
+        LdapUserCache cache = cache();
+
+        cache.findByUsername("default", "testuser");
+        ticker.advance(Duration.ofMinutes(9));
+        cache.findByUsername("default", "testuser");
+        verify(mockUsers, times(1)).findByUsername("testuser");
+
+        ticker.advance(Duration.ofMinutes(2));
+        cache.findByUsername("default", "testuser");
+        verify(mockUsers, times(2)).findByUsername("testuser");
+    }
+
+    @Test
+    void findByUsername_refresh_picks_up_changes() {
+        when(mockUsers.findByUsername("testuser")).thenReturn(Optional.of(user("testuser", "v1", "USER")));
+        LdapUserCache cache = cache();
+        assertThat(cache.findByUsername("default", "testuser").orElseThrow().getRoles()).containsExactly("USER");
+
+        // role membership changes do not modify the user's lastUpdated
+        when(mockUsers.findByUsername("testuser"))
+                .thenReturn(Optional.of(user("testuser", "v1", "USER", "ADMINISTRATOR")));
+        ticker.advance(Duration.ofMinutes(2));
+
+        assertThat(cache.findByUsername("default", "testuser").orElseThrow().getRoles()).containsExactly("USER",
+                "ADMINISTRATOR");
+        verify(mockUsers, times(2)).findByUsername("testuser");
+    }
+
+    @Test
+    void findByUsername_refresh_runs_in_background() {
+        List<Runnable> reloads = new ArrayList<>();
+        LdapUserCache cache = new LdapUserCache(demultiplexingUsers, Map.of("default", cacheConfig), Map.of(), ticker,
+                new LdapCacheReloads(reloads::add));
+        GeorchestraUser v1 = user("testuser", "v1", "USER");
+        v1.setFirstName("Test");
+        when(mockUsers.findByUsername("testuser")).thenReturn(Optional.of(v1));
+        cache.findByUsername("default", "testuser");
+
+        GeorchestraUser v2 = user("testuser", "v2", "USER");
+        v2.setFirstName("Updated");
+        when(mockUsers.findByUsername("testuser")).thenReturn(Optional.of(v2));
+        ticker.advance(Duration.ofMinutes(2));
+
+        // the cached snapshot is served while reloading
+        assertThat(cache.findByUsername("default", "testuser").orElseThrow().getFirstName()).isEqualTo("Test");
+        assertThat(reloads).hasSize(1);
+        verify(mockUsers, times(1)).findByUsername("testuser");
+
+        reloads.forEach(Runnable::run);
+        assertThat(cache.findByUsername("default", "testuser").orElseThrow().getFirstName()).isEqualTo("Updated");
+        verify(mockUsers, times(2)).findByUsername("testuser");
+    }
+
+    @Test
+    void findByUsername_keeps_cached_user_when_reload_pool_is_saturated() {
+        List<Runnable> reloads = new ArrayList<>();
+        boolean[] saturated = { true };
+        LdapUserCache cache = new LdapUserCache(demultiplexingUsers, Map.of("default", cacheConfig), Map.of(), ticker,
+                new LdapCacheReloads(task -> {
+                    if (saturated[0]) {
+                        throw new RejectedExecutionException("saturated");
+                    }
+                    reloads.add(task);
+                }));
+        when(mockUsers.findByUsername("testuser")).thenReturn(Optional.of(user("testuser", "v1", "USER")));
+        cache.findByUsername("default", "testuser");
+
+        when(mockUsers.findByUsername("testuser"))
+                .thenReturn(Optional.of(user("testuser", "v2", "USER", "ADMINISTRATOR")));
+        ticker.advance(Duration.ofMinutes(2));
+        assertThat(cache.findByUsername("default", "testuser").orElseThrow().getRoles()).containsExactly("USER");
+        verify(mockUsers, times(1)).findByUsername("testuser");
+
+        // the skipped reload is attempted again once the pool has room for it
+        saturated[0] = false;
+        ticker.advance(Duration.ofMinutes(2));
+        cache.findByUsername("default", "testuser");
+        assertThat(reloads).hasSize(1);
+        reloads.forEach(Runnable::run);
+        assertThat(cache.findByUsername("default", "testuser").orElseThrow().getRoles()).containsExactly("USER",
+                "ADMINISTRATOR");
+    }
+
+    @Test
+    void findByUsername_propagates_directory_errors() {
+        when(mockUsers.findByUsername("testuser")).thenThrow(new IllegalStateException("ldap down"));
+        LdapUserCache cache = cache();
+
+        IllegalStateException e = assertThrows(IllegalStateException.class,
+                () -> cache.findByUsername("default", "testuser"));
+        assertThat(e).hasMessage("ldap down");
+    }
+
+    @Test
+    void findByUsername_serves_last_known_user_on_directory_errors() {
+        when(mockUsers.findByUsername("testuser")).thenReturn(Optional.of(user("testuser", "v1", "USER")));
+        cacheConfig.setRefreshAfterWrite(Duration.ZERO);
+        CacheConfig staleConfig = new CacheConfig().setEnabled(true).setTimeToLive(Duration.ofHours(1))
+                .setMaximumSize(100);
+        LdapUserCache cache = new LdapUserCache(demultiplexingUsers, Map.of("default", cacheConfig),
+                Map.of("default", staleConfig), ticker);
+        cache.findByUsername("default", "testuser");
+
+        when(mockUsers.findByUsername("testuser")).thenThrow(new IllegalStateException("ldap down"));
+        ticker.advance(Duration.ofMinutes(11));
+        assertThat(cache.findByUsername("default", "testuser").orElseThrow().getRoles()).containsExactly("USER");
+
+        ticker.advance(Duration.ofHours(1));
+        assertThrows(IllegalStateException.class, () -> cache.findByUsername("default", "testuser"));
+    }
+
+    @Test
+    void findByUsername_serves_last_known_user_with_cache_disabled() {
+        when(mockUsers.findByUsername("testuser")).thenReturn(Optional.of(user("testuser", "v1", "USER")));
+        cacheConfig.setEnabled(false);
+        CacheConfig staleConfig = new CacheConfig().setEnabled(true).setTimeToLive(Duration.ofHours(1))
+                .setMaximumSize(100);
+        LdapUserCache cache = new LdapUserCache(demultiplexingUsers, Map.of("default", cacheConfig),
+                Map.of("default", staleConfig), ticker);
+        cache.findByUsername("default", "testuser").orElseThrow().getRoles().add("ADMINISTRATOR");
+
+        when(mockUsers.findByUsername("testuser")).thenThrow(new IllegalStateException("ldap down"));
+        when(mockUsers.findByUsername("unknown")).thenThrow(new IllegalStateException("ldap down"));
+        assertThat(cache.findByUsername("default", "testuser").orElseThrow().getRoles()).containsExactly("USER");
+        assertThrows(IllegalStateException.class, () -> cache.findByUsername("default", "unknown"));
+    }
+
+    @Test
+    void invalidate() {
+        when(mockUsers.findByUsername("testuser")).thenReturn(Optional.of(user("testuser", "v1", "USER")));
+        LdapUserCache cache = cache();
+
+        cache.findByUsername("default", "testuser");
+        cache.invalidate("default", "testuser");
+        cache.findByUsername("default", "testuser");
+
+        verify(mockUsers, times(2)).findByUsername("testuser");
+    }
+
+    @Test
+    void bindTo_registers_cache_metrics() {
+        when(mockUsers.findByUsername("testuser")).thenReturn(Optional.of(user("testuser", "v1", "USER")));
+        LdapUserCache cache = cache();
+        SimpleMeterRegistry registry = new SimpleMeterRegistry();
+        cache.bindTo(registry);
+
+        cache.findByUsername("default", "testuser");
+        cache.findByUsername("default", "testuser");
+
+        assertThat(registry.get("cache.gets").tag("cache", LdapUserCache.CACHE_NAME).tag("config", "default")
+                .tag("result", "hit").functionCounter().count()).isEqualTo(1);
+        assertThat(registry.get("cache.gets").tag("cache", LdapUserCache.CACHE_NAME).tag("config", "default")
+                .tag("result", "miss").functionCounter().count()).isEqualTo(1);
+    }
+
+    private static class FakeTicker extends Ticker {
+        private final AtomicLong nanos = new AtomicLong();
+
+        public @Override long read() {
+            return nanos.get();
+        }
+
+        void advance(Duration duration) {
+            nanos.addAndGet(duration.toNanos());
+        }
+    }
+}
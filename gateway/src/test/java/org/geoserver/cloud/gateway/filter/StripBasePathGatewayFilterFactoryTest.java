@@ -0,0 +1,76 @@
+/*
+ * (c) 2021 Open Source Geospatial Foundation - all rights reserved This code is licensed under the
+ * GPL 2.0 license, available at the root application directory.
+ */
+package org.geoserver.cloud.gateway.filter;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import org.geoserver.cloud.gateway.filter.StripBasePathGatewayFilterFactory.PrefixConfig;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.springframework.cloud.gateway.filter.GatewayFilter;
+import org.springframework.cloud.gateway.filter.GatewayFilterChain;
+import org.springframework.mock.http.server.reactive.MockServerHttpRequest;
+import org.springframework.mock.web.server.MockServerWebExchange;
+import org.springframework.web.server.ServerWebExchange;
+
+import reactor.core.publisher.Mono;
+
+/**
+ * Test suite for {@link StripBasePathGatewayFilterFactory}
+ */
+class StripBasePathGatewayFilterFactoryTest {
+
+    private final StripBasePathGatewayFilterFactory factory = new StripBasePathGatewayFilterFactory();
+
+    @Test
+    void strips_the_base_path() {
+        GatewayFilter filter = filter("/geoserver/cloud");
+
+        assertThat(filter(filter, "/geoserver/cloud/wms")).isEqualTo("/wms");
+        assertThat(filter(filter, "/geoserver/cloud/ows/layers")).isEqualTo("/ows/layers");
+        assertThat(filter(filter, "/geoserver/cloud")).isEqualTo("/cloud");
+        assertThat(filter(filter, "/geoserver/wms")).isEqualTo("/geoserver/wms");
+    }
+
+    @Test
+    void root_base_path() {
+        GatewayFilter filter = filter("/");
+
+        assertThat(filter(filter, "/")).isEqualTo("/");
+        assertThat(filter(filter, "/wms/layers")).isEqualTo("/layers");
+    }
+
+    @Test
+    void no_base_path() {
+        assertThat(filter(filter(null), "/geoserver/wms")).isEqualTo("/geoserver/wms");
+    }
+
+    @Test
+    void checks_the_base_path() {
+        assertThrows(IllegalArgumentException.class, () -> filter("geoserver"));
+        assertThrows(IllegalArgumentException.class, () -> filter("/geoserver/"));
+    }
+
+    private GatewayFilter filter(String prefix) {
+        PrefixConfig config = new PrefixConfig();
+        config.setPrefix(prefix);
+        return factory.apply(config);
+    }
+
+    private String filter(GatewayFilter filter, String path) {
+        GatewayFilterChain chain = mock(GatewayFilterChain.class);
+        when(chain.filter(any())).thenReturn(Mono.empty());
+        filter.filter(MockServerWebExchange.from(MockServerHttpRequest.get(path).build()), chain).block();
+
+        ArgumentCaptor<ServerWebExchange> filtered = ArgumentCaptor.forClass(ServerWebExchange.class);
+        verify(chain).filter(filtered.capture());
+        return filtered.getValue().getRequest().getURI().getRawPath();
+    }
+}
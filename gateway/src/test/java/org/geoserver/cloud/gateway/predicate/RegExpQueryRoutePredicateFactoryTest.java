@@ -0,0 +1,90 @@
+/*
+ * (c) 2020 Open Source Geospatial Foundation - all rights reserved This code is licensed under the
+ * GPL 2.0 license, available at the root application directory.
+ */
+package org.geoserver.cloud.gateway.predicate;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.util.function.Predicate;
+
+import org.geoserver.cloud.gateway.predicate.RegExpQueryRoutePredicateFactory.Config;
+import org.junit.jupiter.api.Test;
+import org.springframework.mock.http.server.reactive.MockServerHttpRequest;
+import org.springframework.mock.web.server.MockServerWebExchange;
+import org.springframework.web.server.ServerWebExchange;
+
+/**
+ * Test suite for {@link RegExpQueryRoutePredicateFactory}
+ */
+class RegExpQueryRoutePredicateFactoryTest {
+
+    private final RegExpQueryRoutePredicateFactory factory = new RegExpQueryRoutePredicateFactory();
+
+    @Test
+    void case_insensitive_literals() {
+        Predicate<ServerWebExchange> wfs = factory
+                .apply(new Config().setParamRegexp("(?i:service)").setValueRegexp("(?i:wfs)"));
+
+        assertThat(wfs.test(exchange("/ows?SERVICE=WFS&request=GetCapabilities"))).isTrue();
+        assertThat(wfs.test(exchange("/ows?request=GetFeature&Service=wfs"))).isTrue();
+        assertThat(wfs.test(exchange("/ows?service=WMS&request=GetCapabilities"))).isFalse();
+        assertThat(wfs.test(exchange("/ows?service=WFS2"))).isFalse();
+        assertThat(wfs.test(exchange("/ows?services=WFS"))).isFalse();
+        assertThat(wfs.test(exchange("/ows?service"))).isFalse();
+        assertThat(wfs.test(exchange("/ows"))).isFalse();
+    }
+
+    @Test
+    void case_sensitive_literals() {
+        Predicate<ServerWebExchange> wms = factory.apply(new Config().setParamRegexp("service").setValueRegexp("WMS"));
+
+        assertThat(wms.test(exchange("/ows?service=WMS"))).isTrue();
+        assertThat(wms.test(exchange("/ows?SERVICE=WMS"))).isFalse();
+        assertThat(wms.test(exchange("/ows?service=wms"))).isFalse();
+    }
+
+    @Test
+    void regular_expressions() {
+        Predicate<ServerWebExchange> wmts = factory
+                .apply(new Config().setParamRegexp("(?i)(service|srv)").setValueRegexp("(?i)wmts|wms-c"));
+
+        for (int i = 0; i < 2; i++) {
+            assertThat(wmts.test(exchange("/ows?Service=WMTS"))).isTrue();
+            assertThat(wmts.test(exchange("/ows?srv=wms-c"))).isTrue();
+            assertThat(wmts.test(exchange("/ows?service=WMS"))).isFalse();
+            assertThat(wmts.test(exchange("/ows?services=WMTS"))).isFalse();
+        }
+    }
+
+    @Test
+    void parameter_name_only() {
+        Predicate<ServerWebExchange> login = factory.apply(new Config().setParamRegexp("(?i:login)"));
+
+        assertThat(login.test(exchange("/?LOGIN"))).isTrue();
+        assertThat(login.test(exchange("/?login=true"))).isTrue();
+        assertThat(login.test(exchange("/?logout"))).isFalse();
+    }
+
+    @Test
+    void value_of_the_first_matching_parameter() {
+        Predicate<ServerWebExchange> wfs = factory
+                .apply(new Config().setParamRegexp("(?i)service|typename").setValueRegexp("(?i:wfs)"));
+
+        assertThat(wfs.test(exchange("/ows?service=WFS&typeName=topp:states"))).isTrue();
+        assertThat(wfs.test(exchange("/ows?typeName=topp:states&service=WFS"))).isFalse();
+    }
+
+    @Test
+    void literal_matcher_folds_ascii_letters_only() {
+        Predicate<String> service = RegExpQueryRoutePredicateFactory.matcher("(?i)service");
+
+        assertThat(service.test("SERVICE")).isTrue();
+        assertThat(service.test("\u017Fervice")).isFalse();
+        assertThat(RegExpQueryRoutePredicateFactory.matcher("(?i)s-1_x").test("S-1_X")).isTrue();
+    }
+
+    private static ServerWebExchange exchange(String uri) {
+        return MockServerWebExchange.from(MockServerHttpRequest.get(uri).build());
+    }
+}